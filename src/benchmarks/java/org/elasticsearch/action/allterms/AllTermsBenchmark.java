@@ -0,0 +1,151 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.action.allterms;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.CharsRefBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures term enumeration of the all_terms shard action over a multi segment index. Run with the gc profiler to see the
+ * allocation rate per term:
+ *
+ * gradle jmh -Pjmh.args="AllTermsBenchmark -prof gc"
+ *
+ * {@link #merge} only walks the merged terms. {@link #getTermsAsStrings} is the baseline for {@link #getTerms}: it collects
+ * the terms the way the shard action did before the terms were front coded, decoding each one through a CharsRefBuilder
+ * into a List of Strings. It runs on the current {@link MergedTermsIterator}, which copies every term into its own buffer,
+ * while the old iterator returned the bytes of the segment enums without a copy, so the baseline includes that copy and
+ * slightly overstates the old cost of the merge itself.
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class AllTermsBenchmark {
+
+    private static final String FIELD = "field";
+
+    @Param({"10", "40"})
+    public int numSegments;
+
+    @Param({"100000"})
+    public int numTerms;
+
+    private Directory dir;
+    private DirectoryReader reader;
+    private AllTermsShardRequest request;
+
+    @Setup(Level.Trial)
+    public void createIndex() throws IOException {
+        dir = new RAMDirectory();
+        IndexWriterConfig indexWriterConfig = new IndexWriterConfig(new WhitespaceAnalyzer());
+        indexWriterConfig.setMergePolicy(NoMergePolicy.INSTANCE);
+        Random random = new Random(0);
+        try (IndexWriter w = new IndexWriter(dir, indexWriterConfig)) {
+            int docsPerSegment = 100;
+            for (int segment = 0; segment < numSegments; segment++) {
+                for (int doc = 0; doc < docsPerSegment; doc++) {
+                    StringBuilder text = new StringBuilder();
+                    for (int i = 0; i < 20; i++) {
+                        text.append("term_").append(random.nextInt(numTerms)).append(' ');
+                    }
+                    Document d = new Document();
+                    d.add(new TextField(FIELD, text.toString(), Field.Store.NO));
+                    w.addDocument(d);
+                }
+                w.commit();
+            }
+        }
+        reader = DirectoryReader.open(dir);
+        request = new AllTermsShardRequest(new AllTermsRequest(), "index", 0, FIELD, Integer.MAX_VALUE, null, 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void closeIndex() throws IOException {
+        reader.close();
+        dir.close();
+    }
+
+    @Benchmark
+    public FrontCodedTerms getTerms() throws IOException {
+        FrontCodedTerms.Builder terms = new FrontCodedTerms.Builder();
+        TransportAllTermsShardAction.getTerms(request, terms, null, null, reader.leaves());
+        return terms.build();
+    }
+
+    @Benchmark
+    public List<String> getTermsAsStrings() throws IOException {
+        List<String> terms = new ArrayList<>();
+        List<TermsEnum> termsEnums = TransportAllTermsShardAction.getTermsEnums(request, reader.leaves());
+        MergedTermsIterator mergedTerms = new MergedTermsIterator(termsEnums, null);
+        CharsRefBuilder spare = new CharsRefBuilder();
+        BytesRef term;
+        while (terms.size() < request.size() && (term = mergedTerms.next()) != null) {
+            if (mergedTerms.docFreq() >= request.minDocFreq()) {
+                spare.copyUTF8Bytes(term);
+                terms.add(spare.toString());
+            }
+        }
+        return terms;
+    }
+
+    @Benchmark
+    public void merge(Blackhole blackhole) throws IOException {
+        List<TermsEnum> termsEnums = TransportAllTermsShardAction.getTermsEnums(request, reader.leaves());
+        MergedTermsIterator mergedTerms = new MergedTermsIterator(termsEnums, null);
+        BytesRef term;
+        while ((term = mergedTerms.next()) != null) {
+            blackhole.consume(term);
+        }
+    }
+}
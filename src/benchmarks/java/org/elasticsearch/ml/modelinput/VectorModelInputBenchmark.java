@@ -0,0 +1,231 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.ml.modelinput;
+
+import org.dmg.pmml.DataField;
+import org.dmg.pmml.DataType;
+import org.dmg.pmml.DerivedField;
+import org.dmg.pmml.FieldName;
+import org.dmg.pmml.MiningField;
+import org.dmg.pmml.OpType;
+import org.elasticsearch.common.collect.Tuple;
+import org.elasticsearch.ml.models.EsLogisticRegressionModel;
+import org.elasticsearch.ml.models.EsNaiveBayesModelWithMixedInput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Measures the conversion of documents to sparse model inputs and their scoring with a logistic regression and a naive bayes
+ * model. Run with the gc profiler to see the allocation rate per document:
+ *
+ * gradle jmh -Pjmh.args="VectorModelInputBenchmark -prof gc"
+ *
+ * The reuse benchmarks convert into the input of the previous document like the pmml_model script does, the fresh benchmarks
+ * allocate a new input per document.
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class VectorModelInputBenchmark {
+
+    @Param({"10"})
+    public int numCategoricalFields;
+
+    @Param({"5"})
+    public int numContinuousFields;
+
+    @Param({"20"})
+    public int numCategories;
+
+    private VectorModelInputEvaluator evaluator;
+    private EsLogisticRegressionModel glm;
+    private EsNaiveBayesModelWithMixedInput naiveBayes;
+    private DocumentsDataSource dataSource;
+    private SparseVectorModelInput reuse;
+
+    @Setup(Level.Trial)
+    public void createModels() {
+        Random random = new Random(0);
+        List<VectorRange> ranges = new ArrayList<>();
+        List<Map<String, List<Object>>> documents = new ArrayList<>();
+        for (int doc = 0; doc < 1024; doc++) {
+            documents.add(new HashMap<>());
+        }
+        int index = 0;
+        for (int field = 0; field < numCategoricalFields; field++) {
+            String name = "categorical_" + field;
+            PMMLVectorRange.SparseCategoricalVectorRange range = new PMMLVectorRange.SparseCategoricalVectorRange(
+                    dataField(name, DataType.STRING, OpType.CATEGORICAL), miningField(name), new DerivedField[0]);
+            for (int category = 0; category < numCategories; category++) {
+                range.addVectorEntry(index++, "category_" + category);
+            }
+            ranges.add(range);
+            for (Map<String, List<Object>> document : documents) {
+                document.put(name, Collections.singletonList("category_" + random.nextInt(numCategories)));
+            }
+        }
+        for (int field = 0; field < numContinuousFields; field++) {
+            String name = "continuous_" + field;
+            PMMLVectorRange range = new PMMLVectorRange.ContinousSingleEntryVectorRange(dataField(name, DataType.DOUBLE,
+                    OpType.CONTINUOUS), miningField(name));
+            range.addVectorEntry(index++, "dummyValue");
+            ranges.add(range);
+            for (Map<String, List<Object>> document : documents) {
+                document.put(name, Collections.singletonList(random.nextDouble()));
+            }
+        }
+        PMMLVectorRange intercept = new PMMLVectorRange.Intercept("intercept", "double");
+        intercept.addVectorEntry(index++, "intercept");
+        ranges.add(intercept);
+
+        evaluator = new VectorModelInputEvaluator(ranges);
+        double[] coefficients = new double[index];
+        DoubleUnaryOperator[][] functions = new DoubleUnaryOperator[2][index];
+        for (int i = 0; i < index; i++) {
+            coefficients[i] = random.nextGaussian();
+            for (int c = 0; c < functions.length; c++) {
+                functions[c][i] = i < numCategoricalFields * numCategories
+                        ? new EsNaiveBayesModelWithMixedInput.ProbFunction(random.nextDouble(), 0.001)
+                        : new EsNaiveBayesModelWithMixedInput.GaussFunction(1 + random.nextDouble(), random.nextDouble());
+            }
+        }
+        glm = new EsLogisticRegressionModel(coefficients, 0.5, new String[]{"yes", "no"});
+        naiveBayes = new EsNaiveBayesModelWithMixedInput(new String[]{"yes", "no"}, functions, new double[]{Math.log(0.3),
+                Math.log(0.7)});
+        dataSource = new DocumentsDataSource(documents);
+        reuse = new SparseVectorModelInput();
+    }
+
+    @Benchmark
+    public String glmFreshInput() {
+        return glm.evaluate(evaluator.convert(dataSource.next()));
+    }
+
+    @Benchmark
+    public String glmReusedInput() {
+        return glm.evaluate(evaluator.convert(dataSource.next(), reuse));
+    }
+
+    @Benchmark
+    public String naiveBayesFreshInput() {
+        return naiveBayes.evaluate(evaluator.convert(dataSource.next()));
+    }
+
+    @Benchmark
+    public String naiveBayesReusedInput() {
+        return naiveBayes.evaluate(evaluator.convert(dataSource.next(), reuse));
+    }
+
+    private static DataField dataField(String name, DataType dataType, OpType opType) {
+        DataField field = new DataField();
+        field.setName(new FieldName(name));
+        field.setDataType(dataType);
+        field.setOpType(opType);
+        return field;
+    }
+
+    private static MiningField miningField(String name) {
+        MiningField field = new MiningField();
+        field.setName(new FieldName(name));
+        return field;
+    }
+
+    /**
+     * Cycles through prepared documents, the field values are created up front so that only the conversion allocates.
+     */
+    private static final class DocumentsDataSource implements DataSource {
+
+        private final List<Map<String, List<Object>>> documents;
+        private Map<String, List<Object>> current;
+        private int doc;
+
+        DocumentsDataSource(List<Map<String, List<Object>>> documents) {
+            this.documents = documents;
+        }
+
+        DocumentsDataSource next() {
+            current = documents.get(doc++ & (documents.size() - 1));
+            return this;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public <T> List<T> getValues(String field) {
+            return (List<T>) current.get(field);
+        }
+
+        @Override
+        public double[] getOccurrenceDense(String[] terms, String field) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public double[] getTfIdfDense(String[] terms, String field) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public double[] getTfDense(String[] terms, String field) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public double[] getBM25Dense(String[] terms, String field, float k1, float b) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Tuple<int[], double[]> getTfIdfSparse(TermDictionary dictionary, String field) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Tuple<int[], double[]> getTfSparse(TermDictionary dictionary, String field) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Tuple<int[], double[]> getBM25Sparse(TermDictionary dictionary, String field, float k1, float b) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.ml.models;
+
+import org.elasticsearch.ml.modelinput.MapModelInput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the evaluation of a complete binary tree of numeric splits, like the trees of a random forest, by the interpreter
+ * of {@link FlatTree} and by its compiled method handles, and of a forest of such trees by {@link EsForestModel}:
+ *
+ * gradle jmh -Pjmh.args="TreeModelBenchmark"
+ *
+ * The rows of the single trees are read up front so that only the evaluation is measured, the forest reads the row of each
+ * document like a script does.
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class TreeModelBenchmark {
+
+    @Param({"8"})
+    public int depth;
+
+    @Param({"20"})
+    public int numFields;
+
+    @Param({"100"})
+    public int numTrees;
+
+    private FlatTree interpreted;
+    private FlatTree compiled;
+    private EsForestModel forest;
+    private FlatTree.Row[] rows;
+    private MapModelInput[] inputs;
+    private int row;
+
+    @Setup(Level.Trial)
+    public void createTrees() {
+        interpreted = tree(new Random(0), new FlatTree.Builder().maxCompiledSize(0));
+        compiled = tree(new Random(0), new FlatTree.Builder().maxCompiledSize(Integer.MAX_VALUE));
+        Random random = new Random(1);
+        double[] weights = new double[numTrees];
+        Arrays.fill(weights, 1.0);
+        forest = new EsForestModel(forest(new Random(0), new FlatTree.Builder()), EsForestModel.Aggregation.MAJORITY_VOTE, weights);
+        Random random = new Random(1);
+        rows = new FlatTree.Row[1024];
+        inputs = new MapModelInput[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            Map<String, Object> vector = new HashMap<>();
+            for (int field = 0; field < numFields; field++) {
+                vector.put("field_" + field, random.nextDouble());
+            }
+            rows[i] = compiled.row(vector);
+            inputs[i] = new MapModelInput(vector);
+        }
+    }
+
+    private FlatTree tree(Random random, FlatTree.Builder builder) {
+        for (int field = 0; field < numFields; field++) {
+            builder.slot("field_" + field, false);
+        }
+        addNode(random, builder, builder.addNodes(1), builder.constantPredicate(true), 0);
+        return builder.build();
+    }
+
+    private FlatTree forest(Random random, FlatTree.Builder builder) {
+        for (int field = 0; field < numFields; field++) {
+            builder.slot("field_" + field, false);
+        }
+        for (int tree = 0; tree < numTrees; tree++) {
+            addNode(random, builder, builder.addTree(), builder.constantPredicate(true), 0);
+        }
+        return builder.build();
+    }
+
+    private void addNode(Random random, FlatTree.Builder builder, int node, int predicate, int level) {
+        String score = "class_" + random.nextInt(2);
+        if (level == depth) {
+            builder.setNode(node, predicate, score, -1, 0);
+            return;
+        }
+        int firstChild = builder.addNodes(2);
+        builder.setNode(node, predicate, score, firstChild, 2);
+        int slot = random.nextInt(numFields);
+        double threshold = random.nextDouble();
+        addNode(random, builder, firstChild, builder.simplePredicate(FlatTree.LESS_OR_EQUAL, slot, threshold), level + 1);
+        addNode(random, builder, firstChild + 1, builder.simplePredicate(FlatTree.GREATER_THAN, slot, threshold), level + 1);
+    }
+
+    @Benchmark
+    public int interpreted() {
+        return interpreted.evaluate(rows[row++ & (rows.length - 1)]);
+    }
+
+    @Benchmark
+    public int compiled() {
+        return compiled.evaluate(rows[row++ & (rows.length - 1)]);
+    }
+
+    @Benchmark
+    public Object forest() {
+        return forest.evaluate(inputs[row++ & (inputs.length - 1)]);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.action.allterms;
+
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * The opaque cursor that is handed to the client between pages of an all_terms request. It contains the last term that was
+ * returned and for every shard that still has terms the node and the id of the shard level context.
+ */
+class AllTermsCursor {
+
+    private final String lastTerm;
+    private final List<ShardContext> shardContexts;
+
+    AllTermsCursor(@Nullable String lastTerm, List<ShardContext> shardContexts) {
+        this.lastTerm = lastTerm;
+        this.shardContexts = shardContexts;
+    }
+
+    @Nullable
+    String lastTerm() {
+        return lastTerm;
+    }
+
+    List<ShardContext> shardContexts() {
+        return shardContexts;
+    }
+
+    String encode() {
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            out.writeOptionalString(lastTerm);
+            out.writeVInt(shardContexts.size());
+            for (ShardContext shardContext : shardContexts) {
+                out.writeVInt(shardContext.shardId);
+                out.writeString(shardContext.nodeId);
+                out.writeLong(shardContext.contextId);
+            }
+            return Base64.getUrlEncoder().encodeToString(BytesReference.toBytes(out.bytes()));
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to encode all_terms cursor", e);
+        }
+    }
+
+    static AllTermsCursor decode(String cursor) {
+        try (StreamInput in = StreamInput.wrap(Base64.getUrlDecoder().decode(cursor))) {
+            String lastTerm = in.readOptionalString();
+            int numShards = in.readVInt();
+            List<ShardContext> shardContexts = new ArrayList<>(numShards);
+            for (int i = 0; i < numShards; i++) {
+                shardContexts.add(new ShardContext(in.readVInt(), in.readString(), in.readLong()));
+            }
+            return new AllTermsCursor(lastTerm, shardContexts);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("failed to decode all_terms cursor [" + cursor + "]", e);
+        }
+    }
+
+    static class ShardContext {
+        final int shardId;
+        final String nodeId;
+        final long contextId;
+
+        ShardContext(int shardId, String nodeId, long contextId) {
+            this.shardId = shardId;
+            this.nodeId = nodeId;
+            this.contextId = contextId;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.action.allterms;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefArray;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.Counter;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.lease.Releasable;
+import org.elasticsearch.common.lease.Releasables;
+import org.elasticsearch.common.util.concurrent.AbstractRefCounted;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shard level state of an all_terms cursor. Holds the point in time searcher and the merged terms enum positioned on the last
+ * term that was sent to the coordinating node, so that the next page does not have to re-seek all segments.
+ * <p>
+ * The coordinating node might not use all terms that a shard sends for a page, for example if another shard had smaller terms.
+ * Terms are therefore buffered until a later request shows that the coordinating node returned them, and the buffered terms
+ * that are greater than the last term the coordinating node returned are sent again with the next page.
+ * <p>
+ * The searcher is released once the context was freed and the requests that read a page from it are done, the cursor service
+ * holds one reference and every request that reads a page holds another one.
+ */
+class AllTermsCursorContext extends AbstractRefCounted {
+
+    private final long id;
+    private final Releasable searcher;
+    private final MergedTermsIterator mergedTerms;
+    private BytesRefArray buffered = new BytesRefArray(Counter.newCounter());
+    // the statistics of the buffered terms
+    private long[] bufferedDocFreqs = new long[16];
+    private long[] bufferedTotalTermFreqs = new long[16];
+    private final BytesRefBuilder spare = new BytesRefBuilder();
+    private volatile long keepAliveNanos;
+    private volatile long lastAccessNanos;
+    // a context that a request is reading from does not expire
+    private volatile boolean inUse;
+
+    AllTermsCursorContext(long id, Releasable searcher, MergedTermsIterator mergedTerms, long keepAliveMillis) {
+        super("all_terms_cursor_context");
+        this.id = id;
+        this.searcher = searcher;
+        this.mergedTerms = mergedTerms;
+        keepAlive(keepAliveMillis);
+    }
+
+    long id() {
+        return id;
+    }
+
+    /**
+     * Returns the next size terms that are greater than from and have at least minDocFreq.
+     *
+     * @param from  the last term the coordinating node returned or null if nothing was returned yet
+     * @param stats  if not null, the statistics of the returned terms are added to it
+     * @param budget if not null, reading terms stops when the budget is used up and fewer terms are returned
+     */
+    synchronized FrontCodedTerms nextPage(@Nullable String from, long size, long minDocFreq, @Nullable TermStatsBuilder stats,
+                                          @Nullable TermsCollectionBudget budget) throws IOException {
+        int consumed = 0;
+        if (from != null) {
+            BytesRef fromBytes = new BytesRef(from);
+            while (consumed < buffered.size() && buffered.get(spare, consumed).compareTo(fromBytes) <= 0) {
+                consumed++;
+            }
+        }
+        BytesRefArray remaining = new BytesRefArray(Counter.newCounter());
+        for (int i = consumed; i < buffered.size(); i++) {
+            remaining.append(buffered.get(spare, i));
+        }
+        System.arraycopy(bufferedDocFreqs, consumed, bufferedDocFreqs, 0, remaining.size());
+        System.arraycopy(bufferedTotalTermFreqs, consumed, bufferedTotalTermFreqs, 0, remaining.size());
+        buffered = remaining;
+        BytesRef term;
+        mergedTerms.budget(budget);
+        while (buffered.size() < size && (term = mergedTerms.next()) != null) {
+            if (mergedTerms.docFreq() >= minDocFreq) {
+                bufferedDocFreqs = ArrayUtil.grow(bufferedDocFreqs, buffered.size() + 1);
+                bufferedTotalTermFreqs = ArrayUtil.grow(bufferedTotalTermFreqs, bufferedDocFreqs.length);
+                bufferedDocFreqs[buffered.size()] = mergedTerms.docFreq();
+                bufferedTotalTermFreqs[buffered.size()] = mergedTerms.totalTermFreq();
+                buffered.append(term);
+            }
+        }
+        mergedTerms.budget(null);
+        FrontCodedTerms.Builder page = new FrontCodedTerms.Builder();
+        for (int i = 0; i < buffered.size() && i < size; i++) {
+            page.add(buffered.get(spare, i));
+            if (stats != null) {
+                stats.add(bufferedDocFreqs[i], bufferedTotalTermFreqs[i]);
+            }
+        }
+        return page.build();
+    }
+
+    /**
+     * Marks the context as used by a request until the request sets the next keep alive.
+     */
+    void markInUse() {
+        this.inUse = true;
+        this.lastAccessNanos = System.nanoTime();
+    }
+
+    void keepAlive(long keepAliveMillis) {
+        this.keepAliveNanos = TimeUnit.MILLISECONDS.toNanos(keepAliveMillis);
+        this.lastAccessNanos = System.nanoTime();
+        this.inUse = false;
+    }
+
+    boolean isExpired(long nowNanos) {
+        return inUse == false && nowNanos - lastAccessNanos > keepAliveNanos;
+    }
+
+    @Override
+    protected void closeInternal() {
+        Releasables.close(searcher);
+    }
+}
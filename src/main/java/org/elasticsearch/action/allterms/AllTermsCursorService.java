@@ -0,0 +1,145 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.action.allterms;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ResourceNotFoundException;
+import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.lease.Releasable;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the shard level contexts of open all_terms cursors on this node and frees them once their keep alive expired.
+ */
+public class AllTermsCursorService extends AbstractLifecycleComponent {
+
+    public static final Setting<TimeValue> KEEPALIVE_INTERVAL_SETTING = Setting.positiveTimeSetting(
+            "all_terms.cursor.keep_alive_interval", TimeValue.timeValueMinutes(1), Setting.Property.NodeScope);
+
+    /**
+     * Every open context holds a searcher and with it the segments it reads, so their number is limited per node.
+     */
+    public static final Setting<Integer> MAX_OPEN_CONTEXTS_SETTING = Setting.intSetting("all_terms.cursor.max_open_contexts", 500,
+            0, Setting.Property.NodeScope);
+
+    private final ThreadPool threadPool;
+    private final TimeValue keepAliveInterval;
+    private final int maxOpenContexts;
+    private final AtomicLong idGenerator = new AtomicLong();
+    private final AtomicInteger openContexts = new AtomicInteger();
+    private final ConcurrentMap<Long, AllTermsCursorContext> activeContexts =
+            ConcurrentCollections.newConcurrentMapLongWithAggressiveConcurrency();
+
+    public AllTermsCursorService(Settings settings, ThreadPool threadPool) {
+        super(settings);
+        this.threadPool = threadPool;
+        this.keepAliveInterval = KEEPALIVE_INTERVAL_SETTING.get(settings);
+        this.maxOpenContexts = MAX_OPEN_CONTEXTS_SETTING.get(settings);
+    }
+
+    /**
+     * Opens a context that is in use by the calling request, which has to release it with
+     * {@link AllTermsCursorContext#decRef()} once it read its page.
+     */
+    AllTermsCursorContext createContext(Releasable searcher, MergedTermsIterator mergedTerms, TimeValue keepAlive) {
+        if (openContexts.incrementAndGet() > maxOpenContexts) {
+            openContexts.decrementAndGet();
+            throw new ElasticsearchException("Trying to create too many all_terms cursor contexts. Must be less than or equal to: ["
+                    + maxOpenContexts + "]. This limit can be set by changing the [" + MAX_OPEN_CONTEXTS_SETTING.getKey() + "] setting.");
+        }
+        AllTermsCursorContext context = new AllTermsCursorContext(idGenerator.incrementAndGet(), searcher, mergedTerms,
+                keepAlive.millis());
+        context.incRef();
+        context.markInUse();
+        activeContexts.put(context.id(), context);
+        return context;
+    }
+
+    /**
+     * Returns the context marked as in use by the calling request, which has to release it with
+     * {@link AllTermsCursorContext#decRef()} once it read its page.
+     */
+    AllTermsCursorContext getContext(long id) {
+        AllTermsCursorContext context = activeContexts.get(id);
+        // the context might have been freed since it was looked up
+        if (context == null || context.tryIncRef() == false) {
+            throw new ResourceNotFoundException("no all_terms cursor context found for id [{}], it might have expired", id);
+        }
+        context.markInUse();
+        return context;
+    }
+
+    /**
+     * Removes the context, its searcher is released once the requests that still read from it are done.
+     */
+    void freeContext(long id) {
+        AllTermsCursorContext context = activeContexts.remove(id);
+        if (context != null) {
+            openContexts.decrementAndGet();
+            context.decRef();
+        }
+    }
+
+    int activeContexts() {
+        return activeContexts.size();
+    }
+
+    @Override
+    protected void doStart() {
+        scheduleReaper();
+    }
+
+    @Override
+    protected void doStop() {
+        for (Long id : activeContexts.keySet()) {
+            freeContext(id);
+        }
+    }
+
+    @Override
+    protected void doClose() {
+        doStop();
+    }
+
+    private void scheduleReaper() {
+        threadPool.schedule(keepAliveInterval, ThreadPool.Names.GENERIC, this::reap);
+    }
+
+    private void reap() {
+        long now = System.nanoTime();
+        for (AllTermsCursorContext context : activeContexts.values()) {
+            if (context.isExpired(now)) {
+                logger.debug("freeing all_terms cursor context [{}] because its keep alive expired", context.id());
+                freeContext(context.id());
+            }
+        }
+        if (lifecycle.started()) {
+            scheduleReaper();
+        }
+    }
+}
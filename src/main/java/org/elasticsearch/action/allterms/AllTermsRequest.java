@@ -19,22 +19,67 @@
 
 package org.elasticsearch.action.allterms;
 
+import org.apache.lucene.util.automaton.RegExp;
 import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.ActionRequestValidationException;
 import org.elasticsearch.action.ValidateActions;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.tasks.TaskId;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
 
 public class AllTermsRequest extends ActionRequest<AllTermsRequest> {
 
+    /**
+     * The order of the returned terms.
+     */
+    public enum Sort {
+        /**
+         * All terms in lexicographic order.
+         */
+        TERM,
+        /**
+         * The most frequent terms, the highest document frequency first.
+         */
+        DOC_FREQ;
+
+        @Override
+        public String toString() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        public static Sort fromString(String s) {
+            for (Sort sort : values()) {
+                if (sort.toString().equals(s)) {
+                    return sort;
+                }
+            }
+            throw new IllegalArgumentException("unknown sort [" + s + "], must be one of " + Arrays.toString(values()));
+        }
+    }
+
     String preference;
     private String field;
     private String index;
     private int size;
     private String from;
     private long minDocFreq;
+    private TimeValue scroll;
+    private String cursor;
+    private int parallelism = 1;
+    private String prefix;
+    private String include;
+    private int minLength = 0;
+    private int maxLength = -1;
+    private Sort sort = Sort.TERM;
+    private int shardSize = -1;
+    private boolean termStatistics = false;
+    private TimeValue timeout;
 
     @Override
     public ActionRequestValidationException validate() {
@@ -42,6 +87,32 @@ public class AllTermsRequest extends ActionRequest<AllTermsRequest> {
         if (field == null) {
             validationException = ValidateActions.addValidationError("all terms request need a field name", validationException);
         }
+        if (parallelism < 1) {
+            validationException = ValidateActions.addValidationError("parallelism must be at least 1", validationException);
+        }
+        if (include != null) {
+            try {
+                new RegExp(include);
+            } catch (IllegalArgumentException e) {
+                validationException = ValidateActions.addValidationError("invalid include regular expression [" + include + "]: " +
+                        e.getMessage(), validationException);
+            }
+        }
+        if (minLength < 0) {
+            validationException = ValidateActions.addValidationError("min_length must not be negative", validationException);
+        }
+        if (maxLength >= 0 && maxLength < minLength) {
+            validationException = ValidateActions.addValidationError("max_length must not be smaller than min_length",
+                    validationException);
+        }
+        if (sort == Sort.DOC_FREQ && (scroll != null || cursor != null)) {
+            validationException = ValidateActions.addValidationError("sort [" + sort + "] cannot be combined with a cursor",
+                    validationException);
+        }
+        if (cursor != null && from != null) {
+            validationException = ValidateActions.addValidationError("all terms request cannot have both a cursor and from",
+                    validationException);
+        }
         return validationException;
     }
 
@@ -54,7 +125,17 @@ public class AllTermsRequest extends ActionRequest<AllTermsRequest> {
         size = in.readInt();
         from = in.readOptionalString();
         minDocFreq = in.readLong();
-
+        scroll = in.readOptionalWriteable(TimeValue::new);
+        cursor = in.readOptionalString();
+        parallelism = in.readVInt();
+        prefix = in.readOptionalString();
+        include = in.readOptionalString();
+        minLength = in.readVInt();
+        maxLength = in.readInt();
+        sort = Sort.values()[in.readVInt()];
+        shardSize = in.readInt();
+        termStatistics = in.readBoolean();
+        timeout = in.readOptionalWriteable(TimeValue::new);
     }
 
     @Override
@@ -66,6 +147,27 @@ public class AllTermsRequest extends ActionRequest<AllTermsRequest> {
         out.writeInt(size);
         out.writeOptionalString(from);
         out.writeLong(minDocFreq);
+        out.writeOptionalWriteable(scroll);
+        out.writeOptionalString(cursor);
+        out.writeVInt(parallelism);
+        out.writeOptionalString(prefix);
+        out.writeOptionalString(include);
+        out.writeVInt(minLength);
+        out.writeInt(maxLength);
+        out.writeVInt(sort.ordinal());
+        out.writeInt(shardSize);
+        out.writeBoolean(termStatistics);
+        out.writeOptionalWriteable(timeout);
+    }
+
+    @Override
+    public Task createTask(long id, String type, String action, TaskId parentTaskId) {
+        return new AllTermsTask(id, type, action, getDescription(), parentTaskId);
+    }
+
+    @Override
+    public String getDescription() {
+        return "all_terms [" + index + "], field [" + field + "]";
     }
 
     public void field(String field) {
@@ -108,4 +210,133 @@ public class AllTermsRequest extends ActionRequest<AllTermsRequest> {
     public long minDocFreq() {
         return minDocFreq;
     }
+
+    /**
+     * If set, the shards keep their position in the terms dictionary for this long and the response contains a cursor
+     * to fetch the next page with.
+     */
+    public void scroll(TimeValue scroll) {
+        this.scroll = scroll;
+    }
+
+    public TimeValue scroll() {
+        return scroll;
+    }
+
+    /**
+     * Continue with the page after the one that returned this cursor. If {@link #scroll()} is not set on the request the
+     * cursor is released after this page.
+     */
+    public void cursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    public String cursor() {
+        return cursor;
+    }
+
+    /**
+     * The number of threads that collect the terms of the segments of a shard concurrently. Requests with
+     * {@link #scroll()} always collect the terms of a shard on a single thread.
+     */
+    public void parallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public int parallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Only return terms that start with this prefix.
+     */
+    public void prefix(String prefix) {
+        this.prefix = prefix;
+    }
+
+    public String prefix() {
+        return prefix;
+    }
+
+    /**
+     * Only return terms that match this regular expression (Lucene regular expression syntax).
+     */
+    public void include(String include) {
+        this.include = include;
+    }
+
+    public String include() {
+        return include;
+    }
+
+    /**
+     * Only return terms with at least this many characters.
+     */
+    public void minLength(int minLength) {
+        this.minLength = minLength;
+    }
+
+    public int minLength() {
+        return minLength;
+    }
+
+    /**
+     * Only return terms with at most this many characters, -1 for no limit.
+     */
+    public void maxLength(int maxLength) {
+        this.maxLength = maxLength;
+    }
+
+    public int maxLength() {
+        return maxLength;
+    }
+
+    /**
+     * The order of the terms. With {@link Sort#DOC_FREQ} the {@link #size()} most frequent terms are returned and
+     * {@link #minDocFreq()} applies to the document frequency summed over all shards.
+     */
+    public void sort(Sort sort) {
+        this.sort = sort;
+    }
+
+    public Sort sort() {
+        return sort;
+    }
+
+    /**
+     * How many of its most frequent terms each shard returns with {@link Sort#DOC_FREQ}, -1 for the default of
+     * {@code size * 1.5 + 10}. Fetching more than {@link #size()} terms per shard makes it less likely that a term that is
+     * frequent in the index but not among the top terms of one shard is ranked too low.
+     */
+    public void shardSize(int shardSize) {
+        this.shardSize = shardSize;
+    }
+
+    public int shardSize() {
+        return shardSize;
+    }
+
+    /**
+     * If true, the response contains the document frequency and the total term frequency of every term, summed over all
+     * shards.
+     */
+    public void termStatistics(boolean termStatistics) {
+        this.termStatistics = termStatistics;
+    }
+
+    public boolean termStatistics() {
+        return termStatistics;
+    }
+
+    /**
+     * How long each shard may collect terms. Shards that run out of time return the terms they collected so far, the
+     * response then only contains the terms up to the smallest last term of these shards and is flagged as timed out.
+     */
+    public void timeout(TimeValue timeout) {
+        this.timeout = timeout;
+    }
+
+    public TimeValue timeout() {
+        return timeout;
+    }
 }
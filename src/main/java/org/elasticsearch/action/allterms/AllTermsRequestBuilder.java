@@ -23,6 +23,7 @@ import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.ActionRequestBuilder;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.ElasticsearchClient;
+import org.elasticsearch.common.unit.TimeValue;
 
 public class AllTermsRequestBuilder extends ActionRequestBuilder<AllTermsRequest, AllTermsResponse, AllTermsRequestBuilder> {
     public AllTermsRequestBuilder(ElasticsearchClient client) {
@@ -59,4 +60,59 @@ public class AllTermsRequestBuilder extends ActionRequestBuilder<AllTermsRequest
         request.from(from);
         return this;
     }
+
+    public AllTermsRequestBuilder scroll(TimeValue scroll) {
+        request.scroll(scroll);
+        return this;
+    }
+
+    public AllTermsRequestBuilder cursor(String cursor) {
+        request.cursor(cursor);
+        return this;
+    }
+
+    public AllTermsRequestBuilder parallelism(int parallelism) {
+        request.parallelism(parallelism);
+        return this;
+    }
+
+    public AllTermsRequestBuilder prefix(String prefix) {
+        request.prefix(prefix);
+        return this;
+    }
+
+    public AllTermsRequestBuilder include(String include) {
+        request.include(include);
+        return this;
+    }
+
+    public AllTermsRequestBuilder minLength(int minLength) {
+        request.minLength(minLength);
+        return this;
+    }
+
+    public AllTermsRequestBuilder maxLength(int maxLength) {
+        request.maxLength(maxLength);
+        return this;
+    }
+
+    public AllTermsRequestBuilder sort(AllTermsRequest.Sort sort) {
+        request.sort(sort);
+        return this;
+    }
+
+    public AllTermsRequestBuilder shardSize(int shardSize) {
+        request.shardSize(shardSize);
+        return this;
+    }
+
+    public AllTermsRequestBuilder termStatistics(boolean termStatistics) {
+        request.termStatistics(termStatistics);
+        return this;
+    }
+
+    public AllTermsRequestBuilder timeout(TimeValue timeout) {
+        request.timeout(timeout);
+        return this;
+    }
 }
@@ -19,6 +19,9 @@
 
 package org.elasticsearch.action.allterms;
 
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.PriorityQueue;
 import org.elasticsearch.action.ActionResponse;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
@@ -26,122 +29,309 @@ import org.elasticsearch.common.xcontent.ToXContent;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 public class AllTermsResponse extends ActionResponse implements ToXContent {
 
+    /**
+     * The terms decoded to Strings. Terms are kept front coded until this is called the first time.
+     */
     public List<String> getAllTerms() {
+        if (allTerms == null) {
+            allTerms = terms.toStrings();
+        }
         return allTerms;
     }
 
-    List<String> allTerms = new ArrayList<>();
+    public FrontCodedTerms getTerms() {
+        return terms;
+    }
+
+    private FrontCodedTerms terms = FrontCodedTerms.empty();
+
+    private List<String> allTerms;
+
+    private long[] docFreqs;
+
+    private long[] totalTermFreqs;
+
+    private String cursor;
+
+    private boolean timedOut = false;
+
+    // the last term that was merged, also if it was dropped for having too few documents
+    private BytesRef lastMergedTerm;
+
+    /**
+     * The cursor to fetch the next page with or null if there are no more terms or the request was not a cursor request.
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    /**
+     * The last term of the shards that was merged or null if none was, the next page starts after it.
+     */
+    BytesRef lastMergedTerm() {
+        return lastMergedTerm;
+    }
+
+    /**
+     * The document frequencies of the terms summed over all shards, in the order of the terms. Null unless term statistics
+     * were requested or the terms were sorted by document frequency. When sorted by document frequency a shard only
+     * contributes to the sum if the term was among its most frequent terms. With term statistics the minimum document
+     * frequency applies to these sums.
+     */
+    public long[] getDocFreqs() {
+        return docFreqs;
+    }
+
+    /**
+     * The total term frequencies of the terms summed over all shards, in the order of the terms. Null unless term statistics
+     * were requested, -1 for fields that do not index frequencies.
+     */
+    public long[] getTotalTermFreqs() {
+        return totalTermFreqs;
+    }
+
+    /**
+     * True if a shard ran out of time. Sorted by term the response then only contains terms up to the last term that all
+     * shards had reached, so it still is the beginning of the vocabulary but might have fewer terms than requested. Sorted by
+     * document frequency the top terms and their frequencies are only based on the terms that were read.
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
 
     public AllTermsResponse() {
 
     }
 
     public AllTermsResponse(AllTermsSingleShardResponse[] responses, long size) {
-        int numResponses = responses.length;
-        int[] indices = new int[numResponses];
-        for (int i = 0; i < indices.length; i++) {
-            indices[i] = 0;
-        }
-
-        String lastTerm = null;
-
-        //find the first twerm
-        for (int j = 0; j < numResponses; j++) {
-            if (responses[j] != null && responses[j].shardTerms != null) {
-                if (indices[j] < responses[j].shardTerms.size()) {
-                    if (lastTerm == null) {
-                        lastTerm = responses[j].shardTerms.get(indices[j]);
-                        indices[j]++;
-                    } else {
-                        if (responses[j].shardTerms.get(indices[j]).compareTo(lastTerm) == 0) {
-                            //move one further
-                            indices[j]++;
-                        }
-                        if (indices[j] < responses[j].shardTerms.size()) {
-                            String candidate = responses[j].shardTerms.get(indices[j]);
-                            if (candidate == null) {
-                                continue;
-                            }
-
-                            if (candidate.compareTo(lastTerm) < 0) {
-                                lastTerm = candidate;
-                            }
-                        }
-
-                    }
+        this(responses, size, 0);
+    }
+
+    /**
+     * Merges the sorted terms of the shards and keeps the first size unique terms. If the shards sent term statistics they
+     * are summed up. The sums are exact if the shards did not drop terms below the minimum document frequency: a shard that
+     * has one of the first size terms of the index also has it among its own first size terms. Such shards must send all
+     * terms, the terms with fewer than minDocFreq documents summed over all shards are then dropped here. The response can
+     * then have fewer than size terms even though the vocabulary has more.
+     */
+    public AllTermsResponse(AllTermsSingleShardResponse[] responses, long size, long minDocFreq) {
+        ShardTermsQueue queue = new ShardTermsQueue(responses.length);
+        boolean withStats = false;
+        // terms after the last term of a shard that ran out of time might be missing terms of that shard
+        BytesRef limit = null;
+        for (AllTermsSingleShardResponse response : responses) {
+            if (response != null && response.timedOut) {
+                timedOut = true;
+                BytesRef last = response.shardTerms.isEmpty() ? new BytesRef() : response.shardTerms.last();
+                if (limit == null || last.compareTo(limit) < 0) {
+                    limit = last;
                 }
             }
         }
-        if (lastTerm != null) {
-            allTerms.add(lastTerm);
-        }
-        for (int i = 0; i < size; i++) {
-
-            String curTerm = null;
-            for (int j = 0; j < numResponses; j++) {
-                if (responses[j] != null && responses[j].shardTerms != null) {
-                    if (indices[j] < responses[j].shardTerms.size()) {
-                        if (lastTerm == null) {
-                            curTerm = responses[j].shardTerms.get(indices[j]);
-                            indices[j]++;
-                        } else {
-                            if (responses[j].shardTerms.get(indices[j]).compareTo(lastTerm) == 0) {
-                                //move one further
-                                indices[j]++;
-                                if (indices[j] >= responses[j].shardTerms.size()) {
-                                    continue;
-                                }
-                            }
-                            String candidate = responses[j].shardTerms.get(indices[j]);
-                            if (candidate == null) {
-                                continue;
-                            }
-                            if (curTerm == null) {
-                                curTerm = candidate;
-                            } else {
-                                if (candidate.compareTo(curTerm) < 0) {
-                                    curTerm = candidate;
-                                }
-                            }
-                        }
-                    }
+        for (AllTermsSingleShardResponse response : responses) {
+            if (response != null && response.shardTerms != null) {
+                withStats |= response.totalTermFreqs != null;
+                ShardTerms shardTerms = new ShardTerms(response.shardTerms, response.docFreqs, response.totalTermFreqs);
+                if (shardTerms.next()) {
+                    queue.add(shardTerms);
                 }
             }
-            if (curTerm != null) {
-                allTerms.add(curTerm);
-                lastTerm = curTerm;
-            } else {
+        }
+        FrontCodedTerms.Builder mergedTerms = new FrontCodedTerms.Builder();
+        TermStatsBuilder stats = withStats ? new TermStatsBuilder() : null;
+        BytesRefBuilder term = new BytesRefBuilder();
+        for (long merged = 0; merged < size && queue.size() != 0; merged++) {
+            term.copyBytes(queue.top().current());
+            if (limit != null && term.get().compareTo(limit) > 0) {
                 break;
             }
+            lastMergedTerm = term.toBytesRef();
+            long docFreq = 0;
+            long totalTermFreq = 0;
+            // move all shards past the term we just added
+            while (queue.size() != 0 && queue.top().current().bytesEquals(term.get())) {
+                docFreq += queue.top().docFreq();
+                totalTermFreq = TermStatsBuilder.sumTotalTermFreq(totalTermFreq, queue.top().totalTermFreq());
+                if (queue.top().next()) {
+                    queue.updateTop();
+                } else {
+                    queue.pop();
+                }
+            }
+            if (stats == null) {
+                mergedTerms.add(term.get());
+            } else if (docFreq >= minDocFreq) {
+                mergedTerms.add(term.get());
+                stats.add(docFreq, totalTermFreq);
+            }
+        }
+        terms = mergedTerms.build();
+        if (stats != null) {
+            docFreqs = stats.docFreqs();
+            totalTermFreqs = stats.totalTermFreqs();
+        }
+    }
+
+    /**
+     * Merges the most frequent terms of the shards, sums their document frequencies and keeps the size most frequent terms
+     * with at least minDocFreq documents.
+     */
+    static AllTermsResponse topTermsByDocFreq(AllTermsSingleShardResponse[] responses, int size, long minDocFreq) {
+        ShardTermsQueue queue = new ShardTermsQueue(responses.length);
+        boolean withStats = false;
+        // the merged terms are at most all terms of all shards, the queue is not allocated for a size beyond that
+        long candidates = 0;
+        for (AllTermsSingleShardResponse response : responses) {
+            if (response != null && response.shardTerms != null && response.docFreqs != null) {
+                withStats |= response.totalTermFreqs != null;
+                candidates += response.shardTerms.size();
+                ShardTerms shardTerms = new ShardTerms(response.shardTerms, response.docFreqs, response.totalTermFreqs);
+                if (shardTerms.next()) {
+                    queue.add(shardTerms);
+                }
+            }
+        }
+        boolean timedOut = false;
+        for (AllTermsSingleShardResponse response : responses) {
+            timedOut |= response != null && response.timedOut;
+        }
+        TopTermsQueue topTerms = new TopTermsQueue((int) Math.min(size, candidates));
+        BytesRefBuilder term = new BytesRefBuilder();
+        while (queue.size() != 0) {
+            term.copyBytes(queue.top().current());
+            long docFreq = 0;
+            long totalTermFreq = 0;
+            while (queue.size() != 0 && queue.top().current().bytesEquals(term.get())) {
+                docFreq += queue.top().docFreq();
+                totalTermFreq = TermStatsBuilder.sumTotalTermFreq(totalTermFreq, queue.top().totalTermFreq());
+                if (queue.top().next()) {
+                    queue.updateTop();
+                } else {
+                    queue.pop();
+                }
+            }
+            if (docFreq >= minDocFreq) {
+                topTerms.insert(term.get(), docFreq, totalTermFreq);
+            }
+        }
+        TopTermsQueue.Entry[] entries = topTerms.drain();
+        FrontCodedTerms.Builder terms = new FrontCodedTerms.Builder();
+        AllTermsResponse response = new AllTermsResponse();
+        response.docFreqs = new long[entries.length];
+        response.totalTermFreqs = withStats ? new long[entries.length] : null;
+        for (int i = 0; i < entries.length; i++) {
+            terms.add(entries[i].term());
+            response.docFreqs[i] = entries[i].docFreq();
+            if (withStats) {
+                response.totalTermFreqs[i] = entries[i].totalTermFreq();
+            }
         }
+        response.terms = terms.build();
+        response.timedOut = timedOut;
+        return response;
     }
 
+    private static final class ShardTerms {
+        private final FrontCodedTerms.TermIterator iterator;
+        private final long[] docFreqs;
+        private final long[] totalTermFreqs;
+        private int index = -1;
+        private BytesRef current;
+
+        ShardTerms(FrontCodedTerms terms, long[] docFreqs, long[] totalTermFreqs) {
+            this.iterator = terms.iterator();
+            this.docFreqs = docFreqs;
+            this.totalTermFreqs = totalTermFreqs;
+        }
+
+        BytesRef current() {
+            return current;
+        }
+
+        long docFreq() {
+            return docFreqs == null ? 0 : docFreqs[index];
+        }
+
+        long totalTermFreq() {
+            return totalTermFreqs == null ? 0 : totalTermFreqs[index];
+        }
+
+        boolean next() {
+            current = iterator.next();
+            index++;
+            return current != null;
+        }
+    }
+
+    private static final class ShardTermsQueue extends PriorityQueue<ShardTerms> {
+
+        ShardTermsQueue(int size) {
+            super(size);
+        }
+
+        @Override
+        protected boolean lessThan(ShardTerms a, ShardTerms b) {
+            return a.current().compareTo(b.current()) < 0;
+        }
+    }
 
     @Override
     public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
-        builder.field(Fields.TERMS, allTerms);
+        builder.startArray(Fields.TERMS);
+        FrontCodedTerms.TermIterator iterator = terms.iterator();
+        for (BytesRef term = iterator.next(); term != null; term = iterator.next()) {
+            builder.utf8Value(term);
+        }
+        builder.endArray();
+        if (docFreqs != null) {
+            builder.array(Fields.DOC_FREQS, docFreqs);
+        }
+        if (totalTermFreqs != null) {
+            builder.array(Fields.TOTAL_TERM_FREQS, totalTermFreqs);
+        }
+        if (cursor != null) {
+            builder.field(Fields.CURSOR, cursor);
+        }
+        if (timedOut) {
+            builder.field(Fields.TIMED_OUT, true);
+        }
         return builder;
     }
 
     static final class Fields {
         static final String TERMS = "terms";
+        static final String CURSOR = "cursor";
+        static final String DOC_FREQS = "doc_freqs";
+        static final String TOTAL_TERM_FREQS = "total_term_freqs";
+        static final String TIMED_OUT = "timed_out";
     }
 
     @Override
     public void readFrom(StreamInput in) throws IOException {
         super.readFrom(in);
-        allTerms = Arrays.asList(in.readStringArray());
+        terms = new FrontCodedTerms(in);
+        allTerms = null;
+        cursor = in.readOptionalString();
+        docFreqs = AllTermsSingleShardResponse.readOptionalFreqs(in);
+        totalTermFreqs = AllTermsSingleShardResponse.readOptionalFreqs(in);
+        timedOut = in.readBoolean();
     }
 
     @Override
     public void writeTo(StreamOutput out) throws IOException {
         super.writeTo(out);
-        out.writeStringArray(allTerms.toArray(new String[allTerms.size()]));
+        terms.writeTo(out);
+        out.writeOptionalString(cursor);
+        AllTermsSingleShardResponse.writeOptionalFreqs(out, docFreqs);
+        AllTermsSingleShardResponse.writeOptionalFreqs(out, totalTermFreqs);
+        out.writeBoolean(timedOut);
     }
-}
\ No newline at end of file
+}
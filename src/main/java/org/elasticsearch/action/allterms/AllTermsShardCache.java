@@ -0,0 +1,211 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.action.allterms;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.action.cachestats.CacheStats;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.lucene.index.ElasticsearchDirectoryReader;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.index.shard.ShardId;
+
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Caches the terms a shard returned for an all_terms request. Entries are keyed by the request and the reader they were
+ * read from, so a refresh that opens a new reader never sees them again. They are removed as soon as that reader is closed.
+ * Least recently used entries are evicted once the cache is full.
+ */
+public class AllTermsShardCache extends AbstractComponent {
+
+    public static final Setting<ByteSizeValue> CACHE_SIZE_SETTING = Setting.memorySizeSetting("all_terms.cache.size", "1%",
+            Setting.Property.NodeScope);
+
+    private final Cache<Key, AllTermsSingleShardResponse> cache;
+    private final boolean enabled;
+    // the readers that remove their entries when they are closed
+    private final Set<Object> registeredReaders = ConcurrentCollections.newConcurrentSet();
+
+    public AllTermsShardCache(Settings settings) {
+        super(settings);
+        long maxWeight = CACHE_SIZE_SETTING.get(settings).getBytes();
+        this.enabled = maxWeight > 0;
+        this.cache = CacheBuilder.<Key, AllTermsSingleShardResponse>builder()
+                .setMaximumWeight(Math.max(1, maxWeight))
+                .weigher((key, response) -> key.ramBytesUsed() + ramBytesUsed(response))
+                .build();
+    }
+
+    /**
+     * Returns the cached response for the request on this reader or computes and caches it. Responses of shards that ran out
+     * of time are not cached.
+     */
+    AllTermsSingleShardResponse getOrCompute(ShardId shardId, DirectoryReader reader, AllTermsShardRequest request,
+                                             Callable<AllTermsSingleShardResponse> loader) throws Exception {
+        if (enabled == false) {
+            return loader.call();
+        }
+        final Object readerKey = reader.getCoreCacheKey();
+        if (registeredReaders.add(readerKey)) {
+            ElasticsearchDirectoryReader.addReaderCloseListener(reader, closedReader -> invalidate(readerKey));
+        }
+        try {
+            // concurrent misses on the same key wait for a single collection of the terms
+            return cache.computeIfAbsent(new Key(shardId, readerKey, request), key -> {
+                AllTermsSingleShardResponse response = loader.call();
+                if (response.timedOut) {
+                    throw new TimedOutResponse(response);
+                }
+                return response;
+            });
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TimedOutResponse) {
+                return ((TimedOutResponse) e.getCause()).response;
+            }
+            if (e.getCause() instanceof Exception) {
+                // the shard action reports the failure of the loader as if it had called it itself
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void invalidate(Object readerKey) {
+        registeredReaders.remove(readerKey);
+        for (Iterator<Key> iterator = cache.keys().iterator(); iterator.hasNext(); ) {
+            if (iterator.next().readerKey == readerKey) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * The statistics reported by the cache stats api.
+     */
+    public CacheStats stats() {
+        Cache.CacheStats stats = cache.stats();
+        return new CacheStats(cache.count(), stats.getHits(), stats.getMisses(), stats.getEvictions());
+    }
+
+    int count() {
+        return cache.count();
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    private static long ramBytesUsed(AllTermsSingleShardResponse response) {
+        long bytes = response.shardTerms.ramBytesUsed();
+        if (response.docFreqs != null) {
+            bytes += RamUsageEstimator.sizeOf(response.docFreqs);
+        }
+        if (response.totalTermFreqs != null) {
+            bytes += RamUsageEstimator.sizeOf(response.totalTermFreqs);
+        }
+        return bytes;
+    }
+
+    /**
+     * Thrown by the loader so that the response of a shard that ran out of time is returned without being cached.
+     */
+    private static final class TimedOutResponse extends RuntimeException {
+        private final AllTermsSingleShardResponse response;
+
+        TimedOutResponse(AllTermsSingleShardResponse response) {
+            super(null, null, false, false);
+            this.response = response;
+        }
+    }
+
+    /**
+     * Everything the terms of a shard depend on: the reader and all request parameters except the ones that only change
+     * how the terms are collected.
+     */
+    static final class Key {
+        private final ShardId shardId;
+        private final Object readerKey;
+        private final String field;
+        private final long size;
+        private final String from;
+        private final long minDocFreq;
+        private final String prefix;
+        private final String include;
+        private final int minLength;
+        private final int maxLength;
+        private final AllTermsRequest.Sort sort;
+        private final boolean termStatistics;
+
+        Key(ShardId shardId, Object readerKey, AllTermsShardRequest request) {
+            this.shardId = shardId;
+            this.readerKey = readerKey;
+            this.field = request.field();
+            this.size = request.size();
+            this.from = request.from();
+            this.minDocFreq = request.minDocFreq();
+            this.prefix = request.prefix();
+            this.include = request.include();
+            this.minLength = request.minLength();
+            this.maxLength = request.maxLength();
+            this.sort = request.sort();
+            this.termStatistics = request.termStatistics();
+        }
+
+        long ramBytesUsed() {
+            return RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + 128 + 2 * (length(field) + length(from) + length(prefix) +
+                    length(include));
+        }
+
+        private static int length(String s) {
+            return s == null ? 0 : s.length();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return readerKey == key.readerKey && size == key.size && minDocFreq == key.minDocFreq && minLength == key.minLength &&
+                    maxLength == key.maxLength && shardId.equals(key.shardId) && field.equals(key.field) &&
+                    Objects.equals(from, key.from) && Objects.equals(prefix, key.prefix) && Objects.equals(include, key.include) &&
+                    sort == key.sort && termStatistics == key.termStatistics;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(shardId, System.identityHashCode(readerKey), field, size, from, minDocFreq, prefix, include,
+                    minLength, maxLength, sort, termStatistics);
+        }
+    }
+}
@@ -23,6 +23,9 @@ import org.elasticsearch.action.ActionRequestValidationException;
 import org.elasticsearch.action.support.single.shard.SingleShardRequest;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.tasks.TaskId;
 
 import java.io.IOException;
 
@@ -36,6 +39,18 @@ public class AllTermsShardRequest extends SingleShardRequest<AllTermsShardReques
 
     int size = 0;
     private long minDocFreq = 0;
+    private TimeValue keepAlive;
+    private long contextId = -1;
+    private int parallelism = 1;
+    private String prefix;
+    private String include;
+    private int minLength = 0;
+    private int maxLength = -1;
+    private AllTermsRequest.Sort sort = AllTermsRequest.Sort.TERM;
+    private boolean termStatistics = false;
+    private TimeValue timeout;
+    // the task this request runs as on the shard, not serialized
+    private AllTermsTask task;
 
     @Override
     public ActionRequestValidationException validate() {
@@ -50,6 +65,13 @@ public class AllTermsShardRequest extends SingleShardRequest<AllTermsShardReques
         this.size = size;
         this.from = from;
         this.minDocFreq = minDocFreq;
+        this.prefix = request.prefix();
+        this.include = request.include();
+        this.minLength = request.minLength();
+        this.maxLength = request.maxLength();
+        this.sort = request.sort();
+        this.termStatistics = request.termStatistics();
+        this.timeout = request.timeout();
     }
 
     public AllTermsShardRequest() {
@@ -83,6 +105,16 @@ public class AllTermsShardRequest extends SingleShardRequest<AllTermsShardReques
         size = in.readInt();
         from = in.readOptionalString();
         minDocFreq = in.readLong();
+        keepAlive = in.readOptionalWriteable(TimeValue::new);
+        contextId = in.readLong();
+        parallelism = in.readVInt();
+        prefix = in.readOptionalString();
+        include = in.readOptionalString();
+        minLength = in.readVInt();
+        maxLength = in.readInt();
+        sort = AllTermsRequest.Sort.values()[in.readVInt()];
+        termStatistics = in.readBoolean();
+        timeout = in.readOptionalWriteable(TimeValue::new);
     }
 
     @Override
@@ -93,6 +125,34 @@ public class AllTermsShardRequest extends SingleShardRequest<AllTermsShardReques
         out.writeInt(size);
         out.writeOptionalString(from);
         out.writeLong(minDocFreq);
+        out.writeOptionalWriteable(keepAlive);
+        out.writeLong(contextId);
+        out.writeVInt(parallelism);
+        out.writeOptionalString(prefix);
+        out.writeOptionalString(include);
+        out.writeVInt(minLength);
+        out.writeInt(maxLength);
+        out.writeVInt(sort.ordinal());
+        out.writeBoolean(termStatistics);
+        out.writeOptionalWriteable(timeout);
+    }
+
+    @Override
+    public Task createTask(long id, String type, String action, TaskId parentTaskId) {
+        task = new AllTermsTask(id, type, action, getDescription(), parentTaskId);
+        return task;
+    }
+
+    @Override
+    public String getDescription() {
+        return "all_terms shard [" + index() + "][" + shardId + "], field [" + field + "]";
+    }
+
+    /**
+     * The task this request was registered as on the node that executes it, null before it was registered.
+     */
+    public AllTermsTask task() {
+        return task;
     }
 
     public String field() {
@@ -110,4 +170,69 @@ public class AllTermsShardRequest extends SingleShardRequest<AllTermsShardReques
     public long minDocFreq() {
         return minDocFreq;
     }
+
+    /**
+     * Keep the shard level cursor context open for this long after the request. If null, an existing context is freed
+     * after this request and none is created.
+     */
+    public AllTermsShardRequest keepAlive(TimeValue keepAlive) {
+        this.keepAlive = keepAlive;
+        return this;
+    }
+
+    public TimeValue keepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * The id of the cursor context to continue with or -1 to start from the terms dictionary.
+     */
+    public AllTermsShardRequest contextId(long contextId) {
+        this.contextId = contextId;
+        return this;
+    }
+
+    public long contextId() {
+        return contextId;
+    }
+
+    public AllTermsShardRequest parallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public int parallelism() {
+        return parallelism;
+    }
+
+    public String prefix() {
+        return prefix;
+    }
+
+    public String include() {
+        return include;
+    }
+
+    public int minLength() {
+        return minLength;
+    }
+
+    public int maxLength() {
+        return maxLength;
+    }
+
+    public AllTermsRequest.Sort sort() {
+        return sort;
+    }
+
+    public boolean termStatistics() {
+        return termStatistics;
+    }
+
+    /**
+     * How long the shard may collect terms, null for no limit.
+     */
+    public TimeValue timeout() {
+        return timeout;
+    }
 }
@@ -20,37 +20,113 @@
 package org.elasticsearch.action.allterms;
 
 import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
 
 public class AllTermsSingleShardResponse extends ActionResponse {
 
 
-    List<String> shardTerms = new ArrayList<>();
+    FrontCodedTerms shardTerms = FrontCodedTerms.empty();
+    // the document frequencies of shardTerms, set if the terms were selected by document frequency or term statistics were
+    // requested
+    long[] docFreqs;
+    // the total term frequencies of shardTerms, only set if term statistics were requested
+    long[] totalTermFreqs;
+    // true if the shard ran out of time and shardTerms are only the terms collected until then
+    boolean timedOut = false;
+    // the cursor context on the node that executed the request, -1 if there is none
+    long contextId = -1;
+    String nodeId;
+    int shardId;
 
     AllTermsSingleShardResponse() {
 
     }
 
-    AllTermsSingleShardResponse(List<String> shardTerms) {
+    AllTermsSingleShardResponse(FrontCodedTerms shardTerms) {
         this.shardTerms = shardTerms;
     }
 
+    AllTermsSingleShardResponse(FrontCodedTerms shardTerms, long[] docFreqs) {
+        this(shardTerms, docFreqs, null);
+    }
+
+    AllTermsSingleShardResponse(FrontCodedTerms shardTerms, long[] docFreqs, long[] totalTermFreqs) {
+        this.shardTerms = shardTerms;
+        this.docFreqs = docFreqs;
+        this.totalTermFreqs = totalTermFreqs;
+    }
+
+    AllTermsSingleShardResponse(FrontCodedTerms shardTerms, int shardId, long contextId, String nodeId) {
+        this.shardTerms = shardTerms;
+        this.shardId = shardId;
+        this.contextId = contextId;
+        this.nodeId = nodeId;
+    }
+
 
     @Override
     public void readFrom(StreamInput in) throws IOException {
         super.readFrom(in);
-        shardTerms = Arrays.asList(in.readStringArray());
+        shardTerms = new FrontCodedTerms(in);
+        shardId = in.readVInt();
+        contextId = in.readLong();
+        nodeId = in.readOptionalString();
+        docFreqs = readOptionalFreqs(in);
+        totalTermFreqs = readOptionalFreqs(in);
+        timedOut = in.readBoolean();
     }
 
     @Override
     public void writeTo(StreamOutput out) throws IOException {
         super.writeTo(out);
-        out.writeStringArray(shardTerms.toArray(new String[shardTerms.size()]));
+        shardTerms.writeTo(out);
+        out.writeVInt(shardId);
+        out.writeLong(contextId);
+        out.writeOptionalString(nodeId);
+        writeOptionalFreqs(out, docFreqs);
+        writeOptionalFreqs(out, totalTermFreqs);
+        out.writeBoolean(timedOut);
+    }
+
+    AllTermsSingleShardResponse timedOut(boolean timedOut) {
+        this.timedOut = timedOut;
+        return this;
+    }
+
+    /**
+     * Sets the statistics of the terms if they were collected.
+     */
+    AllTermsSingleShardResponse termStats(@Nullable TermStatsBuilder stats) {
+        if (stats != null) {
+            docFreqs = stats.docFreqs();
+            totalTermFreqs = stats.totalTermFreqs();
+        }
+        return this;
+    }
+
+    static long[] readOptionalFreqs(StreamInput in) throws IOException {
+        if (in.readBoolean() == false) {
+            return null;
+        }
+        long[] freqs = new long[in.readVInt()];
+        for (int i = 0; i < freqs.length; i++) {
+            freqs[i] = in.readVLong() - 1;
+        }
+        return freqs;
+    }
+
+    static void writeOptionalFreqs(StreamOutput out, @Nullable long[] freqs) throws IOException {
+        out.writeBoolean(freqs != null);
+        if (freqs != null) {
+            out.writeVInt(freqs.length);
+            for (long freq : freqs) {
+                // shifted by one because total term freqs are -1 if the field does not index frequencies
+                out.writeVLong(freq + 1);
+            }
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,192 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.action.allterms;
+
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A list of terms in front coding: every term is stored as the length of the prefix it shares with the previous term
+ * followed by the remaining bytes. Sorted vocabularies share long prefixes so this is much smaller on the wire than a list
+ * of Strings, and terms are only decoded when they are iterated.
+ */
+public final class FrontCodedTerms implements Writeable, Accountable {
+
+    private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(FrontCodedTerms.class);
+
+    private static final FrontCodedTerms EMPTY = new FrontCodedTerms(0, BytesRef.EMPTY_BYTES, 0);
+
+    private final int size;
+    private final byte[] bytes;
+    private final int length;
+
+    private FrontCodedTerms(int size, byte[] bytes, int length) {
+        this.size = size;
+        this.bytes = bytes;
+        this.length = length;
+    }
+
+    public FrontCodedTerms(StreamInput in) throws IOException {
+        size = in.readVInt();
+        bytes = in.readByteArray();
+        length = bytes.length;
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeVInt(size);
+        out.writeVInt(length);
+        out.writeBytes(bytes, 0, length);
+    }
+
+    public static FrontCodedTerms empty() {
+        return EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return BASE_RAM_BYTES_USED + RamUsageEstimator.sizeOf(bytes);
+    }
+
+    public TermIterator iterator() {
+        return new TermIterator();
+    }
+
+    /**
+     * The last term or null if there are no terms.
+     */
+    public BytesRef last() {
+        TermIterator iterator = iterator();
+        BytesRef last = null;
+        for (BytesRef term = iterator.next(); term != null; term = iterator.next()) {
+            last = term;
+        }
+        return last == null ? null : BytesRef.deepCopyOf(last);
+    }
+
+    public List<String> toStrings() {
+        List<String> strings = new ArrayList<>(size);
+        TermIterator iterator = iterator();
+        for (BytesRef term = iterator.next(); term != null; term = iterator.next()) {
+            strings.add(term.utf8ToString());
+        }
+        return strings;
+    }
+
+    /**
+     * Decodes the terms one after the other into a reused buffer.
+     */
+    public final class TermIterator {
+        private final ByteArrayDataInput in = new ByteArrayDataInput(bytes, 0, length);
+        private final BytesRefBuilder term = new BytesRefBuilder();
+        private int remaining = size;
+
+        private TermIterator() {
+        }
+
+        /**
+         * Returns the next term or null if there are no more terms. The returned bytes are only valid until the next call.
+         */
+        public BytesRef next() {
+            if (remaining == 0) {
+                return null;
+            }
+            remaining--;
+            int prefixLength = in.readVInt();
+            int suffixLength = in.readVInt();
+            term.grow(prefixLength + suffixLength);
+            in.readBytes(term.bytes(), prefixLength, suffixLength);
+            term.setLength(prefixLength + suffixLength);
+            return term.get();
+        }
+    }
+
+    public static final class Builder {
+        private final BytesRefBuilder previous = new BytesRefBuilder();
+        private byte[] bytes = new byte[64];
+        private int length = 0;
+        private int size = 0;
+
+        public Builder add(BytesRef term) {
+            int prefixLength = sharedPrefixLength(previous.get(), term);
+            int suffixLength = term.length - prefixLength;
+            writeVInt(prefixLength);
+            writeVInt(suffixLength);
+            bytes = ArrayUtil.grow(bytes, length + suffixLength);
+            System.arraycopy(term.bytes, term.offset + prefixLength, bytes, length, suffixLength);
+            length += suffixLength;
+            previous.copyBytes(term);
+            size++;
+            return this;
+        }
+
+        public Builder add(String term) {
+            return add(new BytesRef(term));
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public FrontCodedTerms build() {
+            if (size == 0) {
+                return EMPTY;
+            }
+            return new FrontCodedTerms(size, bytes, length);
+        }
+
+        private void writeVInt(int i) {
+            bytes = ArrayUtil.grow(bytes, length + 5);
+            while ((i & ~0x7F) != 0) {
+                bytes[length++] = (byte) ((i & 0x7F) | 0x80);
+                i >>>= 7;
+            }
+            bytes[length++] = (byte) i;
+        }
+
+        private static int sharedPrefixLength(BytesRef a, BytesRef b) {
+            int maxLength = Math.min(a.length, b.length);
+            int i = 0;
+            while (i < maxLength && a.bytes[a.offset + i] == b.bytes[b.offset + i]) {
+                i++;
+            }
+            return i;
+        }
+    }
+}
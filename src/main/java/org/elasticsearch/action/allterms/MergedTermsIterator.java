@@ -0,0 +1,194 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.action.allterms;
+
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.PriorityQueue;
+import org.elasticsearch.common.Nullable;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Merges the sorted terms of several segments into a single sorted stream of unique terms, much like Lucene's MultiTermsEnum.
+ * The segment enums are kept in a priority queue ordered by their current term so that moving to the next term costs
+ * O(log segments). The doc freq and total term freq of a term are summed up while the enums positioned on it are popped from
+ * the queue.
+ */
+class MergedTermsIterator {
+
+    private final SegmentTermsQueue queue;
+    // the segments that are currently positioned on the current term
+    private final SegmentTerms[] top;
+    private int numTop = 0;
+    // the current term is copied into a reused buffer so that it stays valid while the segment enums move on
+    private final BytesRefBuilder current = new BytesRefBuilder();
+    private boolean exhausted = true;
+    private long docFreq;
+    private long totalTermFreq;
+    private TermsCollectionBudget budget;
+    private int termsSinceCheck = 0;
+
+    /**
+     * @param termsEnums unpositioned terms enums, one per segment
+     * @param from       if not null, the iterator starts with the smallest term that is greater than from
+     */
+    MergedTermsIterator(List<TermsEnum> termsEnums, @Nullable BytesRef from) throws IOException {
+        queue = new SegmentTermsQueue(termsEnums.size());
+        top = new SegmentTerms[termsEnums.size()];
+        for (TermsEnum termsEnum : termsEnums) {
+            SegmentTerms segmentTerms = new SegmentTerms(termsEnum);
+            if (segmentTerms.seekAfter(from)) {
+                queue.add(segmentTerms);
+            }
+        }
+    }
+
+    /**
+     * Checks the budget while iterating. Once the budget is used up {@link #next()} returns null without moving on, so
+     * that iteration can continue after the budget was replaced.
+     */
+    void budget(@Nullable TermsCollectionBudget budget) {
+        this.budget = budget;
+        this.termsSinceCheck = 0;
+    }
+
+    /**
+     * Moves to the next term in sort order and returns it or null if all segments are exhausted or the budget is used up.
+     * The returned bytes are reused and only valid until the next call to next().
+     */
+    BytesRef next() throws IOException {
+        if (budget != null && budgetUsedUp()) {
+            return null;
+        }
+        pushTop();
+        if (queue.size() == 0) {
+            exhausted = true;
+            docFreq = 0;
+            totalTermFreq = 0;
+            return null;
+        }
+        pullTop();
+        return current.get();
+    }
+
+    /**
+     * The current term or null if the iterator is exhausted or was not started yet.
+     */
+    BytesRef term() {
+        return exhausted ? null : current.get();
+    }
+
+    /**
+     * The doc freq of the current term summed over all segments.
+     */
+    long docFreq() {
+        return docFreq;
+    }
+
+    /**
+     * The total term freq of the current term summed over all segments or -1 if the field does not index frequencies.
+     */
+    long totalTermFreq() {
+        return totalTermFreq;
+    }
+
+    private boolean budgetUsedUp() {
+        if (budget.isTimedOut()) {
+            return true;
+        }
+        if (++termsSinceCheck >= TermsCollectionBudget.CHECK_INTERVAL) {
+            termsSinceCheck = 0;
+            return budget.check() == false;
+        }
+        return false;
+    }
+
+    // pops all segments positioned on the smallest term from the queue
+    private void pullTop() throws IOException {
+        current.copyBytes(queue.top().current);
+        exhausted = false;
+        docFreq = 0;
+        totalTermFreq = 0;
+        do {
+            SegmentTerms segmentTerms = queue.pop();
+            docFreq += segmentTerms.termsEnum.docFreq();
+            totalTermFreq = TermStatsBuilder.sumTotalTermFreq(totalTermFreq, segmentTerms.termsEnum.totalTermFreq());
+            top[numTop++] = segmentTerms;
+        } while (queue.size() != 0 && queue.top().current.bytesEquals(current.get()));
+    }
+
+    // advances all segments that were positioned on the current term and puts them back into the queue
+    private void pushTop() throws IOException {
+        for (int i = 0; i < numTop; i++) {
+            if (top[i].next()) {
+                queue.add(top[i]);
+            }
+            top[i] = null;
+        }
+        numTop = 0;
+    }
+
+    static final class SegmentTerms {
+        final TermsEnum termsEnum;
+        BytesRef current;
+
+        SegmentTerms(TermsEnum termsEnum) {
+            this.termsEnum = termsEnum;
+        }
+
+        boolean next() throws IOException {
+            current = termsEnum.next();
+            return current != null;
+        }
+
+        // positions the enum on the smallest term greater than from, returns false if there is no such term
+        boolean seekAfter(@Nullable BytesRef from) throws IOException {
+            if (from == null) {
+                return next();
+            }
+            TermsEnum.SeekStatus seekStatus = termsEnum.seekCeil(from);
+            if (seekStatus == TermsEnum.SeekStatus.END) {
+                current = null;
+                return false;
+            } else if (seekStatus == TermsEnum.SeekStatus.FOUND) {
+                // we want to start after the term
+                return next();
+            } else {
+                current = termsEnum.term();
+                return true;
+            }
+        }
+    }
+
+    static final class SegmentTermsQueue extends PriorityQueue<SegmentTerms> {
+
+        SegmentTermsQueue(int size) {
+            super(size);
+        }
+
+        @Override
+        protected boolean lessThan(SegmentTerms a, SegmentTerms b) {
+            return a.current.compareTo(b.current) < 0;
+        }
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.action.allterms;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefArray;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.Counter;
+import org.apache.lucene.util.PriorityQueue;
+import org.apache.lucene.util.automaton.CompiledAutomaton;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.tasks.TaskCancelledException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Collects the terms of a shard with several threads. The leaves are split into groups, every group merges its own segments
+ * into a sorted run of terms with partial doc freqs and the runs are merged afterwards.
+ * <p>
+ * A term is only complete once every group either returned a term that is greater or has no more terms, so every round
+ * merges the runs up to the smallest last term of the runs that are not exhausted. Without min_doc_freq the first round
+ * always yields enough terms. With min_doc_freq more rounds are needed if too many terms are filtered. The enums of every
+ * group only seek once and stay positioned across rounds, the terms a round could not merge yet are kept for the next one.
+ */
+final class ParallelTermsCollector {
+
+    // with min_doc_freq the runs are at least this long so that filtered terms do not cause many rounds
+    static final int MIN_RUN_SIZE_WITH_MIN_DOC_FREQ = 1024;
+
+    private ParallelTermsCollector() {
+    }
+
+    static void collect(AllTermsShardRequest request, FrontCodedTerms.Builder terms, @Nullable TermStatsBuilder stats,
+                        @Nullable TermsCollectionBudget budget, List<LeafReaderContext> leaves, int parallelism,
+                        Executor executor) {
+        List<List<LeafReaderContext>> groups = groupLeaves(leaves, parallelism);
+        CompiledAutomaton filter = TransportAllTermsShardAction.buildTermsFilter(request);
+        BytesRef from = request.from() == null ? null : new BytesRef(request.from());
+        List<TermRun> runs = new ArrayList<>(groups.size());
+        for (List<LeafReaderContext> group : groups) {
+            runs.add(new TermRun(request, filter, budget, group, from));
+        }
+        while (terms.size() < request.size()) {
+            long runSize = request.size() - terms.size();
+            if (request.minDocFreq() > 0) {
+                runSize = Math.max(runSize, MIN_RUN_SIZE_WITH_MIN_DOC_FREQ);
+            }
+            fillRuns(request, runs, (int) Math.min(runSize, ArrayUtil.MAX_ARRAY_LENGTH), executor);
+            if (budget != null && budget.isTimedOut()) {
+                for (TermRun run : runs) {
+                    if (run.exhausted == false && run.isEmpty()) {
+                        // without the last term of this run we do not know which terms of the other runs are complete
+                        return;
+                    }
+                }
+            }
+            BytesRef boundary = mergeRuns(runs, terms, stats, request.size(), request.minDocFreq());
+            if (boundary == null || (budget != null && budget.isTimedOut())) {
+                // all groups are exhausted or we ran out of time
+                return;
+            }
+        }
+    }
+
+    // distributes the leaves round robin over at most parallelism groups
+    static List<List<LeafReaderContext>> groupLeaves(List<LeafReaderContext> leaves, int parallelism) {
+        int numGroups = Math.max(1, Math.min(parallelism, leaves.size()));
+        List<List<LeafReaderContext>> groups = new ArrayList<>(numGroups);
+        for (int i = 0; i < numGroups; i++) {
+            groups.add(new ArrayList<>());
+        }
+        for (int i = 0; i < leaves.size(); i++) {
+            groups.get(i % numGroups).add(leaves.get(i));
+        }
+        return groups;
+    }
+
+    private static void fillRuns(AllTermsShardRequest request, List<TermRun> runs, int runSize, Executor executor) {
+        List<FillTask> tasks = new ArrayList<>(runs.size());
+        for (TermRun run : runs) {
+            tasks.add(new FillTask(run, runSize));
+        }
+        boolean submitted = false;
+        boolean interrupted;
+        try {
+            // the calling thread works on the first group itself
+            for (int i = 1; i < tasks.size(); i++) {
+                executor.execute(tasks.get(i));
+            }
+            tasks.get(0).run();
+            submitted = true;
+        } finally {
+            // no other thread may read the enums once the round is over, the fills that did not start yet are cancelled if
+            // the round failed and the ones that started are waited for in any case
+            interrupted = awaitFills(tasks, submitted == false || tasks.get(0).failure != null);
+        }
+        if (interrupted) {
+            throw new ElasticsearchException("interrupted while collecting terms of field [" + request.field() + "]");
+        }
+        for (FillTask task : tasks) {
+            if (task.failure instanceof TaskCancelledException) {
+                throw (TaskCancelledException) task.failure;
+            }
+            if (task.failure != null) {
+                throw new ElasticsearchException("failed to collect terms of field [" + request.field() + "]",
+                        ExceptionsHelper.unwrapCause(task.failure));
+            }
+        }
+    }
+
+    /**
+     * Waits for the fills that started and returns whether the thread was interrupted meanwhile. The fills that did not
+     * start yet are cancelled if cancel is true or the thread is interrupted. Waiting also makes the enums the other threads
+     * moved visible to the next round.
+     */
+    private static boolean awaitFills(List<FillTask> tasks, boolean cancel) {
+        boolean interrupted = false;
+        for (FillTask task : tasks) {
+            if (cancel) {
+                task.cancel();
+            }
+        }
+        for (FillTask task : tasks) {
+            while (true) {
+                try {
+                    task.done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    for (FillTask other : tasks) {
+                        other.cancel();
+                    }
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return interrupted;
+    }
+
+    /**
+     * Fills one run. A fill that did not start yet can be cancelled, it then does nothing once the executor runs it.
+     */
+    private static final class FillTask implements Runnable {
+        private final TermRun run;
+        private final int runSize;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Exception failure;
+
+        FillTask(TermRun run, int runSize) {
+            this.run = run;
+            this.runSize = runSize;
+        }
+
+        @Override
+        public void run() {
+            if (claimed.compareAndSet(false, true)) {
+                try {
+                    run.fill(runSize);
+                } catch (Exception e) {
+                    failure = e;
+                } finally {
+                    done.countDown();
+                }
+            }
+        }
+
+        void cancel() {
+            if (claimed.compareAndSet(false, true)) {
+                done.countDown();
+            }
+        }
+    }
+
+    /**
+     * Merges the complete terms of the runs into terms and, if not null, their statistics into stats. Returns the term to
+     * continue after or null if all runs are exhausted and there is nothing more to collect.
+     */
+    static BytesRef mergeRuns(List<TermRun> runs, FrontCodedTerms.Builder terms, @Nullable TermStatsBuilder stats, long size,
+                              long minDocFreq) {
+        BytesRef boundary = null;
+        for (TermRun run : runs) {
+            if (run.exhausted == false) {
+                BytesRef last = run.last();
+                if (boundary == null || last.compareTo(boundary) < 0) {
+                    boundary = last;
+                }
+            }
+        }
+        TermRunQueue queue = new TermRunQueue(runs.size());
+        for (TermRun run : runs) {
+            if (run.next()) {
+                queue.add(run);
+            }
+        }
+        BytesRefBuilder term = new BytesRefBuilder();
+        while (queue.size() != 0 && terms.size() < size) {
+            term.copyBytes(queue.top().current());
+            if (boundary != null && term.get().compareTo(boundary) > 0) {
+                break;
+            }
+            long docFreq = 0;
+            long totalTermFreq = 0;
+            while (queue.size() != 0 && queue.top().current().bytesEquals(term.get())) {
+                docFreq += queue.top().docFreq();
+                totalTermFreq = TermStatsBuilder.sumTotalTermFreq(totalTermFreq, queue.top().totalTermFreq());
+                if (queue.top().next()) {
+                    queue.updateTop();
+                } else {
+                    queue.pop();
+                }
+            }
+            if (docFreq >= minDocFreq) {
+                terms.add(term.get());
+                if (stats != null) {
+                    stats.add(docFreq, totalTermFreq);
+                }
+            }
+        }
+        return boundary;
+    }
+
+    /**
+     * The next terms of a group of leaves, with their doc freqs and total term freqs summed up over the group. A run keeps the
+     * merged enums of its group, every round refills it with the terms after the ones it still holds.
+     */
+    static final class TermRun {
+        private final AllTermsShardRequest request;
+        @Nullable
+        private final CompiledAutomaton filter;
+        @Nullable
+        private final TermsCollectionBudget budget;
+        private final List<LeafReaderContext> leaves;
+        @Nullable
+        private final BytesRef from;
+        // opened by the first fill so that the groups seek in parallel
+        private MergedTermsIterator mergedTerms;
+        private BytesRefArray terms = new BytesRefArray(Counter.newCounter());
+        private long[] docFreqs = new long[16];
+        private long[] totalTermFreqs = new long[16];
+        private boolean exhausted;
+        private final BytesRefBuilder spare = new BytesRefBuilder();
+        private int index = -1;
+
+        TermRun(AllTermsShardRequest request, @Nullable CompiledAutomaton filter, @Nullable TermsCollectionBudget budget,
+                List<LeafReaderContext> leaves, @Nullable BytesRef from) {
+            this.request = request;
+            this.filter = filter;
+            this.budget = budget;
+            this.leaves = leaves;
+            this.from = from;
+        }
+
+        /**
+         * Drops the terms that were merged and reads terms until the run holds runSize terms or the group is exhausted.
+         */
+        void fill(int runSize) throws IOException {
+            if (mergedTerms == null) {
+                mergedTerms = TransportAllTermsShardAction.getMergedTerms(request, filter, leaves, from);
+                mergedTerms.budget(budget);
+            }
+            int merged = Math.max(index, 0);
+            if (merged > 0) {
+                BytesRefArray remaining = new BytesRefArray(Counter.newCounter());
+                for (int i = merged; i < terms.size(); i++) {
+                    remaining.append(terms.get(spare, i));
+                }
+                System.arraycopy(docFreqs, merged, docFreqs, 0, remaining.size());
+                System.arraycopy(totalTermFreqs, merged, totalTermFreqs, 0, remaining.size());
+                terms = remaining;
+            }
+            index = -1;
+            while (exhausted == false && terms.size() < runSize) {
+                BytesRef term = mergedTerms.next();
+                if (term == null) {
+                    // the iterator also returns null when the budget is used up, the group is not complete then
+                    exhausted = budget == null || budget.isTimedOut() == false;
+                    return;
+                }
+                docFreqs = ArrayUtil.grow(docFreqs, terms.size() + 1);
+                totalTermFreqs = ArrayUtil.grow(totalTermFreqs, docFreqs.length);
+                docFreqs[terms.size()] = mergedTerms.docFreq();
+                totalTermFreqs[terms.size()] = mergedTerms.totalTermFreq();
+                terms.append(term);
+            }
+        }
+
+        boolean isEmpty() {
+            return terms.size() == 0;
+        }
+
+        BytesRef last() {
+            return terms.get(new BytesRefBuilder(), terms.size() - 1);
+        }
+
+        boolean next() {
+            if (++index < terms.size()) {
+                terms.get(spare, index);
+                return true;
+            }
+            return false;
+        }
+
+        BytesRef current() {
+            return spare.get();
+        }
+
+        long docFreq() {
+            return docFreqs[index];
+        }
+
+        long totalTermFreq() {
+            return totalTermFreqs[index];
+        }
+    }
+
+    static final class TermRunQueue extends PriorityQueue<TermRun> {
+
+        TermRunQueue(int size) {
+            super(size);
+        }
+
+        @Override
+        protected boolean lessThan(TermRun a, TermRun b) {
+            return a.current().compareTo(b.current()) < 0;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.action.allterms;
+
+import org.apache.lucene.util.ArrayUtil;
+
+import java.util.Arrays;
+
+/**
+ * Collects the document frequencies and total term frequencies of a list of terms into two parallel arrays, in the order the
+ * terms are added to their {@link FrontCodedTerms.Builder}.
+ */
+final class TermStatsBuilder {
+
+    private long[] docFreqs = new long[16];
+    private long[] totalTermFreqs = new long[16];
+    private int size = 0;
+
+    void add(long docFreq, long totalTermFreq) {
+        if (size == docFreqs.length) {
+            docFreqs = ArrayUtil.grow(docFreqs, size + 1);
+            totalTermFreqs = ArrayUtil.grow(totalTermFreqs, docFreqs.length);
+        }
+        docFreqs[size] = docFreq;
+        totalTermFreqs[size] = totalTermFreq;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long[] docFreqs() {
+        return Arrays.copyOf(docFreqs, size);
+    }
+
+    long[] totalTermFreqs() {
+        return Arrays.copyOf(totalTermFreqs, size);
+    }
+
+    /**
+     * Adds two total term frequencies, -1 means that frequencies are not indexed and stays -1.
+     */
+    static long sumTotalTermFreq(long a, long b) {
+        return a < 0 || b < 0 ? -1 : a + b;
+    }
+}
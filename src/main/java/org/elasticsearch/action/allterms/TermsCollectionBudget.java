@@ -0,0 +1,66 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.action.allterms;
+
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.tasks.CancellableTask;
+import org.elasticsearch.tasks.TaskCancelledException;
+
+/**
+ * Limits how long a shard collects terms. {@link MergedTermsIterator} calls {@link #check()} every {@link #CHECK_INTERVAL}
+ * terms: if the task was cancelled collection fails, if the time is up it stops and the terms collected so far are returned
+ * as a partial result.
+ */
+final class TermsCollectionBudget {
+
+    // the number of terms between two checks, reading the clock for every term would be too expensive
+    static final int CHECK_INTERVAL = 1024;
+
+    private final CancellableTask task;
+    private final long deadlineNanos;
+    private volatile boolean timedOut = false;
+
+    /**
+     * @param task    the task of the shard request, or null if it cannot be cancelled
+     * @param timeout the time collection may take from now on, or null for no limit
+     */
+    TermsCollectionBudget(@Nullable CancellableTask task, @Nullable TimeValue timeout) {
+        this.task = task;
+        this.deadlineNanos = timeout == null ? Long.MAX_VALUE : System.nanoTime() + timeout.nanos();
+    }
+
+    /**
+     * Returns false once the time is up. Throws {@link TaskCancelledException} if the task was cancelled.
+     */
+    boolean check() {
+        if (task != null && task.isCancelled()) {
+            throw new TaskCancelledException("cancelled");
+        }
+        if (timedOut == false && deadlineNanos != Long.MAX_VALUE && System.nanoTime() - deadlineNanos > 0) {
+            timedOut = true;
+        }
+        return timedOut == false;
+    }
+
+    boolean isTimedOut() {
+        return timedOut;
+    }
+}
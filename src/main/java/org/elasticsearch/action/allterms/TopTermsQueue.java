@@ -0,0 +1,111 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.action.allterms;
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.PriorityQueue;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the terms with the highest document frequency. Ties are broken by term so that every shard and the coordinating
+ * node agree on which terms make the cut.
+ */
+final class TopTermsQueue extends PriorityQueue<TopTermsQueue.Entry> {
+
+    private final int maxSize;
+
+    TopTermsQueue(int maxSize) {
+        super(maxSize);
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    protected boolean lessThan(Entry a, Entry b) {
+        if (a.docFreq != b.docFreq) {
+            return a.docFreq < b.docFreq;
+        }
+        return a.term.get().compareTo(b.term.get()) > 0;
+    }
+
+    /**
+     * Adds the term if it is among the most frequent terms seen so far. The term is copied, so the caller may reuse it.
+     */
+    void insert(BytesRef term, long docFreq, long totalTermFreq) {
+        if (maxSize == 0) {
+            return;
+        }
+        if (size() < maxSize) {
+            Entry entry = new Entry();
+            entry.term.copyBytes(term);
+            entry.docFreq = docFreq;
+            entry.totalTermFreq = totalTermFreq;
+            add(entry);
+            return;
+        }
+        Entry top = top();
+        if (docFreq > top.docFreq || (docFreq == top.docFreq && term.compareTo(top.term.get()) < 0)) {
+            // the least frequent entry is replaced in place, so a full queue does not allocate
+            top.term.copyBytes(term);
+            top.docFreq = docFreq;
+            top.totalTermFreq = totalTermFreq;
+            updateTop();
+        }
+    }
+
+    /**
+     * Empties the queue and returns its entries, most frequent first.
+     */
+    Entry[] drain() {
+        Entry[] entries = new Entry[size()];
+        for (int i = entries.length - 1; i >= 0; i--) {
+            entries[i] = pop();
+        }
+        return entries;
+    }
+
+    /**
+     * Empties the queue and returns its entries sorted by term.
+     */
+    Entry[] drainByTerm() {
+        Entry[] entries = drain();
+        Arrays.sort(entries, (a, b) -> a.term.get().compareTo(b.term.get()));
+        return entries;
+    }
+
+    static final class Entry {
+        final BytesRefBuilder term = new BytesRefBuilder();
+        long docFreq;
+        long totalTermFreq;
+
+        BytesRef term() {
+            return term.get();
+        }
+
+        long docFreq() {
+            return docFreq;
+        }
+
+        long totalTermFreq() {
+            return totalTermFreq;
+        }
+    }
+}
@@ -19,6 +19,9 @@
 
 package org.elasticsearch.action.allterms;
 
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.apache.logging.log4j.util.Supplier;
+import org.apache.lucene.util.BytesRef;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.support.ActionFilters;
 import org.elasticsearch.action.support.HandledTransportAction;
@@ -28,14 +31,18 @@ import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
 import org.elasticsearch.cluster.routing.GroupShardsIterator;
 import org.elasticsearch.cluster.routing.ShardIterator;
 import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.util.concurrent.AtomicArray;
+import org.elasticsearch.tasks.Task;
 import org.elasticsearch.threadpool.ThreadPool;
 import org.elasticsearch.transport.TransportService;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.Supplier;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class TransportAllTermsAction extends HandledTransportAction<AllTermsRequest, AllTermsResponse> {
 
@@ -54,22 +61,62 @@ public class TransportAllTermsAction extends HandledTransportAction<AllTermsRequ
     }
 
     @Override
-    protected void doExecute(final AllTermsRequest request, final ActionListener<AllTermsResponse> listener) {
+    protected void doExecute(AllTermsRequest request, ActionListener<AllTermsResponse> listener) {
+        throw new UnsupportedOperationException("the task parameter is required for this operation");
+    }
+
+    @Override
+    protected void doExecute(Task task, final AllTermsRequest request, final ActionListener<AllTermsResponse> listener) {
         ClusterState clusterState = clusterService.state();
 
         clusterState.blocks().globalBlockedRaiseException(ClusterBlockLevel.READ);
 
-        final GroupShardsIterator groupShardsIterator = clusterService.operationRouting().searchShards(clusterState, request.indices(),
-                null, null);
-        final AtomicArray<AllTermsSingleShardResponse> shardResponses = new AtomicArray<>(groupShardsIterator.size());
+        final List<AllTermsShardRequest> shardRequests = new ArrayList<>();
+        final String lastTerm;
+        // summed term statistics are only exact if the shards do not drop terms, the minimum document frequency then applies
+        // to the sums
+        final long mergeMinDocFreq = request.termStatistics() ? request.minDocFreq() : 0;
+        final long shardMinDocFreq = request.termStatistics() ? 0 : request.minDocFreq();
+        if (request.cursor() != null) {
+            AllTermsCursor cursor = AllTermsCursor.decode(request.cursor());
+            lastTerm = cursor.lastTerm();
+            for (AllTermsCursor.ShardContext shardContext : cursor.shardContexts()) {
+                // the context only exists on the node that created it
+                shardRequests.add(new AllTermsShardRequest(request, request.indices()[0], shardContext.shardId, request.field(),
+                        request.size(), lastTerm, shardMinDocFreq).contextId(shardContext.contextId)
+                        .keepAlive(request.scroll()).preference("_only_node:" + shardContext.nodeId));
+            }
+        } else {
+            lastTerm = request.from();
+            final GroupShardsIterator groupShardsIterator = clusterService.operationRouting().searchShards(clusterState,
+                    request.indices(), null, null);
+            final boolean byDocFreq = request.sort() == AllTermsRequest.Sort.DOC_FREQ;
+            // sorted by document frequency the shards over-fetch and the minimum document frequency applies to the sums
+            final int shardSize = byDocFreq ? shardSize(request) : request.size();
+            for (final ShardIterator shardIterator : groupShardsIterator) {
+                shardRequests.add(new AllTermsShardRequest(request, request.indices()[0], shardIterator.shardId().id(),
+                        request.field(), shardSize, request.from(), byDocFreq ? 0 : shardMinDocFreq).keepAlive(request.scroll())
+                        .parallelism(request.parallelism()));
+            }
+        }
+        if (shardRequests.isEmpty()) {
+            listener.onResponse(new AllTermsResponse());
+            return;
+        }
+        // cancelling the request cancels the shard requests
+        for (AllTermsShardRequest shardRequest : shardRequests) {
+            shardRequest.setParentTask(clusterService.localNode().getId(), task.getId());
+        }
+
+        final AtomicArray<AllTermsSingleShardResponse> shardResponses = new AtomicArray<>(shardRequests.size());
         final AtomicInteger shardCounter = new AtomicInteger(shardResponses.length());
-        for (final ShardIterator shardIterator : groupShardsIterator) {
-            final AllTermsShardRequest shardRequest = new AllTermsShardRequest(request, request.indices()[0], shardIterator.shardId().id(),
-                    request.field(), request.size(), request.from(), request.minDocFreq());
-            shardAction.execute(shardRequest, new ActionListener<AllTermsSingleShardResponse>() {
+        final AtomicReference<Exception> cursorFailure = new AtomicReference<>();
+        for (int i = 0; i < shardRequests.size(); i++) {
+            final int shardIndex = i;
+            shardAction.execute(shardRequests.get(i), new ActionListener<AllTermsSingleShardResponse>() {
                 @Override
                 public void onResponse(AllTermsSingleShardResponse response) {
-                    shardResponses.set(shardIterator.shardId().id(), response);
+                    shardResponses.set(shardIndex, response);
                     if (shardCounter.decrementAndGet() == 0) {
                         finish();
                     }
@@ -77,14 +124,32 @@ public class TransportAllTermsAction extends HandledTransportAction<AllTermsRequ
 
                 @Override
                 public void onFailure(Exception e) {
+                    if (request.cursor() != null || request.scroll() != null) {
+                        // a page without the terms of one shard would silently skip terms of the vocabulary, and so would
+                        // every page of a cursor that leaves the shard out
+                        cursorFailure.set(e);
+                    }
                     if (shardCounter.decrementAndGet() == 0) {
                         finish();
                     }
                 }
 
                 public void finish() {
-                    AllTermsResponse response = new AllTermsResponse(shardResponses.toArray(
-                            new AllTermsSingleShardResponse[shardResponses.length()]), request.size());
+                    AllTermsSingleShardResponse[] responses = shardResponses.toArray(
+                            new AllTermsSingleShardResponse[shardResponses.length()]);
+                    if (cursorFailure.get() != null) {
+                        freeContexts(request, responses);
+                        listener.onFailure(cursorFailure.get());
+                        return;
+                    }
+                    if (request.sort() == AllTermsRequest.Sort.DOC_FREQ) {
+                        listener.onResponse(AllTermsResponse.topTermsByDocFreq(responses, request.size(), request.minDocFreq()));
+                        return;
+                    }
+                    AllTermsResponse response = new AllTermsResponse(responses, request.size(), mergeMinDocFreq);
+                    if (request.scroll() != null) {
+                        response.setCursor(buildCursor(request, responses, response.lastMergedTerm(), lastTerm));
+                    }
                     listener.onResponse(response);
                 }
             });
@@ -92,4 +157,67 @@ public class TransportAllTermsAction extends HandledTransportAction<AllTermsRequ
 
     }
 
+    /**
+     * The number of terms each shard returns when sorting by document frequency, by default {@code size * 1.5 + 10} like
+     * the shard_size of the terms aggregation.
+     */
+    static int shardSize(AllTermsRequest request) {
+        if (request.shardSize() >= 0) {
+            return Math.max(request.shardSize(), request.size());
+        }
+        return (int) Math.min(Integer.MAX_VALUE, (long) (request.size() * 1.5 + 10));
+    }
+
+    /**
+     * Creates the cursor for the next page. Shards that have no more terms and whose terms were all returned are left out and
+     * their contexts are freed right away.
+     */
+    private String buildCursor(AllTermsRequest request, AllTermsSingleShardResponse[] responses, @Nullable BytesRef lastMergedTerm,
+                               String previousLastTerm) {
+        BytesRef lastTerm = lastMergedTerm == null ? (previousLastTerm == null ? null : new BytesRef(previousLastTerm)) : lastMergedTerm;
+        List<AllTermsCursor.ShardContext> shardContexts = new ArrayList<>();
+        for (AllTermsSingleShardResponse response : responses) {
+            if (response == null || response.contextId < 0) {
+                continue;
+            }
+            FrontCodedTerms shardTerms = response.shardTerms;
+            // a shard that ran out of time returns fewer terms but has more
+            boolean exhausted = shardTerms.size() < request.size() && response.timedOut == false;
+            boolean allReturned = shardTerms.isEmpty() || (lastTerm != null && shardTerms.last().compareTo(lastTerm) <= 0);
+            if (exhausted && allReturned) {
+                freeContext(request, response);
+            } else {
+                shardContexts.add(new AllTermsCursor.ShardContext(response.shardId, response.nodeId, response.contextId));
+            }
+        }
+        if (shardContexts.isEmpty()) {
+            return null;
+        }
+        return new AllTermsCursor(lastTerm == null ? null : lastTerm.utf8ToString(), shardContexts).encode();
+    }
+
+    private void freeContexts(AllTermsRequest request, AllTermsSingleShardResponse[] responses) {
+        for (AllTermsSingleShardResponse response : responses) {
+            if (response != null && response.contextId >= 0) {
+                freeContext(request, response);
+            }
+        }
+    }
+
+    // a request without keep alive frees the context, the terms returned are ignored
+    private void freeContext(AllTermsRequest request, AllTermsSingleShardResponse response) {
+        AllTermsShardRequest shardRequest = new AllTermsShardRequest(request, request.indices()[0], response.shardId, request.field(),
+                0, null, 0).contextId(response.contextId).preference("_only_node:" + response.nodeId);
+        shardAction.execute(shardRequest, new ActionListener<AllTermsSingleShardResponse>() {
+            @Override
+            public void onResponse(AllTermsSingleShardResponse freeResponse) {
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                logger.debug((Supplier<?>) () -> new ParameterizedMessage("failed to free all_terms cursor context [{}]",
+                        response.contextId), e);
+            }
+        });
+    }
 }
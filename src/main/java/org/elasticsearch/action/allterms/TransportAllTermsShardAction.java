@@ -21,10 +21,16 @@ package org.elasticsearch.action.allterms;
 
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.util.BytesRef;
-import org.apache.lucene.util.CharsRefBuilder;
+import org.apache.lucene.util.automaton.Automata;
+import org.apache.lucene.util.automaton.Automaton;
+import org.apache.lucene.util.automaton.CompiledAutomaton;
+import org.apache.lucene.util.automaton.Operations;
+import org.apache.lucene.util.automaton.RegExp;
 import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.common.Nullable;
 import org.elasticsearch.action.support.ActionFilters;
 import org.elasticsearch.action.support.single.shard.TransportSingleShardAction;
 import org.elasticsearch.cluster.ClusterState;
@@ -49,16 +55,28 @@ public class TransportAllTermsShardAction extends TransportSingleShardAction<All
 
     private final IndicesService indicesService;
 
+    private final AllTermsCursorService cursorService;
+
+    private final AllTermsShardCache shardCache;
+
     private static final String ACTION_NAME = AllTermsAction.NAME + "[s]";
 
+    /**
+     * The thread pool that collects the terms of shards, bounded so that large vocabularies cannot take over the generic pool.
+     */
+    public static final String EXECUTOR = "all_terms";
+
 
     @Inject
     public TransportAllTermsShardAction(Settings settings, ClusterService clusterService, TransportService transportService,
                                         IndicesService indicesService, ThreadPool threadPool, ActionFilters actionFilters,
-                                        IndexNameExpressionResolver indexNameExpressionResolver) {
+                                        IndexNameExpressionResolver indexNameExpressionResolver, AllTermsCursorService cursorService,
+                                        AllTermsShardCache shardCache) {
         super(settings, ACTION_NAME, threadPool, clusterService, transportService, actionFilters, indexNameExpressionResolver,
-                AllTermsShardRequest::new, ThreadPool.Names.GENERIC);
+                AllTermsShardRequest::new, EXECUTOR);
         this.indicesService = indicesService;
+        this.cursorService = cursorService;
+        this.shardCache = shardCache;
     }
 
     @Override
@@ -68,7 +86,7 @@ public class TransportAllTermsShardAction extends TransportSingleShardAction<All
 
     @Override
     protected AllTermsSingleShardResponse newResponse() {
-        return new AllTermsSingleShardResponse(null);
+        return new AllTermsSingleShardResponse();
     }
 
     @Override
@@ -84,7 +102,10 @@ public class TransportAllTermsShardAction extends TransportSingleShardAction<All
 
     @Override
     protected AllTermsSingleShardResponse shardOperation(AllTermsShardRequest request, ShardId shardId) throws ElasticsearchException {
-        List<String> terms = new ArrayList<>();
+        final TermsCollectionBudget budget = new TermsCollectionBudget(request.task(), request.timeout());
+        if (request.contextId() >= 0) {
+            return nextPage(request, cursorService.getContext(request.contextId()), request.from(), budget);
+        }
         IndexService indexService = indicesService.indexServiceSafe(shardId.getIndex());
         IndexShard indexShard = indexService.getShard(shardId.id());
         final Engine.Searcher searcher = indexShard.acquireSearcher("all_terms");
@@ -92,164 +113,199 @@ public class TransportAllTermsShardAction extends TransportSingleShardAction<All
 
         List<LeafReaderContext> leaves = topLevelReader.leaves();
 
-        try {
-            if (leaves.size() == 0) {
-                return new AllTermsSingleShardResponse(terms);
+        if (request.keepAlive() != null) {
+            // the searcher stays open as long as the cursor context
+            boolean success = false;
+            try {
+                BytesRef from = request.from() == null ? null : new BytesRef(request.from());
+                MergedTermsIterator mergedTerms = getMergedTerms(request, buildTermsFilter(request), leaves, from);
+                AllTermsCursorContext context = cursorService.createContext(searcher, mergedTerms, request.keepAlive());
+                success = true;
+                return nextPage(request, context, null, budget);
+            } catch (IOException e) {
+                throw new ElasticsearchException("failed to read terms of field [" + request.field() + "]", e);
+            } finally {
+                if (success == false) {
+                    searcher.close();
+                }
             }
-            getTerms(request, terms, leaves);
+        }
 
-            return new AllTermsSingleShardResponse(terms);
+        try {
+            return shardCache.getOrCompute(shardId, searcher.getDirectoryReader(), request,
+                    () -> collectTerms(request, budget, leaves));
+        } catch (ElasticsearchException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ElasticsearchException("failed to read terms of field [" + request.field() + "]", e);
         } finally {
             searcher.close();
         }
     }
 
-    protected static void getTerms(AllTermsShardRequest request, List<String> terms, List<LeafReaderContext> leaves) {
-        List<TermsEnum> termIters = getTermsEnums(request, leaves);
-        CharsRefBuilder spare = new CharsRefBuilder();
-        BytesRef lastTerm = null;
-        int[] exhausted = new int[termIters.size()];
-        for (int i = 0; i < exhausted.length; i++) {
-            exhausted[i] = 0;
+    private AllTermsSingleShardResponse collectTerms(AllTermsShardRequest request, TermsCollectionBudget budget,
+                                                     List<LeafReaderContext> leaves) throws IOException {
+        FrontCodedTerms.Builder terms = new FrontCodedTerms.Builder();
+        TermStatsBuilder stats = request.termStatistics() ? new TermStatsBuilder() : null;
+        if (leaves.size() == 0) {
+            return new AllTermsSingleShardResponse(terms.build()).termStats(stats);
         }
-        try {
-            lastTerm = findSmallestTermAfter(request, termIters, lastTerm, exhausted);
-
-            if (lastTerm == null) {
-                return;
-            }
-            findNMoreTerms(request, terms, termIters, spare, lastTerm, exhausted);
-        } catch (IOException e) {
+        if (request.sort() == AllTermsRequest.Sort.DOC_FREQ) {
+            return getTopTerms(request, budget, leaves);
         }
-    }
-
-    protected static void findNMoreTerms(AllTermsShardRequest request, List<String> terms, List<TermsEnum> termIters, CharsRefBuilder spare,
-                                         BytesRef lastTerm, int[] exhausted) {
-        if (getDocFreq(termIters, lastTerm, exhausted) >= request.minDocFreq()) {
-            spare.copyUTF8Bytes(lastTerm);
-            terms.add(spare.toString());
-        }
-        BytesRef bytesRef = new BytesRef(lastTerm.utf8ToString());
-        lastTerm = bytesRef;
-        while (terms.size() < request.size() && lastTerm != null) {
-            moveIterators(exhausted, termIters, lastTerm);
-            lastTerm = findMinimum(exhausted, termIters);
-            if (lastTerm != null) {
-                if (getDocFreq(termIters, lastTerm, exhausted) >= request.minDocFreq()) {
-                    spare.copyUTF8Bytes(lastTerm);
-                    terms.add(spare.toString());
-                }
-            }
+        if (request.parallelism() > 1 && leaves.size() > 1) {
+            ParallelTermsCollector.collect(request, terms, stats, budget, leaves, request.parallelism(),
+                    threadPool.executor(ThreadPool.Names.SEARCH));
+        } else {
+            getTerms(request, terms, stats, budget, leaves);
         }
+        return new AllTermsSingleShardResponse(terms.build()).termStats(stats).timedOut(budget.isTimedOut());
     }
 
-    protected static List<TermsEnum> getTermsEnums(AllTermsShardRequest request, List<LeafReaderContext> leaves) {
-        List<TermsEnum> termIters = new ArrayList<>();
+    /**
+     * Reads the next page from a context that this request holds a reference to and releases the reference.
+     */
+    private AllTermsSingleShardResponse nextPage(AllTermsShardRequest request, AllTermsCursorContext context, String from,
+                                                 TermsCollectionBudget budget) {
+        // the context is freed after the last page and after failures, which might have left it half way through a page
+        boolean free = true;
         try {
-            for (LeafReaderContext reader : leaves) {
-                termIters.add(reader.reader().terms(request.field()).iterator());
+            TermStatsBuilder stats = request.termStatistics() ? new TermStatsBuilder() : null;
+            FrontCodedTerms terms = context.nextPage(from, request.size(), request.minDocFreq(), stats, budget);
+            if (request.keepAlive() == null) {
+                return new AllTermsSingleShardResponse(terms).termStats(stats).timedOut(budget.isTimedOut());
             }
+            context.keepAlive(request.keepAlive().millis());
+            free = false;
+            return new AllTermsSingleShardResponse(terms, request.shardId(), context.id(), clusterService.localNode().getId())
+                    .termStats(stats).timedOut(budget.isTimedOut());
         } catch (IOException e) {
+            throw new ElasticsearchException("failed to read terms of field [" + request.field() + "]", e);
+        } finally {
+            if (free) {
+                cursorService.freeContext(context.id());
+            }
+            context.decRef();
         }
-        return termIters;
     }
 
-    protected static BytesRef findSmallestTermAfter(AllTermsShardRequest request, List<TermsEnum> termIters, BytesRef lastTerm,
-                                                    int[] exhausted) throws IOException {
-        for (int i = 0; i < termIters.size(); i++) {
-            BytesRef curTerm = null;
-            if (request.from() != null) {
-                // move to the term we want to start after
-                TermsEnum.SeekStatus seekStatus = termIters.get(i).seekCeil(new BytesRef(request.from()));
-                if (seekStatus.equals(TermsEnum.SeekStatus.END)) {
-                    exhausted[i] = 1;
-                } else if (seekStatus.equals(TermsEnum.SeekStatus.FOUND)) {
-                    curTerm = termIters.get(i).next();
-                    if (curTerm == null) {
-                        exhausted[i] = 1;
-                    }
-                } else {
-                    curTerm = termIters.get(i).term(); // otherwise we are good
-                }
-
-            } else {
-                curTerm = termIters.get(i).next();
-                if (curTerm == null) {
-                    exhausted[i] = 1;// which means there were no terms at all which is odd but I am not sure this cannot happen
-                }
-            }
-            // see it it is the smallest term
-            if (exhausted[i] != 1) {
-                if (lastTerm == null) {
-                    lastTerm = curTerm;
-                } else {
-                    if (curTerm.compareTo(lastTerm) < 0) {
-                        lastTerm = curTerm;
-                    }
+    protected static void getTerms(AllTermsShardRequest request, FrontCodedTerms.Builder terms, @Nullable TermStatsBuilder stats,
+                                   @Nullable TermsCollectionBudget budget, List<LeafReaderContext> leaves) throws IOException {
+        BytesRef from = request.from() == null ? null : new BytesRef(request.from());
+        MergedTermsIterator mergedTerms = getMergedTerms(request, buildTermsFilter(request), leaves, from);
+        mergedTerms.budget(budget);
+        BytesRef term;
+        while (terms.size() < request.size() && (term = mergedTerms.next()) != null) {
+            if (mergedTerms.docFreq() >= request.minDocFreq()) {
+                terms.add(term);
+                if (stats != null) {
+                    stats.add(mergedTerms.docFreq(), mergedTerms.totalTermFreq());
                 }
             }
         }
-        return lastTerm;
     }
 
-    protected static long getDocFreq(List<TermsEnum> termIters, BytesRef lastTerm, int[] exhausted) {
-        long docFreq = 0;
-        for (int i = 0; i < termIters.size(); i++) {
-            if (exhausted[i] == 0) {
-                try {
-                    if (termIters.get(i).term().compareTo(lastTerm) == 0) {
-                        docFreq += termIters.get(i).docFreq();
-                    }
-                } catch (IOException e) {
-                }
+    /**
+     * Returns the size most frequent terms of the shard that are greater than from, sorted by term so that the coordinating
+     * node can merge the terms of all shards. The minimum document frequency is not applied here but to the document
+     * frequencies summed over all shards.
+     */
+    protected static AllTermsSingleShardResponse getTopTerms(AllTermsShardRequest request, @Nullable TermsCollectionBudget budget,
+                                                             List<LeafReaderContext> leaves) throws IOException {
+        BytesRef from = request.from() == null ? null : new BytesRef(request.from());
+        long uniqueTerms = 0;
+        for (LeafReaderContext reader : leaves) {
+            Terms terms = reader.reader().terms(request.field());
+            if (terms != null) {
+                // -1 if the codec does not know, then we cannot bound the queue by the number of terms
+                uniqueTerms = terms.size() < 0 || uniqueTerms < 0 ? -1 : uniqueTerms + terms.size();
             }
         }
-        return docFreq;
+        int queueSize = uniqueTerms < 0 ? (int) request.size() : (int) Math.min(request.size(), uniqueTerms);
+        TopTermsQueue queue = new TopTermsQueue(queueSize);
+        MergedTermsIterator mergedTerms = getMergedTerms(request, buildTermsFilter(request), leaves, from);
+        mergedTerms.budget(budget);
+        for (BytesRef term = mergedTerms.next(); term != null; term = mergedTerms.next()) {
+            queue.insert(term, mergedTerms.docFreq(), mergedTerms.totalTermFreq());
+        }
+        TopTermsQueue.Entry[] entries = queue.drainByTerm();
+        FrontCodedTerms.Builder terms = new FrontCodedTerms.Builder();
+        long[] docFreqs = new long[entries.length];
+        long[] totalTermFreqs = new long[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            terms.add(entries[i].term());
+            docFreqs[i] = entries[i].docFreq();
+            totalTermFreqs[i] = entries[i].totalTermFreq();
+        }
+        return new AllTermsSingleShardResponse(terms.build(), docFreqs, request.termStatistics() ? totalTermFreqs : null)
+                .timedOut(budget != null && budget.isTimedOut());
     }
 
-    // returns  copy of the lexicographically smallest term found
-    protected static BytesRef findMinimum(int[] exhausted, List<TermsEnum> termIters) {
-        BytesRef minTerm = null;
-        for (int i = 0; i < termIters.size(); i++) {
-            if (exhausted[i] == 1) {
-                continue;
-            }
-            BytesRef candidate = null;
-            try {
-                candidate = termIters.get(i).term();
-            } catch (IOException e) {
+    protected static List<TermsEnum> getTermsEnums(AllTermsShardRequest request, List<LeafReaderContext> leaves)
+            throws IOException {
+        List<TermsEnum> termIters = new ArrayList<>();
+        for (LeafReaderContext reader : leaves) {
+            Terms terms = reader.reader().terms(request.field());
+            if (terms != null) {
+                termIters.add(terms.iterator());
             }
-            if (minTerm == null) {
-                minTerm = candidate;
+        }
+        return termIters;
+    }
 
-            } else {
-                //it is actually smaller, so we use it
-                if (minTerm.compareTo(candidate) > 0) {
-                    minTerm = candidate;
-                }
-            }
+    /**
+     * Merges the terms of all leaves that are greater than from and accepted by the filter.
+     *
+     * @param filter the automaton built by {@link #buildTermsFilter} or null
+     */
+    protected static MergedTermsIterator getMergedTerms(AllTermsShardRequest request, @Nullable CompiledAutomaton filter,
+                                                       List<LeafReaderContext> leaves, @Nullable BytesRef from) throws IOException {
+        if (filter == null || filter.type == CompiledAutomaton.AUTOMATON_TYPE.ALL) {
+            return new MergedTermsIterator(getTermsEnums(request, leaves), from);
         }
-        if (minTerm != null) {
-            BytesRef ret = new BytesRef(minTerm.utf8ToString());
-            return ret;
+        List<TermsEnum> termIters = new ArrayList<>();
+        if (filter.type == CompiledAutomaton.AUTOMATON_TYPE.NONE ||
+                (filter.type == CompiledAutomaton.AUTOMATON_TYPE.SINGLE && from != null && filter.term.compareTo(from) <= 0)) {
+            return new MergedTermsIterator(termIters, null);
+        }
+        for (LeafReaderContext reader : leaves) {
+            Terms terms = reader.reader().terms(request.field());
+            if (terms != null) {
+                // intersect only visits the blocks of the terms dictionary that can contain matching terms
+                termIters.add(filter.type == CompiledAutomaton.AUTOMATON_TYPE.NORMAL ? terms.intersect(filter, from) :
+                        filter.getTermsEnum(terms));
+            }
         }
-        return null;
+        // filtered enums cannot seek, they already start after from
+        return new MergedTermsIterator(termIters, null);
     }
 
-    // last term is expected to be a copy of a term not just some reference into a terms iterator
-    protected static void moveIterators(int[] exhausted, List<TermsEnum> termIters, BytesRef lastTerm) {
-        try {
-            for (int i = 0; i < termIters.size(); i++) {
-                if (exhausted[i] == 1) {
-                    continue;
-                }
-                if (termIters.get(i).term().compareTo(lastTerm) == 0) {
-                    if (termIters.get(i).next() == null) {
-                        exhausted[i] = 1;
-                    }
-                }
-            }
-        } catch (IOException e) {
+    /**
+     * Builds the automaton that accepts the terms matching prefix, include and the length bounds of the request or returns
+     * null if the request does not filter terms.
+     */
+    @Nullable
+    protected static CompiledAutomaton buildTermsFilter(AllTermsShardRequest request) {
+        List<Automaton> automata = new ArrayList<>();
+        if (request.prefix() != null) {
+            automata.add(Operations.concatenate(Automata.makeString(request.prefix()), Automata.makeAnyString()));
+        }
+        if (request.include() != null) {
+            automata.add(new RegExp(request.include()).toAutomaton(Operations.DEFAULT_MAX_DETERMINIZED_STATES));
+        }
+        if (request.minLength() > 0 || request.maxLength() >= 0) {
+            // lengths are counted in code points, the compiled automaton translates them to utf-8
+            automata.add(request.maxLength() >= 0 ?
+                    Operations.repeat(Automata.makeAnyChar(), request.minLength(), request.maxLength()) :
+                    Operations.repeat(Automata.makeAnyChar(), request.minLength()));
+        }
+        if (automata.isEmpty()) {
+            return null;
+        }
+        Automaton automaton = automata.get(0);
+        for (int i = 1; i < automata.size(); i++) {
+            automaton = Operations.intersection(automaton, automata.get(i));
         }
+        return new CompiledAutomaton(automaton, null, true, Operations.DEFAULT_MAX_DETERMINIZED_STATES, false);
     }
 }
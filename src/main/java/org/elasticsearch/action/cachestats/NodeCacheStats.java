@@ -0,0 +1,93 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.action.cachestats;
+
+import org.elasticsearch.action.support.nodes.BaseNodeResponse;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+
+/**
+ * The statistics of the caches of the plugin on one node.
+ */
+public class NodeCacheStats extends BaseNodeResponse implements ToXContent {
+
+    private CacheStats allTermsCache;
+    private CacheStats docToVectorCache;
+
+    NodeCacheStats() {
+    }
+
+    NodeCacheStats(DiscoveryNode node, CacheStats allTermsCache, CacheStats docToVectorCache) {
+        super(node);
+        this.allTermsCache = allTermsCache;
+        this.docToVectorCache = docToVectorCache;
+    }
+
+    static NodeCacheStats readNodeCacheStats(StreamInput in) throws IOException {
+        NodeCacheStats stats = new NodeCacheStats();
+        stats.readFrom(in);
+        return stats;
+    }
+
+    /**
+     * The statistics of the shard level cache of the all terms action.
+     */
+    public CacheStats getAllTermsCache() {
+        return allTermsCache;
+    }
+
+    /**
+     * The statistics of the cache of the specs parsed by the doc_to_vector script.
+     */
+    public CacheStats getDocToVectorCache() {
+        return docToVectorCache;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        allTermsCache = new CacheStats(in);
+        docToVectorCache = new CacheStats(in);
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        allTermsCache.writeTo(out);
+        docToVectorCache.writeTo(out);
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.field("name", getNode().getName());
+        builder.startObject("all_terms_cache");
+        allTermsCache.toXContent(builder, params);
+        builder.endObject();
+        builder.startObject("doc_to_vector_cache");
+        docToVectorCache.toXContent(builder, params);
+        builder.endObject();
+        return builder;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.action.cachestats;
+
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.allterms.AllTermsShardCache;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.nodes.BaseNodeRequest;
+import org.elasticsearch.action.support.nodes.TransportNodesAction;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.script.pmml.VectorizerCache;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import java.util.List;
+
+public class TransportCacheStatsAction extends TransportNodesAction<CacheStatsRequest, CacheStatsResponse,
+        TransportCacheStatsAction.NodeRequest, NodeCacheStats> {
+
+    private final AllTermsShardCache allTermsShardCache;
+    private final VectorizerCache vectorizerCache;
+
+    @Inject
+    public TransportCacheStatsAction(Settings settings, ThreadPool threadPool, ClusterService clusterService,
+                                     TransportService transportService, ActionFilters actionFilters,
+                                     IndexNameExpressionResolver indexNameExpressionResolver,
+                                     AllTermsShardCache allTermsShardCache, VectorizerCache vectorizerCache) {
+        super(settings, CacheStatsAction.NAME, threadPool, clusterService, transportService, actionFilters,
+                indexNameExpressionResolver, CacheStatsRequest::new, NodeRequest::new, ThreadPool.Names.MANAGEMENT,
+                NodeCacheStats.class);
+        this.allTermsShardCache = allTermsShardCache;
+        this.vectorizerCache = vectorizerCache;
+    }
+
+    @Override
+    protected CacheStatsResponse newResponse(CacheStatsRequest request, List<NodeCacheStats> responses,
+                                             List<FailedNodeException> failures) {
+        return new CacheStatsResponse(clusterService.getClusterName(), responses, failures);
+    }
+
+    @Override
+    protected NodeRequest newNodeRequest(String nodeId, CacheStatsRequest request) {
+        return new NodeRequest(nodeId);
+    }
+
+    @Override
+    protected NodeCacheStats newNodeResponse() {
+        return new NodeCacheStats();
+    }
+
+    @Override
+    protected NodeCacheStats nodeOperation(NodeRequest request) {
+        return new NodeCacheStats(clusterService.localNode(), allTermsShardCache.stats(), vectorizerCache.stats());
+    }
+
+    protected boolean accumulateExceptions() {
+        return false;
+    }
+
+    public static class NodeRequest extends BaseNodeRequest {
+
+        public NodeRequest() {
+        }
+
+        NodeRequest(String nodeId) {
+            super(nodeId);
+        }
+    }
+}
@@ -20,16 +20,33 @@
 package org.elasticsearch.action.preparespec;
 
 import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.allterms.AllTermsRequest;
 import org.elasticsearch.action.allterms.AllTermsRequestBuilder;
 import org.elasticsearch.action.allterms.AllTermsResponse;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class StringFieldAllTermsSpecRequest implements FieldSpecRequest {
 
+    private static final int PAGE_SIZE = 10000;
+    private static final TimeValue KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+
     private long min_doc_freq;
     private String field;
     String index;
     String number;
+    private String prefix;
+    private String include;
+    private int minLength = 0;
+    private int maxLength = -1;
+    private int maxTerms = -1;
+    private Float k1;
+    private Float b;
 
     public StringFieldAllTermsSpecRequest(long min_doc_freq, String index, String number, String field) {
         this.min_doc_freq = min_doc_freq;
@@ -38,20 +55,93 @@ public class StringFieldAllTermsSpecRequest implements FieldSpecRequest {
         this.field = field;
     }
 
+    public void prefix(String prefix) {
+        this.prefix = prefix;
+    }
+
+    public void include(String include) {
+        this.include = include;
+    }
+
+    public void minLength(int minLength) {
+        this.minLength = minLength;
+    }
+
+    public void maxLength(int maxLength) {
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Only use the maxTerms terms with the highest document frequency, -1 to use all terms.
+     */
+    public void maxTerms(int maxTerms) {
+        this.maxTerms = maxTerms;
+    }
+
+    /**
+     * The bm25 parameters of the spec, null for the defaults.
+     */
+    public void bm25(@Nullable Float k1, @Nullable Float b) {
+        this.k1 = k1;
+        this.b = b;
+    }
+
+    private AllTermsRequestBuilder allTermsRequest(Client client) {
+        return new AllTermsRequestBuilder(client).field(field).minDocFreq(min_doc_freq).index(index).size(PAGE_SIZE).scroll(KEEP_ALIVE)
+                .prefix(prefix).include(include).minLength(minLength).maxLength(maxLength);
+    }
+
     @Override
     public void process(final TransportPrepareSpecAction.FieldSpecActionListener fieldSpecActionListener, Client client) {
-        new AllTermsRequestBuilder(client).field(field).minDocFreq(min_doc_freq).index(index).size(Integer.MAX_VALUE).execute(
-                new ActionListener<AllTermsResponse>() {
-            @Override
-            public void onResponse(AllTermsResponse allTerms) {
-                fieldSpecActionListener.onResponse(new StringFieldSpec(allTerms.getAllTerms().toArray(
-                        new String[allTerms.getAllTerms().size()]), number, field));
-            }
+        if (maxTerms >= 0) {
+            // the shards only keep their most frequent terms, there is no need to page through the whole vocabulary
+            allTermsRequest(client).scroll(null).size(maxTerms).sort(AllTermsRequest.Sort.DOC_FREQ)
+                    .execute(new ActionListener<AllTermsResponse>() {
+                        @Override
+                        public void onResponse(AllTermsResponse allTerms) {
+                            String[] terms = allTerms.getAllTerms().toArray(new String[allTerms.getAllTerms().size()]);
+                            Arrays.sort(terms);
+                            fieldSpecActionListener.onResponse(new StringFieldSpec(terms, number, field, k1, b));
+                        }
 
-            @Override
-            public void onFailure(Exception exception) {
-                fieldSpecActionListener.onFailure(exception);
+                        @Override
+                        public void onFailure(Exception exception) {
+                            fieldSpecActionListener.onFailure(exception);
+                        }
+                    });
+            return;
+        }
+        allTermsRequest(client).execute(new AllTermsPageListener(fieldSpecActionListener, client));
+    }
+
+    /**
+     * Collects the vocabulary page by page with an all_terms cursor so that the shards do not have to seek to the last
+     * term again for every page.
+     */
+    private class AllTermsPageListener implements ActionListener<AllTermsResponse> {
+
+        private final TransportPrepareSpecAction.FieldSpecActionListener fieldSpecActionListener;
+        private final Client client;
+        private final List<String> terms = new ArrayList<>();
+
+        AllTermsPageListener(TransportPrepareSpecAction.FieldSpecActionListener fieldSpecActionListener, Client client) {
+            this.fieldSpecActionListener = fieldSpecActionListener;
+            this.client = client;
+        }
+
+        @Override
+        public void onResponse(AllTermsResponse allTerms) {
+            terms.addAll(allTerms.getAllTerms());
+            if (allTerms.getCursor() != null) {
+                allTermsRequest(client).cursor(allTerms.getCursor()).execute(this);
+            } else {
+                fieldSpecActionListener.onResponse(new StringFieldSpec(terms.toArray(new String[terms.size()]), number, field, k1, b));
             }
-        });
+        }
+
+        @Override
+        public void onFailure(Exception exception) {
+            fieldSpecActionListener.onFailure(exception);
+        }
     }
 }
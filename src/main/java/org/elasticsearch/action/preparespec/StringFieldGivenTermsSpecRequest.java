@@ -20,6 +20,7 @@
 package org.elasticsearch.action.preparespec;
 
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.Nullable;
 
 import java.util.Arrays;
 
@@ -28,6 +29,8 @@ public class StringFieldGivenTermsSpecRequest implements FieldSpecRequest {
     private String[] terms;
     private String field;
     String number;
+    private Float k1;
+    private Float b;
 
     public StringFieldGivenTermsSpecRequest(String[] terms, String number, String field) {
         this.terms = terms;
@@ -35,9 +38,17 @@ public class StringFieldGivenTermsSpecRequest implements FieldSpecRequest {
         this.field = field;
     }
 
+    /**
+     * The bm25 parameters of the spec, null for the defaults.
+     */
+    public void bm25(@Nullable Float k1, @Nullable Float b) {
+        this.k1 = k1;
+        this.b = b;
+    }
+
     @Override
     public void process(final TransportPrepareSpecAction.FieldSpecActionListener fieldSpecActionListener, Client client) {
         Arrays.sort(terms);
-        fieldSpecActionListener.onResponse(new StringFieldSpec(terms, number, field));
+        fieldSpecActionListener.onResponse(new StringFieldSpec(terms, number, field, k1, b));
     }
 }
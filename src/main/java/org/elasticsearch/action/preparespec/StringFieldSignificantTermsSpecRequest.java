@@ -22,6 +22,7 @@ package org.elasticsearch.action.preparespec;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.Nullable;
 import org.elasticsearch.search.aggregations.Aggregation;
 import org.elasticsearch.search.aggregations.Aggregations;
 import org.elasticsearch.search.aggregations.bucket.MultiBucketsAggregation;
@@ -38,6 +39,8 @@ public class StringFieldSignificantTermsSpecRequest implements FieldSpecRequest
     String index;
     String number;
     private String field;
+    private Float k1;
+    private Float b;
 
     public StringFieldSignificantTermsSpecRequest(SearchSourceBuilder searchRequest, String index, String number, String field) {
         this.searchRequest = searchRequest;
@@ -46,6 +49,14 @@ public class StringFieldSignificantTermsSpecRequest implements FieldSpecRequest
         this.field = field;
     }
 
+    /**
+     * The bm25 parameters of the spec, null for the defaults.
+     */
+    public void bm25(@Nullable Float k1, @Nullable Float b) {
+        this.k1 = k1;
+        this.b = b;
+    }
+
     private Set<String> extractTerms(Aggregation aggregation) {
         Set<String> terms = new HashSet<>();
         if (aggregation instanceof MultiBucketsAggregation) {
@@ -75,7 +86,7 @@ public class StringFieldSignificantTermsSpecRequest implements FieldSpecRequest
                 Set<String> terms = extractTerms(termsAgg);
                 String[] finalTerms = terms.toArray(new String[terms.size()]);
                 Arrays.sort(finalTerms);
-                fieldSpecActionListener.onResponse(new StringFieldSpec(finalTerms, number, field));
+                fieldSpecActionListener.onResponse(new StringFieldSpec(finalTerms, number, field, k1, b));
             }
 
             @Override
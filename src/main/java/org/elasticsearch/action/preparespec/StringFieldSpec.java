@@ -19,6 +19,7 @@
 
 package org.elasticsearch.action.preparespec;
 
+import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 
 import java.io.IOException;
@@ -28,12 +29,24 @@ public class StringFieldSpec extends FieldSpec {
     String[] terms;
     String field;
     String number;
+    Float k1;
+    Float b;
 
     public StringFieldSpec(String[] terms, String number, String field) {
+        this(terms, number, field, null, null);
+    }
+
+    /**
+     * @param k1 the bm25 term frequency saturation, null for the default
+     * @param b  the bm25 length normalization, null for the default
+     */
+    public StringFieldSpec(String[] terms, String number, String field, @Nullable Float k1, @Nullable Float b) {
         super();
         this.number = number;
         this.field = field;
         this.terms = terms;
+        this.k1 = k1;
+        this.b = b;
     }
 
     @Override
@@ -43,6 +56,12 @@ public class StringFieldSpec extends FieldSpec {
         xContentBuilder.field("field", field);
         xContentBuilder.field("terms", terms);
         xContentBuilder.field("type", "terms");
+        if (k1 != null) {
+            xContentBuilder.field("k1", k1);
+        }
+        if (b != null) {
+            xContentBuilder.field("b", b);
+        }
         xContentBuilder.endObject();
         return xContentBuilder;
     }
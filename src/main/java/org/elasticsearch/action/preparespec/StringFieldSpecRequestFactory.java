@@ -25,6 +25,7 @@ import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.index.query.QueryParseContext;
 import org.elasticsearch.indices.query.IndicesQueriesRegistry;
+import org.elasticsearch.ml.modelinput.AnalyzedTextVectorRange;
 import org.elasticsearch.search.SearchExtRegistry;
 import org.elasticsearch.search.aggregations.AggregatorParsers;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
@@ -52,6 +53,8 @@ public class StringFieldSpecRequestFactory {
         if (number == null) {
             throw new ElasticsearchException("number parameter missing from prepare spec request");
         }
+        Float k1 = getBM25Parameter(parameters, "k1", number);
+        Float b = getBM25Parameter(parameters, "b", number);
         if (TokenGenerateMethod.fromString(tokens).equals(TokenGenerateMethod.SIGNIFICANT_TERMS)) {
             String searchRequest = (String) parameters.remove("request");
             if (searchRequest == null) {
@@ -64,7 +67,10 @@ public class StringFieldSpecRequestFactory {
             assertParametersEmpty(parameters);
             SearchSourceBuilder searchSourceBuilder = parseSearchRequest(queryRegistry, aggParsers, suggesters, parseFieldMatcher,
                     searchExtRegistry, searchRequest);
-            return new StringFieldSignificantTermsSpecRequest(searchSourceBuilder, index, number, field);
+            StringFieldSignificantTermsSpecRequest significantTermsSpecRequest = new StringFieldSignificantTermsSpecRequest(
+                    searchSourceBuilder, index, number, field);
+            significantTermsSpecRequest.bm25(k1, b);
+            return significantTermsSpecRequest;
         }
         if (TokenGenerateMethod.fromString(tokens).equals(TokenGenerateMethod.ALL_TERMS)) {
             String index = (String) parameters.remove("index");
@@ -76,8 +82,24 @@ public class StringFieldSpecRequestFactory {
                 throw new ElasticsearchException("min_doc_freq parameter missing from prepare spec request");
             }
             long min_doc_freq = ((Number) min_doc_freq_obj).longValue();
+            StringFieldAllTermsSpecRequest allTermsSpecRequest = new StringFieldAllTermsSpecRequest(min_doc_freq, index, number, field);
+            allTermsSpecRequest.bm25(k1, b);
+            allTermsSpecRequest.prefix((String) parameters.remove("prefix"));
+            allTermsSpecRequest.include((String) parameters.remove("include"));
+            Object min_length_obj = parameters.remove("min_length");
+            if (min_length_obj != null) {
+                allTermsSpecRequest.minLength(((Number) min_length_obj).intValue());
+            }
+            Object max_length_obj = parameters.remove("max_length");
+            if (max_length_obj != null) {
+                allTermsSpecRequest.maxLength(((Number) max_length_obj).intValue());
+            }
+            Object max_terms_obj = parameters.remove("max_terms");
+            if (max_terms_obj != null) {
+                allTermsSpecRequest.maxTerms(((Number) max_terms_obj).intValue());
+            }
             assertParametersEmpty(parameters);
-            return new StringFieldAllTermsSpecRequest(min_doc_freq, index, number, field);
+            return allTermsSpecRequest;
         }
         if (TokenGenerateMethod.fromString(tokens).equals(TokenGenerateMethod.GIVEN)) {
             @SuppressWarnings("unchecked")
@@ -86,11 +108,28 @@ public class StringFieldSpecRequestFactory {
                 throw new ElasticsearchException("terms parameter missing from prepare spec request");
             }
             assertParametersEmpty(parameters);
-            return new StringFieldGivenTermsSpecRequest(terms.toArray(new String[terms.size()]), number, field);
+            StringFieldGivenTermsSpecRequest givenTermsSpecRequest = new StringFieldGivenTermsSpecRequest(
+                    terms.toArray(new String[terms.size()]), number, field);
+            givenTermsSpecRequest.bm25(k1, b);
+            return givenTermsSpecRequest;
         }
         throw new UnsupportedOperationException("Have not implemented given yet!");
     }
 
+    private static Float getBM25Parameter(Map<String, Object> parameters, String name, String number) {
+        Object value = parameters.remove(name);
+        if (value == null) {
+            return null;
+        }
+        if (AnalyzedTextVectorRange.FeatureType.fromString(number) != AnalyzedTextVectorRange.FeatureType.BM25) {
+            throw new ElasticsearchException(name + " parameter is only supported for number bm25 but number was " + number);
+        }
+        if (value instanceof Number == false) {
+            throw new ElasticsearchException(name + " parameter must be a number but was " + value);
+        }
+        return ((Number) value).floatValue();
+    }
+
     private static void assertParametersEmpty(Map<String, Object> parameters) {
         if (parameters.isEmpty() == false) {
             throw new IllegalStateException("found additional parameters and don't know what to do with them!" +
@@ -0,0 +1,253 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.ml.factories;
+
+import org.dmg.pmml.Array;
+import org.dmg.pmml.CompoundPredicate;
+import org.dmg.pmml.False;
+import org.dmg.pmml.Node;
+import org.dmg.pmml.Predicate;
+import org.dmg.pmml.SimplePredicate;
+import org.dmg.pmml.SimpleSetPredicate;
+import org.dmg.pmml.True;
+import org.elasticsearch.ml.models.FlatTree;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles the nodes of a PMML tree into a {@link FlatTree}. Trees with predicates the flat layout cannot express, like
+ * comparisons of strings, are not compiled and keep being evaluated by {@link org.elasticsearch.ml.models.EsTreeModel}.
+ */
+final class FlatTreeCompiler {
+
+    private final FlatTree.Builder builder;
+    private final Map<String, String> fieldTypeMap;
+    // whether a node whose children all do not match returns its own score or no prediction
+    private boolean returnLastPrediction = true;
+
+    private FlatTreeCompiler(Map<String, String> fieldTypeMap, int maxCompiledSize) {
+        this.fieldTypeMap = fieldTypeMap;
+        this.builder = new FlatTree.Builder().maxCompiledSize(maxCompiledSize);
+    }
+
+    /**
+     * Returns the flat tree or null if the tree cannot be flattened. Trees up to maxCompiledSize nodes and predicates are
+     * also compiled into method handles.
+     */
+    static FlatTree compile(Node root, Map<String, String> fieldTypeMap, int maxCompiledSize) {
+        FlatTreeCompiler compiler = new FlatTreeCompiler(fieldTypeMap, maxCompiledSize);
+        if (compiler.compileNode(compiler.builder.addNodes(1), root) == false) {
+            return null;
+        }
+        return compiler.builder.build();
+    }
+
+    /**
+     * Compiles the trees of a forest into one flat tree whose trees share the slots of one row. Returns null if one of the
+     * trees cannot be flattened. The classes are numbered in the given order before the classes of the scores.
+     *
+     * @param returnLastPrediction per tree, whether a node whose children all do not match returns its own score instead
+     *                             of no prediction
+     */
+    static FlatTree compileForest(List<Node> roots, List<Boolean> returnLastPrediction, List<String> classes,
+                                  Map<String, String> fieldTypeMap, int maxCompiledSize) {
+        FlatTreeCompiler compiler = new FlatTreeCompiler(fieldTypeMap, maxCompiledSize);
+        for (String className : classes) {
+            compiler.builder.classOrdinal(className);
+        }
+        for (int i = 0; i < roots.size(); i++) {
+            compiler.returnLastPrediction = returnLastPrediction.get(i);
+            if (compiler.compileNode(compiler.builder.addTree(), roots.get(i)) == false) {
+                return null;
+            }
+        }
+        return compiler.builder.build();
+    }
+
+    private boolean compileNode(int id, Node node) {
+        int predicate = compilePredicate(node.getPredicate());
+        if (predicate == -1) {
+            return false;
+        }
+        List<Node> children = node.getNodes();
+        int firstChild = builder.addNodes(children.size());
+        String score = children.isEmpty() || returnLastPrediction ? node.getScore() : null;
+        builder.setNode(id, predicate, score, firstChild, children.size());
+        for (int i = 0; i < children.size(); i++) {
+            if (compileNode(firstChild + i, children.get(i)) == false) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of the compiled predicate or -1 if it cannot be compiled.
+     */
+    private int compilePredicate(Predicate predicate) {
+        if (predicate instanceof True) {
+            return builder.constantPredicate(true);
+        }
+        if (predicate instanceof False) {
+            return builder.constantPredicate(false);
+        }
+        if (predicate instanceof SimplePredicate) {
+            return compileSimplePredicate((SimplePredicate) predicate);
+        }
+        if (predicate instanceof SimpleSetPredicate) {
+            return compileSetPredicate((SimpleSetPredicate) predicate);
+        }
+        if (predicate instanceof CompoundPredicate) {
+            CompoundPredicate compoundPredicate = (CompoundPredicate) predicate;
+            byte operator;
+            switch (compoundPredicate.getBooleanOperator().value()) {
+                case "and":
+                    operator = FlatTree.AND;
+                    break;
+                case "or":
+                    operator = FlatTree.OR;
+                    break;
+                case "xor":
+                    operator = FlatTree.XOR;
+                    break;
+                case "surrogate":
+                    operator = FlatTree.SURROGATE;
+                    break;
+                default:
+                    return -1;
+            }
+            List<Predicate> predicates = compoundPredicate.getPredicates();
+            int[] arguments = new int[predicates.size()];
+            for (int i = 0; i < arguments.length; i++) {
+                arguments[i] = compilePredicate(predicates.get(i));
+                if (arguments[i] == -1) {
+                    return -1;
+                }
+            }
+            return builder.compoundPredicate(operator, arguments);
+        }
+        return -1;
+    }
+
+    private int compileSimplePredicate(SimplePredicate predicate) {
+        String field = predicate.getField().getValue();
+        int slot = slot(field);
+        if (slot == -1) {
+            return -1;
+        }
+        byte operator;
+        switch (predicate.getOperator().value()) {
+            case "equal":
+                operator = FlatTree.EQUAL;
+                break;
+            case "notEqual":
+                operator = FlatTree.NOT_EQUAL;
+                break;
+            case "lessThan":
+                operator = FlatTree.LESS_THAN;
+                break;
+            case "lessOrEqual":
+                operator = FlatTree.LESS_OR_EQUAL;
+                break;
+            case "greaterThan":
+                operator = FlatTree.GREATER_THAN;
+                break;
+            case "greaterOrEqual":
+                operator = FlatTree.GREATER_OR_EQUAL;
+                break;
+            case "isMissing":
+                return builder.simplePredicate(FlatTree.IS_MISSING, slot, Double.NaN);
+            case "isNotMissing":
+                return builder.simplePredicate(FlatTree.IS_NOT_MISSING, slot, Double.NaN);
+            default:
+                return -1;
+        }
+        String value = predicate.getValue();
+        switch (fieldTypeMap.get(field)) {
+            case "double":
+                return builder.simplePredicate(operator, slot, Double.parseDouble(value));
+            case "float":
+                return builder.simplePredicate(operator, slot, Float.parseFloat(value));
+            case "int":
+            case "integer":
+                return builder.simplePredicate(operator, slot, Integer.parseInt(value));
+            default:
+                // categories have no order
+                if (operator != FlatTree.EQUAL && operator != FlatTree.NOT_EQUAL) {
+                    return -1;
+                }
+                Object category = fieldTypeMap.get(field).equals("boolean") ? Boolean.valueOf(value) : value;
+                return builder.simplePredicate(operator, slot, builder.category(slot, category));
+        }
+    }
+
+    private int compileSetPredicate(SimpleSetPredicate predicate) {
+        String field = predicate.getField().getValue();
+        int slot = slot(field);
+        if (slot == -1) {
+            return -1;
+        }
+        Array array = predicate.getArray();
+        double[] values;
+        if (array.getType().equals(Array.Type.STRING) && fieldTypeMap.get(field).equals("string")) {
+            String[] strings = TreeModelFactory.getStringArrayValues(array);
+            values = new double[strings.length];
+            for (int i = 0; i < strings.length; i++) {
+                values[i] = builder.category(slot, strings[i]);
+            }
+        } else if ((array.getType().equals(Array.Type.INT) || array.getType().equals(Array.Type.REAL))
+                && builder.isCategorical(slot) == false) {
+            String[] strings = array.getValue().trim().split("\\s+");
+            if (array.getN() != null && strings.length != array.getN()) {
+                return -1;
+            }
+            values = new double[strings.length];
+            for (int i = 0; i < strings.length; i++) {
+                values[i] = Double.parseDouble(strings[i]);
+            }
+        } else {
+            return -1;
+        }
+        return builder.setPredicate(predicate.getBooleanOperator().value().equals("isIn"), slot, values);
+    }
+
+    /**
+     * Returns the slot of the field or -1 if the tree cannot test fields of its type.
+     */
+    private int slot(String field) {
+        String type = fieldTypeMap.get(field);
+        if (type == null) {
+            return -1;
+        }
+        switch (type) {
+            case "double":
+            case "float":
+            case "int":
+            case "integer":
+                return builder.slot(field, false);
+            case "string":
+            case "boolean":
+                return builder.slot(field, true);
+            default:
+                return -1;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.ml.factories;
+
+import org.dmg.pmml.DataDictionary;
+import org.dmg.pmml.DataField;
+import org.dmg.pmml.DerivedField;
+import org.dmg.pmml.MiningField;
+import org.dmg.pmml.MiningModel;
+import org.dmg.pmml.Model;
+import org.dmg.pmml.Node;
+import org.dmg.pmml.Segment;
+import org.dmg.pmml.Target;
+import org.dmg.pmml.TransformationDictionary;
+import org.dmg.pmml.TreeModel;
+import org.dmg.pmml.True;
+import org.dmg.pmml.Value;
+import org.elasticsearch.ml.modelinput.MapModelInput;
+import org.elasticsearch.ml.modelinput.ModelAndModelInputEvaluator;
+import org.elasticsearch.ml.modelinput.VectorRange;
+import org.elasticsearch.ml.modelinput.VectorRangesToVectorPMML;
+import org.elasticsearch.ml.models.EsForestModel;
+import org.elasticsearch.ml.models.FlatTree;
+import org.elasticsearch.script.pmml.ProcessPMMLHelper;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Builds ensembles of trees, like random forests and gradient boosted trees, from a MiningModel whose segments are all
+ * TreeModels selected by a True predicate. The fields of all trees are vectorized once per document and the trees are
+ * compiled into one {@link FlatTree}.
+ */
+public class MiningModelFactory extends ModelFactory<MapModelInput, Object, MiningModel> {
+
+    private final int maxCompiledSize;
+
+    public MiningModelFactory() {
+        this(FlatTree.DEFAULT_MAX_COMPILED_SIZE);
+    }
+
+    /**
+     * @param maxCompiledSize trees of a forest with more nodes and predicates than this are interpreted instead of compiled
+     *                        into method handles, 0 disables compilation
+     */
+    public MiningModelFactory(int maxCompiledSize) {
+        super(MiningModel.class);
+        this.maxCompiledSize = maxCompiledSize;
+    }
+
+    @Override
+    public ModelAndModelInputEvaluator<MapModelInput, Object> buildFromPMML(MiningModel miningModel, DataDictionary dataDictionary,
+                                                                            TransformationDictionary transformationDictionary) {
+        String functionName = miningModel.getFunctionName().value();
+        String multipleModelMethod = miningModel.getSegmentation().getMultipleModelMethod().value();
+        EsForestModel.Aggregation aggregation = getAggregation(functionName, multipleModelMethod);
+        boolean weighted = multipleModelMethod.startsWith("weighted");
+        DoubleUnaryOperator target = getTarget(miningModel, functionName);
+
+        List<Segment> segments = miningModel.getSegmentation().getSegments();
+        List<Node> roots = new ArrayList<>();
+        List<Boolean> returnLastPrediction = new ArrayList<>();
+        double[] weights = new double[segments.size()];
+        Set<String> fieldNames = new HashSet<>();
+        List<DerivedField> allDerivedFields = ProcessPMMLHelper.getAllDerivedFields(miningModel, transformationDictionary);
+        for (int i = 0; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            TreeModel treeModel = getTreeModel(segment, functionName);
+            roots.add(treeModel.getNode());
+            returnLastPrediction.add(treeModel.getNoTrueChildStrategy().value().equals("returnLastPrediction"));
+            weights[i] = weighted ? segment.getWeight() : 1.0;
+            TreeModelFactory.getFieldNamesFromNode(fieldNames, treeModel.getNode());
+            if (treeModel.getLocalTransformations() != null) {
+                allDerivedFields.addAll(treeModel.getLocalTransformations().getDerivedFields());
+            }
+        }
+
+        // the fields of all trees are vectorized once
+        List<VectorRange> fields = TreeModelFactory.getFieldValuesList(fieldNames, miningModel, allDerivedFields, dataDictionary);
+        VectorRangesToVectorPMML.VectorRangesToVectorPMMLTreeModel fieldsToVector =
+                new VectorRangesToVectorPMML.VectorRangesToVectorPMMLTreeModel(fields);
+        Map<String, String> fieldToTypeMap = TreeModelFactory.getFieldToTypeMap(fields);
+        FlatTree forest = FlatTreeCompiler.compileForest(roots, returnLastPrediction, getClasses(miningModel, dataDictionary,
+                functionName), fieldToTypeMap, maxCompiledSize);
+        if (forest == null) {
+            throw new UnsupportedOperationException("MiningModel contains tree predicates that cannot be compiled yet");
+        }
+        return new ModelAndModelInputEvaluator<>(fieldsToVector, new EsForestModel(forest, aggregation, weights, target));
+    }
+
+    /**
+     * Returns the function that the Target of a regression applies to the aggregated score. Like in PMML the score is
+     * bounded by min and max and then multiplied by rescaleFactor and added to rescaleConstant, which is how gradient boosted
+     * trees add their initial prediction. Other targets are not supported yet.
+     */
+    private static DoubleUnaryOperator getTarget(MiningModel miningModel, String functionName) {
+        if (miningModel.getTargets() == null || miningModel.getTargets().getTargets().isEmpty()) {
+            return DoubleUnaryOperator.identity();
+        }
+        List<Target> targets = miningModel.getTargets().getTargets();
+        Target target = targets.get(0);
+        if (functionName.equals("regression") == false || targets.size() > 1 || target.getCastInteger() != null
+                || target.getTargetValues().isEmpty() == false) {
+            throw new UnsupportedOperationException("MiningModel only supports a single regression Target with min, max, "
+                    + "rescaleFactor and rescaleConstant yet");
+        }
+        double min = target.getMin() == null ? Double.NEGATIVE_INFINITY : target.getMin();
+        double max = target.getMax() == null ? Double.POSITIVE_INFINITY : target.getMax();
+        double rescaleFactor = target.getRescaleFactor();
+        double rescaleConstant = target.getRescaleConstant();
+        return score -> Math.min(Math.max(score, min), max) * rescaleFactor + rescaleConstant;
+    }
+
+    private static EsForestModel.Aggregation getAggregation(String functionName, String multipleModelMethod) {
+        if (functionName.equals("classification")
+                && (multipleModelMethod.equals("majorityVote") || multipleModelMethod.equals("weightedMajorityVote"))) {
+            return EsForestModel.Aggregation.MAJORITY_VOTE;
+        }
+        if (functionName.equals("regression")) {
+            if (multipleModelMethod.equals("average") || multipleModelMethod.equals("weightedAverage")) {
+                return EsForestModel.Aggregation.AVERAGE;
+            }
+            if (multipleModelMethod.equals("sum")) {
+                return EsForestModel.Aggregation.SUM;
+            }
+        }
+        throw new UnsupportedOperationException("MiningModel does not support the following parameters yet: "
+                + " functionName:" + functionName
+                + " multipleModelMethod:" + multipleModelMethod);
+    }
+
+    private static TreeModel getTreeModel(Segment segment, String functionName) {
+        if (segment.getPredicate() instanceof True == false) {
+            throw new UnsupportedOperationException("MiningModel only supports segments with a True predicate yet");
+        }
+        Model model = segment.getModel();
+        if (model instanceof TreeModel == false) {
+            throw new UnsupportedOperationException("MiningModel does not support segments of type " + model.getClass().getName()
+                    + " yet");
+        }
+        TreeModel treeModel = (TreeModel) model;
+        String missingValueStrategy = treeModel.getMissingValueStrategy().value();
+        String noTrueChildStrategy = treeModel.getNoTrueChildStrategy().value();
+        // missing values make predicates false, like the none strategy, or are handled by surrogate predicates like in
+        // TreeModelFactory. The flat forest never follows a default child, so defaultChild is only the same as long as no
+        // node names one.
+        boolean supportedMissingValueStrategy = missingValueStrategy.equals("none")
+                || (missingValueStrategy.equals("defaultChild") && noTrueChildStrategy.equals("returnLastPrediction")
+                && hasDefaultChild(treeModel.getNode()) == false);
+        if (treeModel.getFunctionName().value().equals(functionName) == false || supportedMissingValueStrategy == false) {
+            throw new UnsupportedOperationException("TreeModel in MiningModel does not support the following parameters yet: "
+                    + " functionName:" + treeModel.getFunctionName().value()
+                    + " missingValueStrategy:" + missingValueStrategy
+                    + " noTrueChildStrategy:" + noTrueChildStrategy);
+        }
+        return treeModel;
+    }
+
+    private static boolean hasDefaultChild(Node node) {
+        if (node.getDefaultChild() != null) {
+            return true;
+        }
+        for (Node child : node.getNodes()) {
+            if (hasDefaultChild(child)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The values of the predicted field of a classification in the order of the data dictionary, so that votes are tied in
+     * favor of the class listed first.
+     */
+    private static List<String> getClasses(MiningModel miningModel, DataDictionary dataDictionary, String functionName) {
+        List<String> classes = new ArrayList<>();
+        if (functionName.equals("classification")) {
+            for (MiningField miningField : miningModel.getMiningSchema().getMiningFields()) {
+                if (miningField.getUsageType().value().equals("predicted")) {
+                    DataField dataField = ProcessPMMLHelper.getRawDataField(dataDictionary, miningField.getKey().getValue());
+                    for (Value value : dataField.getValues()) {
+                        if (value.getProperty().value().equals("valid")) {
+                            classes.add(value.getValue());
+                        }
+                    }
+                }
+            }
+        }
+        return classes;
+    }
+}
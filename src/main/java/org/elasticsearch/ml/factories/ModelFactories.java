@@ -43,6 +43,7 @@ public class ModelFactories {
         parsers.add(new NaiveBayesModelFactory());
         parsers.add(new TreeModelFactory());
         parsers.add(new RegressionModelFactory());
+        parsers.add(new MiningModelFactory());
         return new ModelFactories(parsers);
     }
 
@@ -26,6 +26,7 @@ import org.dmg.pmml.DataField;
 import org.dmg.pmml.DerivedField;
 import org.dmg.pmml.False;
 import org.dmg.pmml.MiningField;
+import org.dmg.pmml.Model;
 import org.dmg.pmml.Node;
 import org.dmg.pmml.Predicate;
 import org.dmg.pmml.SimplePredicate;
@@ -37,6 +38,7 @@ import org.elasticsearch.ml.modelinput.VectorRange;
 import org.elasticsearch.ml.modelinput.VectorRangesToVectorPMML;
 import org.elasticsearch.ml.modelinput.PMMLVectorRange;
 import org.elasticsearch.ml.models.EsTreeModel;
+import org.elasticsearch.ml.models.FlatTree;
 import org.elasticsearch.ml.modelinput.MapModelInput;
 import org.elasticsearch.ml.modelinput.ModelAndModelInputEvaluator;
 import org.elasticsearch.script.pmml.ProcessPMMLHelper;
@@ -51,8 +53,19 @@ import java.util.Set;
 
 public class TreeModelFactory extends ModelFactory<MapModelInput, String, TreeModel> {
 
+    private final int maxCompiledSize;
+
     public TreeModelFactory() {
+        this(FlatTree.DEFAULT_MAX_COMPILED_SIZE);
+    }
+
+    /**
+     * @param maxCompiledSize trees with more nodes and predicates than this are interpreted instead of compiled into method
+     *                        handles, 0 disables compilation
+     */
+    public TreeModelFactory(int maxCompiledSize) {
         super(TreeModel.class);
+        this.maxCompiledSize = maxCompiledSize;
     }
 
     @Override
@@ -83,14 +96,22 @@ public class TreeModelFactory extends ModelFactory<MapModelInput, String, TreeMo
         Set<String> fieldNames = new HashSet<>();
         Node startNode = treeModel.getNode();
         getFieldNamesFromNode(fieldNames, startNode);
+        return getFieldValuesList(fieldNames, treeModel, ProcessPMMLHelper.getAllDerivedFields(treeModel, transformationDictionary),
+                dataDictionary);
+    }
+
+    /**
+     * Creates the vector ranges of the given fields, the raw fields are looked up in the mining schema of the model.
+     */
+    static List<VectorRange> getFieldValuesList(Set<String> fieldNames, Model model, List<DerivedField> allDerivedFields,
+                                                DataDictionary dataDictionary) {
         // create the actual VectorRange objects, copy paste much from GLMHelper
         List<VectorRange> fieldsToValues = new ArrayList<>();
-        List<DerivedField> allDerivedFields = ProcessPMMLHelper.getAllDerivedFields(treeModel, transformationDictionary);
         for(String fieldName : fieldNames) {
             List<DerivedField> derivedFields = new ArrayList<>();
             String rawFieldName = ProcessPMMLHelper.getDerivedFields(fieldName, allDerivedFields, derivedFields);
             DataField rawField = ProcessPMMLHelper.getRawDataField(dataDictionary, rawFieldName);
-            MiningField miningField = ProcessPMMLHelper.getMiningField(treeModel, rawFieldName);
+            MiningField miningField = ProcessPMMLHelper.getMiningField(model, rawFieldName);
             fieldsToValues.add(new PMMLVectorRange.FieldToValue(rawField, miningField, derivedFields.toArray(new
                     DerivedField[derivedFields.size()])));
         }
@@ -121,7 +142,8 @@ public class TreeModelFactory extends ModelFactory<MapModelInput, String, TreeMo
     }
 
     protected EsTreeModel getEsTreeModel(TreeModel treeModel, Map<String, String> fieldToTypeMap) {
-        return new EsTreeModel(convertToEsTreeNode(treeModel.getNode(), fieldToTypeMap));
+        EsTreeModel.EsTreeNode startNode = convertToEsTreeNode(treeModel.getNode(), fieldToTypeMap);
+        return new EsTreeModel(startNode, FlatTreeCompiler.compile(treeModel.getNode(), fieldToTypeMap, maxCompiledSize));
     }
 
     public static Map<String,String> getFieldToTypeMap(java.util.List<VectorRange> vectorRangeList) {
@@ -133,7 +155,7 @@ public class TreeModelFactory extends ModelFactory<MapModelInput, String, TreeMo
     }
 
 
-    private EsTreeModel.EsTreeNode convertToEsTreeNode(Node node, Map<String, String> fieldTypeMap) {
+    EsTreeModel.EsTreeNode convertToEsTreeNode(Node node, Map<String, String> fieldTypeMap) {
         List<EsTreeModel.EsTreeNode> childNodes = new ArrayList<>();
         EsTreeModel.EsPredicate predicate = createPredicate(node.getPredicate(), fieldTypeMap);
         for (Node childNode : node.getNodes()) {
@@ -276,45 +298,65 @@ public class TreeModelFactory extends ModelFactory<MapModelInput, String, TreeMo
             SimpleSetPredicate simpleSetPredicate = (SimpleSetPredicate) predicate;
             Array setArray = simpleSetPredicate.getArray();
             String field = simpleSetPredicate.getField().getValue();
+            boolean isIn = simpleSetPredicate.getBooleanOperator().value().equals("isIn");
             if (setArray.getType().equals(Array.Type.STRING)) {
                 HashSet<String> valuesSet = new HashSet<>();
-                String[] values = setArray.getValue().split("\" \"");
-                // trimm beginning and end quotes
-                values[0] = values[0].substring(1, values[0].length());
-                values[values.length - 1] = values[values.length - 1].substring(0, values[values.length - 1].length() - 1);
-                if (values.length != setArray.getN()) {
-                    throw new UnsupportedOperationException("Could not infer values from array value " + setArray.getValue());
-                }
-                for (String value : values) {
+                for (String value : getStringArrayValues(setArray)) {
                     valuesSet.add(value);
                 }
-                return new EsTreeModel.EsSimpleSetPredicate<>(valuesSet, field);
+                return new EsTreeModel.EsSimpleSetPredicate<>(valuesSet, field, isIn);
             }
-
-            if (setArray.getType().equals(Array.Type.STRING)) {
+            if (setArray.getType().equals(Array.Type.INT) || setArray.getType().equals(Array.Type.REAL)) {
+                // parsed like FlatTreeCompiler does, numeric field values are compared as doubles
                 HashSet<Double> valuesSet = new HashSet<>();
-                String[] values = setArray.getValue().split(" ");
-                if (values.length != setArray.getN()) {
+                String[] values = setArray.getValue().trim().split("\\s+");
+                if (setArray.getN() != null && values.length != setArray.getN()) {
                     throw new UnsupportedOperationException("Could not infer values from array value " + setArray.getValue());
                 }
                 for (String value : values) {
                     valuesSet.add(Double.parseDouble(value));
                 }
-                return new EsTreeModel.EsSimpleSetPredicate<>(valuesSet, field);
+                return new EsTreeModel.EsSimpleSetPredicate<>(valuesSet, field, isIn);
             }
-            if (setArray.getType().equals(Array.Type.INT)) {
-                HashSet<Integer> valuesSet = new HashSet<>();
-                String[] values = setArray.getValue().split(" ");
-                if (values.length != setArray.getN()) {
-                    throw new UnsupportedOperationException("Could not infer values from array value " + setArray.getValue());
+        }
+        throw new UnsupportedOperationException("Predicate Type " + predicate.getClass().getName() + " for TreeModel not implemented yet.");
+    }
+
+    /**
+     * Splits the values of a string array. Values are separated by any number of whitespace characters and quoted values may
+     * contain whitespace and escaped quotes.
+     */
+    static String[] getStringArrayValues(Array setArray) {
+        String arrayValue = setArray.getValue();
+        List<String> values = new ArrayList<>();
+        int i = 0;
+        while (i < arrayValue.length()) {
+            if (Character.isWhitespace(arrayValue.charAt(i))) {
+                i++;
+                continue;
+            }
+            StringBuilder value = new StringBuilder();
+            if (arrayValue.charAt(i) == '"') {
+                i++;
+                while (i < arrayValue.length() && arrayValue.charAt(i) != '"') {
+                    if (arrayValue.charAt(i) == '\\' && i + 1 < arrayValue.length()) {
+                        i++;
+                    }
+                    value.append(arrayValue.charAt(i++));
                 }
-                for (String value : values) {
-                    valuesSet.add(Integer.parseInt(value));
+                // skip the closing quote
+                i++;
+            } else {
+                while (i < arrayValue.length() && Character.isWhitespace(arrayValue.charAt(i)) == false) {
+                    value.append(arrayValue.charAt(i++));
                 }
-                return new EsTreeModel.EsSimpleSetPredicate<>(valuesSet, field);
             }
+            values.add(value.toString());
         }
-        throw new UnsupportedOperationException("Predicate Type " + predicate.getClass().getName() + " for TreeModel not implemented yet.");
+        if (setArray.getN() != null && values.size() != setArray.getN()) {
+            throw new UnsupportedOperationException("Could not infer values from array value " + arrayValue);
+        }
+        return values.toArray(new String[values.size()]);
     }
 
     protected static <T extends Comparable<T>> EsTreeModel.EsSimplePredicate<T> getSimplePredicate(T value, String field, String operator) {
@@ -21,18 +21,38 @@ package org.elasticsearch.ml.modelinput;
 
 import org.elasticsearch.common.collect.Tuple;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public abstract class AnalyzedTextVectorRange extends VectorRange {
+    public static final float DEFAULT_K1 = 1.2f;
+    public static final float DEFAULT_B = 0.75f;
+
     int offset;
+    // bm25 parameters, see BM25Weights
+    float k1 = DEFAULT_K1;
+    float b = DEFAULT_B;
 
     public static final EsSparseNumericVector EMPTY_SPARSE = new EsSparseNumericVector(new Tuple<>(new int[]{}, new double[]{}));
 
     public AnalyzedTextVectorRange(String field, String type) {
         super(field, field, type);
     }
+
+    /**
+     * Sets the term frequency saturation k1 and the length normalization b of bm25 features.
+     */
+    public AnalyzedTextVectorRange bm25(float k1, float b) {
+        if (k1 < 0) {
+            throw new IllegalArgumentException("k1 must not be negative but was " + k1);
+        }
+        if (b < 0 || b > 1) {
+            throw new IllegalArgumentException("b must be between 0 and 1 but was " + b);
+        }
+        this.k1 = k1;
+        this.b = b;
+        return this;
+    }
     public enum FeatureType {
         OCCURRENCE,
         TF,
@@ -72,15 +92,24 @@ public abstract class AnalyzedTextVectorRange extends VectorRange {
 
     public static class SparseTermVectorRange extends AnalyzedTextVectorRange {
         private String number;
-        Map<String, Integer> wordMap;
+        final FeatureType featureType;
+        TermDictionary dictionary;
 
         public SparseTermVectorRange(String field, String type, String[] terms, String number, int offset) {
             super(field, type);
             this.number = number;
+            this.featureType = FeatureType.fromString(number);
             this.field = field;
-            wordMap = new HashMap<>();
-            for (int i = 0; i < terms.length; i++) {
-                wordMap.put(terms[i], i + offset);
+            dictionary = new TermDictionary(terms, offset);
+        }
+
+        /**
+         * Reads the weights from the postings of the field if the data source has them and through {@link #getVector} otherwise.
+         */
+        @Override
+        public void append(DataSource dataSource, SparseVectorModelInput vector) {
+            if (dataSource.appendTerms(this, vector) == false) {
+                super.append(dataSource, vector);
             }
         }
 
@@ -88,11 +117,13 @@ public abstract class AnalyzedTextVectorRange extends VectorRange {
         public EsVector getVector(DataSource dataSource) {
             Tuple<int[], double[]> indicesAndValues;
             if (AnalyzedTextVectorRange.FeatureType.fromString(number).equals(AnalyzedTextVectorRange.FeatureType.TF)) {
-                indicesAndValues = dataSource.getTfSparse(wordMap, field);
+                indicesAndValues = dataSource.getTfSparse(dictionary, field);
             } else if (AnalyzedTextVectorRange.FeatureType.fromString(number).equals(AnalyzedTextVectorRange.FeatureType.OCCURRENCE)) {
-                indicesAndValues = dataSource.getOccurrenceSparse(wordMap, field);
+                indicesAndValues = dataSource.getOccurrenceSparse(dictionary, field);
             } else if (AnalyzedTextVectorRange.FeatureType.fromString(number).equals(AnalyzedTextVectorRange.FeatureType.TF_IDF)) {
-                indicesAndValues = dataSource.getTfIdfSparse(wordMap, field);
+                indicesAndValues = dataSource.getTfIdfSparse(dictionary, field);
+            } else if (AnalyzedTextVectorRange.FeatureType.fromString(number).equals(AnalyzedTextVectorRange.FeatureType.BM25)) {
+                indicesAndValues = dataSource.getBM25Sparse(dictionary, field, k1, b);
             } else {
                 throw new IllegalArgumentException(number + " not implemented yet for sparse vector");
             }
@@ -110,7 +141,7 @@ public abstract class AnalyzedTextVectorRange extends VectorRange {
 
         @Override
         public int size() {
-            return wordMap.size();
+            return dictionary.size();
         }
     }
 
@@ -135,6 +166,8 @@ public abstract class AnalyzedTextVectorRange extends VectorRange {
                 return new EsDenseNumericVector(dataSource.getOccurrenceDense(terms, field));
             } else if (AnalyzedTextVectorRange.FeatureType.fromString(number).equals(AnalyzedTextVectorRange.FeatureType.TF_IDF)) {
                 return new EsDenseNumericVector(dataSource.getTfIdfDense(terms, field));
+            } else if (AnalyzedTextVectorRange.FeatureType.fromString(number).equals(AnalyzedTextVectorRange.FeatureType.BM25)) {
+                return new EsDenseNumericVector(dataSource.getBM25Dense(terms, field, k1, b));
             } else {
                 throw new IllegalArgumentException(number + " not implemented yet for dense vector");
             }
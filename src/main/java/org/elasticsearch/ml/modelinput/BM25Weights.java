@@ -0,0 +1,102 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.ml.modelinput;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.SmallFloat;
+
+import java.io.IOException;
+
+/**
+ * BM25 weights of the terms of a vocabulary for one top level reader, computed like Lucene's BM25Similarity. The IDF weights are
+ * cached per feature index and the document length normalization per encoded norm. Field lengths are read from the norms of the
+ * current segment, documents of fields without norms are weighted as if they had the average length.
+ */
+final class BM25Weights extends IdfTable {
+
+    private final float k1;
+    private final float b;
+    private final float avgFieldLength;
+    private final float[] lengthNormCache = new float[256];
+
+    // the norms of the field in the current segment
+    private final String field;
+    private LeafReader leafReader;
+    private NumericDocValues norms;
+
+    BM25Weights(IndexReader reader, String field, int minIndex, int numIndices, float k1, float b) throws IOException {
+        super(reader, field, minIndex, numIndices, Math.max(reader.getDocCount(field), 0));
+        this.field = field;
+        this.k1 = k1;
+        this.b = b;
+        long docCount = reader.getDocCount(field);
+        long sumTotalTermFreq = reader.getSumTotalTermFreq(field);
+        this.avgFieldLength = docCount <= 0 || sumTotalTermFreq <= 0 ? 1f : (float) (sumTotalTermFreq / (double) docCount);
+        for (int i = 0; i < lengthNormCache.length; i++) {
+            lengthNormCache[i] = k1 * ((1 - b) + b * decodeFieldLength((byte) i) / avgFieldLength);
+        }
+    }
+
+    boolean isFor(IndexReader reader, String field, float k1, float b) {
+        return isFor(reader, field) && this.k1 == k1 && this.b == b;
+    }
+
+    /**
+     * log(1 + (docCount - docFreq + 0.5) / (docFreq + 0.5))
+     */
+    @Override
+    double computeIdf(double docFreq, double numDocs) {
+        return Math.log(1 + (numDocs - docFreq + 0.5) / (docFreq + 0.5));
+    }
+
+    /**
+     * The length normalization k1 * (1 - b + b * fieldLength / avgFieldLength) of a document of the given segment.
+     */
+    float lengthNorm(LeafReader reader, int doc) throws IOException {
+        if (reader != leafReader) {
+            leafReader = reader;
+            norms = reader.getNormValues(field);
+        }
+        if (norms == null) {
+            return k1;
+        }
+        return lengthNormCache[(byte) norms.get(doc) & 0xFF];
+    }
+
+    /**
+     * The BM25 weight of a term of the vocabulary that occurs freq times in a document with the given length normalization.
+     */
+    double weight(int featureIndex, BytesRef term, int freq, float lengthNorm) throws IOException {
+        return idf(featureIndex, term) * freq * (k1 + 1) / (freq + lengthNorm);
+    }
+
+    private static float decodeFieldLength(byte norm) {
+        if (norm == 0) {
+            // like Lucene, avoid an infinite length for the smallest norm
+            return 1f / decodeFieldLength((byte) 255);
+        }
+        // norms hold 1 / sqrt(fieldLength) as a byte315 float
+        float f = SmallFloat.byte315ToFloat(norm);
+        return 1f / (f * f);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.ml.modelinput;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Maps the ordinals of a keyword field in one segment to the feature indices of a
+ * {@link PMMLVectorRange.SparseCategoricalVectorRange}, so that the vector of a document only takes int array lookups instead
+ * of loading the values as Strings and hashing them. The table is built once per segment by looking up the ordinal of each
+ * category.
+ */
+final class CategoryOrdinals {
+
+    // segments with more unique values than this keep using the field values, the table would take too much memory
+    static final int MAX_VALUE_COUNT = 1 << 20;
+
+    private final LeafReader reader;
+    private final SortedSetDocValues docValues;
+    // feature index by ordinal, -1 for values that are not a category, null if the field values must be used instead
+    private final int[] ordToIndex;
+    // feature index of documents without a value, -1 if there is none
+    private final int missingIndex;
+
+    CategoryOrdinals(LeafReader reader, PMMLVectorRange.SparseCategoricalVectorRange range) throws IOException {
+        this.reader = reader;
+        SortedSetDocValues docValues = null;
+        int[] ordToIndex = null;
+        if (supports(reader, range)) {
+            docValues = DocValues.getSortedSet(reader, range.getField());
+            if (docValues.getValueCount() <= MAX_VALUE_COUNT) {
+                ordToIndex = new int[(int) docValues.getValueCount()];
+                Arrays.fill(ordToIndex, -1);
+                for (Map.Entry<String, Integer> category : range.categoryToIndexHashMap.entrySet()) {
+                    long ord = docValues.lookupTerm(new BytesRef(category.getKey()));
+                    if (ord >= 0) {
+                        ordToIndex[(int) ord] = category.getValue();
+                    }
+                }
+            }
+        }
+        this.docValues = docValues;
+        this.ordToIndex = ordToIndex;
+        Integer missingIndex = range.categoryToIndexHashMap.get(range.preProcess(null));
+        this.missingIndex = missingIndex == null ? -1 : missingIndex;
+    }
+
+    /**
+     * Only keyword fields have ordinals, and they can only stand in for the values if pre processing does not change values that
+     * exist.
+     */
+    private static boolean supports(LeafReader reader, PMMLVectorRange.SparseCategoricalVectorRange range) {
+        FieldInfo fieldInfo = reader.getFieldInfos().fieldInfo(range.getField());
+        if (fieldInfo != null && fieldInfo.getDocValuesType() != DocValuesType.SORTED_SET) {
+            return false;
+        }
+        for (PreProcessingStep step : range.preProcessingSteps) {
+            if (step instanceof MissingValuePreProcess == false) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean isFor(LeafReader reader) {
+        return this.reader == reader;
+    }
+
+    /**
+     * Appends the feature indices of the categories of the given document to the vector, in increasing order. Returns false
+     * without appending anything if the field values must be used instead.
+     */
+    boolean append(int doc, SparseVectorModelInput vector) {
+        if (ordToIndex == null) {
+            return false;
+        }
+        docValues.setDocument(doc);
+        long ord = docValues.nextOrd();
+        if (ord == SortedSetDocValues.NO_MORE_ORDS) {
+            if (missingIndex != -1) {
+                vector.add(missingIndex, 1.0);
+            }
+            return true;
+        }
+        int start = vector.getSize();
+        for (; ord != SortedSetDocValues.NO_MORE_ORDS; ord = docValues.nextOrd()) {
+            int index = ordToIndex[(int) ord];
+            if (index != -1) {
+                vector.add(index, 1.0);
+            }
+        }
+        // the ordinals are sorted by value, the feature indices follow the order of the categories in the model
+        vector.sortSince(start);
+        return true;
+    }
+}
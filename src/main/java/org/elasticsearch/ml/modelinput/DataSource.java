@@ -23,7 +23,6 @@ import org.elasticsearch.common.collect.Tuple;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Represents an abstract data source that could provide information about a single record.
@@ -50,16 +49,21 @@ public interface DataSource {
     double[] getTfDense(String[] terms, String field);
 
     /**
-     * Returns a sparse array of 0s and 1s. 1 if the corresponding term in the wordMap is present in the field and 0 otherwise.
+     * Returns an array of BM25 weights for the terms in the specified field
      */
-    default Tuple<int[], double[]> getOccurrenceSparse(Map<String, Integer> wordMap, String field) {
+    double[] getBM25Dense(String[] terms, String field, float k1, float b);
+
+    /**
+     * Returns a sparse array of 0s and 1s. 1 if the corresponding term in the dictionary is present in the field and 0 otherwise.
+     */
+    default Tuple<int[], double[]> getOccurrenceSparse(TermDictionary dictionary, String field) {
         List<String> docValues = getValues(field);
         Tuple<int[], double[]> indicesAndValues;
         List<Integer> indices = new ArrayList<>();
 
         for (String value : docValues) {
-            Integer index = wordMap.get(value);
-            if (index != null) {
+            int index = dictionary.featureIndex(value);
+            if (index != -1) {
                 indices.add(index);
             }
         }
@@ -73,14 +77,43 @@ public interface DataSource {
         return indicesAndValues;
     }
 
+    /**
+     * Appends the sparse 1 of k entries of a categorical range to the vector if the data source can read them from the ordinals
+     * of the field. Returns false without appending anything if the field values must be used instead.
+     */
+    default boolean appendCategorical(PMMLVectorRange.SparseCategoricalVectorRange range, SparseVectorModelInput vector) {
+        return false;
+    }
+
+    /**
+     * Appends the pre processed value of a continuous range to the vector if the data source can read it from the numeric doc
+     * values of the field. Returns false without appending anything if the field values must be used instead.
+     */
+    default boolean appendContinuous(PMMLVectorRange.ContinousSingleEntryVectorRange range, SparseVectorModelInput vector) {
+        return false;
+    }
+
+    /**
+     * Appends the sparse term weights of a text range to the vector if the data source can read them from the postings of the
+     * field. Returns false without appending anything if the weights must be read into a new sparse array instead.
+     */
+    default boolean appendTerms(AnalyzedTextVectorRange.SparseTermVectorRange range, SparseVectorModelInput vector) {
+        return false;
+    }
+
     /**
      * Returns a sparse array of TF/IDF values for the terms in the specified field
      */
-    Tuple<int[], double[]> getTfIdfSparse(Map<String, Integer> wordMap, String field);
+    Tuple<int[], double[]> getTfIdfSparse(TermDictionary dictionary, String field);
 
     /**
      * Returns a sparse array of TF values for the terms in the specified field
      */
-    Tuple<int[], double[]> getTfSparse(Map<String, Integer> wordMap, String field);
+    Tuple<int[], double[]> getTfSparse(TermDictionary dictionary, String field);
+
+    /**
+     * Returns a sparse array of BM25 weights for the terms in the specified field
+     */
+    Tuple<int[], double[]> getBM25Sparse(TermDictionary dictionary, String field, float k1, float b);
 
 }
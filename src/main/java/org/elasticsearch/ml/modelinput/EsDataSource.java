@@ -20,19 +20,20 @@
 package org.elasticsearch.ml.modelinput;
 
 import org.apache.lucene.index.Fields;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.PostingsEnum;
-import org.apache.lucene.index.Term;
 import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.util.BytesRef;
 import org.elasticsearch.common.collect.Tuple;
-import org.elasticsearch.search.lookup.IndexField;
-import org.elasticsearch.search.lookup.IndexFieldTerm;
 import org.elasticsearch.search.lookup.LeafDocLookup;
 import org.elasticsearch.search.lookup.LeafIndexLookup;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -45,6 +46,33 @@ public abstract class EsDataSource implements DataSource {
 
     protected abstract LeafIndexLookup getLeafIndexLookup();
 
+    // the idf weights of the vocabularies (word maps and term arrays) that are vectorized with tf_idf, shared by the data sources
+    // of all segments of a top level reader
+    private final IdfTables idfTables;
+
+    // the bm25 weights of the vocabularies that are vectorized with bm25, rebuilt when the top level reader changes
+    private final Map<Object, BM25Weights> bm25Weights = new IdentityHashMap<>();
+
+    // the terms of the vocabularies as bytes, in feature index order
+    private final Map<Object, Vocabulary> vocabularies = new IdentityHashMap<>();
+
+    // the postings of the vocabularies in the current segment
+    private final Map<Object, LeafTermPostings> leafTermPostings = new IdentityHashMap<>();
+
+    // the ordinal tables of the categorical ranges in the current segment
+    private final Map<PMMLVectorRange.SparseCategoricalVectorRange, CategoryOrdinals> categoryOrdinals = new IdentityHashMap<>();
+
+    // the numeric doc values of the continuous fields in the current segment
+    private final Map<String, NumericFieldValues> numericFieldValues = new HashMap<>();
+
+    // the last document a sparse vector was computed for, to tell whether documents are visited in order
+    private LeafReader lastSparseReader;
+    private int lastSparseDoc = -1;
+
+    protected EsDataSource(IdfTables idfTables) {
+        this.idfTables = idfTables;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public <T> List<T> getValues(String field) {
@@ -53,100 +81,334 @@ public abstract class EsDataSource implements DataSource {
 
     @Override
     public double[] getOccurrenceDense(String[] terms, String field) {
-        return getDense(terms, field, (indexField, indexFieldTerm) -> indexFieldTerm.tf() > 0 ? 1 : 0);
+        return getDense(terms, field, (freq, term, featureIndex) -> 1);
     }
 
     @Override
     public double[] getTfIdfDense(String[] terms, String field) {
-        return getDense(terms, field, (indexField, indexFieldTerm) -> {
-            double tf = indexFieldTerm.tf();
-            double df = indexFieldTerm.df();
-            double numDocs = indexField.docCount();
-            return tf * Math.log((numDocs + 1) / (df + 1));
-        });
+        IdfTable idfTable = getDenseIdfTable(terms, field);
+        return getDense(terms, field, (freq, term, featureIndex) -> freq * idfTable.idf(featureIndex, term));
     }
 
     @Override
     public double[] getTfDense(String[] terms, String field) {
-        return getDense(terms, field, (indexField, indexFieldTerm) -> indexFieldTerm.tf());
+        return getDense(terms, field, (freq, term, featureIndex) -> freq);
     }
 
     @Override
-    public Tuple<int[], double[]> getTfSparse(Map<String, Integer> wordMap, String field) {
-        return getSparse(wordMap, field, (docsEnum, term) -> (double) docsEnum.freq());
+    public double[] getBM25Dense(String[] terms, String field, float k1, float b) {
+        BM25Weights weights = getBM25Weights(terms, getVocabulary(terms), field, k1, b);
+        float lengthNorm = getLengthNorm(weights);
+        return getDense(terms, field, (freq, term, featureIndex) -> weights.weight(featureIndex, term, freq, lengthNorm));
     }
 
     @Override
-    public Tuple<int[], double[]> getTfIdfSparse(Map<String, Integer> wordMap, String field) {
-        return getSparse(wordMap, field, (docsEnum, term) -> {
-            double docFreq = getLeafIndexLookup().getParentReader().docFreq(new Term(field, term));
-            double freq = docsEnum.freq();
-            double docCount = getLeafIndexLookup().getParentReader().numDocs();
-            return freq * Math.log((docCount + 1) / (docFreq + 1));
-        });
+    public Tuple<int[], double[]> getTfSparse(TermDictionary dictionary, String field) {
+        return getSparse(dictionary, field, (freq, term, featureIndex) -> freq);
     }
 
-    private interface IndexFieldTermFunction {
-        double apply(IndexField indexField, IndexFieldTerm indexFieldTerm) throws IOException;
+    @Override
+    public Tuple<int[], double[]> getTfIdfSparse(TermDictionary dictionary, String field) {
+        IdfTable idfTable = getIdfTable(dictionary, field);
+        return getSparse(dictionary, field, (freq, term, featureIndex) -> freq * idfTable.idf(featureIndex, term));
     }
 
-    private double[] getDense(String[] terms, String field, IndexFieldTermFunction f) {
-        double[] values = new double[terms.length];
-        IndexField indexField = getLeafIndexLookup().get(field);
-        for (int i = 0; i < terms.length; i++) {
-            IndexFieldTerm indexTermField = indexField.get(terms[i]);
+    @Override
+    public Tuple<int[], double[]> getBM25Sparse(TermDictionary dictionary, String field, float k1, float b) {
+        BM25Weights weights = getBM25Weights(dictionary, getVocabulary(dictionary), field, k1, b);
+        float lengthNorm = getLengthNorm(weights);
+        return getSparse(dictionary, field, (freq, term, featureIndex) -> weights.weight(featureIndex, term, freq, lengthNorm));
+    }
+
+    @Override
+    public boolean appendTerms(AnalyzedTextVectorRange.SparseTermVectorRange range, SparseVectorModelInput vector) {
+        TermDictionary dictionary = range.dictionary;
+        String field = range.getField();
+        if (range.featureType == AnalyzedTextVectorRange.FeatureType.OCCURRENCE || canAppendSparse(dictionary) == false) {
+            // occurrences are read from the field values
+            return false;
+        }
+        switch (range.featureType) {
+            case TF:
+                appendSparse(dictionary, field, (freq, term, featureIndex) -> freq, vector);
+                break;
+            case TF_IDF:
+                IdfTable idfTable = getIdfTable(dictionary, field);
+                appendSparse(dictionary, field, (freq, term, featureIndex) -> freq * idfTable.idf(featureIndex, term), vector);
+                break;
+            default:
+                BM25Weights weights = getBM25Weights(dictionary, getVocabulary(dictionary), field, range.k1, range.b);
+                float lengthNorm = getLengthNorm(weights);
+                appendSparse(dictionary, field, (freq, term, featureIndex) -> weights.weight(featureIndex, term, freq, lengthNorm),
+                        vector);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean appendCategorical(PMMLVectorRange.SparseCategoricalVectorRange range, SparseVectorModelInput vector) {
+        LeafIndexLookup indexLookup = getLeafIndexLookup();
+        CategoryOrdinals ordinals = categoryOrdinals.get(range);
+        try {
+            if (ordinals == null || ordinals.isFor(indexLookup.getReader()) == false) {
+                ordinals = new CategoryOrdinals(indexLookup.getReader(), range);
+                categoryOrdinals.put(range, ordinals);
+            }
+        } catch (IOException ex) {
+            throw new IllegalArgumentException("cannot get ordinals of field " + range.getField(), ex);
+        }
+        return ordinals.append(indexLookup.getDocId(), vector);
+    }
+
+    @Override
+    public boolean appendContinuous(PMMLVectorRange.ContinousSingleEntryVectorRange range, SparseVectorModelInput vector) {
+        if (range.numericPreProcessing == null) {
+            return false;
+        }
+        LeafIndexLookup indexLookup = getLeafIndexLookup();
+        NumericFieldValues values = numericFieldValues.get(range.getField());
+        if (values == null || values.isFor(indexLookup.getReader()) == false) {
+            values = new NumericFieldValues(indexLookup.getReader(), getDocLookup().get(range.getField()));
+            numericFieldValues.put(range.getField(), values);
+        }
+        return values.append(indexLookup.getDocId(), range.index, range.numericPreProcessing, vector);
+    }
+
+    private BM25Weights getBM25Weights(Object key, Vocabulary vocabulary, String field, float k1, float b) {
+        IndexReader reader = getLeafIndexLookup().getParentReader();
+        BM25Weights weights = bm25Weights.get(key);
+        if (weights == null || weights.isFor(reader, field, k1, b) == false) {
             try {
-                values[i] = f.apply(indexField, indexTermField);
+                weights = new BM25Weights(reader, field, vocabulary.minIndex(), vocabulary.numIndices(), k1, b);
             } catch (IOException ex) {
-                throw new IllegalArgumentException("cannot get dense vector for field " + field + " for term "+ terms[i], ex);
+                throw new IllegalArgumentException("cannot get field statistics for field " + field, ex);
             }
+            bm25Weights.put(key, weights);
+        }
+        return weights;
+    }
 
+    private float getLengthNorm(BM25Weights weights) {
+        LeafIndexLookup indexLookup = getLeafIndexLookup();
+        try {
+            return weights.lengthNorm(indexLookup.getReader(), indexLookup.getDocId());
+        } catch (IOException ex) {
+            throw new IllegalArgumentException("cannot get norms for document " + indexLookup.getDocId(), ex);
         }
-        return values;
     }
 
-    private interface DocsEnumFunction {
-        double apply(PostingsEnum docsEnum, BytesRef term) throws IOException;
+    private IdfTable getIdfTable(TermDictionary dictionary, String field) {
+        IndexReader reader = getLeafIndexLookup().getParentReader();
+        Vocabulary vocabulary = getVocabulary(dictionary);
+        try {
+            return idfTables.get(reader, dictionary, field,
+                    () -> new IdfTable(reader, field, vocabulary.minIndex(), vocabulary.numIndices(), reader.numDocs()));
+        } catch (IOException ex) {
+            throw new IllegalArgumentException("cannot get idf weights for field " + field, ex);
+        }
     }
 
-    private Tuple<int[], double[]> getSparse(Map<String, Integer> wordMap, String field, DocsEnumFunction function) {
+    private IdfTable getDenseIdfTable(String[] terms, String field) {
+        IndexReader reader = getLeafIndexLookup().getParentReader();
         try {
-            Fields fields = getLeafIndexLookup().termVectors();
-            if (fields == null) {
-                return null;
-            } else {
-                List<Integer> indices = new ArrayList<>();
-                List<Double> values = new ArrayList<>();
-                Terms terms = fields.terms(field);
-                TermsEnum termsEnum = terms.iterator();
-                BytesRef t;
-                PostingsEnum docsEnum = null;
-                int numTerms = 0;
-                indices.clear();
-                values.clear();
-                while ((t = termsEnum.next()) != null) {
-                    Integer termIndex = wordMap.get(t.utf8ToString());
-                    if (termIndex != null) {
-                        indices.add(termIndex);
-                        docsEnum = termsEnum.postings(docsEnum, PostingsEnum.FREQS);
-                        int nextDoc = docsEnum.nextDoc();
-                        assert nextDoc != PostingsEnum.NO_MORE_DOCS;
-                        values.add(function.apply(docsEnum, t));
-                        nextDoc = docsEnum.nextDoc();
-                        assert nextDoc == PostingsEnum.NO_MORE_DOCS;
-                        numTerms++;
-                    }
-                }
-                int[] indicesArray = new int[numTerms];
-                double[] valuesArray = new double[numTerms];
-                for (int i = 0; i < numTerms; i++) {
-                    indicesArray[i] = indices.get(i);
-                    valuesArray[i] = values.get(i);
+            // dense vectors weigh by the number of documents that have the field
+            return idfTables.get(reader, terms, field, () -> new IdfTable(reader, field, 0, terms.length, reader.getDocCount(field)));
+        } catch (IOException ex) {
+            throw new IllegalArgumentException("cannot get document count for field " + field, ex);
+        }
+    }
+
+    private interface TermFreqFunction {
+        double apply(int freq, BytesRef term, int featureIndex) throws IOException;
+    }
+
+    private double[] getDense(String[] terms, String field, TermFreqFunction f) {
+        double[] values = new double[terms.length];
+        LeafIndexLookup indexLookup = getLeafIndexLookup();
+        try {
+            Vocabulary vocabulary = getVocabulary(terms);
+            LeafTermPostings postings = getLeafTermPostings(terms, vocabulary, field, indexLookup.getReader(), indexLookup.getDocId());
+            int numMatches = postings.advance(indexLookup.getDocId());
+            int[] slots = postings.matchingSlots();
+            int[] freqs = postings.matchingFreqs();
+            for (int i = 0; i < numMatches; i++) {
+                int slot = slots[i];
+                values[slot] = f.apply(freqs[i], vocabulary.terms[slot], slot);
+            }
+        } catch (IOException ex) {
+            throw new IllegalArgumentException("cannot get dense vector for field " + field, ex);
+        }
+        return values;
+    }
+
+    /**
+     * Sparse vectors are read from the postings of the vocabulary while the documents of a segment are visited in order. Documents
+     * that are visited out of order, like hits of the fetch phase, read the term vectors if the field has them and reopen the
+     * postings otherwise.
+     */
+    private Tuple<int[], double[]> getSparse(TermDictionary dictionary, String field, TermFreqFunction function) {
+        LeafIndexLookup indexLookup = getLeafIndexLookup();
+        LeafReader reader = indexLookup.getReader();
+        int doc = indexLookup.getDocId();
+        boolean inOrder = reader == lastSparseReader && doc >= lastSparseDoc;
+        lastSparseReader = reader;
+        lastSparseDoc = doc;
+        try {
+            LeafTermPostings postings = leafTermPostings.get(dictionary);
+            if (inOrder == false && (postings == null || postings.canAdvance(reader, doc) == false)) {
+                Fields termVectors = indexLookup.termVectors();
+                if (termVectors != null) {
+                    return getSparseFromTermVectors(dictionary, field, termVectors, function);
                 }
-                return new Tuple<>(indicesArray, valuesArray);
             }
+            Vocabulary vocabulary = getVocabulary(dictionary);
+            postings = getLeafTermPostings(dictionary, vocabulary, field, reader, doc);
+            int numMatches = postings.advance(doc);
+            int[] slots = postings.matchingSlots();
+            int[] freqs = postings.matchingFreqs();
+            int[] indices = new int[numMatches];
+            double[] values = new double[numMatches];
+            for (int i = 0; i < numMatches; i++) {
+                int slot = slots[i];
+                indices[i] = vocabulary.featureIndices[slot];
+                values[i] = function.apply(freqs[i], vocabulary.terms[slot], indices[i]);
+            }
+            return new Tuple<>(indices, values);
         } catch (IOException ex) {
             throw new IllegalArgumentException("cannot get sparse tf/idf vector for field "+ field, ex);
         }
     }
+
+    /**
+     * Whether the postings of the dictionary can be advanced to the current document. Otherwise {@link #getSparse} has to decide
+     * between the term vectors and fresh postings.
+     */
+    private boolean canAppendSparse(TermDictionary dictionary) {
+        LeafIndexLookup indexLookup = getLeafIndexLookup();
+        LeafReader reader = indexLookup.getReader();
+        int doc = indexLookup.getDocId();
+        if (reader == lastSparseReader && doc >= lastSparseDoc) {
+            return true;
+        }
+        LeafTermPostings postings = leafTermPostings.get(dictionary);
+        return postings != null && postings.canAdvance(reader, doc);
+    }
+
+    private void appendSparse(TermDictionary dictionary, String field, TermFreqFunction function, SparseVectorModelInput vector) {
+        LeafIndexLookup indexLookup = getLeafIndexLookup();
+        LeafReader reader = indexLookup.getReader();
+        int doc = indexLookup.getDocId();
+        lastSparseReader = reader;
+        lastSparseDoc = doc;
+        try {
+            Vocabulary vocabulary = getVocabulary(dictionary);
+            LeafTermPostings postings = getLeafTermPostings(dictionary, vocabulary, field, reader, doc);
+            int numMatches = postings.advance(doc);
+            int[] slots = postings.matchingSlots();
+            int[] freqs = postings.matchingFreqs();
+            for (int i = 0; i < numMatches; i++) {
+                int slot = slots[i];
+                int featureIndex = vocabulary.featureIndices[slot];
+                vector.add(featureIndex, function.apply(freqs[i], vocabulary.terms[slot], featureIndex));
+            }
+        } catch (IOException ex) {
+            throw new IllegalArgumentException("cannot get sparse tf/idf vector for field "+ field, ex);
+        }
+    }
+
+    private Tuple<int[], double[]> getSparseFromTermVectors(TermDictionary dictionary, String field, Fields fields,
+                                                            TermFreqFunction function) throws IOException {
+        List<Integer> indices = new ArrayList<>();
+        List<Double> values = new ArrayList<>();
+        Terms terms = fields.terms(field);
+        if (terms != null) {
+            TermsEnum termsEnum = terms.iterator();
+            BytesRef t;
+            PostingsEnum docsEnum = null;
+            while ((t = termsEnum.next()) != null) {
+                int termIndex = dictionary.featureIndex(t);
+                if (termIndex != -1) {
+                    indices.add(termIndex);
+                    docsEnum = termsEnum.postings(docsEnum, PostingsEnum.FREQS);
+                    int nextDoc = docsEnum.nextDoc();
+                    assert nextDoc != PostingsEnum.NO_MORE_DOCS;
+                    values.add(function.apply(docsEnum.freq(), t, termIndex));
+                    nextDoc = docsEnum.nextDoc();
+                    assert nextDoc == PostingsEnum.NO_MORE_DOCS;
+                }
+            }
+        }
+        int numTerms = indices.size();
+        int[] indicesArray = new int[numTerms];
+        double[] valuesArray = new double[numTerms];
+        for (int i = 0; i < numTerms; i++) {
+            indicesArray[i] = indices.get(i);
+            valuesArray[i] = values.get(i);
+        }
+        return new Tuple<>(indicesArray, valuesArray);
+    }
+
+    private LeafTermPostings getLeafTermPostings(Object key, Vocabulary vocabulary, String field, LeafReader reader,
+                                                 int doc) throws IOException {
+        LeafTermPostings postings = leafTermPostings.get(key);
+        // documents that are visited out of order need fresh postings
+        if (postings == null || postings.canAdvance(reader, doc) == false) {
+            postings = new LeafTermPostings(reader, field, vocabulary.terms);
+            leafTermPostings.put(key, postings);
+        }
+        return postings;
+    }
+
+    private Vocabulary getVocabulary(String[] terms) {
+        Vocabulary vocabulary = vocabularies.get(terms);
+        if (vocabulary == null) {
+            BytesRef[] termBytes = new BytesRef[terms.length];
+            int[] featureIndices = new int[terms.length];
+            for (int i = 0; i < terms.length; i++) {
+                termBytes[i] = new BytesRef(terms[i]);
+                featureIndices[i] = i;
+            }
+            vocabulary = new Vocabulary(termBytes, featureIndices);
+            vocabularies.put(terms, vocabulary);
+        }
+        return vocabulary;
+    }
+
+    private Vocabulary getVocabulary(TermDictionary dictionary) {
+        Vocabulary vocabulary = vocabularies.get(dictionary);
+        if (vocabulary == null) {
+            // ords are in vocabulary order and feature indices increase with it
+            BytesRef[] termBytes = new BytesRef[dictionary.size()];
+            int[] featureIndices = new int[dictionary.size()];
+            for (int ord = 0; ord < dictionary.size(); ord++) {
+                termBytes[ord] = dictionary.term(ord);
+                featureIndices[ord] = dictionary.featureIndexOfOrd(ord);
+            }
+            vocabulary = new Vocabulary(termBytes, featureIndices);
+            vocabularies.put(dictionary, vocabulary);
+        }
+        return vocabulary;
+    }
+
+    /**
+     * The terms of a vocabulary sorted by feature index, so that postings slots map to increasing feature indices.
+     */
+    private static final class Vocabulary {
+        final BytesRef[] terms;
+        final int[] featureIndices;
+
+        Vocabulary(BytesRef[] terms, int[] featureIndices) {
+            this.terms = terms;
+            this.featureIndices = featureIndices;
+        }
+
+        int minIndex() {
+            return featureIndices.length == 0 ? 0 : featureIndices[0];
+        }
+
+        // the number of feature indices from minIndex() to the largest feature index
+        int numIndices() {
+            return featureIndices.length == 0 ? 0 : featureIndices[featureIndices.length - 1] - minIndex() + 1;
+        }
+    }
 }
@@ -20,16 +20,18 @@
 package org.elasticsearch.ml.modelinput;
 
 import java.util.Map;
-import java.util.Set;
 
+/**
+ * Field values by field name, a single value or a set of values per field.
+ */
 public class EsValueMapVector implements EsVector {
-    private Map<String, Set<Object>> values;
+    private Map<String, Object> values;
 
-    public EsValueMapVector(Map<String, Set<Object>> values) {
+    public EsValueMapVector(Map<String, Object> values) {
         this.values = values;
     }
 
-    public Map<String, Set<Object>> getValues() {
+    public Map<String, Object> getValues() {
         return values;
     }
 }
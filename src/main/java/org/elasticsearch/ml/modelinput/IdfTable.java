@@ -0,0 +1,79 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.ml.modelinput;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * IDF weights of the terms of a vocabulary for one top level reader, in an array indexed by feature index. The weight of a term
+ * is looked up in the terms dictionary the first time a document contains the term and reused for all other documents.
+ */
+class IdfTable {
+
+    private final IndexReader reader;
+    private final String field;
+    private final int minIndex;
+    private final double[] idfs;
+    private final double numDocs;
+
+    /**
+     * @param minIndex   the smallest feature index of the vocabulary
+     * @param numIndices the number of feature indices from minIndex on that the table holds weights for
+     * @param numDocs    the collection size the weights are computed for
+     */
+    IdfTable(IndexReader reader, String field, int minIndex, int numIndices, double numDocs) {
+        this.reader = reader;
+        this.field = field;
+        this.minIndex = minIndex;
+        this.idfs = new double[numIndices];
+        // NaN marks weights that were not computed yet
+        Arrays.fill(idfs, Double.NaN);
+        this.numDocs = numDocs;
+    }
+
+    boolean isFor(IndexReader reader, String field) {
+        return this.reader == reader && this.field.equals(field);
+    }
+
+    /**
+     * The IDF weight of the term with the given feature index, see {@link #computeIdf(double, double)}.
+     */
+    double idf(int featureIndex, BytesRef term) throws IOException {
+        int slot = featureIndex - minIndex;
+        double idf = idfs[slot];
+        if (Double.isNaN(idf)) {
+            idf = computeIdf(reader.docFreq(new Term(field, term)), numDocs);
+            idfs[slot] = idf;
+        }
+        return idf;
+    }
+
+    /**
+     * log((numDocs + 1) / (docFreq + 1))
+     */
+    double computeIdf(double docFreq, double numDocs) {
+        return Math.log((numDocs + 1) / (docFreq + 1));
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.ml.modelinput;
+
+import org.apache.lucene.index.IndexReader;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The {@link IdfTable}s of a node, shared by the data sources of all segments and requests that vectorize the same vocabulary
+ * over the same top level reader, so that the document frequency of a term is looked up once per reader. The tables of a
+ * reader are dropped when the reader is closed. Vocabularies are held weakly, so that the tables of vocabularies no script
+ * uses anymore do not live as long as the reader.
+ * <p>
+ * The weights of a table are computed lazily by whichever thread needs them first. Threads that race compute the same
+ * weight and write the same value.
+ */
+public class IdfTables {
+
+    private final ConcurrentMap<Object, Map<Object, IdfTable>> tables = new ConcurrentHashMap<>();
+
+    interface Loader {
+        IdfTable load() throws IOException;
+    }
+
+    /**
+     * Returns the table of the vocabulary and field for the top level reader or loads it.
+     *
+     * @param vocabulary the word map or term array of the table, vocabularies are compared by identity
+     */
+    IdfTable get(IndexReader reader, Object vocabulary, String field, Loader loader) throws IOException {
+        Object readerKey = reader.getCombinedCoreAndDeletesKey();
+        Map<Object, IdfTable> readerTables = tables.get(readerKey);
+        if (readerTables == null) {
+            readerTables = Collections.synchronizedMap(new WeakHashMap<>());
+            Map<Object, IdfTable> previous = tables.putIfAbsent(readerKey, readerTables);
+            if (previous == null) {
+                reader.addReaderClosedListener(closedReader -> tables.remove(readerKey));
+            } else {
+                readerTables = previous;
+            }
+        }
+        synchronized (readerTables) {
+            IdfTable idfTable = readerTables.get(vocabulary);
+            if (idfTable == null || idfTable.isFor(reader, field) == false) {
+                idfTable = loader.load();
+                readerTables.put(vocabulary, idfTable);
+            }
+            return idfTable;
+        }
+    }
+
+    /**
+     * The number of readers that have tables.
+     */
+    int numReaders() {
+        return tables.size();
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.ml.modelinput;
+
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.PriorityQueue;
+
+import java.io.IOException;
+
+/**
+ * The postings of the terms of a vocabulary in one segment. The postings are opened once and kept in a queue ordered by their
+ * current document so that moving to the next document only advances the postings of the terms that occur before it. The cost
+ * per document is proportional to the number of vocabulary terms in the document and not to the size of the vocabulary.
+ * Documents must be visited in increasing doc id order.
+ */
+final class LeafTermPostings {
+
+    private final LeafReader reader;
+    private final BytesRef[] terms;
+    private final PostingsQueue queue;
+    private final TermPostings[] matches;
+    private final int[] matchingSlots;
+    private final int[] matchingFreqs;
+    private int doc = -1;
+    private int numMatches;
+
+    /**
+     * @param terms the vocabulary, the position of a term in the array is its slot
+     */
+    LeafTermPostings(LeafReader reader, String field, BytesRef[] terms) throws IOException {
+        this.reader = reader;
+        this.terms = terms;
+        this.queue = new PostingsQueue(terms.length);
+        Terms fieldTerms = reader.terms(field);
+        if (fieldTerms != null) {
+            TermsEnum termsEnum = fieldTerms.iterator();
+            for (int i = 0; i < terms.length; i++) {
+                if (termsEnum.seekExact(terms[i])) {
+                    PostingsEnum postings = termsEnum.postings(null, PostingsEnum.FREQS);
+                    postings.nextDoc();
+                    queue.add(new TermPostings(i, postings));
+                }
+            }
+        }
+        this.matches = new TermPostings[queue.size()];
+        this.matchingSlots = new int[queue.size()];
+        this.matchingFreqs = new int[queue.size()];
+    }
+
+    /**
+     * Whether these postings can be positioned on the given document of the given segment.
+     */
+    boolean canAdvance(LeafReader reader, int doc) {
+        return this.reader == reader && doc >= this.doc;
+    }
+
+    /**
+     * Positions the postings on the given document and returns the number of vocabulary terms the document contains. Their slots
+     * and frequencies are in the first entries of {@link #matchingSlots()} and {@link #matchingFreqs()}, in increasing slot order.
+     */
+    int advance(int target) throws IOException {
+        assert target >= doc : "documents must be visited in order but got " + target + " after " + doc;
+        if (target == doc) {
+            return numMatches;
+        }
+        doc = target;
+        numMatches = 0;
+        if (queue.size() == 0) {
+            return 0;
+        }
+        TermPostings top = queue.top();
+        while (top.postings.docID() < target) {
+            top.postings.advance(target);
+            top = queue.updateTop();
+        }
+        while (top != null && top.postings.docID() == target) {
+            TermPostings match = queue.pop();
+            // insertion sort, documents only contain a few terms of the vocabulary
+            int i = numMatches++;
+            for (; i > 0 && matchingSlots[i - 1] > match.slot; i--) {
+                matches[i] = matches[i - 1];
+                matchingSlots[i] = matchingSlots[i - 1];
+                matchingFreqs[i] = matchingFreqs[i - 1];
+            }
+            matches[i] = match;
+            matchingSlots[i] = match.slot;
+            matchingFreqs[i] = match.postings.freq();
+            top = queue.top();
+        }
+        // the matches stay on the current document until the next call advances them
+        for (int i = 0; i < numMatches; i++) {
+            queue.add(matches[i]);
+        }
+        return numMatches;
+    }
+
+    int[] matchingSlots() {
+        return matchingSlots;
+    }
+
+    int[] matchingFreqs() {
+        return matchingFreqs;
+    }
+
+    BytesRef term(int slot) {
+        return terms[slot];
+    }
+
+    private static final class TermPostings {
+        final int slot;
+        final PostingsEnum postings;
+
+        TermPostings(int slot, PostingsEnum postings) {
+            this.slot = slot;
+            this.postings = postings;
+        }
+    }
+
+    private static final class PostingsQueue extends PriorityQueue<TermPostings> {
+
+        PostingsQueue(int maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        protected boolean lessThan(TermPostings a, TermPostings b) {
+            // exhausted postings are at NO_MORE_DOCS and sink to the bottom
+            return a.postings.docID() < b.postings.docID();
+        }
+    }
+}
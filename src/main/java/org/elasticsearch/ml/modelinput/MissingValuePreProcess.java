@@ -54,6 +54,10 @@ public class MissingValuePreProcess extends PreProcessingStep {
         this.missingValue = parseMissingValue(dataField.getDataType(), missingValue);
     }
 
+    Object missingValue() {
+        return missingValue;
+    }
+
     @Override
     public Object apply(Object value) {
         if (value == null) {
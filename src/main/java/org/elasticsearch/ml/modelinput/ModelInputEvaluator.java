@@ -19,9 +19,21 @@
 
 package org.elasticsearch.ml.modelinput;
 
+import org.elasticsearch.common.Nullable;
+
 /**
  *
  */
 public interface ModelInputEvaluator<T extends ModelInput> {
     T convert(DataSource dataSource);
+
+    /**
+     * Converts the data source into the input returned by a previous call if the evaluator can reuse inputs, so that scripts
+     * that evaluate many documents do not allocate a new input per document. The previous input must not be used anymore.
+     *
+     * @param reuse the input of the previous call or null
+     */
+    default T convert(DataSource dataSource, @Nullable T reuse) {
+        return convert(dataSource);
+    }
 }
@@ -21,7 +21,9 @@ package org.elasticsearch.ml.modelinput;
 
 import org.dmg.pmml.NormContinuous;
 
-public class NormContinousPreProcess extends PreProcessingStep {
+import java.util.function.DoubleUnaryOperator;
+
+public class NormContinousPreProcess extends PreProcessingStep implements DoubleUnaryOperator {
     double factor;
     double b1;
     double a1;
@@ -43,6 +45,11 @@ public class NormContinousPreProcess extends PreProcessingStep {
     @Override
     public Object apply(Object o) {
         assert o instanceof Number;
-        return b1 + (((Number) o).doubleValue() - a1) * factor;
+        return applyAsDouble(((Number) o).doubleValue());
+    }
+
+    @Override
+    public double applyAsDouble(double value) {
+        return b1 + (value - a1) * factor;
     }
 }
@@ -0,0 +1,75 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.ml.modelinput;
+
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.elasticsearch.index.fielddata.ScriptDocValues;
+import org.elasticsearch.index.fielddata.SortedNumericDoubleValues;
+
+/**
+ * Reads the first value of a numeric field in one segment straight from its doc values, so that continuous features of a
+ * document are read into a primitive instead of a list of boxed values that is looked up by field name. Longs are read from the
+ * {@link SortedNumericDocValues} and doubles from the decoding view that field data puts on top of them, which knows how the
+ * field type encodes its values.
+ */
+final class NumericFieldValues {
+
+    private final LeafReader reader;
+    // at most one of these is set, none if the field is not numeric and the field values must be used instead
+    private final SortedNumericDocValues longValues;
+    private final SortedNumericDoubleValues doubleValues;
+
+    NumericFieldValues(LeafReader reader, ScriptDocValues<?> scriptValues) {
+        this.reader = reader;
+        this.longValues = scriptValues instanceof ScriptDocValues.Longs ? ((ScriptDocValues.Longs) scriptValues).getInternalValues() : null;
+        this.doubleValues = scriptValues instanceof ScriptDocValues.Doubles ? ((ScriptDocValues.Doubles) scriptValues)
+                .getInternalValues() : null;
+    }
+
+    boolean isFor(LeafReader reader) {
+        return this.reader == reader;
+    }
+
+    /**
+     * Appends the pre processed first value of the given document to the vector. Returns false without appending anything if the
+     * field values must be used instead.
+     */
+    boolean append(int doc, int index, NumericPreProcessing preProcessing, SparseVectorModelInput vector) {
+        if (longValues != null) {
+            longValues.setDocument(doc);
+            if (longValues.count() == 0) {
+                vector.add(index, preProcessing.missingValue());
+            } else {
+                vector.add(index, preProcessing.applyAsDouble(longValues.valueAt(0)));
+            }
+            return true;
+        } else if (doubleValues != null) {
+            doubleValues.setDocument(doc);
+            if (doubleValues.count() == 0) {
+                vector.add(index, preProcessing.missingValue());
+            } else {
+                vector.add(index, preProcessing.applyAsDouble(doubleValues.valueAt(0)));
+            }
+            return true;
+        }
+        return false;
+    }
+}
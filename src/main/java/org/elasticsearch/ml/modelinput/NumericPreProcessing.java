@@ -0,0 +1,98 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.ml.modelinput;
+
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * The pre processing steps of a continuous field compiled into a primitive pipeline when the model is built. Missing value
+ * replacement is folded in: the replacement is run through the steps that follow it once, up front, and the steps that are applied
+ * to existing values are chained into a single {@link DoubleUnaryOperator}. Values are processed without boxing and with the same
+ * arithmetic as the generic steps.
+ */
+final class NumericPreProcessing implements DoubleUnaryOperator {
+
+    private final String field;
+    private final DoubleUnaryOperator pipeline;
+    private final boolean hasMissingValue;
+    private final double missingValue;
+
+    private NumericPreProcessing(String field, DoubleUnaryOperator pipeline, boolean hasMissingValue, double missingValue) {
+        this.field = field;
+        this.pipeline = pipeline;
+        this.hasMissingValue = hasMissingValue;
+        this.missingValue = missingValue;
+    }
+
+    /**
+     * Compiles the steps or returns null if one of them is not a numeric step.
+     */
+    static NumericPreProcessing compile(String field, PreProcessingStep[] steps) {
+        // null until the first step, so that a single step is applied without a wrapping lambda
+        DoubleUnaryOperator pipeline = null;
+        // a missing value can only be replaced before the first step that needs a value
+        boolean missingValueReachable = true;
+        boolean hasMissingValue = false;
+        double missingValue = Double.NaN;
+        for (PreProcessingStep step : steps) {
+            if (step instanceof MissingValuePreProcess) {
+                // existing values pass through unchanged
+                if (missingValueReachable && hasMissingValue == false) {
+                    Object replacement = ((MissingValuePreProcess) step).missingValue();
+                    if (replacement instanceof Number == false) {
+                        return null;
+                    }
+                    hasMissingValue = true;
+                    missingValue = ((Number) replacement).doubleValue();
+                }
+            } else if (step instanceof DoubleUnaryOperator) {
+                DoubleUnaryOperator operator = (DoubleUnaryOperator) step;
+                pipeline = pipeline == null ? operator : pipeline.andThen(operator);
+                if (hasMissingValue) {
+                    missingValue = operator.applyAsDouble(missingValue);
+                } else {
+                    missingValueReachable = false;
+                }
+            } else {
+                return null;
+            }
+        }
+        return new NumericPreProcessing(field, pipeline == null ? DoubleUnaryOperator.identity() : pipeline, hasMissingValue,
+                missingValue);
+    }
+
+    /**
+     * Pre processes an existing value.
+     */
+    @Override
+    public double applyAsDouble(double value) {
+        return pipeline.applyAsDouble(value);
+    }
+
+    /**
+     * The pre processed value of documents that do not have a value.
+     */
+    double missingValue() {
+        if (hasMissingValue == false) {
+            throw new IllegalArgumentException("field [" + field + "] has no value and no missing value replacement");
+        }
+        return missingValue;
+    }
+}
@@ -26,9 +26,11 @@ import org.dmg.pmml.DerivedField;
 import org.dmg.pmml.Expression;
 import org.dmg.pmml.MiningField;
 import org.dmg.pmml.NormContinuous;
+import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.collect.Tuple;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -56,14 +58,18 @@ public abstract class PMMLVectorRange extends VectorRange {
             valueList.addAll(fieldValues.get(field));
         }
         for (Object value : valueList) {
-            for (int i = 0; i < preProcessingSteps.length; i++) {
-                value = preProcessingSteps[i].apply(value);
-            }
-            processedValues.add(value);
+            processedValues.add(preProcess(value));
         }
         return processedValues;
     }
 
+    Object preProcess(Object value) {
+        for (int i = 0; i < preProcessingSteps.length; i++) {
+            value = preProcessingSteps[i].apply(value);
+        }
+        return value;
+    }
+
     public PMMLVectorRange(DataField dataField, MiningField miningField, DerivedField[] derivedFields) {
         super(dataField.getName().getValue(),
                 derivedFields.length == 0 ? dataField.getName().getValue() : derivedFields[derivedFields.length - 1].getName().getValue(),
@@ -85,6 +91,19 @@ public abstract class PMMLVectorRange extends VectorRange {
 
     public abstract void addVectorEntry(int indexCounter, String value);
 
+    @Override
+    public void append(DataSource dataSource, SparseVectorModelInput vector) {
+        appendSparse(getVector(Collections.singletonMap(field, dataSource.getValues(field))), vector);
+    }
+
+    /**
+     * The pre processed first value of the field, or the pre processed missing value if the field has none.
+     */
+    Object preProcessedFirstValue(DataSource dataSource) {
+        List<Object> values = dataSource.getValues(field);
+        return preProcess(values == null || values.isEmpty() ? null : values.get(0));
+    }
+
     /**
      * Converts a 1 of k feature into a vector that has a 1 where the field value is the nth category and 0 everywhere else.
      * Categories will be numbered according to the order given in categories parameter.
@@ -98,34 +117,47 @@ public abstract class PMMLVectorRange extends VectorRange {
 
         @Override
         public EsVector getVector(DataSource dataSource) {
-            throw new UnsupportedOperationException("Remove this later, we should not get here.");
+            SparseVectorModelInput vector = new SparseVectorModelInput();
+            append(dataSource, vector);
+            return new EsSparseNumericVector(new Tuple<>(vector.getIndices(), vector.getValues()));
         }
 
+        /**
+         * Reads the categories from the ordinals of the field if the data source has them and from the field values otherwise.
+         */
         @Override
-        public EsVector getVector(Map<String, List<Object>> fieldValues) {
-            Tuple<int[], double[]> indicesAndValues;
-            List<Object> processedCategory = applyPreProcessing(fieldValues);
-
-            List<Integer> indices = new ArrayList<>();
-            Integer lastIndex = -1;
-            for (Object value : processedCategory) {
-                Integer index = categoryToIndexHashMap.get(value);
-                if (index != null) {
-                    indices.add(index);
-                    assert lastIndex < index;
-                    lastIndex = index;
+        public void append(DataSource dataSource, SparseVectorModelInput vector) {
+            if (dataSource.appendCategorical(this, vector)) {
+                return;
+            }
+            List<Object> values = dataSource.getValues(field);
+            if (values == null || values.isEmpty()) {
+                appendCategory(preProcess(null), vector);
+            } else {
+                int start = vector.getSize();
+                for (int i = 0; i < values.size(); i++) {
+                    appendCategory(preProcess(values.get(i)), vector);
                 }
+                // the values are not in the order of the categories in the model
+                vector.sortSince(start);
+            }
+        }
+
+        private void appendCategory(Object category, SparseVectorModelInput vector) {
+            Integer index = categoryToIndexHashMap.get(category);
+            if (index != null) {
+                vector.add(index, 1.0);
             }
-            int[] indicesArray = new int[indices.size()];
-            double[] values = new double[indices.size()];
-            int indexCounter = 0;
-            for (Integer index : indices) {
-                indicesArray[indexCounter] = index;
-                values[indexCounter] = 1.0;
-                indexCounter++;
+        }
+
+        @Override
+        public EsVector getVector(Map<String, List<Object>> fieldValues) {
+            SparseVectorModelInput vector = new SparseVectorModelInput();
+            for (Object value : applyPreProcessing(fieldValues)) {
+                appendCategory(value, vector);
             }
-            indicesAndValues = new Tuple<>(indicesArray, values);
-            return new EsSparseNumericVector(indicesAndValues);
+            vector.sortSince(0);
+            return new EsSparseNumericVector(new Tuple<>(vector.getIndices(), vector.getValues()));
         }
 
         @Override
@@ -146,13 +178,15 @@ public abstract class PMMLVectorRange extends VectorRange {
      */
     public static class ContinousSingleEntryVectorRange extends PMMLVectorRange {
         int index = -1;
+        // null if the processing chain has steps that cannot be compiled
+        final NumericPreProcessing numericPreProcessing;
 
         /**
          * The derived fields must be given in backwards order of the processing chain.
          */
         public ContinousSingleEntryVectorRange(DataField dataField, MiningField miningField, DerivedField... derivedFields) {
             super(dataField, miningField, derivedFields);
-
+            numericPreProcessing = NumericPreProcessing.compile(field, preProcessingSteps);
         }
 
         @Override
@@ -172,6 +206,23 @@ public abstract class PMMLVectorRange extends VectorRange {
             }
         }
 
+        @Override
+        public void append(DataSource dataSource, SparseVectorModelInput vector) {
+            if (dataSource.appendContinuous(this, vector)) {
+                return;
+            }
+            if (numericPreProcessing == null) {
+                vector.add(index, ((Number) preProcessedFirstValue(dataSource)).doubleValue());
+                return;
+            }
+            List<Object> values = dataSource.getValues(field);
+            if (values == null || values.isEmpty()) {
+                vector.add(index, numericPreProcessing.missingValue());
+            } else {
+                vector.add(index, numericPreProcessing.applyAsDouble(((Number) values.get(0)).doubleValue()));
+            }
+        }
+
         @Override
         public void addVectorEntry(int indexCounter, String value) {
             index = indexCounter;
@@ -253,6 +304,11 @@ public abstract class PMMLVectorRange extends VectorRange {
             return new EsSparseNumericVector(new Tuple<>(new int[]{index}, new double[]{1.0}));
         }
 
+        @Override
+        public void append(DataSource dataSource, SparseVectorModelInput vector) {
+            vector.add(index, 1.0);
+        }
+
         @Override
         public EsVector getVector(Map<String, List<Object>> fieldValues) {
             return new EsSparseNumericVector(new Tuple<>(new int[]{index}, new double[]{1.0}));
@@ -282,14 +338,42 @@ public abstract class PMMLVectorRange extends VectorRange {
             throw new UnsupportedOperationException("Not implemented for FieldToValue");
         }
 
+        @Override
+        public void append(DataSource dataSource, SparseVectorModelInput vector) {
+            throw new UnsupportedOperationException("Not implemented for FieldToValue");
+        }
+
         @Override
         public EsVector getVector(Map<String, List<Object>> fieldValues) {
-            List<Object> finalValue = applyPreProcessing(fieldValues);
-            Set<Object> valueSet = new HashSet<>();
-            valueSet.addAll(finalValue);
-            Map<String, Set<Object>> values = new HashMap<>();
-            values.put(finalFieldName, valueSet);
+            Map<String, Object> values = new HashMap<>();
+            putValue(fieldValues.get(field), values);
             return new EsValueMapVector(values);
         }
+
+        /**
+         * Puts the pre processed values of the field into a tree model vector. Single values are put as they are, only fields
+         * that really have several values get a set. Fields without a value are left out.
+         */
+        void putValue(@Nullable List<Object> fieldValues, Map<String, Object> vector) {
+            if (fieldValues == null || fieldValues.size() <= 1) {
+                Object value = preProcess(fieldValues == null || fieldValues.isEmpty() ? null : fieldValues.get(0));
+                if (value != null) {
+                    vector.put(finalFieldName, value);
+                }
+                return;
+            }
+            Set<Object> values = new HashSet<>();
+            for (Object value : fieldValues) {
+                Object processedValue = preProcess(value);
+                if (processedValue != null) {
+                    values.add(processedValue);
+                }
+            }
+            if (values.size() == 1) {
+                vector.put(finalFieldName, values.iterator().next());
+            } else if (values.size() > 1) {
+                vector.put(finalFieldName, values);
+            }
+        }
     }
 }
@@ -19,25 +19,77 @@
 
 package org.elasticsearch.ml.modelinput;
 
-import java.util.HashMap;
-import java.util.Map;
+import org.apache.lucene.util.ArrayUtil;
+
+import java.util.Arrays;
 
 /**
- * A sparse vector implementation of the vector model
+ * A sparse vector implementation of the vector model. The vector can be reused for many documents: {@link #reset()} empties it
+ * and {@link #add(int, double)} appends entries, growing the arrays only when a document has more entries than all before.
  */
 public class SparseVectorModelInput extends VectorModelInput {
 
-    private final double[] values;
-    private final int[] indices;
+    private double[] values;
+    private int[] indices;
+    private int size;
 
     public SparseVectorModelInput(double[] values, int[] indices) {
         this.values = values;
         this.indices = indices;
+        this.size = values.length;
+    }
+
+    /**
+     * An empty vector to append entries to.
+     */
+    public SparseVectorModelInput() {
+        this(new double[8], new int[8]);
+        this.size = 0;
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void reset() {
+        size = 0;
+    }
+
+    /**
+     * Appends an entry, entries of a vector range must be appended in increasing index order.
+     */
+    public void add(int index, double value) {
+        if (size == values.length) {
+            int newLength = ArrayUtil.oversize(size + 1, Double.BYTES);
+            values = Arrays.copyOf(values, newLength);
+            indices = Arrays.copyOf(indices, newLength);
+        }
+        indices[size] = index;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Sorts the entries appended since the given entry by index, for vector ranges that find the entries of a document in
+     * another order than their indices.
+     */
+    void sortSince(int from) {
+        // documents have few entries per range, an insertion sort neither boxes nor allocates
+        for (int i = from + 1; i < size; i++) {
+            int index = indices[i];
+            double value = values[i];
+            int j = i - 1;
+            for (; j >= from && indices[j] > index; j--) {
+                indices[j + 1] = indices[j];
+                values[j + 1] = values[j];
+            }
+            indices[j + 1] = index;
+            values[j + 1] = value;
+        }
     }
 
     @Override
     public int getSize() {
-        return values.length;
+        return size;
     }
 
     @Override
@@ -51,10 +103,10 @@ public class SparseVectorModelInput extends VectorModelInput {
     }
 
     public double[] getValues() {
-        return values;
+        return size == values.length ? values : Arrays.copyOf(values, size);
     }
 
     public int[] getIndices() {
-        return indices;
+        return size == indices.length ? indices : Arrays.copyOf(indices, size);
     }
 }
@@ -0,0 +1,146 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.ml.modelinput;
+
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.lucene.util.StringHelper;
+
+import java.util.Arrays;
+
+/**
+ * Immutable dictionary from the utf-8 bytes of the terms of a vocabulary to their feature indices. The terms are stored back to
+ * back in a single byte array and found with an open addressing hash table of ordinals, so lookups work on the bytes of a
+ * {@link BytesRef} without decoding them to a String. Lookups do not allocate and are safe to share between threads.
+ */
+public final class TermDictionary implements Accountable {
+
+    private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(TermDictionary.class);
+
+    private final byte[] bytes;
+    // term ord i is stored in bytes[starts[i]] to bytes[starts[i + 1]]
+    private final int[] starts;
+    private final int[] featureIndices;
+    // ords of the terms by hash slot, -1 for empty slots
+    private final int[] table;
+    private final int mask;
+    private final int size;
+
+    /**
+     * @param terms  the vocabulary, duplicates keep the feature index of their first occurrence
+     * @param offset the feature index of the first term
+     */
+    public TermDictionary(String[] terms, int offset) {
+        int tableSize = Integer.highestOneBit(Math.max(terms.length, 1) * 2 - 1) << 1;
+        this.table = new int[tableSize];
+        Arrays.fill(table, -1);
+        this.mask = tableSize - 1;
+        BytesRef[] termBytes = new BytesRef[terms.length];
+        int numBytes = 0;
+        for (int i = 0; i < terms.length; i++) {
+            termBytes[i] = new BytesRef(terms[i]);
+            numBytes += termBytes[i].length;
+        }
+        this.bytes = new byte[numBytes];
+        this.starts = new int[terms.length + 1];
+        this.featureIndices = new int[terms.length];
+        int numTerms = 0;
+        for (int i = 0; i < terms.length; i++) {
+            BytesRef term = termBytes[i];
+            int slot = slot(term);
+            int ord = table[slot];
+            if (ord == -1) {
+                ord = numTerms++;
+                table[slot] = ord;
+                System.arraycopy(term.bytes, term.offset, bytes, starts[ord], term.length);
+                starts[ord + 1] = starts[ord] + term.length;
+                featureIndices[ord] = i + offset;
+            }
+        }
+        this.size = numTerms;
+    }
+
+    /**
+     * The number of distinct terms.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The feature index of the given term or -1 if the term is not part of the vocabulary.
+     */
+    public int featureIndex(BytesRef term) {
+        int ord = table[slot(term)];
+        return ord == -1 ? -1 : featureIndices[ord];
+    }
+
+    /**
+     * The feature index of the given term or -1 if the term is not part of the vocabulary.
+     */
+    public int featureIndex(String term) {
+        return featureIndex(new BytesRef(term));
+    }
+
+    /**
+     * The feature index of the term with the given ord, ords are assigned in the order of the vocabulary so feature indices increase
+     * with the ord.
+     */
+    int featureIndexOfOrd(int ord) {
+        return featureIndices[ord];
+    }
+
+    /**
+     * The bytes of the term with the given ord, shared with the dictionary.
+     */
+    BytesRef term(int ord) {
+        return new BytesRef(bytes, starts[ord], starts[ord + 1] - starts[ord]);
+    }
+
+    // the slot the term is in, or the empty slot it would go to
+    private int slot(BytesRef term) {
+        int slot = StringHelper.murmurhash3_x86_32(term.bytes, term.offset, term.length, 0) & mask;
+        int ord;
+        while ((ord = table[slot]) != -1 && termEquals(ord, term) == false) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private boolean termEquals(int ord, BytesRef term) {
+        int start = starts[ord];
+        if (starts[ord + 1] - start != term.length) {
+            return false;
+        }
+        for (int i = 0; i < term.length; i++) {
+            if (bytes[start + i] != term.bytes[term.offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return BASE_RAM_BYTES_USED + RamUsageEstimator.sizeOf(bytes) + RamUsageEstimator.sizeOf(starts)
+                + RamUsageEstimator.sizeOf(featureIndices) + RamUsageEstimator.sizeOf(table);
+    }
+}
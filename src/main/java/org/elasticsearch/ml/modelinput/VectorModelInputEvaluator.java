@@ -19,8 +19,8 @@
 
 package org.elasticsearch.ml.modelinput;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import org.elasticsearch.common.Nullable;
+
 import java.util.List;
 
 /**
@@ -40,34 +40,21 @@ public class VectorModelInputEvaluator implements ModelInputEvaluator<VectorMode
 
     @Override
     public SparseVectorModelInput convert(DataSource dataSource) {
-        // TODO: Optimize!!!
-        HashMap<String, List<Object>> fieldValues = new HashMap<>();
-        for (VectorRange vectorRange : this.vectorRangeList) {
-            // TODO: vector range can depend on several fields
-            String field = vectorRange.getField();
-            if (field != null) {
-                fieldValues.put(field, dataSource.getValues(field));
-            }
-        }
-        int length = 0;
-        List<EsSparseNumericVector> sparseNumericVectors = new ArrayList<>();
-        for (VectorRange vectorRange : this.vectorRangeList) {
-            EsVector entries = vectorRange.getVector(fieldValues);
-            assert entries instanceof EsSparseNumericVector;
-            sparseNumericVectors.add((EsSparseNumericVector) entries);
-            length += ((EsSparseNumericVector) entries).values.v1().length;
-        }
-        double[] values = new double[length];
-        int[] indices = new int[length];
-        int i = 0;
-        for (EsSparseNumericVector esSparseNumericVector : sparseNumericVectors) {
-            for (int j = 0; j < esSparseNumericVector.values.v1().length; j++) {
-                indices[i] = esSparseNumericVector.values.v1()[j];
-                values[i] = esSparseNumericVector.values.v2()[j];
-                i++;
-            }
+        return convert(dataSource, null);
+    }
+
+    /**
+     * Appends the entries of all vector ranges to the reused vector, each range reads its fields from the data source itself.
+     */
+    @Override
+    public SparseVectorModelInput convert(DataSource dataSource, @Nullable VectorModelInput reuse) {
+        SparseVectorModelInput vector = reuse instanceof SparseVectorModelInput ? (SparseVectorModelInput) reuse
+                : new SparseVectorModelInput();
+        vector.reset();
+        for (int i = 0; i < vectorRangeList.size(); i++) {
+            vectorRangeList.get(i).append(dataSource, vector);
         }
-        return new SparseVectorModelInput(values, indices);
+        return vector;
     }
 
 }
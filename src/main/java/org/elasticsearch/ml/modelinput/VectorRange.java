@@ -45,6 +45,22 @@ public abstract class VectorRange {
 
     public abstract EsVector getVector(Map<String, List<Object>> fieldValues);
 
+    /**
+     * Appends the sparse entries of this range for the current document of the data source to the vector.
+     */
+    public void append(DataSource dataSource, SparseVectorModelInput vector) {
+        appendSparse(getVector(dataSource), vector);
+    }
+
+    static void appendSparse(EsVector entries, SparseVectorModelInput vector) {
+        assert entries instanceof EsSparseNumericVector;
+        int[] indices = ((EsSparseNumericVector) entries).values.v1();
+        double[] values = ((EsSparseNumericVector) entries).values.v2();
+        for (int i = 0; i < indices.length; i++) {
+            vector.add(indices[i], values[i]);
+        }
+    }
+
     public String getField() {
         return field;
     }
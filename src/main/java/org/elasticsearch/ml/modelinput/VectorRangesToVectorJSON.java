@@ -19,6 +19,8 @@
 
 package org.elasticsearch.ml.modelinput;
 
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
 import org.elasticsearch.action.preparespec.TransportPrepareSpecAction;
 
 import java.util.ArrayList;
@@ -27,7 +29,7 @@ import java.util.List;
 import java.util.Map;
 
 
-public class VectorRangesToVectorJSON extends VectorRangesToVector {
+public class VectorRangesToVectorJSON extends VectorRangesToVector implements Accountable {
 
 
     // number of entries
@@ -44,21 +46,54 @@ public class VectorRangesToVectorJSON extends VectorRangesToVector {
             assert feature.get("type").equals("terms"); // nothing else implemented yet
             assert feature.get("terms") != null;
             assert feature.get("number") != null;
+            AnalyzedTextVectorRange vectorRange;
             if (sparse) {
-                vectorRangeList.add(new AnalyzedTextVectorRange.SparseTermVectorRange((String) feature.get("field"), "int",
+                vectorRange = new AnalyzedTextVectorRange.SparseTermVectorRange((String) feature.get("field"), "int",
                         getTerms(feature.get("terms")),
                         (String) feature.get("number"),
-                        offset));
+                        offset);
             } else {
-                vectorRangeList.add(new AnalyzedTextVectorRange.DenseTermVectorRange((String) feature.get("field"), "int", getTerms
-                        (feature.get("terms")), (String) feature.get("number"), offset));
+                vectorRange = new AnalyzedTextVectorRange.DenseTermVectorRange((String) feature.get("field"), "int", getTerms
+                        (feature.get("terms")), (String) feature.get("number"), offset);
             }
+            vectorRange.bm25(getFloat(feature.get("k1"), AnalyzedTextVectorRange.DEFAULT_K1),
+                    getFloat(feature.get("b"), AnalyzedTextVectorRange.DEFAULT_B));
+            vectorRangeList.add(vectorRange);
             offset += vectorRangeList.get(vectorRangeList.size() - 1).size();
             numEntries += vectorRangeList.get(vectorRangeList.size() - 1).size();
         }
     }
 
 
+    @Override
+    public long ramBytesUsed() {
+        long bytes = RamUsageEstimator.shallowSizeOf(this) + RamUsageEstimator.shallowSizeOf(vectorRangeList);
+        for (VectorRange vectorRange : vectorRangeList) {
+            bytes += RamUsageEstimator.shallowSizeOf(vectorRange);
+            if (vectorRange instanceof AnalyzedTextVectorRange.SparseTermVectorRange) {
+                bytes += ((AnalyzedTextVectorRange.SparseTermVectorRange) vectorRange).dictionary.ramBytesUsed();
+            } else if (vectorRange instanceof AnalyzedTextVectorRange.DenseTermVectorRange) {
+                String[] terms = ((AnalyzedTextVectorRange.DenseTermVectorRange) vectorRange).terms;
+                bytes += RamUsageEstimator.shallowSizeOf(terms);
+                for (String term : terms) {
+                    bytes += RamUsageEstimator.shallowSizeOf(term) + RamUsageEstimator.alignObjectSize(
+                            RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + RamUsageEstimator.NUM_BYTES_CHAR * term.length());
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private static float getFloat(Object value, float defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).floatValue();
+        }
+        return Float.parseFloat(value.toString());
+    }
+
     private String[] getTerms(Object terms) {
         assert terms instanceof ArrayList;
         @SuppressWarnings("unchecked") ArrayList<String> termsList = (ArrayList<String>) terms;
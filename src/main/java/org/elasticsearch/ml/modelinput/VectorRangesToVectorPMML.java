@@ -94,12 +94,22 @@ public class VectorRangesToVectorPMML extends VectorRangesToVector {
             super(fieldsToVectors, fieldsToVectors.size());
         }
 
+        @Override
+        public Object vector(DataSource dataSource) {
+            HashMap<String, Object> values = new HashMap<>();
+            for (VectorRange vectorRange : vectorRangeList) {
+                assert vectorRange instanceof PMMLVectorRange.FieldToValue;
+                ((PMMLVectorRange.FieldToValue) vectorRange).putValue(dataSource.getValues(vectorRange.getField()), values);
+            }
+            return values;
+        }
+
         @Override
         public Object vector(Map<String, List<Object>> fieldValues) {
             HashMap<String, Object> values = new HashMap<>();
             for (VectorRange vectorRange : vectorRangeList) {
                 assert vectorRange instanceof PMMLVectorRange.FieldToValue;
-                values.putAll(((EsValueMapVector) vectorRange.getVector(fieldValues)).getValues());
+                ((PMMLVectorRange.FieldToValue) vectorRange).putValue(fieldValues.get(vectorRange.getField()), values);
             }
             return values;
         }
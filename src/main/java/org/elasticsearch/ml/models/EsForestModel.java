@@ -0,0 +1,163 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.ml.models;
+
+import org.elasticsearch.ml.modelinput.MapModelInput;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * An ensemble of trees, like a random forest or gradient boosted trees, evaluated over one {@link FlatTree} that holds all
+ * member trees. The vector of a document is read into a single row that all trees test, and the predictions of the trees
+ * are then aggregated:
+ * <ul>
+ * <li>{@link Aggregation#MAJORITY_VOTE}: the class with the highest sum of tree weights, ties go to the class listed first</li>
+ * <li>{@link Aggregation#AVERAGE}: the weighted average of the numeric scores</li>
+ * <li>{@link Aggregation#SUM}: the weighted sum of the numeric scores</li>
+ * </ul>
+ * Trees without a prediction for a document are left out. If no tree has a prediction the result is null. The aggregated
+ * score of {@link Aggregation#AVERAGE} and {@link Aggregation#SUM} is passed through the target function, for example to
+ * rescale it.
+ */
+public class EsForestModel extends EsModelEvaluator<MapModelInput, Object> {
+
+    public enum Aggregation {
+        MAJORITY_VOTE,
+        AVERAGE,
+        SUM
+    }
+
+    private final FlatTree forest;
+    private final Aggregation aggregation;
+    private final double[] weights;
+    // the numeric value of the score of each class, only used by AVERAGE and SUM
+    private final double[] classValues;
+    private final DoubleUnaryOperator target;
+
+    /**
+     * @param weights the weight of each tree of the forest
+     */
+    public EsForestModel(FlatTree forest, Aggregation aggregation, double[] weights) {
+        this(forest, aggregation, weights, DoubleUnaryOperator.identity());
+    }
+
+    /**
+     * @param weights the weight of each tree of the forest
+     * @param target  applied to the aggregated score of AVERAGE and SUM
+     */
+    public EsForestModel(FlatTree forest, Aggregation aggregation, double[] weights, DoubleUnaryOperator target) {
+        if (weights.length != forest.numTrees()) {
+            throw new IllegalArgumentException("expected [" + forest.numTrees() + "] weights but got [" + weights.length + "]");
+        }
+        this.forest = forest;
+        this.aggregation = aggregation;
+        this.weights = weights;
+        this.target = target;
+        this.classValues = new double[forest.numClasses()];
+        if (aggregation != Aggregation.MAJORITY_VOTE) {
+            for (int i = 0; i < classValues.length; i++) {
+                try {
+                    classValues[i] = Double.parseDouble(forest.className(i));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("cannot aggregate score [" + forest.className(i) + "] with " + aggregation, e);
+                }
+            }
+        }
+    }
+
+    public boolean isCompiled() {
+        return forest.isCompiled();
+    }
+
+    public int numTrees() {
+        return forest.numTrees();
+    }
+
+    @Override
+    public Map<String, Object> evaluateDebug(MapModelInput modelInput) {
+        FlatTree.Row row = forest.row(modelInput.getAsMap());
+        Map<String, Object> result = new HashMap<>();
+        if (aggregation == Aggregation.MAJORITY_VOTE) {
+            double[] votes = votes(row);
+            double sumVotes = 0;
+            for (double vote : votes) {
+                sumVotes += vote;
+            }
+            Map<String, Double> probs = new HashMap<>();
+            for (int i = 0; i < votes.length; i++) {
+                probs.put(forest.className(i), sumVotes == 0 ? 0 : votes[i] / sumVotes);
+            }
+            result.put("class", sumVotes == 0 ? null : forest.className(winner(votes)));
+            result.put("probs", probs);
+        } else {
+            result.put("value", aggregateScores(row));
+        }
+        return result;
+    }
+
+    @Override
+    public Object evaluate(MapModelInput modelInput) {
+        FlatTree.Row row = forest.row(modelInput.getAsMap());
+        if (aggregation == Aggregation.MAJORITY_VOTE) {
+            double[] votes = votes(row);
+            int winner = winner(votes);
+            return votes[winner] == 0 ? null : forest.className(winner);
+        }
+        return aggregateScores(row);
+    }
+
+    private double[] votes(FlatTree.Row row) {
+        double[] votes = new double[Math.max(forest.numClasses(), 1)];
+        for (int tree = 0; tree < weights.length; tree++) {
+            int classOrdinal = forest.evaluate(tree, row);
+            if (classOrdinal != -1) {
+                votes[classOrdinal] += weights[tree];
+            }
+        }
+        return votes;
+    }
+
+    private static int winner(double[] votes) {
+        int winner = 0;
+        for (int i = 1; i < votes.length; i++) {
+            if (votes[i] > votes[winner]) {
+                winner = i;
+            }
+        }
+        return winner;
+    }
+
+    private Double aggregateScores(FlatTree.Row row) {
+        double sum = 0;
+        double sumWeights = 0;
+        for (int tree = 0; tree < weights.length; tree++) {
+            int classOrdinal = forest.evaluate(tree, row);
+            if (classOrdinal != -1) {
+                sum += weights[tree] * classValues[classOrdinal];
+                sumWeights += weights[tree];
+            }
+        }
+        if (sumWeights == 0) {
+            return null;
+        }
+        return target.applyAsDouble(aggregation == Aggregation.AVERAGE ? sum / sumWeights : sum);
+    }
+}
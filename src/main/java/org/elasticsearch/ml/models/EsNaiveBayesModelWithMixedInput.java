@@ -25,30 +25,72 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.function.DoubleUnaryOperator;
 
+/**
+ * Naive Bayes over categorical and Gaussian features. The per class functions of the features are compiled into flat
+ * arrays indexed by {@code feature * numClasses + class}, so that the log probability of a feature value is
+ * {@code constants[i] - (value - means[i])^2 * inverseTwoVariances[i]}. Categorical features have a mean and an inverse of
+ * zero and their constant is the log probability of the category.
+ * <p>
+ * The classes of a feature are adjacent in the arrays, so a document is scored feature by feature and each feature value
+ * updates the scores of all classes from one contiguous block.
+ */
 public class EsNaiveBayesModelWithMixedInput extends EsModelEvaluator<VectorModelInput, String> {
 
-    private final DoubleUnaryOperator[][] functions;
+    private final double[] means;
+    private final double[] inverseTwoVariances;
+    private final double[] constants;
     private final double[] classPriors;
     private final String[] classLabels;
+    // the class scores of the document a thread evaluates, so that evaluating does not allocate
+    private final ThreadLocal<double[]> classScores;
 
+    /**
+     * @param functions per class and feature either a {@link ProbFunction} or a {@link GaussFunction}
+     */
     public EsNaiveBayesModelWithMixedInput(String[] classLabels, DoubleUnaryOperator[][] functions, double[] classPriors) {
-        this.functions = functions;
+        int numClasses = classLabels.length;
+        int numFeatures = functions[0].length;
+        this.means = new double[numFeatures * numClasses];
+        this.inverseTwoVariances = new double[numFeatures * numClasses];
+        this.constants = new double[numFeatures * numClasses];
+        for (int j = 0; j < numClasses; j++) {
+            for (int feature = 0; feature < numFeatures; feature++) {
+                int index = feature * numClasses + j;
+                DoubleUnaryOperator function = functions[j][feature];
+                if (function instanceof GaussFunction) {
+                    GaussFunction gaussFunction = (GaussFunction) function;
+                    means[index] = gaussFunction.mean;
+                    inverseTwoVariances[index] = 1.0 / (2 * gaussFunction.variance);
+                    constants[index] = -gaussFunction.varianceFactor;
+                } else if (function instanceof ProbFunction) {
+                    constants[index] = ((ProbFunction) function).prob;
+                } else {
+                    throw new IllegalArgumentException("cannot compile function " + function + " of naive bayes model");
+                }
+            }
+        }
         this.classPriors = classPriors;
         this.classLabels = classLabels;
+        this.classScores = ThreadLocal.withInitial(() -> new double[numClasses]);
     }
 
     @Override
     public Map<String, Object> evaluateDebug(VectorModelInput modelInput) {
-        double[] classProbs = getClassProbs(modelInput);
-        return prepareResult(classProbs);
+        return prepareResult(getClassProbs(modelInput, new double[classLabels.length]));
     }
 
-    private double[] getClassProbs(VectorModelInput modelInput) {
-        double[] classProbs = new double[classLabels.length];
-        System.arraycopy(classPriors, 0, classProbs, 0, classProbs.length);
+    /**
+     * Writes the log probability of each class, up to a constant, into classProbs and returns it.
+     */
+    private double[] getClassProbs(VectorModelInput modelInput, double[] classProbs) {
+        int numClasses = classLabels.length;
+        System.arraycopy(classPriors, 0, classProbs, 0, numClasses);
         for (int i = 0; i < modelInput.getSize(); i++) {
-            for (int j = 0; j < classProbs.length; j++) {
-                classProbs[j] += functions[j][modelInput.getIndex(i)].applyAsDouble(modelInput.getValue(i));
+            int offset = modelInput.getIndex(i) * numClasses;
+            double value = modelInput.getValue(i);
+            for (int j = 0; j < numClasses; j++) {
+                double diff = value - means[offset + j];
+                classProbs[j] += constants[offset + j] - diff * diff * inverseTwoVariances[offset + j];
             }
         }
         return classProbs;
@@ -56,14 +98,14 @@ public class EsNaiveBayesModelWithMixedInput extends EsModelEvaluator<VectorMode
 
     @Override
     public String evaluate(VectorModelInput modelInput) {
-        double[] classProbs = getClassProbs(modelInput);
+        double[] classProbs = getClassProbs(modelInput, classScores.get());
         int bestClass = 0;
-        // sum the values to get the actual probs
         double bestProb = Double.NEGATIVE_INFINITY;
         for (int i = 0; i < classProbs.length; i++) {
-            if (bestProb < classProbs[i]) {
+            double classProb = classProbs[i];
+            if (bestProb < classProb) {
                 bestClass = i;
-                bestProb = classProbs[i];
+                bestProb = classProb;
             }
         }
         return classLabels[bestClass];
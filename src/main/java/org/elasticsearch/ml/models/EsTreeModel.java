@@ -19,6 +19,7 @@
 
 package org.elasticsearch.ml.models;
 
+import org.elasticsearch.common.Nullable;
 import org.elasticsearch.ml.modelinput.MapModelInput;
 
 import java.util.ArrayList;
@@ -31,13 +32,33 @@ import java.util.Set;
 public class EsTreeModel extends EsModelEvaluator<MapModelInput, String> {
 
     private final EsTreeNode startNode;
+    // the same tree compiled into arrays, null if it could not be compiled
+    private final FlatTree flatTree;
 
     public EsTreeModel(EsTreeNode startNode) {
+        this(startNode, null);
+    }
+
+    public EsTreeModel(EsTreeNode startNode, @Nullable FlatTree flatTree) {
         this.startNode = startNode;
+        this.flatTree = flatTree;
+    }
+
+    public boolean isFlat() {
+        return flatTree != null;
+    }
+
+    public boolean isCompiled() {
+        return flatTree != null && flatTree.isCompiled();
     }
 
     @Override
     public Map<String, Object> evaluateDebug(MapModelInput modelInput) {
+        if (flatTree != null) {
+            Map<String, Object> result = new HashMap<>();
+            result.put("class", evaluate(modelInput));
+            return result;
+        }
         Map<String, Object> vector = modelInput.getAsMap();
         assert startNode.predicate.match(vector);
         return startNode.evaluate(vector);
@@ -46,6 +67,9 @@ public class EsTreeModel extends EsModelEvaluator<MapModelInput, String> {
     @Override
     public String evaluate(MapModelInput modelInput) {
         Map<String, Object> vector = modelInput.getAsMap();
+        if (flatTree != null) {
+            return flatTree.className(flatTree.evaluate(flatTree.row(vector)));
+        }
         assert startNode.predicate.match(vector);
         return (String)startNode.evaluate(vector).get("class");
     }
@@ -93,11 +117,19 @@ public class EsTreeModel extends EsModelEvaluator<MapModelInput, String> {
 
         public abstract boolean match(T fieldValue);
 
+        /**
+         * Single values are compared as they are. Only a set with one value can be compared, the value is read without copying
+         * the set.
+         */
         @SuppressWarnings("unchecked")
         public boolean match(Map<String, Object> vector) {
             Object fieldValue = vector.get(field);
-            if (fieldValue instanceof HashSet) {
-                fieldValue = new ComparableSet<>((HashSet<Comparable<T>>) fieldValue);
+            if (fieldValue instanceof Set) {
+                Set<?> values = (Set<?>) fieldValue;
+                if (values.size() > 1) {
+                    throw new UnsupportedOperationException("cannot compare the multiple values of field [" + field + "]");
+                }
+                fieldValue = values.isEmpty() ? null : values.iterator().next();
             }
             if (fieldValue == null) {
                 return false;
@@ -139,48 +171,47 @@ public class EsTreeModel extends EsModelEvaluator<MapModelInput, String> {
 
         protected HashSet<T> values;
         private String field;
+        private boolean isIn;
 
-        public EsSimpleSetPredicate(HashSet<T> values, String field) {
+        /**
+         * @param values numbers must be doubles, numeric field values are compared as doubles like in {@link FlatTree}
+         * @param isIn   false if the predicate matches values that are not in the set
+         */
+        public EsSimpleSetPredicate(HashSet<T> values, String field, boolean isIn) {
             this.values = values;
             this.field = field;
+            this.isIn = isIn;
         }
 
 
         @Override
         public boolean match(Map<String, Object> vector) {
-            // we do not check for null because HashSet allows null values.
-            for (Object value : (Set)vector.get(field))  {
-                if (values.contains(value)) {
-                    return true;
+            Object fieldValue = vector.get(field);
+            if (fieldValue == null) {
+                // a missing value is neither in nor not in the set
+                return false;
+            }
+            boolean contains = false;
+            if (fieldValue instanceof Set == false) {
+                contains = contains(fieldValue);
+            } else {
+                for (Object value : (Set<?>) fieldValue) {
+                    if (contains(value)) {
+                        contains = true;
+                        break;
+                    }
                 }
             }
-            return false;
+            return contains == isIn;
         }
 
-        @Override
-        public boolean notEnoughValues(Map<String, Object> vector) {
-            return vector.containsKey(field) == false;
+        private boolean contains(Object value) {
+            return values.contains(value instanceof Number ? ((Number) value).doubleValue() : value);
         }
-    }
-
-    public static class ComparableSet<T> extends HashSet<Comparable<T>> implements Comparable<T> {
 
-        public ComparableSet(HashSet<Comparable<T>> set) {
-            this.addAll(set);
-        }
-
-        @SuppressWarnings("unchecked")
         @Override
-        public int compareTo(T o) {
-            if (this.size()!= 1) {
-                throw new UnsupportedOperationException("cannot really compare sets, I am just pretending!");
-            }
-            if (o instanceof Comparable == false) {
-                throw new UnsupportedOperationException("cannot compare to object " + o.getClass().getName());
-            }
-            //noinspection unchecked
-            Comparable<T> first = this.iterator().next();
-            return first.compareTo(o);
+        public boolean notEnoughValues(Map<String, Object> vector) {
+            return vector.containsKey(field) == false;
         }
     }
 }
@@ -0,0 +1,618 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.ml.models;
+
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A decision tree compiled into flat arrays. Nodes and predicates are numbered and each of their properties is kept in one
+ * primitive array, so that evaluation reads arrays instead of following node objects and looking up field values by name.
+ * The children of a node are numbered consecutively. The arrays can hold several trees, like the members of a forest, that
+ * share the slots of one row and are evaluated one by one with {@link #evaluate(int, Row)}.
+ * <p>
+ * Field values are read from a {@link Row} that has one slot per field. Numeric fields hold their value, categorical fields
+ * hold the ordinal of their category or -1 for categories the tree never tests for. Predicates on a field without a value do
+ * not match and, like in {@link EsTreeModel}, surrogate predicates skip predicates that do not have enough values.
+ * <p>
+ * Trees up to {@link Builder#maxCompiledSize(int)} nodes and predicates are also compiled into method handles, see
+ * {@link TreeHandles}. Larger trees are interpreted. The size is counted per tree, so the small trees of a forest are compiled
+ * even if the forest has larger ones.
+ * <p>
+ * A tree only holds immutable state and can be shared by all threads.
+ */
+public final class FlatTree {
+
+    public static final byte TRUE = 0;
+    public static final byte FALSE = 1;
+    public static final byte EQUAL = 2;
+    public static final byte NOT_EQUAL = 3;
+    public static final byte LESS_THAN = 4;
+    public static final byte LESS_OR_EQUAL = 5;
+    public static final byte GREATER_THAN = 6;
+    public static final byte GREATER_OR_EQUAL = 7;
+    public static final byte IS_MISSING = 8;
+    public static final byte IS_NOT_MISSING = 9;
+    public static final byte IS_IN = 10;
+    public static final byte IS_NOT_IN = 11;
+    public static final byte AND = 12;
+    public static final byte OR = 13;
+    public static final byte XOR = 14;
+    public static final byte SURROGATE = 15;
+
+    /**
+     * Trees with more nodes and predicates than this are interpreted, compiling them would take too long and produce
+     * method handle chains the JIT cannot inline anyway.
+     */
+    public static final int DEFAULT_MAX_COMPILED_SIZE = 1024;
+
+    // the fields of the slots and, for categorical fields, the ordinals of their categories
+    private final String[] fields;
+    private final Map<Object, Integer>[] categories;
+    private final String[] classes;
+
+    // the root node of each tree
+    final int[] roots;
+
+    // per node
+    final int[] nodePredicates;
+    final int[] firstChildren;
+    final int[] numChildren;
+    // index into classes, -1 for nodes without a score
+    final int[] scores;
+
+    // per predicate
+    final byte[] operators;
+    final int[] slots;
+    final double[] thresholds;
+    // the range of a set predicate in setValues or of a compound predicate in arguments
+    final int[] argumentStarts;
+    final int[] argumentEnds;
+    // the values of all set predicates, sorted per predicate
+    final double[] setValues;
+    // the predicates of all compound predicates
+    final int[] arguments;
+
+    // each tree compiled into a handle of type (Row)int, null for trees that are interpreted
+    private final MethodHandle[] handles;
+
+    private FlatTree(Builder builder) {
+        this.fields = builder.fields.toArray(new String[builder.fields.size()]);
+        @SuppressWarnings("unchecked")
+        Map<Object, Integer>[] categories = builder.categories.toArray(new Map[builder.categories.size()]);
+        this.categories = categories;
+        this.classes = builder.classes.toArray(new String[builder.classes.size()]);
+        this.roots = builder.roots.isEmpty() ? new int[] {0} : toIntArray(builder.roots);
+        this.nodePredicates = toIntArray(builder.nodePredicates);
+        this.firstChildren = toIntArray(builder.firstChildren);
+        this.numChildren = toIntArray(builder.numChildren);
+        this.scores = toIntArray(builder.scores);
+        this.operators = new byte[builder.operators.size()];
+        for (int i = 0; i < operators.length; i++) {
+            operators[i] = builder.operators.get(i);
+        }
+        this.slots = toIntArray(builder.slots);
+        this.thresholds = toDoubleArray(builder.thresholds);
+        this.argumentStarts = toIntArray(builder.argumentStarts);
+        this.argumentEnds = toIntArray(builder.argumentEnds);
+        this.setValues = toDoubleArray(builder.setValues);
+        this.arguments = toIntArray(builder.arguments);
+        this.handles = new MethodHandle[roots.length];
+        for (int tree = 0; tree < roots.length; tree++) {
+            if (size(roots[tree]) <= builder.maxCompiledSize) {
+                handles[tree] = TreeHandles.compile(this, roots[tree]);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of nodes and predicates of the tree with the given root.
+     */
+    private int size(int root) {
+        int size = 0;
+        int[] stack = new int[] {root};
+        int stackSize = 1;
+        while (stackSize > 0) {
+            int node = stack[--stackSize];
+            size += 1 + predicateSize(nodePredicates[node]);
+            if (stackSize + numChildren[node] > stack.length) {
+                stack = Arrays.copyOf(stack, Math.max(2 * stack.length, stackSize + numChildren[node]));
+            }
+            for (int child = firstChildren[node]; child < firstChildren[node] + numChildren[node]; child++) {
+                stack[stackSize++] = child;
+            }
+        }
+        return size;
+    }
+
+    private int predicateSize(int predicate) {
+        if (predicate == -1) {
+            return 0;
+        }
+        int size = 1;
+        if (operators[predicate] >= AND) {
+            for (int i = argumentStarts[predicate]; i < argumentEnds[predicate]; i++) {
+                size += predicateSize(arguments[i]);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns true if every tree is compiled.
+     */
+    public boolean isCompiled() {
+        for (int tree = 0; tree < handles.length; tree++) {
+            if (isCompiled(tree) == false) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isCompiled(int tree) {
+        return handles[tree] != null;
+    }
+
+    public int numTrees() {
+        return roots.length;
+    }
+
+    public int numClasses() {
+        return classes.length;
+    }
+
+    public int numSlots() {
+        return fields.length;
+    }
+
+    public String className(int classOrdinal) {
+        return classOrdinal == -1 ? null : classes[classOrdinal];
+    }
+
+    /**
+     * Reads the slots of a new row from the values of a tree model vector. A field value is either a single value or a
+     * collection of values.
+     */
+    public Row row(Map<String, Object> vector) {
+        Row row = new Row(fields.length);
+        for (int slot = 0; slot < fields.length; slot++) {
+            Object value = vector.get(fields[slot]);
+            if (value instanceof Collection) {
+                Collection<?> values = (Collection<?>) value;
+                if (values.size() == 1) {
+                    setValue(row, slot, values.iterator().next());
+                } else if (values.size() > 1) {
+                    double[] encoded = new double[values.size()];
+                    int numValues = 0;
+                    for (Object v : values) {
+                        if (v != null) {
+                            encoded[numValues++] = encode(slot, v);
+                        }
+                    }
+                    row.multiValues[slot] = Arrays.copyOf(encoded, numValues);
+                    row.values[slot] = numValues == 0 ? Double.NaN : encoded[0];
+                }
+            } else {
+                setValue(row, slot, value);
+            }
+        }
+        return row;
+    }
+
+    private void setValue(Row row, int slot, Object value) {
+        if (value != null) {
+            row.values[slot] = encode(slot, value);
+        }
+    }
+
+    private double encode(int slot, Object value) {
+        if (categories[slot] != null) {
+            Integer ordinal = categories[slot].get(value);
+            return ordinal == null ? -1 : ordinal;
+        }
+        if (value instanceof Number == false) {
+            throw new IllegalArgumentException("field [" + fields[slot] + "] must be numeric but was [" + value + "]");
+        }
+        return ((Number) value).doubleValue();
+    }
+
+    /**
+     * Returns the class ordinal of the leaf the row ends up in. The predicate of the root node is not tested.
+     */
+    public int evaluate(Row row) {
+        return evaluate(0, row);
+    }
+
+    /**
+     * Returns the class ordinal of the leaf the row ends up in in the given tree.
+     */
+    public int evaluate(int tree, Row row) {
+        MethodHandle handle = handles[tree];
+        if (handle != null) {
+            try {
+                return (int) handle.invokeExact(row);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+        return interpret(tree, row);
+    }
+
+    int interpret(Row row) {
+        return interpret(0, row);
+    }
+
+    int interpret(int tree, Row row) {
+        int node = roots[tree];
+        descend:
+        while (true) {
+            int end = firstChildren[node] + numChildren[node];
+            for (int child = firstChildren[node]; child < end; child++) {
+                if (matches(nodePredicates[child], row)) {
+                    node = child;
+                    continue descend;
+                }
+            }
+            return scores[node];
+        }
+    }
+
+    boolean matches(int predicate, Row row) {
+        switch (operators[predicate]) {
+            case TRUE:
+                return true;
+            case FALSE:
+                return false;
+            case IS_MISSING:
+                return row.isMissing(slots[predicate]);
+            case IS_NOT_MISSING:
+                return row.isMissing(slots[predicate]) == false;
+            case EQUAL:
+            case NOT_EQUAL:
+            case LESS_THAN:
+            case LESS_OR_EQUAL:
+            case GREATER_THAN:
+            case GREATER_OR_EQUAL:
+                return compare(predicate, row);
+            case IS_IN:
+            case IS_NOT_IN:
+                return isIn(predicate, row);
+            case AND:
+                for (int i = argumentStarts[predicate]; i < argumentEnds[predicate]; i++) {
+                    if (matches(arguments[i], row) == false) {
+                        return false;
+                    }
+                }
+                return true;
+            case OR:
+                for (int i = argumentStarts[predicate]; i < argumentEnds[predicate]; i++) {
+                    if (matches(arguments[i], row)) {
+                        return true;
+                    }
+                }
+                return false;
+            case XOR:
+                boolean result = false;
+                for (int i = argumentStarts[predicate]; i < argumentEnds[predicate]; i++) {
+                    if (matches(arguments[i], row)) {
+                        if (result) {
+                            return false;
+                        }
+                        result = true;
+                    }
+                }
+                return result;
+            case SURROGATE:
+                for (int i = argumentStarts[predicate]; i < argumentEnds[predicate]; i++) {
+                    if (hasEnoughValues(arguments[i], row)) {
+                        return matches(arguments[i], row);
+                    }
+                }
+                return false;
+            default:
+                throw new IllegalStateException("unknown operator " + operators[predicate]);
+        }
+    }
+
+    /**
+     * The value of a slot that is compared to a threshold, NaN if the field has no value.
+     */
+    double singleValue(int slot, Row row) {
+        if (row.multiValues[slot] != null) {
+            throw new UnsupportedOperationException("cannot compare the multiple values of field [" + fields[slot] + "]");
+        }
+        return row.values[slot];
+    }
+
+    private boolean compare(int predicate, Row row) {
+        double value = singleValue(slots[predicate], row);
+        if (Double.isNaN(value)) {
+            return false;
+        }
+        double threshold = thresholds[predicate];
+        switch (operators[predicate]) {
+            case EQUAL:
+                return value == threshold;
+            case NOT_EQUAL:
+                return value != threshold;
+            case LESS_THAN:
+                return value < threshold;
+            case LESS_OR_EQUAL:
+                return value <= threshold;
+            case GREATER_THAN:
+                return value > threshold;
+            default:
+                return value >= threshold;
+        }
+    }
+
+    private boolean isIn(int predicate, Row row) {
+        int slot = slots[predicate];
+        if (row.isMissing(slot)) {
+            return false;
+        }
+        boolean isIn = false;
+        if (row.multiValues[slot] != null) {
+            for (double value : row.multiValues[slot]) {
+                isIn = isIn || Arrays.binarySearch(setValues, argumentStarts[predicate], argumentEnds[predicate], value) >= 0;
+            }
+        } else {
+            isIn = Arrays.binarySearch(setValues, argumentStarts[predicate], argumentEnds[predicate], row.values[slot]) >= 0;
+        }
+        return operators[predicate] == IS_IN ? isIn : isIn == false;
+    }
+
+    boolean hasEnoughValues(int predicate, Row row) {
+        switch (operators[predicate]) {
+            case TRUE:
+            case FALSE:
+            case IS_MISSING:
+            case IS_NOT_MISSING:
+                return true;
+            case AND:
+            case OR:
+            case XOR:
+                for (int i = argumentStarts[predicate]; i < argumentEnds[predicate]; i++) {
+                    if (hasEnoughValues(arguments[i], row) == false) {
+                        return false;
+                    }
+                }
+                return true;
+            case SURROGATE:
+                // one predicate with enough values is enough
+                for (int i = argumentStarts[predicate]; i < argumentEnds[predicate]; i++) {
+                    if (hasEnoughValues(arguments[i], row)) {
+                        return true;
+                    }
+                }
+                return false;
+            default:
+                return row.isMissing(slots[predicate]) == false;
+        }
+    }
+
+    private static int[] toIntArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    private static double[] toDoubleArray(List<Double> list) {
+        double[] array = new double[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * The field values of one document, one slot per field.
+     */
+    public static final class Row {
+        // the first value of the slot, NaN if the field has no value
+        final double[] values;
+        // all values of slots that have more than one value, null for the other slots
+        final double[][] multiValues;
+
+        Row(int numSlots) {
+            values = new double[numSlots];
+            Arrays.fill(values, Double.NaN);
+            multiValues = new double[numSlots][];
+        }
+
+        boolean isMissing(int slot) {
+            return Double.isNaN(values[slot]);
+        }
+    }
+
+    /**
+     * Numbers the fields, categories, classes, nodes and predicates of a tree while it is compiled.
+     */
+    public static final class Builder {
+        private final List<String> fields = new ArrayList<>();
+        private final Map<String, Integer> fieldSlots = new HashMap<>();
+        private final List<Map<Object, Integer>> categories = new ArrayList<>();
+        private final List<String> classes = new ArrayList<>();
+        private final Map<String, Integer> classOrdinals = new HashMap<>();
+        private final List<Integer> roots = new ArrayList<>();
+
+        private final List<Integer> nodePredicates = new ArrayList<>();
+        private final List<Integer> firstChildren = new ArrayList<>();
+        private final List<Integer> numChildren = new ArrayList<>();
+        private final List<Integer> scores = new ArrayList<>();
+
+        private final List<Byte> operators = new ArrayList<>();
+        private final List<Integer> slots = new ArrayList<>();
+        private final List<Double> thresholds = new ArrayList<>();
+        private final List<Integer> argumentStarts = new ArrayList<>();
+        private final List<Integer> argumentEnds = new ArrayList<>();
+        private final List<Double> setValues = new ArrayList<>();
+        private final List<Integer> arguments = new ArrayList<>();
+        private int maxCompiledSize = DEFAULT_MAX_COMPILED_SIZE;
+
+        /**
+         * Trees with more nodes and predicates than this are interpreted instead of compiled, 0 disables compilation. The
+         * trees of a forest are compiled or interpreted one by one.
+         */
+        public Builder maxCompiledSize(int maxCompiledSize) {
+            this.maxCompiledSize = maxCompiledSize;
+            return this;
+        }
+
+        /**
+         * Returns the slot of the field, adding it if it has none yet.
+         */
+        public int slot(String field, boolean categorical) {
+            Integer slot = fieldSlots.get(field);
+            if (slot == null) {
+                slot = fields.size();
+                fields.add(field);
+                categories.add(categorical ? new HashMap<>() : null);
+                fieldSlots.put(field, slot);
+            } else if ((categories.get(slot) != null) != categorical) {
+                throw new IllegalArgumentException("field [" + field + "] cannot be both categorical and numeric");
+            }
+            return slot;
+        }
+
+        public boolean isCategorical(int slot) {
+            return categories.get(slot) != null;
+        }
+
+        /**
+         * Returns the ordinal of a category of a categorical field, adding it if it has none yet.
+         */
+        public int category(int slot, Object value) {
+            Map<Object, Integer> ordinals = categories.get(slot);
+            Integer ordinal = ordinals.get(value);
+            if (ordinal == null) {
+                ordinal = ordinals.size();
+                ordinals.put(value, ordinal);
+            }
+            return ordinal;
+        }
+
+        public int constantPredicate(boolean value) {
+            return addPredicate(value ? TRUE : FALSE, -1, Double.NaN, -1, -1);
+        }
+
+        /**
+         * Adds a comparison or missing value test. Categories must be compared by their ordinal.
+         */
+        public int simplePredicate(byte operator, int slot, double value) {
+            if (operator < EQUAL || operator > IS_NOT_MISSING) {
+                throw new IllegalArgumentException("not a simple predicate operator: " + operator);
+            }
+            return addPredicate(operator, slot, value, -1, -1);
+        }
+
+        public int setPredicate(boolean isIn, int slot, double[] values) {
+            double[] sorted = values.clone();
+            Arrays.sort(sorted);
+            int start = setValues.size();
+            for (double value : sorted) {
+                setValues.add(value);
+            }
+            return addPredicate(isIn ? IS_IN : IS_NOT_IN, slot, Double.NaN, start, setValues.size());
+        }
+
+        public int compoundPredicate(byte operator, int[] predicates) {
+            if (operator < AND || operator > SURROGATE) {
+                throw new IllegalArgumentException("not a compound predicate operator: " + operator);
+            }
+            int start = arguments.size();
+            for (int predicate : predicates) {
+                arguments.add(predicate);
+            }
+            return addPredicate(operator, -1, Double.NaN, start, arguments.size());
+        }
+
+        private int addPredicate(byte operator, int slot, double threshold, int argumentStart, int argumentEnd) {
+            operators.add(operator);
+            slots.add(slot);
+            thresholds.add(threshold);
+            argumentStarts.add(argumentStart);
+            argumentEnds.add(argumentEnd);
+            return operators.size() - 1;
+        }
+
+        /**
+         * Reserves the root node of a new tree and returns its number.
+         */
+        public int addTree() {
+            int root = addNodes(1);
+            roots.add(root);
+            return root;
+        }
+
+        /**
+         * Reserves consecutive numbers for the given number of nodes. If no tree was added with {@link #addTree()} the first
+         * node added is the root of the only tree. Returns the first number.
+         */
+        public int addNodes(int count) {
+            int first = nodePredicates.size();
+            for (int i = 0; i < count; i++) {
+                nodePredicates.add(-1);
+                firstChildren.add(-1);
+                numChildren.add(0);
+                scores.add(-1);
+            }
+            return first;
+        }
+
+        public void setNode(int node, int predicate, String score, int firstChild, int numChildren) {
+            nodePredicates.set(node, predicate);
+            firstChildren.set(node, firstChild);
+            this.numChildren.set(node, numChildren);
+            scores.set(node, score == null ? -1 : classOrdinal(score));
+        }
+
+        /**
+         * Returns the ordinal of a class, adding it if it has none yet. Classes that are added before the nodes are set keep
+         * the order they are added in.
+         */
+        public int classOrdinal(String className) {
+            Integer ordinal = classOrdinals.get(className);
+            if (ordinal == null) {
+                ordinal = classes.size();
+                classes.add(className);
+                classOrdinals.put(className, ordinal);
+            }
+            return ordinal;
+        }
+
+        public FlatTree build() {
+            if (nodePredicates.isEmpty()) {
+                throw new IllegalStateException("a tree needs at least one node");
+            }
+            return new FlatTree(this);
+        }
+    }
+}
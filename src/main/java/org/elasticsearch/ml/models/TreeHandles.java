@@ -0,0 +1,188 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.ml.models;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Compiles a {@link FlatTree} into a chain of method handles that takes a {@link FlatTree.Row} and returns the class ordinal.
+ * Every node becomes nested guardWithTest handles over its children and every predicate a handle with its slot and threshold
+ * bound as constants, so that the JIT sees straight-line branches it can inline instead of a loop that dispatches on operator
+ * codes. Set predicates, xor and the value checks of compound predicates call back into the interpreter of the tree.
+ */
+final class TreeHandles {
+
+    private static final MethodHandle EQUAL;
+    private static final MethodHandle NOT_EQUAL;
+    private static final MethodHandle LESS_THAN;
+    private static final MethodHandle LESS_OR_EQUAL;
+    private static final MethodHandle GREATER_THAN;
+    private static final MethodHandle GREATER_OR_EQUAL;
+    private static final MethodHandle IS_MISSING;
+    private static final MethodHandle IS_NOT_MISSING;
+    private static final MethodHandle MATCHES;
+    private static final MethodHandle HAS_ENOUGH_VALUES;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodType comparison = MethodType.methodType(boolean.class, FlatTree.class, int.class, double.class, FlatTree.Row.class);
+        MethodType missing = MethodType.methodType(boolean.class, int.class, FlatTree.Row.class);
+        MethodType predicate = MethodType.methodType(boolean.class, int.class, FlatTree.Row.class);
+        try {
+            EQUAL = lookup.findStatic(TreeHandles.class, "equal", comparison);
+            NOT_EQUAL = lookup.findStatic(TreeHandles.class, "notEqual", comparison);
+            LESS_THAN = lookup.findStatic(TreeHandles.class, "lessThan", comparison);
+            LESS_OR_EQUAL = lookup.findStatic(TreeHandles.class, "lessOrEqual", comparison);
+            GREATER_THAN = lookup.findStatic(TreeHandles.class, "greaterThan", comparison);
+            GREATER_OR_EQUAL = lookup.findStatic(TreeHandles.class, "greaterOrEqual", comparison);
+            IS_MISSING = lookup.findStatic(TreeHandles.class, "isMissing", missing);
+            IS_NOT_MISSING = lookup.findStatic(TreeHandles.class, "isNotMissing", missing);
+            MATCHES = lookup.findVirtual(FlatTree.class, "matches", predicate);
+            HAS_ENOUGH_VALUES = lookup.findVirtual(FlatTree.class, "hasEnoughValues", predicate);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private TreeHandles() {
+    }
+
+    /**
+     * Returns a handle of type (Row)int that evaluates the tree starting at the given node.
+     */
+    static MethodHandle compile(FlatTree tree, int node) {
+        MethodHandle handle = MethodHandles.dropArguments(MethodHandles.constant(int.class, tree.scores[node]), 0, FlatTree.Row.class);
+        int firstChild = tree.firstChildren[node];
+        // the first child that matches wins, so the last child is the innermost test
+        for (int child = firstChild + tree.numChildren[node] - 1; child >= firstChild; child--) {
+            handle = MethodHandles.guardWithTest(predicate(tree, tree.nodePredicates[child]), compile(tree, child), handle);
+        }
+        return handle;
+    }
+
+    private static MethodHandle predicate(FlatTree tree, int predicate) {
+        int slot = tree.slots[predicate];
+        switch (tree.operators[predicate]) {
+            case FlatTree.TRUE:
+                return constant(true);
+            case FlatTree.FALSE:
+                return constant(false);
+            case FlatTree.EQUAL:
+                return MethodHandles.insertArguments(EQUAL, 0, tree, slot, tree.thresholds[predicate]);
+            case FlatTree.NOT_EQUAL:
+                return MethodHandles.insertArguments(NOT_EQUAL, 0, tree, slot, tree.thresholds[predicate]);
+            case FlatTree.LESS_THAN:
+                return MethodHandles.insertArguments(LESS_THAN, 0, tree, slot, tree.thresholds[predicate]);
+            case FlatTree.LESS_OR_EQUAL:
+                return MethodHandles.insertArguments(LESS_OR_EQUAL, 0, tree, slot, tree.thresholds[predicate]);
+            case FlatTree.GREATER_THAN:
+                return MethodHandles.insertArguments(GREATER_THAN, 0, tree, slot, tree.thresholds[predicate]);
+            case FlatTree.GREATER_OR_EQUAL:
+                return MethodHandles.insertArguments(GREATER_OR_EQUAL, 0, tree, slot, tree.thresholds[predicate]);
+            case FlatTree.IS_MISSING:
+                return MethodHandles.insertArguments(IS_MISSING, 0, slot);
+            case FlatTree.IS_NOT_MISSING:
+                return MethodHandles.insertArguments(IS_NOT_MISSING, 0, slot);
+            case FlatTree.AND: {
+                MethodHandle handle = constant(true);
+                for (int i = tree.argumentEnds[predicate] - 1; i >= tree.argumentStarts[predicate]; i--) {
+                    handle = MethodHandles.guardWithTest(predicate(tree, tree.arguments[i]), handle, constant(false));
+                }
+                return handle;
+            }
+            case FlatTree.OR: {
+                MethodHandle handle = constant(false);
+                for (int i = tree.argumentEnds[predicate] - 1; i >= tree.argumentStarts[predicate]; i--) {
+                    handle = MethodHandles.guardWithTest(predicate(tree, tree.arguments[i]), constant(true), handle);
+                }
+                return handle;
+            }
+            case FlatTree.SURROGATE: {
+                MethodHandle handle = constant(false);
+                for (int i = tree.argumentEnds[predicate] - 1; i >= tree.argumentStarts[predicate]; i--) {
+                    int argument = tree.arguments[i];
+                    handle = MethodHandles.guardWithTest(hasEnoughValues(tree, argument), predicate(tree, argument), handle);
+                }
+                return handle;
+            }
+            default:
+                // set predicates and xor
+                return MethodHandles.insertArguments(MATCHES, 0, tree, predicate);
+        }
+    }
+
+    private static MethodHandle hasEnoughValues(FlatTree tree, int predicate) {
+        switch (tree.operators[predicate]) {
+            case FlatTree.TRUE:
+            case FlatTree.FALSE:
+            case FlatTree.IS_MISSING:
+            case FlatTree.IS_NOT_MISSING:
+                return constant(true);
+            case FlatTree.AND:
+            case FlatTree.OR:
+            case FlatTree.XOR:
+            case FlatTree.SURROGATE:
+                return MethodHandles.insertArguments(HAS_ENOUGH_VALUES, 0, tree, predicate);
+            default:
+                return MethodHandles.insertArguments(IS_NOT_MISSING, 0, tree.slots[predicate]);
+        }
+    }
+
+    private static MethodHandle constant(boolean value) {
+        return MethodHandles.dropArguments(MethodHandles.constant(boolean.class, value), 0, FlatTree.Row.class);
+    }
+
+    private static boolean equal(FlatTree tree, int slot, double threshold, FlatTree.Row row) {
+        return tree.singleValue(slot, row) == threshold;
+    }
+
+    private static boolean notEqual(FlatTree tree, int slot, double threshold, FlatTree.Row row) {
+        double value = tree.singleValue(slot, row);
+        return Double.isNaN(value) == false && value != threshold;
+    }
+
+    // comparisons with NaN are false, so missing values do not match
+
+    private static boolean lessThan(FlatTree tree, int slot, double threshold, FlatTree.Row row) {
+        return tree.singleValue(slot, row) < threshold;
+    }
+
+    private static boolean lessOrEqual(FlatTree tree, int slot, double threshold, FlatTree.Row row) {
+        return tree.singleValue(slot, row) <= threshold;
+    }
+
+    private static boolean greaterThan(FlatTree tree, int slot, double threshold, FlatTree.Row row) {
+        return tree.singleValue(slot, row) > threshold;
+    }
+
+    private static boolean greaterOrEqual(FlatTree tree, int slot, double threshold, FlatTree.Row row) {
+        return tree.singleValue(slot, row) >= threshold;
+    }
+
+    private static boolean isMissing(int slot, FlatTree.Row row) {
+        return row.isMissing(slot);
+    }
+
+    private static boolean isNotMissing(int slot, FlatTree.Row row) {
+        return row.isMissing(slot) == false;
+    }
+}
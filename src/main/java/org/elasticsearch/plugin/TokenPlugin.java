@@ -22,8 +22,12 @@ package org.elasticsearch.plugin;
 import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.ActionResponse;
 import org.elasticsearch.action.allterms.AllTermsAction;
+import org.elasticsearch.action.allterms.AllTermsCursorService;
+import org.elasticsearch.action.allterms.AllTermsShardCache;
 import org.elasticsearch.action.allterms.TransportAllTermsAction;
 import org.elasticsearch.action.allterms.TransportAllTermsShardAction;
+import org.elasticsearch.action.cachestats.CacheStatsAction;
+import org.elasticsearch.action.cachestats.TransportCacheStatsAction;
 import org.elasticsearch.action.preparespec.PrepareSpecAction;
 import org.elasticsearch.action.preparespec.TransportPrepareSpecAction;
 import org.elasticsearch.action.trainmodel.TrainModelAction;
@@ -34,6 +38,7 @@ import org.elasticsearch.cluster.service.ClusterService;
 import org.elasticsearch.common.settings.ClusterSettings;
 import org.elasticsearch.common.settings.Setting;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
 import org.elasticsearch.ingest.AnalyzerProcessor;
 import org.elasticsearch.ingest.IngestAnalysisService;
 import org.elasticsearch.ingest.Processor;
@@ -47,6 +52,7 @@ import org.elasticsearch.plugins.ScriptPlugin;
 import org.elasticsearch.plugins.SearchPlugin;
 import org.elasticsearch.rest.RestHandler;
 import org.elasticsearch.rest.action.allterms.RestAllTermsAction;
+import org.elasticsearch.rest.action.cachestats.RestCacheStatsAction;
 import org.elasticsearch.rest.action.preparespec.RestPrepareSpecAction;
 import org.elasticsearch.rest.action.storemodel.RestStoreModelAction;
 import org.elasticsearch.rest.action.trainmodel.RestTrainModelAction;
@@ -55,6 +61,7 @@ import org.elasticsearch.script.ScriptEngineService;
 import org.elasticsearch.script.ScriptService;
 import org.elasticsearch.script.pmml.PMMLModelScriptEngineService;
 import org.elasticsearch.script.pmml.VectorScriptFactory;
+import org.elasticsearch.script.pmml.VectorizerCache;
 import org.elasticsearch.search.SearchRequestParsers;
 import org.elasticsearch.search.fetch.FetchSubPhase;
 import org.elasticsearch.search.fetch.analyzedtext.AnalyzedTextFetchBuilder;
@@ -63,6 +70,8 @@ import org.elasticsearch.search.fetch.analyzedtext.AnalyzedTextFetchSubPhase;
 import org.elasticsearch.search.fetch.termvectors.TermVectorsFetchBuilder;
 import org.elasticsearch.search.fetch.termvectors.TermVectorsFetchParser;
 import org.elasticsearch.search.fetch.termvectors.TermVectorsFetchSubPhase;
+import org.elasticsearch.threadpool.ExecutorBuilder;
+import org.elasticsearch.threadpool.FixedExecutorBuilder;
 import org.elasticsearch.threadpool.ThreadPool;
 import org.elasticsearch.watcher.ResourceWatcherService;
 
@@ -80,11 +89,14 @@ public class TokenPlugin extends Plugin implements ScriptPlugin, ActionPlugin, S
     private final Settings settings;
     private final boolean transportClientMode;
     private final IngestAnalysisService ingestAnalysisService;
+    // created with the plugin because the native scripts are built before the components
+    private final VectorizerCache vectorizerCache;
 
     public TokenPlugin(Settings settings) {
         this.settings = settings;
         this.transportClientMode = TransportClient.CLIENT_TYPE.equals(settings.get(Client.CLIENT_TYPE_SETTING_S.getKey()));
         ingestAnalysisService = new IngestAnalysisService(settings);
+        vectorizerCache = new VectorizerCache(settings);
     }
 
     @Override
@@ -99,7 +111,11 @@ public class TokenPlugin extends Plugin implements ScriptPlugin, ActionPlugin, S
         clusterSettings.addSettingsUpdateConsumer(ingestAnalysisGroupSetting, ingestAnalysisService::setAnalysisSettings);
         ingestAnalysisService.setAnalysisSettings(ingestAnalysisGroupSetting.get(settings));
 
-        return Arrays.asList(trainingService, ingestAnalysisService);
+        AllTermsCursorService allTermsCursorService = new AllTermsCursorService(settings, threadPool);
+        AllTermsShardCache allTermsShardCache = new AllTermsShardCache(settings);
+
+        return Arrays.asList(trainingService, ingestAnalysisService, allTermsCursorService, allTermsShardCache,
+                vectorizerCache);
     }
 
     @Override
@@ -109,13 +125,14 @@ public class TokenPlugin extends Plugin implements ScriptPlugin, ActionPlugin, S
 
     @Override
     public List<NativeScriptFactory> getNativeScripts() {
-        return Collections.singletonList(new VectorScriptFactory());
+        return Collections.singletonList(new VectorScriptFactory(vectorizerCache));
     }
 
     @Override
     public List<ActionHandler<? extends ActionRequest<?>, ? extends ActionResponse>> getActions() {
         return Arrays.asList(
                 new ActionHandler<>(AllTermsAction.INSTANCE, TransportAllTermsAction.class, TransportAllTermsShardAction.class),
+                new ActionHandler<>(CacheStatsAction.INSTANCE, TransportCacheStatsAction.class),
                 new ActionHandler<>(PrepareSpecAction.INSTANCE, TransportPrepareSpecAction.class),
                 new ActionHandler<>(TrainModelAction.INSTANCE, TransportTrainModelAction.class)
         );
@@ -125,6 +142,7 @@ public class TokenPlugin extends Plugin implements ScriptPlugin, ActionPlugin, S
     public List<Class<? extends RestHandler>> getRestHandlers() {
         return Arrays.asList(
                 RestAllTermsAction.class,
+                RestCacheStatsAction.class,
                 RestPrepareSpecAction.class,
                 RestStoreModelAction.class,
                 RestTrainModelAction.class
@@ -145,9 +163,22 @@ public class TokenPlugin extends Plugin implements ScriptPlugin, ActionPlugin, S
         return Collections.singletonMap(AnalyzerProcessor.TYPE, new AnalyzerProcessor.Factory(ingestAnalysisService));
     }
 
+    @Override
+    public List<ExecutorBuilder<?>> getExecutorBuilders(Settings settings) {
+        // collecting a large vocabulary is expensive, a bounded pool keeps it from starving the generic and search pools
+        int size = Math.max(1, EsExecutors.boundedNumberOfProcessors(settings) / 2);
+        return Collections.singletonList(new FixedExecutorBuilder(settings, TransportAllTermsShardAction.EXECUTOR, size, 100));
+    }
+
     @Override
     public List<Setting<?>> getSettings() {
-        return Collections.singletonList(ingestAnalysisService.getIngestAnalysisGroupSetting());
+        return Arrays.asList(
+                ingestAnalysisService.getIngestAnalysisGroupSetting(),
+                AllTermsCursorService.KEEPALIVE_INTERVAL_SETTING,
+                AllTermsCursorService.MAX_OPEN_CONTEXTS_SETTING,
+                AllTermsShardCache.CACHE_SIZE_SETTING,
+                VectorizerCache.CACHE_SIZE_SETTING
+        );
     }
 
     @Override
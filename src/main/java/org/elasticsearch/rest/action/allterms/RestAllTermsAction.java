@@ -58,6 +58,17 @@ public class RestAllTermsAction extends BaseRestHandler {
         allTermsRequest.size(request.paramAsInt("size", 10));
         allTermsRequest.from(request.param("from"));
         allTermsRequest.minDocFreq(request.paramAsLong("min_doc_freq", 0));
+        allTermsRequest.scroll(request.paramAsTime("scroll", null));
+        allTermsRequest.cursor(request.param("cursor"));
+        allTermsRequest.parallelism(request.paramAsInt("parallelism", 1));
+        allTermsRequest.prefix(request.param("prefix"));
+        allTermsRequest.include(request.param("include"));
+        allTermsRequest.minLength(request.paramAsInt("min_length", 0));
+        allTermsRequest.maxLength(request.paramAsInt("max_length", -1));
+        allTermsRequest.sort(AllTermsRequest.Sort.fromString(request.param("sort", AllTermsRequest.Sort.TERM.toString())));
+        allTermsRequest.shardSize(request.paramAsInt("shard_size", -1));
+        allTermsRequest.termStatistics(request.paramAsBoolean("term_statistics", false));
+        allTermsRequest.timeout(request.paramAsTime("timeout", null));
 
         return channel -> {
             client.execute(AllTermsAction.INSTANCE, allTermsRequest, new RestBuilderListener<AllTermsResponse>(channel) {
@@ -0,0 +1,71 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.rest.action.cachestats;
+
+import org.elasticsearch.action.cachestats.CacheStatsAction;
+import org.elasticsearch.action.cachestats.CacheStatsRequest;
+import org.elasticsearch.action.cachestats.CacheStatsResponse;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestResponse;
+import org.elasticsearch.rest.action.RestBuilderListener;
+
+import java.io.IOException;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestStatus.OK;
+
+/**
+ * Returns the statistics of the all terms shard cache and the doc_to_vector spec cache of the nodes.
+ */
+public class RestCacheStatsAction extends BaseRestHandler {
+
+    @Inject
+    public RestCacheStatsAction(Settings settings, RestController controller) {
+        super(settings);
+        controller.registerHandler(GET, "/_token_plugin/cache_stats", this);
+        controller.registerHandler(GET, "/_token_plugin/cache_stats/{node_id}", this);
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) throws IOException {
+        final CacheStatsRequest cacheStatsRequest = new CacheStatsRequest(Strings.splitStringByCommaToArray(request.param("node_id")));
+        cacheStatsRequest.timeout(request.param("timeout"));
+
+        return channel -> {
+            client.execute(CacheStatsAction.INSTANCE, cacheStatsRequest, new RestBuilderListener<CacheStatsResponse>(channel) {
+                @Override
+                public RestResponse buildResponse(CacheStatsResponse response, XContentBuilder builder) throws Exception {
+                    builder.startObject();
+                    response.toXContent(builder, request);
+                    builder.endObject();
+                    return new BytesRestResponse(OK, builder);
+                }
+            });
+        };
+    }
+}
@@ -34,6 +34,7 @@ import org.elasticsearch.script.ScriptEngineService;
 import org.elasticsearch.script.SearchScript;
 import org.elasticsearch.ml.modelinput.DataSource;
 import org.elasticsearch.ml.modelinput.EsDataSource;
+import org.elasticsearch.ml.modelinput.IdfTables;
 import org.elasticsearch.ml.models.EsModelEvaluator;
 import org.elasticsearch.ml.modelinput.ModelAndModelInputEvaluator;
 import org.elasticsearch.ml.modelinput.ModelInput;
@@ -55,6 +56,9 @@ public class PMMLModelScriptEngineService extends AbstractComponent implements S
 
     public static final ModelFactories factories = ModelFactories.createDefaultModelFactories();
 
+    // the idf weights are shared by the scripts of all segments and requests
+    private final IdfTables idfTables = new IdfTables();
+
     @Inject
     public PMMLModelScriptEngineService(Settings settings) {
         super(settings);
@@ -109,7 +113,7 @@ public class PMMLModelScriptEngineService extends AbstractComponent implements S
         }
 
         public PMMLModel<Input, Output> newScript(LeafSearchLookup lookup, boolean debug) {
-            return new PMMLModel<>(features, model, lookup, debug);
+            return new PMMLModel<>(features, model, lookup, debug, idfTables);
         }
     }
 
@@ -142,10 +146,12 @@ public class PMMLModelScriptEngineService extends AbstractComponent implements S
         private final ModelInputEvaluator<Input> features;
         private LeafSearchLookup lookup;
         private DataSource dataSource;
+        // the input of the previous document, reused for the next one
+        private Input input;
 
         private PMMLModel(ModelInputEvaluator<Input> features, EsModelEvaluator<Input, Output> model,
-                          LeafSearchLookup lookup, boolean debug) {
-            this.dataSource = new EsDataSource() {
+                          LeafSearchLookup lookup, boolean debug, IdfTables idfTables) {
+            this.dataSource = new EsDataSource(idfTables) {
                 @Override
                 protected LeafDocLookup getDocLookup() {
                     return lookup.doc();
@@ -169,11 +175,11 @@ public class PMMLModelScriptEngineService extends AbstractComponent implements S
         @SuppressWarnings("unchecked")
         @Override
         public Object run() {
-            Input vector = features.convert(dataSource);
+            input = features.convert(dataSource, input);
             if (debug) {
-                return model.evaluateDebug(vector);
+                return model.evaluateDebug(input);
             } else {
-                return model.evaluate(vector);
+                return model.evaluate(input);
             }
         }
 
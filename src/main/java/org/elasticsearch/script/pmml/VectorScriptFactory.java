@@ -27,6 +27,7 @@ import org.elasticsearch.script.ExecutableScript;
 import org.elasticsearch.script.NativeScriptFactory;
 import org.elasticsearch.ml.modelinput.DataSource;
 import org.elasticsearch.ml.modelinput.EsDataSource;
+import org.elasticsearch.ml.modelinput.IdfTables;
 import org.elasticsearch.ml.modelinput.VectorRangesToVector;
 import org.elasticsearch.ml.modelinput.VectorRangesToVectorJSON;
 import org.elasticsearch.search.lookup.LeafDocLookup;
@@ -41,8 +42,13 @@ public class VectorScriptFactory implements NativeScriptFactory {
 
     public static final String NAME = "doc_to_vector";
 
-    public VectorScriptFactory() {
+    private final VectorizerCache cache;
 
+    // the idf weights are shared by the scripts of all segments and requests
+    private final IdfTables idfTables = new IdfTables();
+
+    public VectorScriptFactory(VectorizerCache cache) {
+        this.cache = cache;
     }
 
     @Override
@@ -51,9 +57,8 @@ public class VectorScriptFactory implements NativeScriptFactory {
             throw new IllegalArgumentException("the spec parameter is required");
         }
         Map<String, Object> spec = XContentMapValues.nodeMapValue(params.get("spec"), "spec");
-        // TODO: Add caching mechanism
-        VectorRangesToVector features = new VectorRangesToVectorJSON(spec);
-        return new VectorizerScript(features);
+        VectorRangesToVector features = cache.getOrParse(spec, VectorRangesToVectorJSON::new);
+        return new VectorizerScript(features, idfTables);
     }
 
     @Override
@@ -79,9 +84,9 @@ public class VectorScriptFactory implements NativeScriptFactory {
          * method when the plugin is loaded.
          */
 
-        private VectorizerScript(VectorRangesToVector features) {
+        private VectorizerScript(VectorRangesToVector features, IdfTables idfTables) {
             this.features = features;
-            dataSource = new EsDataSource() {
+            dataSource = new EsDataSource(idfTables) {
                 @Override
                 protected LeafDocLookup getDocLookup() {
                     return doc();
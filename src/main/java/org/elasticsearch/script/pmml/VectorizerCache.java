@@ -0,0 +1,122 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.script.pmml;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.cachestats.CacheStats;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.ml.modelinput.VectorRangesToVectorJSON;
+
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+/**
+ * Caches the vectorizers parsed from doc_to_vector specs. Specs are keyed by their content, so every script of every request
+ * that sends the same spec shares one vectorizer. Least recently used entries are evicted once the cache is full.
+ */
+public class VectorizerCache {
+
+    public static final Setting<ByteSizeValue> CACHE_SIZE_SETTING = Setting.memorySizeSetting("doc_to_vector.cache.size", "1%",
+            Setting.Property.NodeScope);
+
+    private final Cache<Key, VectorRangesToVectorJSON> cache;
+    private final boolean enabled;
+
+    public VectorizerCache(Settings settings) {
+        long maxWeight = CACHE_SIZE_SETTING.get(settings).getBytes();
+        this.enabled = maxWeight > 0;
+        this.cache = CacheBuilder.<Key, VectorRangesToVectorJSON>builder()
+                .setMaximumWeight(Math.max(1, maxWeight))
+                // the key holds the spec and with it all terms a second time
+                .weigher((key, vectorizer) -> 2 * vectorizer.ramBytesUsed())
+                .build();
+    }
+
+    /**
+     * Returns the cached vectorizer for the spec or parses and caches it.
+     */
+    VectorRangesToVectorJSON getOrParse(Map<String, Object> spec, Function<Map<String, Object>, VectorRangesToVectorJSON> parser) {
+        if (enabled == false) {
+            return parser.apply(spec);
+        }
+        try {
+            // concurrent scripts with the same spec wait for a single parse
+            return cache.computeIfAbsent(new Key(spec), key -> parser.apply(key.spec));
+        } catch (ExecutionException e) {
+            Throwable cause = ExceptionsHelper.unwrapCause(e.getCause());
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new ElasticsearchException("failed to parse doc_to_vector spec", cause);
+        }
+    }
+
+    /**
+     * The statistics reported by the cache stats api.
+     */
+    public CacheStats stats() {
+        Cache.CacheStats stats = cache.stats();
+        return new CacheStats(cache.count(), stats.getHits(), stats.getMisses(), stats.getEvictions());
+    }
+
+    int count() {
+        return cache.count();
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * A spec with its hash computed once, hashing a large spec walks all of its terms.
+     */
+    static final class Key {
+        private final Map<String, Object> spec;
+        private final int hashCode;
+
+        Key(Map<String, Object> spec) {
+            this.spec = spec;
+            this.hashCode = spec.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return hashCode == key.hashCode && spec.equals(key.spec);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -19,16 +19,34 @@
 
 package org.elasticsearch.action.allterms;
 
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.cachestats.CacheStatsRequestBuilder;
+import org.elasticsearch.action.cachestats.CacheStatsResponse;
+import org.elasticsearch.action.cachestats.NodeCacheStats;
+import org.elasticsearch.action.support.ActionFilter;
+import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.plugin.TokenPlugin;
+import org.elasticsearch.plugins.ActionPlugin;
 import org.elasticsearch.plugins.Plugin;
 import org.elasticsearch.test.ESIntegTestCase;
 import org.elasticsearch.test.junit.annotations.TestLogging;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertAcked;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 
 
 /**
@@ -39,7 +57,7 @@ public class AllTermsIT extends ESIntegTestCase {
 
     @Override
     protected Collection<Class<? extends Plugin>> nodePlugins() {
-        return Collections.singletonList(TokenPlugin.class);
+        return Arrays.asList(TokenPlugin.class, FailingShardPlugin.class);
     }
 
     protected Collection<Class<? extends Plugin>> transportClientPlugins() {
@@ -51,7 +69,7 @@ public class AllTermsIT extends ESIntegTestCase {
         refresh();
         AllTermsResponse response = new AllTermsRequestBuilder(client()).index("test").field("field").size(10).execute().actionGet(1000000);
         String[] expected = {"always", "be", "careful", "don't", "ever", "forget"};
-        assertArrayEquals(response.allTerms.toArray(new String[2]), expected);
+        assertArrayEquals(response.getAllTerms().toArray(new String[2]), expected);
     }
 
     private void indexDocs() {
@@ -62,17 +80,41 @@ public class AllTermsIT extends ESIntegTestCase {
                 .actionGet();
     }
 
+    public void testCacheStats() throws Exception {
+        // without replicas the second request reads the same shard copies as the first one
+        assertAcked(prepareCreate("test").setSettings(Settings.builder().put("index.number_of_replicas", 0)));
+        indexDocs();
+        refresh();
+        long hitsBefore = totalAllTermsCacheHits();
+        for (int i = 0; i < 2; i++) {
+            AllTermsResponse response = new AllTermsRequestBuilder(client()).index("test").field("field").size(10).execute()
+                    .actionGet(10000);
+            assertThat(response.getAllTerms().size(), equalTo(6));
+        }
+        assertThat(totalAllTermsCacheHits(), greaterThan(hitsBefore));
+    }
+
+    private long totalAllTermsCacheHits() {
+        CacheStatsResponse response = new CacheStatsRequestBuilder(client()).get();
+        assertThat(response.failures().size(), equalTo(0));
+        long hits = 0;
+        for (NodeCacheStats nodeStats : response.getNodes()) {
+            hits += nodeStats.getAllTermsCache().getHits();
+        }
+        return hits;
+    }
+
     public void testSimpleTestOneDocWithFrom() throws Exception {
         indexDocs();
         refresh();
         AllTermsResponse response = new AllTermsRequestBuilder(client()).index("test").field("field").size(10).from("careful").execute()
                 .actionGet(10000);
         String[] expected = {"don't", "ever", "forget"};
-        assertArrayEquals(response.allTerms.toArray(new String[3]), expected);
+        assertArrayEquals(response.getAllTerms().toArray(new String[3]), expected);
 
         response = new AllTermsRequestBuilder(client()).index("test").field("field").size(10).from("ces").execute().actionGet(10000);
         String[] expected2 = {"don't", "ever", "forget"};
-        assertArrayEquals(response.allTerms.toArray(new String[3]), expected2);
+        assertArrayEquals(response.getAllTerms().toArray(new String[3]), expected2);
     }
 
     public void testSimpleTestOneDocWithFromAndMinDocFreq() throws Exception {
@@ -82,12 +124,130 @@ public class AllTermsIT extends ESIntegTestCase {
         AllTermsResponse response = new AllTermsRequestBuilder(client()).index("test").field("field").size(10).from(" be").minDocFreq(3)
                 .execute().actionGet(10000);
         String[] expected = {"be"};
-        assertArrayEquals(response.allTerms.toArray(new String[1]), expected);
+        assertArrayEquals(response.getAllTerms().toArray(new String[1]), expected);
 
         response = new AllTermsRequestBuilder(client()).index("test").field("field").size(10).minDocFreq(3).from("arg").execute()
                 .actionGet(10000);
         String[] expected2 = {"be"};
-        assertArrayEquals(response.allTerms.toArray(new String[1]), expected2);
+        assertArrayEquals(response.getAllTerms().toArray(new String[1]), expected2);
+    }
+
+    public void testCursor() throws Exception {
+        indexDocs();
+        refresh();
+        List<String> terms = new ArrayList<>();
+        AllTermsResponse response = new AllTermsRequestBuilder(client()).index("test").field("field").size(2)
+                .scroll(TimeValue.timeValueMinutes(1)).execute().actionGet(10000);
+        terms.addAll(response.getAllTerms());
+        int pages = 1;
+        while (response.getCursor() != null) {
+            response = new AllTermsRequestBuilder(client()).index("test").field("field").size(2).scroll(TimeValue.timeValueMinutes(1))
+                    .cursor(response.getCursor()).execute().actionGet(10000);
+            terms.addAll(response.getAllTerms());
+            pages++;
+            assertThat(pages, lessThanOrEqualTo(4));
+        }
+        String[] expected = {"always", "be", "careful", "don't", "ever", "forget"};
+        assertArrayEquals(terms.toArray(new String[terms.size()]), expected);
+    }
+
+    public void testCursorWithFromAndMinDocFreq() throws Exception {
+        createIndex();
+        indexDocs();
+        refresh();
+        AllTermsResponse response = new AllTermsRequestBuilder(client()).index("test").field("field").size(1).from("always")
+                .minDocFreq(2).scroll(TimeValue.timeValueMinutes(1)).execute().actionGet(10000);
+        assertArrayEquals(response.getAllTerms().toArray(new String[1]), new String[]{"be"});
+        assertNotNull(response.getCursor());
+        // without scroll the cursor is released after this page
+        response = new AllTermsRequestBuilder(client()).index("test").field("field").size(1).minDocFreq(2)
+                .cursor(response.getCursor()).execute().actionGet(10000);
+        assertArrayEquals(response.getAllTerms().toArray(new String[1]), new String[]{"careful"});
+        assertNull(response.getCursor());
+    }
+
+    public void testSortByDocFreq() throws Exception {
+        createIndex();
+        indexDocs();
+        refresh();
+        AllTermsResponse response = new AllTermsRequestBuilder(client()).index("test").field("field").size(2)
+                .sort(AllTermsRequest.Sort.DOC_FREQ).execute().actionGet(10000);
+        assertArrayEquals(response.getAllTerms().toArray(new String[2]), new String[]{"be", "always"});
+        assertArrayEquals(response.getDocFreqs(), new long[]{3, 2});
+    }
+
+    public void testTermStatistics() throws Exception {
+        indexDocs();
+        refresh();
+        AllTermsResponse response = new AllTermsRequestBuilder(client()).index("test").field("field").size(3).termStatistics(true)
+                .execute().actionGet(10000);
+        assertArrayEquals(response.getAllTerms().toArray(new String[3]), new String[]{"always", "be", "careful"});
+        assertArrayEquals(response.getDocFreqs(), new long[]{2, 3, 2});
+        assertArrayEquals(response.getTotalTermFreqs(), new long[]{2, 4, 4});
+    }
+
+    public void testShardFailureOnFirstScrollPage() throws Exception {
+        client().admin().indices().prepareCreate("test").setSettings(Settings.builder().put("index.number_of_shards", 2)
+                .put("index.number_of_replicas", 0)).get();
+        ensureGreen("test");
+        indexDocs();
+        refresh();
+        FailingShardFilter.failShard = 0;
+        try {
+            AllTermsRequestBuilder request = new AllTermsRequestBuilder(client()).index("test").field("field").size(2)
+                    .scroll(TimeValue.timeValueMinutes(1));
+            // a cursor without the failed shard would skip its terms on every page
+            expectThrows(Exception.class, () -> request.execute().actionGet(10000));
+        } finally {
+            FailingShardFilter.failShard = -1;
+        }
+        // the context opened on the other shard is freed
+        assertBusy(() -> {
+            for (AllTermsCursorService cursorService : internalCluster().getInstances(AllTermsCursorService.class)) {
+                assertThat(cursorService.activeContexts(), equalTo(0));
+            }
+        });
+    }
+
+    public static class FailingShardPlugin extends Plugin implements ActionPlugin {
+        @Override
+        public List<Class<? extends ActionFilter>> getActionFilters() {
+            return Collections.singletonList(FailingShardFilter.class);
+        }
+    }
+
+    /**
+     * Fails the first request of a cursor on the shard {@link #failShard}.
+     */
+    public static class FailingShardFilter extends ActionFilter.Simple {
+        static volatile int failShard = -1;
+
+        @Inject
+        public FailingShardFilter(Settings settings) {
+            super(settings);
+        }
+
+        @Override
+        public int order() {
+            return 0;
+        }
+
+        @Override
+        protected boolean apply(String action, ActionRequest<?> request, ActionListener<?> listener) {
+            if (request instanceof AllTermsShardRequest) {
+                AllTermsShardRequest shardRequest = (AllTermsShardRequest) request;
+                if (shardRequest.shardId() == failShard && shardRequest.contextId() < 0 && shardRequest.keepAlive() != null) {
+                    listener.onFailure(new ElasticsearchException("simulated failure of shard [" + failShard + "]"));
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        protected boolean apply(String action, ActionResponse response, ActionListener<?> listener) {
+            return true;
+        }
     }
 
     private void createIndex() {
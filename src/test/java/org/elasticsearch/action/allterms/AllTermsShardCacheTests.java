@@ -0,0 +1,137 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.action.allterms;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Directory;
+import org.elasticsearch.common.lucene.index.ElasticsearchDirectoryReader;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class AllTermsShardCacheTests extends ESTestCase {
+
+    private final ShardId shardId = new ShardId(new Index("index", "_na_"), 0);
+
+    private AllTermsShardRequest request(String from) {
+        return new AllTermsShardRequest(new AllTermsRequest(), "index", 0, "field", 10, from, 0);
+    }
+
+    private AllTermsSingleShardResponse load(AllTermsShardCache cache, DirectoryReader reader, AllTermsShardRequest request,
+                                             AtomicInteger loads) throws Exception {
+        return cache.getOrCompute(shardId, reader, request, () -> {
+            loads.incrementAndGet();
+            return new AllTermsSingleShardResponse(new FrontCodedTerms.Builder().add("term").build());
+        });
+    }
+
+    public void testCacheHitsAndInvalidation() throws Exception {
+        try (Directory dir = newDirectory(); IndexWriter w = new IndexWriter(dir, newIndexWriterConfig(new WhitespaceAnalyzer()))) {
+            addDoc(w, "some terms");
+            AllTermsShardCache cache = new AllTermsShardCache(Settings.EMPTY);
+            AtomicInteger loads = new AtomicInteger();
+            DirectoryReader reader = ElasticsearchDirectoryReader.wrap(DirectoryReader.open(w), shardId);
+
+            AllTermsSingleShardResponse first = load(cache, reader, request(null), loads);
+            assertSame(first, load(cache, reader, request(null), loads));
+            assertThat(loads.get(), equalTo(1));
+            assertThat(cache.stats().getHits(), equalTo(1L));
+            assertThat(cache.stats().getMisses(), equalTo(1L));
+            assertThat(cache.stats().getCount(), equalTo(1L));
+
+            // other parameters are another entry
+            load(cache, reader, request("a"), loads);
+            assertThat(loads.get(), equalTo(2));
+            assertThat(cache.count(), equalTo(2));
+
+            // a refresh opens a new reader that does not see the entries of the old one
+            addDoc(w, "more terms");
+            DirectoryReader newReader = DirectoryReader.openIfChanged(reader);
+            load(cache, newReader, request(null), loads);
+            assertThat(loads.get(), equalTo(3));
+            assertThat(cache.count(), equalTo(3));
+
+            // closing the old reader removes its entries
+            reader.close();
+            assertThat(cache.count(), equalTo(1));
+            newReader.close();
+            assertThat(cache.count(), equalTo(0));
+        }
+    }
+
+    public void testTimedOutResponsesAreNotCached() throws Exception {
+        try (Directory dir = newDirectory(); IndexWriter w = new IndexWriter(dir, newIndexWriterConfig(new WhitespaceAnalyzer()))) {
+            addDoc(w, "some terms");
+            AllTermsShardCache cache = new AllTermsShardCache(Settings.EMPTY);
+            AtomicInteger loads = new AtomicInteger();
+            try (DirectoryReader reader = ElasticsearchDirectoryReader.wrap(DirectoryReader.open(w), shardId)) {
+                for (int i = 1; i <= 2; i++) {
+                    AllTermsSingleShardResponse response = cache.getOrCompute(shardId, reader, request(null), () -> {
+                        loads.incrementAndGet();
+                        return new AllTermsSingleShardResponse(new FrontCodedTerms.Builder().add("term").build()).timedOut(true);
+                    });
+                    assertTrue(response.timedOut);
+                    assertThat(loads.get(), equalTo(i));
+                }
+                assertThat(cache.count(), equalTo(0));
+
+                // the failures of the loader are thrown as they are
+                IllegalStateException e = expectThrows(IllegalStateException.class, () -> cache.getOrCompute(shardId, reader,
+                        request(null), () -> {
+                            throw new IllegalStateException("boom");
+                        }));
+                assertThat(e.getMessage(), equalTo("boom"));
+                assertThat(cache.count(), equalTo(0));
+            }
+        }
+    }
+
+    public void testDisabledCache() throws Exception {
+        try (Directory dir = newDirectory(); IndexWriter w = new IndexWriter(dir, newIndexWriterConfig(new WhitespaceAnalyzer()))) {
+            addDoc(w, "some terms");
+            AllTermsShardCache cache = new AllTermsShardCache(Settings.builder().put("all_terms.cache.size", "0b").build());
+            AtomicInteger loads = new AtomicInteger();
+            try (DirectoryReader reader = ElasticsearchDirectoryReader.wrap(DirectoryReader.open(w), shardId)) {
+                load(cache, reader, request(null), loads);
+                load(cache, reader, request(null), loads);
+            }
+            assertThat(loads.get(), equalTo(2));
+            assertThat(cache.count(), equalTo(0));
+        }
+    }
+
+    private static void addDoc(IndexWriter w, String text) throws IOException {
+        Document d = new Document();
+        d.add(new TextField("field", text, Field.Store.NO));
+        w.addDocument(d);
+        w.commit();
+    }
+}
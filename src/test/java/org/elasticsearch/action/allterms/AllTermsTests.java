@@ -26,22 +26,38 @@ import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.NoMergePolicy;
 import org.apache.lucene.index.NoMergeScheduler;
 import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ResourceNotFoundException;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
 import org.elasticsearch.test.ESTestCase;
+import org.elasticsearch.threadpool.TestThreadPool;
+import org.elasticsearch.threadpool.ThreadPool;
 import org.junit.After;
 import org.junit.Before;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.elasticsearch.action.allterms.TransportAllTermsShardAction.getTermsEnums;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.greaterThan;
-import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
 import static org.hamcrest.core.IsEqual.equalTo;
 
 public class AllTermsTests extends ESTestCase {
@@ -94,178 +110,522 @@ public class AllTermsTests extends ESTestCase {
     }
 
     public void testFindSmallestTermAfterExistingTerm() throws IOException {
-        SmallestTermAndExhausted smallestTermAndExhausted = getSmallestTermAndExhausted("careful");
-        BytesRef smallestTerm = smallestTermAndExhausted.getSmallestTerm();
-        int[] exhausted = smallestTermAndExhausted.getExhausted();
-        assertThat(smallestTerm.utf8ToString(), equalTo("don't"));
-        int i = -1;
-        int numExhausted = 0;
-        for (TermsEnum termsEnum : smallestTermAndExhausted.getTermsIters()) {
-            i++;
-            if (exhausted[i] == 1) {
-                numExhausted++;
-            } else {
-                assertThat(termsEnum.term().utf8ToString().compareTo("careful"), greaterThan(0));
-            }
-        }
-        assertThat(numExhausted, equalTo(1));
+        MergedTermsIterator mergedTerms = getMergedTerms("careful");
+        assertThat(mergedTerms.next().utf8ToString(), equalTo("don't"));
     }
 
-
     public void testFindSmallestTermFromBeginning() throws IOException {
-        SmallestTermAndExhausted smallestTermAndExhausted = getSmallestTermAndExhausted(null);
-        BytesRef smallestTerm = smallestTermAndExhausted.getSmallestTerm();
-        int[] exhausted = smallestTermAndExhausted.getExhausted();
-        assertThat(smallestTerm.utf8ToString(), equalTo("always"));
-        int i = -1;
-        int numExhausted = 0;
-        for (TermsEnum termsEnum : smallestTermAndExhausted.getTermsIters()) {
-            i++;
-            if (exhausted[i] == 1) {
-                numExhausted++;
-            } else {
-                assertThat(termsEnum.term().utf8ToString().compareTo("always"), greaterThanOrEqualTo(0));
-            }
-        }
-        assertThat(numExhausted, equalTo(0));
+        MergedTermsIterator mergedTerms = getMergedTerms(null);
+        assertThat(mergedTerms.next().utf8ToString(), equalTo("always"));
     }
 
     public void testFindSmallestTermFromNotExistentTerm() throws IOException {
-        SmallestTermAndExhausted smallestTermAndExhausted = getSmallestTermAndExhausted("foo");
-        BytesRef smallestTerm = smallestTermAndExhausted.getSmallestTerm();
-        int[] exhausted = smallestTermAndExhausted.getExhausted();
-        assertThat(smallestTerm.utf8ToString(), equalTo("forget"));
-        int i = -1;
-        int numExhausted = 0;
-        for (TermsEnum termsEnum : smallestTermAndExhausted.getTermsIters()) {
-            i++;
-            if (exhausted[i] == 1) {
-                numExhausted++;
-            } else {
-                assertThat(termsEnum.term().utf8ToString().compareTo("foo"), greaterThanOrEqualTo(0));
-            }
-        }
-        assertThat(numExhausted, equalTo(2));
+        MergedTermsIterator mergedTerms = getMergedTerms("foo");
+        assertThat(mergedTerms.next().utf8ToString(), equalTo("forget"));
     }
 
     public void testFindSmallestAllExhausted() throws IOException {
-        SmallestTermAndExhausted smallestTermAndExhausted = getSmallestTermAndExhausted("zonk");
-        BytesRef smallestTerm = smallestTermAndExhausted.getSmallestTerm();
-        int[] exhausted = smallestTermAndExhausted.getExhausted();
-        assertThat(smallestTerm, equalTo(null));
-        for (int i = 0; i < 4; i++) {
-            assertThat(exhausted[i], equalTo(1));
-        }
+        MergedTermsIterator mergedTerms = getMergedTerms("zonk");
+        assertThat(mergedTerms.next(), equalTo(null));
+        assertThat(mergedTerms.docFreq(), equalTo(0L));
     }
 
-    private SmallestTermAndExhausted getSmallestTermAndExhausted(String from) throws IOException {
+    private MergedTermsIterator getMergedTerms(String from) throws IOException {
         AllTermsShardRequest request = new AllTermsShardRequest(new AllTermsRequest(), "index", 0, "field", 1, from, 0);
         List<TermsEnum> termIters = getTermsEnums(request, reader.leaves());
         assertThat(termIters.size(), equalTo(4));
-        BytesRef smallestTerm = null;
-        int[] exhausted = new int[termIters.size()];
-        smallestTerm = TransportAllTermsShardAction.findSmallestTermAfter(request, termIters, smallestTerm, exhausted);
-        return new SmallestTermAndExhausted(smallestTerm, exhausted, termIters);
+        return new MergedTermsIterator(termIters, from == null ? null : new BytesRef(from));
     }
 
-    private class SmallestTermAndExhausted {
-        private BytesRef smallestTerm;
-        private int[] exhausted;
-        private List<TermsEnum> termsIters;
-
-        public BytesRef getSmallestTerm() {
-            return smallestTerm;
-        }
-
-        public int[] getExhausted() {
-            return exhausted;
-        }
-
-        SmallestTermAndExhausted(BytesRef smallestTerm, int[] exhausted, List<TermsEnum> termsIters) {
-
-            this.smallestTerm = smallestTerm;
-            this.exhausted = exhausted;
-            this.termsIters = termsIters;
-        }
+    public void testDocFreqForExistingTerm() throws IOException {
+        MergedTermsIterator mergedTerms = getMergedTerms("careful");
+        assertThat(mergedTerms.next().utf8ToString(), equalTo("don't"));
+        assertThat(mergedTerms.docFreq(), equalTo(2L));
+    }
 
-        public List<TermsEnum> getTermsIters() {
-            return termsIters;
+    public void testMergedTermsInOrderWithDocFreq() throws IOException {
+        MergedTermsIterator mergedTerms = getMergedTerms(null);
+        String[] expectedTerms = new String[]{"always", "be", "careful", "don't", "ever", "forget"};
+        long[] expectedDocFreqs = new long[]{2, 3, 2, 2, 2, 2};
+        for (int i = 0; i < expectedTerms.length; i++) {
+            BytesRef term = mergedTerms.next();
+            assertThat(term.utf8ToString(), equalTo(expectedTerms[i]));
+            assertThat(mergedTerms.term(), equalTo(term));
+            assertThat(mergedTerms.docFreq(), equalTo(expectedDocFreqs[i]));
         }
+        assertThat(mergedTerms.next(), equalTo(null));
+        assertThat(mergedTerms.next(), equalTo(null));
     }
 
-    public void testDocFreqForExistingTerm() throws IOException {
-        SmallestTermAndExhausted smallestTermAndExhausted = getSmallestTermAndExhausted("careful");
-        BytesRef smallestTerm = smallestTermAndExhausted.getSmallestTerm();
-        int[] exhausted = smallestTermAndExhausted.getExhausted();
-        assertThat(TransportAllTermsShardAction.getDocFreq(smallestTermAndExhausted.getTermsIters(), smallestTerm, exhausted), equalTo(2L));
-    }
-
-    public void testDocFreqForNotExistingTerm() throws IOException {
-        SmallestTermAndExhausted smallestTermAndExhausted = getSmallestTermAndExhausted("careful");
-        BytesRef smallestTerm = new BytesRef("do");
-        int[] exhausted = smallestTermAndExhausted.getExhausted();
-        assertThat(TransportAllTermsShardAction.getDocFreq(smallestTermAndExhausted.getTermsIters(), smallestTerm, exhausted), equalTo(0L));
-    }
-
-    public void testMoveIterators() throws IOException {
-        SmallestTermAndExhausted smallestTermAndExhausted = getSmallestTermAndExhausted("a");
-        BytesRef smallestTerm = new BytesRef(smallestTermAndExhausted.getSmallestTerm().utf8ToString());
-        TransportAllTermsShardAction.moveIterators(smallestTermAndExhausted.exhausted, smallestTermAndExhausted.getTermsIters(),
-                smallestTerm);
-        for (int i = 0; i < 4; i++) {
-            assertThat(smallestTermAndExhausted.getTermsIters().get(i).term(), greaterThan(smallestTerm));
-        }
+    public void testMergedTermsWithSomeExhaustion() throws IOException {
+        // only the two documents containing "forget" have terms after "don't"
+        MergedTermsIterator mergedTerms = getMergedTerms("don't");
+        assertThat(mergedTerms.next().utf8ToString(), equalTo("ever"));
+        assertThat(mergedTerms.docFreq(), equalTo(2L));
+        assertThat(mergedTerms.next().utf8ToString(), equalTo("forget"));
+        assertThat(mergedTerms.docFreq(), equalTo(2L));
+        assertThat(mergedTerms.next(), equalTo(null));
     }
 
-    public void testMoveIteratorsWithSomeExhaustion() throws IOException {
-        SmallestTermAndExhausted smallestTermAndExhausted = getSmallestTermAndExhausted("careful");
-        BytesRef smallestTerm = new BytesRef(smallestTermAndExhausted.getSmallestTerm().utf8ToString());
-        TransportAllTermsShardAction.moveIterators(smallestTermAndExhausted.exhausted, smallestTermAndExhausted.getTermsIters(),
-                smallestTerm);
-        int exhausted = 0;
-        for (int i = 0; i < 4; i++) {
-            if (smallestTermAndExhausted.getExhausted()[i] != 1) {
-                assertThat(smallestTermAndExhausted.getTermsIters().get(i).term(), greaterThan(smallestTerm));
-            } else {
-                exhausted++;
-            }
-        }
-        assertThat(exhausted, equalTo(2));
+    public void testGetTermsWithMinDocFreq() throws IOException {
+        AllTermsShardRequest request = new AllTermsShardRequest(new AllTermsRequest(), "index", 0, "field", 10, null, 3);
+        List<String> terms = getTerms(request);
+        assertArrayEquals(terms.toArray(new String[1]), new String[]{"be"});
     }
 
-    public void testFindSmallestTerm() throws IOException {
-        SmallestTermAndExhausted smallestTermAndExhausted = getSmallestTermAndExhausted("careful");
-        BytesRef smallestTerm = new BytesRef(smallestTermAndExhausted.getSmallestTerm().utf8ToString());
-        BytesRef newSmallestTerm = TransportAllTermsShardAction.findMinimum(smallestTermAndExhausted.exhausted,
-                smallestTermAndExhausted.getTermsIters());
-        assertThat(newSmallestTerm.utf8ToString(), equalTo(smallestTerm.utf8ToString()));
+    private List<String> getTerms(AllTermsShardRequest request) throws IOException {
+        FrontCodedTerms.Builder terms = new FrontCodedTerms.Builder();
+        TransportAllTermsShardAction.getTerms(request, terms, null, null, reader.leaves());
+        return terms.build().toStrings();
     }
 
     public void testGetAllTermsFromBeginning() throws IOException {
         AllTermsShardRequest request = new AllTermsShardRequest(new AllTermsRequest(), "index", 0, "field", 10, null, 0);
-        List<String> terms = new ArrayList<>();
-        TransportAllTermsShardAction.getTerms(request, terms, reader.leaves());
+        List<String> terms = getTerms(request);
         assertArrayEquals(terms.toArray(new String[6]), new String[]{"always", "be", "careful", "don't", "ever", "forget"});
     }
 
     public void testGetAllTermsFromBeginningExact() throws IOException {
         AllTermsShardRequest request = new AllTermsShardRequest(new AllTermsRequest(), "index", 0, "field", 6, null, 0);
-        List<String> terms = new ArrayList<>();
-        TransportAllTermsShardAction.getTerms(request, terms, reader.leaves());
+        List<String> terms = getTerms(request);
         assertArrayEquals(terms.toArray(new String[6]), new String[]{"always", "be", "careful", "don't", "ever", "forget"});
     }
 
     public void testGetSomeTerms() throws IOException {
         AllTermsShardRequest request = new AllTermsShardRequest(new AllTermsRequest(), "index", 0, "field", 3, null, 0);
-        List<String> terms = new ArrayList<>();
-        TransportAllTermsShardAction.getTerms(request, terms, reader.leaves());
+        List<String> terms = getTerms(request);
         assertArrayEquals(terms.toArray(new String[3]), new String[]{"always", "be", "careful"});
     }
 
     public void testGetSomeTermsFrom() throws IOException {
         AllTermsShardRequest request = new AllTermsShardRequest(new AllTermsRequest(), "index", 0, "field", 3, "careful", 0);
-        List<String> terms = new ArrayList<>();
-        TransportAllTermsShardAction.getTerms(request, terms, reader.leaves());
+        List<String> terms = getTerms(request);
         assertArrayEquals(terms.toArray(new String[3]), new String[]{"don't", "ever", "forget"});
     }
+
+    public void testCursorContextPages() throws IOException {
+        AllTermsCursorContext context = new AllTermsCursorContext(1, () -> {}, getMergedTerms(null), 1000);
+        assertThat(context.nextPage(null, 2, 0, null, null).toStrings(), equalTo(Arrays.asList("always", "be")));
+        // the coordinating node returned both terms
+        assertThat(context.nextPage("be", 2, 0, null, null).toStrings(), equalTo(Arrays.asList("careful", "don't")));
+        // the coordinating node only returned "careful" so "don't" has to be sent again
+        assertThat(context.nextPage("careful", 2, 0, null, null).toStrings(), equalTo(Arrays.asList("don't", "ever")));
+        assertThat(context.nextPage("ever", 2, 0, null, null).toStrings(), equalTo(Collections.singletonList("forget")));
+        assertThat(context.nextPage("forget", 2, 0, null, null).toStrings(), equalTo(Collections.emptyList()));
+    }
+
+    public void testCursorContextKeepsTermsBeyondSmallerPage() throws IOException {
+        AllTermsCursorContext context = new AllTermsCursorContext(1, () -> {}, getMergedTerms("always"), 1000);
+        assertThat(context.nextPage(null, 3, 0, null, null).toStrings(), equalTo(Arrays.asList("be", "careful", "don't")));
+        assertThat(context.nextPage("be", 1, 0, null, null).toStrings(), equalTo(Collections.singletonList("careful")));
+        assertThat(context.nextPage("careful", 3, 0, null, null).toStrings(), equalTo(Arrays.asList("don't", "ever", "forget")));
+    }
+
+    public void testCursorContextWithMinDocFreq() throws IOException {
+        AllTermsCursorContext context = new AllTermsCursorContext(1, () -> {}, getMergedTerms(null), 1000);
+        assertThat(context.nextPage(null, 1, 3, null, null).toStrings(), equalTo(Collections.singletonList("be")));
+        assertThat(context.nextPage("be", 1, 3, null, null).toStrings(), equalTo(Collections.emptyList()));
+    }
+
+    public void testCursorContextExpiry() throws IOException {
+        AllTermsCursorContext context = new AllTermsCursorContext(1, () -> {}, getMergedTerms(null), 1000);
+        assertFalse(context.isExpired(System.nanoTime()));
+        assertTrue(context.isExpired(System.nanoTime() + TimeUnit.SECONDS.toNanos(2)));
+    }
+
+    public void testCursorContextInUseDoesNotExpire() throws IOException {
+        AllTermsCursorContext context = new AllTermsCursorContext(1, () -> {}, getMergedTerms(null), 1000);
+        context.markInUse();
+        assertFalse(context.isExpired(System.nanoTime() + TimeUnit.SECONDS.toNanos(2)));
+        // the keep alive of the next page starts when the request is done
+        context.keepAlive(1000);
+        assertTrue(context.isExpired(System.nanoTime() + TimeUnit.SECONDS.toNanos(2)));
+    }
+
+    public void testFreedCursorContextReleasesSearcherAfterLastRequest() throws IOException {
+        AllTermsCursorService cursorService = new AllTermsCursorService(Settings.EMPTY, null);
+        AtomicBoolean released = new AtomicBoolean();
+        AllTermsCursorContext context = cursorService.createContext(() -> released.set(true), getMergedTerms(null),
+                TimeValue.timeValueSeconds(1));
+        context.keepAlive(1000);
+        context.decRef();
+
+        // a request reads a page while the context is freed
+        assertSame(context, cursorService.getContext(context.id()));
+        cursorService.freeContext(context.id());
+        assertThat(cursorService.activeContexts(), equalTo(0));
+        expectThrows(ResourceNotFoundException.class, () -> cursorService.getContext(context.id()));
+        assertFalse(released.get());
+        assertThat(context.nextPage(null, 2, 0, null, null).toStrings(), equalTo(Arrays.asList("always", "be")));
+        context.decRef();
+        assertTrue(released.get());
+    }
+
+    public void testMaxOpenCursorContexts() throws IOException {
+        AllTermsCursorService cursorService = new AllTermsCursorService(
+                Settings.builder().put(AllTermsCursorService.MAX_OPEN_CONTEXTS_SETTING.getKey(), 1).build(), null);
+        AllTermsCursorContext context = cursorService.createContext(() -> {}, getMergedTerms(null), TimeValue.timeValueSeconds(1));
+        context.decRef();
+        ElasticsearchException e = expectThrows(ElasticsearchException.class,
+                () -> cursorService.createContext(() -> {}, getMergedTerms(null), TimeValue.timeValueSeconds(1)));
+        assertThat(e.getMessage(), containsString("all_terms.cursor.max_open_contexts"));
+        assertThat(cursorService.activeContexts(), equalTo(1));
+
+        cursorService.freeContext(context.id());
+        cursorService.createContext(() -> {}, getMergedTerms(null), TimeValue.timeValueSeconds(1)).decRef();
+        assertThat(cursorService.activeContexts(), equalTo(1));
+    }
+
+    public void testCursorEncoding() {
+        AllTermsCursor cursor = new AllTermsCursor(randomBoolean() ? null : randomUnicodeOfLength(10), Arrays.asList(
+                new AllTermsCursor.ShardContext(0, "node_1", randomLongBetween(0, Long.MAX_VALUE)),
+                new AllTermsCursor.ShardContext(3, "node_2", randomLongBetween(0, Long.MAX_VALUE))));
+        AllTermsCursor decoded = AllTermsCursor.decode(cursor.encode());
+        assertThat(decoded.lastTerm(), equalTo(cursor.lastTerm()));
+        assertThat(decoded.shardContexts().size(), equalTo(2));
+        for (int i = 0; i < 2; i++) {
+            assertThat(decoded.shardContexts().get(i).shardId, equalTo(cursor.shardContexts().get(i).shardId));
+            assertThat(decoded.shardContexts().get(i).nodeId, equalTo(cursor.shardContexts().get(i).nodeId));
+            assertThat(decoded.shardContexts().get(i).contextId, equalTo(cursor.shardContexts().get(i).contextId));
+        }
+        expectThrows(IllegalArgumentException.class, () -> AllTermsCursor.decode("not a cursor"));
+    }
+
+    public void testMergeShardResponses() {
+        AllTermsSingleShardResponse[] responses = new AllTermsSingleShardResponse[]{
+                new AllTermsSingleShardResponse(new FrontCodedTerms.Builder().add("b").add("d").add("e").build()),
+                null,
+                new AllTermsSingleShardResponse(new FrontCodedTerms.Builder().add("a").add("b").add("c").build()),
+                new AllTermsSingleShardResponse(FrontCodedTerms.empty())
+        };
+        assertThat(new AllTermsResponse(responses, 10).getAllTerms(), equalTo(Arrays.asList("a", "b", "c", "d", "e")));
+        assertThat(new AllTermsResponse(responses, 3).getAllTerms(), equalTo(Arrays.asList("a", "b", "c")));
+    }
+
+    public void testGroupLeaves() {
+        assertThat(ParallelTermsCollector.groupLeaves(reader.leaves(), 3).size(), equalTo(3));
+        assertThat(ParallelTermsCollector.groupLeaves(reader.leaves(), 10).size(), equalTo(4));
+        assertThat(ParallelTermsCollector.groupLeaves(reader.leaves(), 1).get(0).size(), equalTo(4));
+    }
+
+    public void testParallelTermsEqualSerialTerms() throws Exception {
+        ThreadPool threadPool = new TestThreadPool("all_terms");
+        try {
+            String[] froms = new String[]{null, "a", "be", "ces", "don't", "zonk"};
+            for (int parallelism = 1; parallelism <= 4; parallelism++) {
+                for (String from : froms) {
+                    for (int size = 0; size <= 7; size++) {
+                        for (long minDocFreq = 0; minDocFreq <= 3; minDocFreq++) {
+                            AllTermsShardRequest request = new AllTermsShardRequest(new AllTermsRequest(), "index", 0, "field", size, from,
+                                    minDocFreq);
+                            List<String> expected = getTerms(request);
+                            FrontCodedTerms.Builder terms = new FrontCodedTerms.Builder();
+                            ParallelTermsCollector.collect(request, terms, null, null, reader.leaves(), parallelism,
+                                    threadPool.executor(ThreadPool.Names.SEARCH));
+                            assertThat(terms.build().toStrings(), equalTo(expected));
+                        }
+                    }
+                }
+            }
+        } finally {
+            terminate(threadPool);
+        }
+    }
+
+    public void testRejectedFillsAreNotAwaited() {
+        AllTermsShardRequest request = new AllTermsShardRequest(new AllTermsRequest(), "index", 0, "field", 10, null, 0);
+        List<Runnable> queued = new ArrayList<>();
+        // queues the first fill and rejects the second one
+        Executor executor = command -> {
+            if (queued.isEmpty() == false) {
+                throw new EsRejectedExecutionException("rejected");
+            }
+            queued.add(command);
+        };
+        // the queued fill never ran, waiting for it would block forever
+        expectThrows(EsRejectedExecutionException.class,
+                () -> ParallelTermsCollector.collect(request, new FrontCodedTerms.Builder(), null, null, reader.leaves(), 3, executor));
+        // it was cancelled and does not read the enums once the executor gets to it
+        queued.get(0).run();
+    }
+
+    public void testMergeRunsStopsAtBoundary() throws IOException {
+        AllTermsShardRequest request = new AllTermsShardRequest(new AllTermsRequest(), "index", 0, "field", 2, null, 0);
+        List<List<LeafReaderContext>> groups = ParallelTermsCollector.groupLeaves(reader.leaves(), 2);
+        // the first group holds the first and third document, the second group the second and the fourth
+        List<ParallelTermsCollector.TermRun> runs = Arrays.asList(
+                new ParallelTermsCollector.TermRun(request, null, null, groups.get(0), null),
+                new ParallelTermsCollector.TermRun(request, null, null, groups.get(1), null));
+        for (ParallelTermsCollector.TermRun run : runs) {
+            run.fill(2);
+        }
+        FrontCodedTerms.Builder terms = new FrontCodedTerms.Builder();
+        BytesRef boundary = ParallelTermsCollector.mergeRuns(runs, terms, null, 10, 0);
+        // the first run ends with "careful" and the second with "be" so nothing after "be" is complete yet
+        assertThat(boundary.utf8ToString(), equalTo("be"));
+        assertThat(terms.build().toStrings(), equalTo(Arrays.asList("always", "be")));
+    }
+
+    public void testRefilledRunsKeepTheirPosition() throws IOException {
+        AllTermsShardRequest request = new AllTermsShardRequest(new AllTermsRequest(), "index", 0, "field", 10, null, 0);
+        List<List<LeafReaderContext>> groups = ParallelTermsCollector.groupLeaves(reader.leaves(), 2);
+        List<ParallelTermsCollector.TermRun> runs = Arrays.asList(
+                new ParallelTermsCollector.TermRun(request, null, null, groups.get(0), null),
+                new ParallelTermsCollector.TermRun(request, null, null, groups.get(1), null));
+        FrontCodedTerms.Builder terms = new FrontCodedTerms.Builder();
+        TermStatsBuilder stats = new TermStatsBuilder();
+        int rounds = 0;
+        BytesRef boundary;
+        do {
+            // the terms after the boundary stay in the runs and are merged with the next ones
+            for (ParallelTermsCollector.TermRun run : runs) {
+                run.fill(2);
+            }
+            boundary = ParallelTermsCollector.mergeRuns(runs, terms, stats, 10, 0);
+            rounds++;
+        } while (boundary != null);
+        assertThat(rounds, greaterThan(1));
+        assertThat(terms.build().toStrings(), equalTo(Arrays.asList("always", "be", "careful", "don't", "ever", "forget")));
+        assertArrayEquals(new long[]{2, 3, 2, 2, 2, 2}, stats.docFreqs());
+    }
+
+    public void testFrontCodedTerms() throws IOException {
+        List<String> strings = new ArrayList<>();
+        for (int i = randomIntBetween(0, 100); i > 0; i--) {
+            strings.add(randomBoolean() ? randomUnicodeOfLengthBetween(0, 20) : "prefix_" + randomAsciiOfLengthBetween(0, 10));
+        }
+        if (randomBoolean()) {
+            strings.sort((a, b) -> new BytesRef(a).compareTo(new BytesRef(b)));
+        }
+        FrontCodedTerms.Builder builder = new FrontCodedTerms.Builder();
+        for (String string : strings) {
+            builder.add(string);
+        }
+        FrontCodedTerms terms = builder.build();
+        assertThat(terms.size(), equalTo(strings.size()));
+        assertThat(terms.toStrings(), equalTo(strings));
+        assertThat(terms.last(), equalTo(strings.isEmpty() ? null : new BytesRef(strings.get(strings.size() - 1))));
+
+        BytesStreamOutput out = new BytesStreamOutput();
+        terms.writeTo(out);
+        FrontCodedTerms read = new FrontCodedTerms(out.bytes().streamInput());
+        assertThat(read.size(), equalTo(strings.size()));
+        assertThat(read.toStrings(), equalTo(strings));
+    }
+
+    public void testFrontCodingSharesPrefixes() throws IOException {
+        FrontCodedTerms.Builder builder = new FrontCodedTerms.Builder();
+        List<String> strings = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            String term = "a_rather_long_common_prefix_" + i;
+            strings.add(term);
+            builder.add(term);
+        }
+        BytesStreamOutput frontCoded = new BytesStreamOutput();
+        builder.build().writeTo(frontCoded);
+        BytesStreamOutput plain = new BytesStreamOutput();
+        plain.writeStringArray(strings.toArray(new String[strings.size()]));
+        assertThat(frontCoded.bytes().length(), lessThan(plain.bytes().length() / 4));
+    }
+
+    private List<String> getFilteredTerms(String from, String prefix, String include, int minLength, int maxLength)
+            throws IOException {
+        AllTermsRequest allTermsRequest = new AllTermsRequest();
+        allTermsRequest.prefix(prefix);
+        allTermsRequest.include(include);
+        allTermsRequest.minLength(minLength);
+        allTermsRequest.maxLength(maxLength);
+        return getTerms(new AllTermsShardRequest(allTermsRequest, "index", 0, "field", 10, from, 0));
+    }
+
+    public void testFilteredTerms() throws IOException {
+        assertThat(getFilteredTerms(null, "c", null, 0, -1), equalTo(Collections.singletonList("careful")));
+        assertThat(getFilteredTerms(null, null, "e.*", 0, -1), equalTo(Collections.singletonList("ever")));
+        assertThat(getFilteredTerms(null, null, ".*e.*", 0, -1), equalTo(Arrays.asList("be", "careful", "ever", "forget")));
+        assertThat(getFilteredTerms(null, null, null, 5, -1), equalTo(Arrays.asList("always", "careful", "don't", "forget")));
+        assertThat(getFilteredTerms(null, null, null, 0, 4), equalTo(Arrays.asList("be", "ever")));
+        assertThat(getFilteredTerms(null, null, null, 5, 5), equalTo(Collections.singletonList("don't")));
+        assertThat(getFilteredTerms(null, null, ".*e.*", 5, -1), equalTo(Arrays.asList("careful", "forget")));
+        assertThat(getFilteredTerms(null, "x", null, 0, -1), equalTo(Collections.emptyList()));
+        assertThat(getFilteredTerms(null, null, ".*", 0, -1), equalTo(Arrays.asList("always", "be", "careful", "don't", "ever",
+                "forget")));
+    }
+
+    public void testFilteredTermsFrom() throws IOException {
+        assertThat(getFilteredTerms("be", null, ".*e.*", 0, -1), equalTo(Arrays.asList("careful", "ever", "forget")));
+        assertThat(getFilteredTerms("bz", null, ".*e.*", 0, -1), equalTo(Arrays.asList("careful", "ever", "forget")));
+        // single term automata
+        assertThat(getFilteredTerms(null, null, "ever", 0, -1), equalTo(Collections.singletonList("ever")));
+        assertThat(getFilteredTerms("ever", null, "ever", 0, -1), equalTo(Collections.emptyList()));
+        assertThat(getFilteredTerms("be", null, ".*", 0, -1), equalTo(Arrays.asList("careful", "don't", "ever", "forget")));
+    }
+
+    public void testParallelFilteredTerms() {
+        AllTermsRequest allTermsRequest = new AllTermsRequest();
+        allTermsRequest.include(".*e.*");
+        AllTermsShardRequest request = new AllTermsShardRequest(allTermsRequest, "index", 0, "field", 10, "be", 0);
+        FrontCodedTerms.Builder terms = new FrontCodedTerms.Builder();
+        ParallelTermsCollector.collect(request, terms, null, null, reader.leaves(), 2, Runnable::run);
+        assertThat(terms.build().toStrings(), equalTo(Arrays.asList("careful", "ever", "forget")));
+    }
+
+    private AllTermsSingleShardResponse getTopTerms(int size, String from) throws IOException {
+        AllTermsRequest allTermsRequest = new AllTermsRequest();
+        allTermsRequest.sort(AllTermsRequest.Sort.DOC_FREQ);
+        AllTermsShardRequest request = new AllTermsShardRequest(allTermsRequest, "index", 0, "field", size, from, 0);
+        return TransportAllTermsShardAction.getTopTerms(request, null, reader.leaves());
+    }
+
+    public void testTopTerms() throws IOException {
+        AllTermsSingleShardResponse response = getTopTerms(3, null);
+        // sorted by term for the merge on the coordinating node, ties are broken by term
+        assertThat(response.shardTerms.toStrings(), equalTo(Arrays.asList("always", "be", "careful")));
+        assertArrayEquals(new long[]{2, 3, 2}, response.docFreqs);
+        response = getTopTerms(1, "be");
+        assertThat(response.shardTerms.toStrings(), equalTo(Collections.singletonList("careful")));
+        response = getTopTerms(100, null);
+        assertThat(response.shardTerms.size(), equalTo(6));
+        assertThat(getTopTerms(0, null).shardTerms.size(), equalTo(0));
+    }
+
+    public void testTopTermsQueue() {
+        int maxSize = randomIntBetween(1, 20);
+        TopTermsQueue queue = new TopTermsQueue(maxSize);
+        List<Long> docFreqs = new ArrayList<>();
+        int numTerms = randomIntBetween(0, 100);
+        for (int i = 0; i < numTerms; i++) {
+            long docFreq = randomLongBetween(1, 1000);
+            docFreqs.add(docFreq);
+            queue.insert(new BytesRef(String.format(Locale.ROOT, "%03d", i)), docFreq, docFreq);
+        }
+        docFreqs.sort(Collections.reverseOrder());
+        TopTermsQueue.Entry[] entries = queue.drain();
+        assertThat(entries.length, equalTo(Math.min(maxSize, numTerms)));
+        for (int i = 0; i < entries.length; i++) {
+            assertThat(entries[i].docFreq(), equalTo(docFreqs.get(i)));
+        }
+    }
+
+    public void testMergeTopTerms() {
+        AllTermsSingleShardResponse[] responses = new AllTermsSingleShardResponse[]{
+                new AllTermsSingleShardResponse(new FrontCodedTerms.Builder().add("a").add("b").add("c").build(), new long[]{5, 1, 3}),
+                null,
+                new AllTermsSingleShardResponse(new FrontCodedTerms.Builder().add("b").add("d").build(), new long[]{6, 2})
+        };
+        AllTermsResponse response = AllTermsResponse.topTermsByDocFreq(responses, 3, 0);
+        assertThat(response.getAllTerms(), equalTo(Arrays.asList("b", "a", "c")));
+        assertArrayEquals(new long[]{7, 5, 3}, response.getDocFreqs());
+        response = AllTermsResponse.topTermsByDocFreq(responses, 10, 4);
+        assertThat(response.getAllTerms(), equalTo(Arrays.asList("b", "a")));
+        assertArrayEquals(new long[]{7, 5}, response.getDocFreqs());
+        // a size far beyond the number of terms of the shards does not size the queue
+        response = AllTermsResponse.topTermsByDocFreq(responses, Integer.MAX_VALUE, 0);
+        assertThat(response.getAllTerms(), equalTo(Arrays.asList("b", "a", "c", "d")));
+    }
+
+    public void testShardSize() {
+        AllTermsRequest request = new AllTermsRequest();
+        request.size(10);
+        assertThat(TransportAllTermsAction.shardSize(request), equalTo(25));
+        request.shardSize(5);
+        assertThat(TransportAllTermsAction.shardSize(request), equalTo(10));
+        request.shardSize(100);
+        assertThat(TransportAllTermsAction.shardSize(request), equalTo(100));
+    }
+
+    public void testTermStatistics() throws IOException {
+        AllTermsShardRequest request = new AllTermsShardRequest(new AllTermsRequest(), "index", 0, "field", 10, null, 0);
+        FrontCodedTerms.Builder terms = new FrontCodedTerms.Builder();
+        TermStatsBuilder stats = new TermStatsBuilder();
+        TransportAllTermsShardAction.getTerms(request, terms, stats, null, reader.leaves());
+        assertThat(terms.build().toStrings(), equalTo(Arrays.asList("always", "be", "careful", "don't", "ever", "forget")));
+        assertArrayEquals(new long[]{2, 3, 2, 2, 2, 2}, stats.docFreqs());
+        assertArrayEquals(new long[]{2, 4, 4, 2, 2, 2}, stats.totalTermFreqs());
+
+        // the parallel collector sums up the statistics of its groups
+        FrontCodedTerms.Builder parallelTerms = new FrontCodedTerms.Builder();
+        TermStatsBuilder parallelStats = new TermStatsBuilder();
+        ParallelTermsCollector.collect(request, parallelTerms, parallelStats, null, reader.leaves(), 3, Runnable::run);
+        assertThat(parallelTerms.build().toStrings(), equalTo(terms.build().toStrings()));
+        assertArrayEquals(stats.docFreqs(), parallelStats.docFreqs());
+        assertArrayEquals(stats.totalTermFreqs(), parallelStats.totalTermFreqs());
+    }
+
+    public void testCursorContextTermStatistics() throws IOException {
+        AllTermsCursorContext context = new AllTermsCursorContext(1, () -> {}, getMergedTerms(null), 60000);
+        TermStatsBuilder stats = new TermStatsBuilder();
+        assertThat(context.nextPage(null, 3, 0, stats, null).toStrings(), equalTo(Arrays.asList("always", "be", "careful")));
+        assertArrayEquals(new long[]{2, 4, 4}, stats.totalTermFreqs());
+        // buffered terms that are sent again keep their statistics
+        stats = new TermStatsBuilder();
+        assertThat(context.nextPage("always", 2, 0, stats, null).toStrings(), equalTo(Arrays.asList("be", "careful")));
+        assertArrayEquals(new long[]{3, 2}, stats.docFreqs());
+        assertArrayEquals(new long[]{4, 4}, stats.totalTermFreqs());
+    }
+
+    public void testMergeShardResponsesWithTermStatistics() {
+        AllTermsSingleShardResponse[] responses = new AllTermsSingleShardResponse[]{
+                new AllTermsSingleShardResponse(new FrontCodedTerms.Builder().add("a").add("b").add("d").build(), new long[]{1, 2, 3},
+                        new long[]{2, 4, 6}),
+                new AllTermsSingleShardResponse(new FrontCodedTerms.Builder().add("b").add("c").build(), new long[]{5, 1},
+                        new long[]{-1, -1})
+        };
+        AllTermsResponse response = new AllTermsResponse(responses, 3);
+        assertThat(response.getAllTerms(), equalTo(Arrays.asList("a", "b", "c")));
+        assertArrayEquals(new long[]{1, 7, 1}, response.getDocFreqs());
+        assertArrayEquals(new long[]{2, -1, -1}, response.getTotalTermFreqs());
+        // without statistics from the shards there are none in the response
+        assertNull(new AllTermsResponse(new AllTermsSingleShardResponse[]{
+                new AllTermsSingleShardResponse(new FrontCodedTerms.Builder().add("a").build())}, 3).getDocFreqs());
+    }
+
+    public void testMinDocFreqAppliesToSummedTermStatistics() {
+        // "a" is split across the shards and only has enough documents in total
+        AllTermsSingleShardResponse[] responses = new AllTermsSingleShardResponse[]{
+                new AllTermsSingleShardResponse(new FrontCodedTerms.Builder().add("a").add("b").build(), new long[]{1, 2},
+                        new long[]{1, 2}),
+                new AllTermsSingleShardResponse(new FrontCodedTerms.Builder().add("a").add("c").build(), new long[]{1, 1},
+                        new long[]{3, 1})
+        };
+        AllTermsResponse response = new AllTermsResponse(responses, 3, 2);
+        assertThat(response.getAllTerms(), equalTo(Arrays.asList("a", "b")));
+        assertArrayEquals(new long[]{2, 2}, response.getDocFreqs());
+        assertArrayEquals(new long[]{4, 2}, response.getTotalTermFreqs());
+        // the next page starts after the dropped term
+        assertThat(response.lastMergedTerm().utf8ToString(), equalTo("c"));
+        // only size terms are merged, the shards did not send the terms after them
+        response = new AllTermsResponse(responses, 2, 2);
+        assertThat(response.getAllTerms(), equalTo(Arrays.asList("a", "b")));
+        response = new AllTermsResponse(responses, 1, 3);
+        assertThat(response.getAllTerms(), equalTo(Collections.emptyList()));
+        assertThat(response.lastMergedTerm().utf8ToString(), equalTo("a"));
+    }
+
+    public void testBudgetStopsIteration() throws IOException {
+        TermsCollectionBudget budget = new TermsCollectionBudget(null, TimeValue.timeValueNanos(-1));
+        assertFalse(budget.check());
+        assertTrue(budget.isTimedOut());
+        MergedTermsIterator mergedTerms = getMergedTerms(null);
+        mergedTerms.budget(budget);
+        assertNull(mergedTerms.next());
+        // the iterator did not move and continues once the budget is replaced
+        mergedTerms.budget(null);
+        assertThat(mergedTerms.next().utf8ToString(), equalTo("always"));
+        assertTrue(new TermsCollectionBudget(null, null).check());
+    }
+
+    public void testMergeTimedOutShardResponses() {
+        AllTermsSingleShardResponse[] responses = new AllTermsSingleShardResponse[]{
+                new AllTermsSingleShardResponse(new FrontCodedTerms.Builder().add("a").add("c").add("e").build()),
+                new AllTermsSingleShardResponse(new FrontCodedTerms.Builder().add("b").add("c").build()).timedOut(true)
+        };
+        // the shard that timed out might have had terms between c and e
+        AllTermsResponse response = new AllTermsResponse(responses, 10);
+        assertThat(response.getAllTerms(), equalTo(Arrays.asList("a", "b", "c")));
+        assertTrue(response.isTimedOut());
+        responses[1] = new AllTermsSingleShardResponse(FrontCodedTerms.empty()).timedOut(true);
+        assertThat(new AllTermsResponse(responses, 10).getAllTerms(), equalTo(Collections.emptyList()));
+        responses[1] = null;
+        assertFalse(new AllTermsResponse(responses, 10).isTimedOut());
+    }
 }
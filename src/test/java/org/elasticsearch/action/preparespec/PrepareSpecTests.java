@@ -51,6 +51,7 @@ import java.util.List;
 
 import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
 
 public class PrepareSpecTests extends ESTestCase {
     private IndicesQueriesRegistry queryRegistry = new IndicesQueriesRegistry();
@@ -86,6 +87,31 @@ public class PrepareSpecTests extends ESTestCase {
         assertThat(fieldSpecRequests.v2().size(), equalTo(1));
     }
 
+    public void testParseFieldSpecRequestsWithFilteredAllTerms() throws IOException {
+        XContentBuilder source = jsonBuilder();
+        source.startObject()
+                .startArray("features")
+                .startObject()
+                .field("field", "text")
+                .field("tokens", "all_terms")
+                .field("index", "index")
+                .field("min_doc_freq", 2)
+                .field("prefix", "a")
+                .field("include", "a.*b")
+                .field("min_length", 2)
+                .field("max_length", 10)
+                .field("number", "tf")
+                .field("type", "string")
+                .endObject()
+                .endArray()
+                .field("sparse", false)
+                .endObject();
+        Tuple<Boolean,List<FieldSpecRequest>> fieldSpecRequests = TransportPrepareSpecAction.parseFieldSpecRequests(
+                queryRegistry, aggParsers, suggesters, searchExtRegistry, parseFieldMatcher, source.string());
+        assertThat(fieldSpecRequests.v2().size(), equalTo(1));
+        assertThat(fieldSpecRequests.v2().get(0), instanceOf(StringFieldAllTermsSpecRequest.class));
+    }
+
     public void testParseFieldSpecRequestsWithGivenTerms() throws IOException {
         XContentBuilder source = getTextFieldRequestSourceWithGivenTerms();
         Tuple<Boolean,List<FieldSpecRequest>> fieldSpecRequests = TransportPrepareSpecAction.parseFieldSpecRequests(
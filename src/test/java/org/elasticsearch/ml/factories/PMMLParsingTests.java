@@ -19,14 +19,23 @@
 
 package org.elasticsearch.ml.factories;
 
+import org.dmg.pmml.Array;
+import org.dmg.pmml.FieldName;
+import org.dmg.pmml.MiningModel;
+import org.dmg.pmml.Node;
 import org.dmg.pmml.PMML;
+import org.dmg.pmml.SimpleSetPredicate;
 import org.dmg.pmml.TreeModel;
+import org.dmg.pmml.True;
 import org.elasticsearch.ml.modelinput.MockDataSource;
 import org.elasticsearch.ml.modelinput.SparseVectorModelInput;
 import org.elasticsearch.ml.modelinput.VectorModelInput;
 import org.elasticsearch.ml.modelinput.VectorModelInputEvaluator;
 import org.elasticsearch.ml.modelinput.VectorRange;
 import org.elasticsearch.ml.modelinput.VectorRangesToVectorPMML;
+import org.elasticsearch.ml.models.EsForestModel;
+import org.elasticsearch.ml.models.EsTreeModel;
+import org.elasticsearch.ml.models.FlatTree;
 import org.elasticsearch.ml.modelinput.MapModelInput;
 import org.elasticsearch.ml.modelinput.ModelAndModelInputEvaluator;
 import org.elasticsearch.test.ESTestCase;
@@ -35,6 +44,7 @@ import org.hamcrest.Matchers;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -43,6 +53,7 @@ import java.util.Set;
 
 import static org.elasticsearch.script.pmml.ProcessPMMLHelper.parsePmml;
 import static org.elasticsearch.test.StreamsUtils.copyToStringFromClasspath;
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.notNullValue;
 
@@ -250,8 +261,17 @@ public class PMMLParsingTests extends ESTestCase {
         VectorRangesToVectorPMML.VectorRangesToVectorPMMLTreeModel vectorEntries = (VectorRangesToVectorPMML
                 .VectorRangesToVectorPMMLTreeModel) fieldsToVectorAndModel.getVectorRangesToVector();
         assertThat(vectorEntries.getEntries().size(), equalTo(11));
+        assertTrue(((EsTreeModel) fieldsToVectorAndModel.getModel()).isCompiled());
         assertTreeModelModelCorrect(fieldsToVectorAndModel, "/org/elasticsearch/script/adult.data",
                 "/org/elasticsearch/script/r_tree_adult_result.csv");
+
+        // the same tree without compiling it into method handles
+        ModelAndModelInputEvaluator<MapModelInput, String> interpreted = new TreeModelFactory(0).buildFromPMML(
+                (TreeModel) pmml.getModels().get(0), pmml.getDataDictionary(), pmml.getTransformationDictionary());
+        assertTrue(((EsTreeModel) interpreted.getModel()).isFlat());
+        assertFalse(((EsTreeModel) interpreted.getModel()).isCompiled());
+        assertTreeModelModelCorrect(interpreted, "/org/elasticsearch/script/adult.data",
+                "/org/elasticsearch/script/r_tree_adult_result.csv");
     }
 
     private void assertTreeModelModelCorrect(ModelAndModelInputEvaluator<MapModelInput, String> fieldsToVectorAndModel, String inputData,
@@ -268,25 +288,7 @@ public class PMMLParsingTests extends ESTestCase {
             fields[i] = fields[i].substring(1, fields[i].length() - 1);
         }
         for (int i = 1; i < testDataLines.length; i++) {
-            String[] testDataValues = testDataLines[i].split(",");
-            // trimm spaces and add value
-            Map<String, List<Object>> input = new HashMap<>();
-            for (int j = 0; j < testDataValues.length; j++) {
-                testDataValues[j] = testDataValues[j].trim();
-                if (testDataValues[j].equals("") == false) {
-                    List<Object> fieldInput = new ArrayList<>();
-                    if (j == 0 || j == 2 || j == 4 || j == 10 || j == 11 || j == 12) {
-                        fieldInput.add(Double.parseDouble(testDataValues[j]));
-                    } else {
-                        fieldInput.add(testDataValues[j]);
-                    }
-                    input.put(fields[j], fieldInput);
-                } else {
-                    if (randomBoolean()) {
-                        input.put(fields[j], new ArrayList<>());
-                    }
-                }
-            }
+            Map<String, List<Object>> input = getAdultInput(fields, testDataLines[i]);
             @SuppressWarnings("unchecked")
             Map<String, Object> result = (Map<String, Object>) ((VectorRangesToVectorPMML) fieldsToVectorAndModel.getVectorRangesToVector())
                     .vector(input);
@@ -299,6 +301,114 @@ public class PMMLParsingTests extends ESTestCase {
         }
     }
 
+    private Map<String, List<Object>> getAdultInput(String[] fields, String testDataLine) {
+        String[] testDataValues = testDataLine.split(",");
+        // trimm spaces and add value
+        Map<String, List<Object>> input = new HashMap<>();
+        for (int j = 0; j < testDataValues.length; j++) {
+            testDataValues[j] = testDataValues[j].trim();
+            if (testDataValues[j].equals("") == false) {
+                List<Object> fieldInput = new ArrayList<>();
+                if (j == 0 || j == 2 || j == 4 || j == 10 || j == 11 || j == 12) {
+                    fieldInput.add(Double.parseDouble(testDataValues[j]));
+                } else {
+                    fieldInput.add(testDataValues[j]);
+                }
+                input.put(fields[j], fieldInput);
+            } else {
+                if (randomBoolean()) {
+                    input.put(fields[j], new ArrayList<>());
+                }
+            }
+        }
+        return input;
+    }
+
+    /*tests for mining model*/
+    public void testBigModelAndFeatureParsingFromRExportMiningModel() throws IOException {
+        ModelFactories factories = ModelFactories.createDefaultModelFactories();
+        final String pmmlString = copyToStringFromClasspath("/org/elasticsearch/script/forest-adult-full-r.xml");
+        PMML pmml = parsePmml(pmmlString);
+        ModelAndModelInputEvaluator<MapModelInput, Object> forest = factories.buildFromPMML(pmml, 0);
+        assertThat(((EsForestModel) forest.getModel()).numTrees(), equalTo(2));
+        assertForestModelCorrect(forest);
+
+        // the same forest compiled into method handles
+        ModelAndModelInputEvaluator<MapModelInput, Object> compiled = new MiningModelFactory(Integer.MAX_VALUE).buildFromPMML(
+                (MiningModel) pmml.getModels().get(0), pmml.getDataDictionary(), pmml.getTransformationDictionary());
+        assertTrue(((EsForestModel) compiled.getModel()).isCompiled());
+        assertForestModelCorrect(compiled);
+    }
+
+    public void testMiningModelRejectsDefaultChildNodes() throws IOException {
+        String treeModel = "<TreeModel modelName=\"randomForest_Model\" functionName=\"classification\" " +
+                "algorithmName=\"randomForest\" splitCharacteristic=\"binarySplit\"";
+        String pmmlString = copyToStringFromClasspath("/org/elasticsearch/script/forest-adult-full-r.xml").replace(treeModel,
+                treeModel + " missingValueStrategy=\"defaultChild\" noTrueChildStrategy=\"returnLastPrediction\"");
+        MiningModelFactory factory = new MiningModelFactory(0);
+        // the strategy alone is evaluated like none
+        PMML pmml = parsePmml(pmmlString);
+        factory.buildFromPMML((MiningModel) pmml.getModels().get(0), pmml.getDataDictionary(), pmml.getTransformationDictionary());
+
+        // but the flat forest would not follow the default child
+        PMML withDefaultChild = parsePmml(pmmlString.replaceFirst("<Node id=\"1\">", "<Node id=\"1\" defaultChild=\"2\">"));
+        expectThrows(UnsupportedOperationException.class, () -> factory.buildFromPMML((MiningModel) withDefaultChild.getModels()
+                .get(0), withDefaultChild.getDataDictionary(), withDefaultChild.getTransformationDictionary()));
+    }
+
+    public void testMiningModelRejectsClassificationTargets() throws IOException {
+        // only the rescaling of a regression is supported
+        String pmmlString = copyToStringFromClasspath("/org/elasticsearch/script/forest-adult-full-r.xml").replaceFirst("</Output>",
+                "</Output><Targets><Target field=\"class\" rescaleFactor=\"2\"/></Targets>");
+        PMML pmml = parsePmml(pmmlString);
+        UnsupportedOperationException e = expectThrows(UnsupportedOperationException.class, () -> new MiningModelFactory()
+                .buildFromPMML((MiningModel) pmml.getModels().get(0), pmml.getDataDictionary(), pmml.getTransformationDictionary()));
+        assertThat(e.getMessage(), containsString("regression Target"));
+    }
+
+    private void assertForestModelCorrect(ModelAndModelInputEvaluator<MapModelInput, Object> forest) throws IOException {
+        final String testData = copyToStringFromClasspath("/org/elasticsearch/script/adult.data");
+        final String expectedResults = copyToStringFromClasspath("/org/elasticsearch/script/r_forest_adult_result.csv");
+        String testDataLines[] = testData.split("\\r?\\n");
+        String expectedResultsLines[] = expectedResults.split("\\r?\\n");
+        String[] fields = testDataLines[0].split(",");
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = fields[i].trim();
+            fields[i] = fields[i].substring(1, fields[i].length() - 1);
+        }
+        int numTies = 0;
+        for (int i = 1; i < testDataLines.length; i++) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> vector = (Map<String, Object>) ((VectorRangesToVectorPMML) forest.getVectorRangesToVector())
+                    .vector(getAdultInput(fields, testDataLines[i]));
+            Map<String, Object> resultValues = forest.getModel().evaluateDebug(new MapModelInput(vector));
+            @SuppressWarnings("unchecked")
+            Map<String, Double> probs = (Map<String, Double>) resultValues.get("probs");
+            assertThat(probs.get("<=50K") + probs.get(">50K"), Matchers.closeTo(1.0, 1.e-7));
+            if (probs.get("<=50K").equals(probs.get(">50K"))) {
+                // R breaks ties between the votes of the two trees at random, we always pick the first class
+                assertThat(resultValues.get("class"), equalTo("<=50K"));
+                numTies++;
+                continue;
+            }
+            String expectedClass = expectedResultsLines[i].substring(1, expectedResultsLines[i].length() - 1);
+            assertThat("result " + i + " has wrong prediction", resultValues.get("class"), equalTo(expectedClass));
+            assertThat(forest.getModel().evaluate(new MapModelInput(vector)), equalTo(expectedClass));
+        }
+        assertThat(numTies, Matchers.lessThan(testDataLines.length - 1));
+    }
+
+    public void testStringArrayValues() {
+        Array array = new Array();
+        array.setType(Array.Type.STRING);
+        array.setValue("\"Not-in-family\"   \"Own-child\" \"a \\\"quoted\\\" value\"\tplain");
+        array.setN(4);
+        assertThat(TreeModelFactory.getStringArrayValues(array),
+                equalTo(new String[]{"Not-in-family", "Own-child", "a \"quoted\" value", "plain"}));
+        array.setN(3);
+        expectThrows(UnsupportedOperationException.class, () -> TreeModelFactory.getStringArrayValues(array));
+    }
+
     public void testExtractFieldNames() throws IOException {
         final String pmmlString = copyToStringFromClasspath("/org/elasticsearch/script/tree-adult-full-r.xml");
         PMML pmml = parsePmml(pmmlString);
@@ -329,6 +439,93 @@ public class PMMLParsingTests extends ESTestCase {
         assertThat(fieldToTypeMap.get("education"), equalTo("string"));
     }
     
+    public void testTreeModelVectorKeepsSingleValues() throws IOException {
+        final String pmmlString = copyToStringFromClasspath("/org/elasticsearch/script/tree-small-r.xml");
+        PMML pmml = parsePmml(pmmlString);
+        TreeModel treeModel = (TreeModel) pmml.getModels().get(0);
+        VectorRangesToVectorPMML.VectorRangesToVectorPMMLTreeModel vectorRanges = new VectorRangesToVectorPMML
+                .VectorRangesToVectorPMMLTreeModel(TreeModelFactory.getFieldValuesList(treeModel, pmml.getDataDictionary(),
+                pmml.getTransformationDictionary()));
+        Map<String, List<Object>> input = new HashMap<>();
+        input.put("age", Collections.singletonList(38.5816467553208));
+        input.put("work", Arrays.asList("Private", "State-gov", "Private"));
+        input.put("education", new ArrayList<>());
+        @SuppressWarnings("unchecked")
+        Map<String, Object> vector = (Map<String, Object>) vectorRanges.vector(input);
+        // single values are not wrapped in a set
+        assertThat(vector.get("age_z"), equalTo(0.0));
+        assertThat(vector.get("education"), equalTo("too-lazy-to-study"));
+        assertThat(vector.get("work"), equalTo(new HashSet<>(Arrays.asList("Private", "State-gov"))));
+
+        EsTreeModel.EsSimplePredicate<Double> lessThan = TreeModelFactory.getSimplePredicate(0.5, "age_z", "lessThan");
+        assertTrue(lessThan.match(vector));
+        assertTrue(lessThan.match(Collections.<String, Object>singletonMap("age_z", Collections.singleton(0.0))));
+        assertFalse(lessThan.match(Collections.<String, Object>emptyMap()));
+        expectThrows(UnsupportedOperationException.class, () -> lessThan.match(Collections.<String, Object>singletonMap("age_z",
+                new HashSet<>(Arrays.asList(0.0, 1.0)))));
+        EsTreeModel.EsSimpleSetPredicate<String> isIn = new EsTreeModel.EsSimpleSetPredicate<>(new HashSet<>(Collections
+                .singletonList("State-gov")), "work", true);
+        assertTrue(isIn.match(vector));
+        assertTrue(isIn.match(Collections.<String, Object>singletonMap("work", "State-gov")));
+        assertFalse(isIn.match(Collections.<String, Object>singletonMap("work", "Private")));
+        assertFalse(isIn.match(Collections.<String, Object>emptyMap()));
+    }
+
+    private static Node setPredicateNode(String field, SimpleSetPredicate.BooleanOperator operator, Array.Type type, String values,
+                                         String score) {
+        Array array = new Array();
+        array.setType(type);
+        array.setValue(values);
+        SimpleSetPredicate predicate = new SimpleSetPredicate();
+        predicate.setField(FieldName.create(field));
+        predicate.setBooleanOperator(operator);
+        predicate.setArray(array);
+        Node node = new Node();
+        node.setPredicate(predicate);
+        node.setScore(score);
+        return node;
+    }
+
+    public void testObjectTreeSetPredicatesMatchFlatTree() {
+        Node root = new Node();
+        root.setPredicate(new True());
+        root.setScore("none");
+        root.getNodes().add(setPredicateNode("work", SimpleSetPredicate.BooleanOperator.IS_NOT_IN, Array.Type.STRING,
+                "\"Private\"", "not-private"));
+        root.getNodes().add(setPredicateNode("age", SimpleSetPredicate.BooleanOperator.IS_IN, Array.Type.INT, " 30 \t40 ", "age"));
+        Node other = new Node();
+        other.setPredicate(new True());
+        other.setScore("other");
+        root.getNodes().add(other);
+        Map<String, String> fieldTypeMap = new HashMap<>();
+        fieldTypeMap.put("work", "string");
+        fieldTypeMap.put("age", "double");
+
+        EsTreeModel objectTree = new EsTreeModel(new TreeModelFactory().convertToEsTreeNode(root, fieldTypeMap));
+        EsTreeModel flatTree = new EsTreeModel(null, FlatTreeCompiler.compile(root, fieldTypeMap, FlatTree.DEFAULT_MAX_COMPILED_SIZE));
+        assertTrue(flatTree.isFlat());
+        String[][] expected = new String[][]{
+                {"State-gov", "not-private"},
+                {"Private", "age"},
+                {null, "age"},
+        };
+        for (String[] workAndClass : expected) {
+            Map<String, Object> vector = new HashMap<>();
+            if (workAndClass[0] != null) {
+                vector.put("work", workAndClass[0]);
+            }
+            // long doc values are in the int array
+            vector.put("age", 40L);
+            assertThat(objectTree.evaluate(new MapModelInput(vector)), equalTo(workAndClass[1]));
+            assertThat(flatTree.evaluate(new MapModelInput(vector)), equalTo(workAndClass[1]));
+        }
+        Map<String, Object> vector = new HashMap<>();
+        vector.put("work", "Private");
+        vector.put("age", 35.0);
+        assertThat(objectTree.evaluate(new MapModelInput(vector)), equalTo("other"));
+        assertThat(flatTree.evaluate(new MapModelInput(vector)), equalTo("other"));
+    }
+
     /*tests for naive bayes model*/
     public void testBigModelAndFeatureParsingFromRExportNaiveBayesModel() throws IOException {
         ModelFactories factories = ModelFactories.createDefaultModelFactories();
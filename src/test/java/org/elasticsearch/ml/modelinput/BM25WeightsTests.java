@@ -0,0 +1,83 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.ml.modelinput;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+
+import static org.hamcrest.Matchers.closeTo;
+
+public class BM25WeightsTests extends ESTestCase {
+
+    public void testWeightsMatchBM25Similarity() throws IOException {
+        String[] vocabulary = new String[]{"a", "b", "c"};
+        float k1 = randomFloat() * 2;
+        float b = randomFloat();
+        IndexWriterConfig config = newIndexWriterConfig(new WhitespaceAnalyzer()).setSimilarity(new BM25Similarity(k1, b));
+        try (Directory dir = newDirectory(); IndexWriter w = new IndexWriter(dir, config)) {
+            for (int i = randomIntBetween(1, 50); i > 0; i--) {
+                StringBuilder text = new StringBuilder("x");
+                for (int j = randomIntBetween(0, 20); j > 0; j--) {
+                    text.append(" ").append(randomFrom(vocabulary));
+                }
+                Document d = new Document();
+                d.add(new TextField("text", text.toString(), Field.Store.NO));
+                w.addDocument(d);
+            }
+            try (DirectoryReader reader = DirectoryReader.open(w)) {
+                IndexSearcher searcher = new IndexSearcher(reader);
+                searcher.setSimilarity(new BM25Similarity(k1, b));
+                // feature indices of a vocabulary that starts at offset 5
+                BM25Weights weights = new BM25Weights(reader, "text", 5, vocabulary.length, k1, b);
+                for (int i = 0; i < vocabulary.length; i++) {
+                    BytesRef term = new BytesRef(vocabulary[i]);
+                    TermQuery query = new TermQuery(new Term("text", term));
+                    for (LeafReaderContext leaf : reader.leaves()) {
+                        PostingsEnum postings = leaf.reader().postings(new Term("text", term), PostingsEnum.FREQS);
+                        if (postings == null) {
+                            continue;
+                        }
+                        for (int doc = postings.nextDoc(); doc != PostingsEnum.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                            double expected = searcher.explain(query, leaf.docBase + doc).getValue();
+                            double weight = weights.weight(i + 5, term, postings.freq(), weights.lengthNorm(leaf.reader(), doc));
+                            assertThat(weight, closeTo(expected, 1e-4 * Math.max(1, expected)));
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
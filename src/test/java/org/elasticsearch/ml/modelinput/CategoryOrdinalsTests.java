@@ -0,0 +1,152 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.ml.modelinput;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.dmg.pmml.DataType;
+import org.dmg.pmml.DerivedField;
+import org.dmg.pmml.FieldName;
+import org.dmg.pmml.MiningField;
+import org.dmg.pmml.OpType;
+import org.elasticsearch.script.PMMLGenerator;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+
+public class CategoryOrdinalsTests extends ESTestCase {
+
+    public void testOrdinalsMatchFieldValues() throws IOException {
+        MiningField miningField = new MiningField();
+        miningField.setName(new FieldName("color"));
+        if (randomBoolean()) {
+            miningField.setMissingValueReplacement(randomFrom("red", "purple"));
+        }
+        PMMLVectorRange.SparseCategoricalVectorRange range = new PMMLVectorRange.SparseCategoricalVectorRange(
+                PMMLGenerator.createDataField("color", DataType.STRING, OpType.CATEGORICAL), miningField, new DerivedField[0]);
+        int index = randomIntBetween(0, 10);
+        // the feature indices do not have to follow the order of the values
+        List<String> categories = new ArrayList<>(Arrays.asList("blue", "green", "red"));
+        Collections.shuffle(categories, random());
+        for (String category : categories) {
+            range.addVectorEntry(index++, category);
+        }
+        String[] values = new String[]{"blue", "green", "red", "yellow"};
+        int numDocs = randomIntBetween(1, 100);
+        List<List<Object>> docValues = new ArrayList<>();
+        try (Directory dir = newDirectory(); IndexWriter w = new IndexWriter(dir, newIndexWriterConfig(new WhitespaceAnalyzer()))) {
+            for (int i = 0; i < numDocs; i++) {
+                TreeSet<String> docCategories = new TreeSet<>();
+                for (int j = randomIntBetween(0, 2); j > 0; j--) {
+                    docCategories.add(randomFrom(values));
+                }
+                Document d = new Document();
+                for (String category : docCategories) {
+                    d.add(new SortedSetDocValuesField("color", new BytesRef(category)));
+                }
+                w.addDocument(d);
+                docValues.add(new ArrayList<>(docCategories));
+            }
+            w.forceMerge(1);
+            try (DirectoryReader reader = DirectoryReader.open(w)) {
+                LeafReader leafReader = reader.leaves().get(0).reader();
+                CategoryOrdinals ordinals = new CategoryOrdinals(leafReader, range);
+                assertTrue(ordinals.isFor(leafReader));
+                SparseVectorModelInput vector = new SparseVectorModelInput();
+                for (int doc = 0; doc < numDocs; doc++) {
+                    EsSparseNumericVector expected = (EsSparseNumericVector) range.getVector(
+                            Collections.singletonMap("color", docValues.get(doc)));
+                    vector.reset();
+                    assertTrue(ordinals.append(doc, vector));
+                    assertArrayEquals(expected.values.v1(), vector.getIndices());
+                    assertArrayEquals(expected.values.v2(), vector.getValues(), 0.0);
+                    for (int i = 1; i < vector.getSize(); i++) {
+                        assertThat(vector.getIndex(i), greaterThan(vector.getIndex(i - 1)));
+                    }
+                }
+            }
+        }
+    }
+
+    public void testMultipleValuesAreAppendedInIndexOrder() throws IOException {
+        MiningField miningField = new MiningField();
+        miningField.setName(new FieldName("color"));
+        PMMLVectorRange.SparseCategoricalVectorRange range = new PMMLVectorRange.SparseCategoricalVectorRange(
+                PMMLGenerator.createDataField("color", DataType.STRING, OpType.CATEGORICAL), miningField, new DerivedField[0]);
+        // in reverse order of the values and so of the ordinals
+        range.addVectorEntry(0, "red");
+        range.addVectorEntry(1, "green");
+        range.addVectorEntry(2, "blue");
+        try (Directory dir = newDirectory(); IndexWriter w = new IndexWriter(dir, newIndexWriterConfig(new WhitespaceAnalyzer()))) {
+            Document d = new Document();
+            d.add(new SortedSetDocValuesField("color", new BytesRef("blue")));
+            d.add(new SortedSetDocValuesField("color", new BytesRef("red")));
+            w.addDocument(d);
+            try (DirectoryReader reader = DirectoryReader.open(w)) {
+                CategoryOrdinals ordinals = new CategoryOrdinals(reader.leaves().get(0).reader(), range);
+                SparseVectorModelInput vector = new SparseVectorModelInput();
+                // an entry of a previous range stays in front
+                vector.add(-1, 0.5);
+                assertTrue(ordinals.append(0, vector));
+                assertArrayEquals(new int[]{-1, 0, 2}, vector.getIndices());
+                assertArrayEquals(new double[]{0.5, 1.0, 1.0}, vector.getValues(), 0.0);
+            }
+        }
+
+        // the field values are sorted the same way
+        SparseVectorModelInput vector = new SparseVectorModelInput();
+        range.append(new MockDataSource(Collections.singletonMap("color", Arrays.<Object>asList("blue", "green", "red"))), vector);
+        assertArrayEquals(new int[]{0, 1, 2}, vector.getIndices());
+    }
+
+    public void testFallsBackForFieldsWithoutOrdinals() throws IOException {
+        MiningField miningField = new MiningField();
+        miningField.setName(new FieldName("color"));
+        PMMLVectorRange.SparseCategoricalVectorRange range = new PMMLVectorRange.SparseCategoricalVectorRange(
+                PMMLGenerator.createDataField("color", DataType.STRING, OpType.CATEGORICAL), miningField, new DerivedField[0]);
+        range.addVectorEntry(0, "blue");
+        try (Directory dir = newDirectory(); IndexWriter w = new IndexWriter(dir, newIndexWriterConfig(new WhitespaceAnalyzer()))) {
+            Document d = new Document();
+            d.add(new NumericDocValuesField("color", 1));
+            w.addDocument(d);
+            try (DirectoryReader reader = DirectoryReader.open(w)) {
+                CategoryOrdinals ordinals = new CategoryOrdinals(reader.leaves().get(0).reader(), range);
+                SparseVectorModelInput vector = new SparseVectorModelInput();
+                assertFalse(ordinals.append(0, vector));
+                assertThat(vector.getSize(), equalTo(0));
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.ml.modelinput;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+
+import static org.hamcrest.Matchers.closeTo;
+
+public class IdfTableTests extends ESTestCase {
+
+    public void testIdf() throws IOException {
+        try (Directory dir = newDirectory(); IndexWriter w = new IndexWriter(dir, newIndexWriterConfig(new WhitespaceAnalyzer()))) {
+            for (String text : new String[]{"a b", "a c", "a", "d"}) {
+                Document d = new Document();
+                d.add(new TextField("text", text, Field.Store.NO));
+                w.addDocument(d);
+            }
+            try (DirectoryReader reader = DirectoryReader.open(w)) {
+                // feature indices of a vocabulary that starts at offset 10
+                IdfTable idfTable = new IdfTable(reader, "text", 10, 3, reader.numDocs());
+                assertTrue(idfTable.isFor(reader, "text"));
+                assertFalse(idfTable.isFor(reader, "other"));
+                assertThat(idfTable.idf(10, new BytesRef("a")), closeTo(Math.log(5.0 / 4.0), 1e-10));
+                assertThat(idfTable.idf(11, new BytesRef("b")), closeTo(Math.log(5.0 / 2.0), 1e-10));
+                assertThat(idfTable.idf(12, new BytesRef("x")), closeTo(Math.log(5.0), 1e-10));
+                // the weight is only looked up once per feature
+                assertThat(idfTable.idf(11, new BytesRef("a")), closeTo(Math.log(5.0 / 2.0), 1e-10));
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.ml.modelinput;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Directory;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class IdfTablesTests extends ESTestCase {
+
+    public void testTablesAreSharedPerReader() throws IOException {
+        IdfTables idfTables = new IdfTables();
+        String[] vocabulary = new String[]{"a", "b"};
+        AtomicInteger loads = new AtomicInteger();
+        try (Directory dir = newDirectory(); IndexWriter w = new IndexWriter(dir, newIndexWriterConfig(new WhitespaceAnalyzer()))) {
+            Document d = new Document();
+            d.add(new TextField("text", "a b", Field.Store.NO));
+            w.addDocument(d);
+            w.commit();
+            // a second segment
+            w.addDocument(d);
+            try (DirectoryReader reader = DirectoryReader.open(w)) {
+                IdfTables.Loader loader = () -> {
+                    loads.incrementAndGet();
+                    return new IdfTable(reader, "text", 0, vocabulary.length, reader.numDocs());
+                };
+                IdfTable idfTable = idfTables.get(reader, vocabulary, "text", loader);
+                // the data sources of the other segments and of later requests get the same table
+                assertThat(idfTables.get(reader, vocabulary, "text", loader), sameInstance(idfTable));
+                assertThat(loads.get(), equalTo(1));
+                // other vocabularies and fields have their own tables
+                assertThat(idfTables.get(reader, new String[]{"a", "b"}, "text", loader), not(sameInstance(idfTable)));
+                assertThat(idfTables.get(reader, vocabulary, "other", () -> new IdfTable(reader, "other", 0, 2, 2)),
+                        not(sameInstance(idfTable)));
+                assertThat(idfTables.numReaders(), equalTo(1));
+            }
+            // the tables of a reader are dropped when it is closed
+            assertThat(idfTables.numReaders(), equalTo(0));
+        }
+    }
+}
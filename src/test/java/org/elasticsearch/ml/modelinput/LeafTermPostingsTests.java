@@ -0,0 +1,91 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.ml.modelinput;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.equalTo;
+
+public class LeafTermPostingsTests extends ESTestCase {
+
+    public void testAdvance() throws IOException {
+        String[] vocabulary = new String[]{"a", "b", "c", "d", "e"};
+        int numDocs = randomIntBetween(1, 200);
+        String[] docs = new String[numDocs];
+        try (Directory dir = newDirectory(); IndexWriter w = new IndexWriter(dir, newIndexWriterConfig(new WhitespaceAnalyzer()))) {
+            for (int i = 0; i < numDocs; i++) {
+                StringBuilder text = new StringBuilder("x");
+                for (int j = randomIntBetween(0, 10); j > 0; j--) {
+                    text.append(" ").append(randomFrom(vocabulary));
+                }
+                docs[i] = text.toString();
+                Document d = new Document();
+                d.add(new TextField("text", docs[i], Field.Store.NO));
+                w.addDocument(d);
+            }
+            w.forceMerge(1);
+            try (DirectoryReader reader = DirectoryReader.open(w)) {
+                LeafReader leafReader = reader.leaves().get(0).reader();
+                BytesRef[] terms = new BytesRef[vocabulary.length];
+                for (int i = 0; i < vocabulary.length; i++) {
+                    terms[i] = new BytesRef(vocabulary[i]);
+                }
+                LeafTermPostings postings = new LeafTermPostings(leafReader, "text", terms);
+                for (int doc = 0; doc < numDocs; doc += randomIntBetween(1, 3)) {
+                    assertTrue(postings.canAdvance(leafReader, doc));
+                    int numMatches = postings.advance(doc);
+                    Map<Integer, Integer> freqs = new HashMap<>();
+                    for (int i = 0; i < numMatches; i++) {
+                        freqs.put(postings.matchingSlots()[i], postings.matchingFreqs()[i]);
+                    }
+                    assertThat(freqs, equalTo(expectedFreqs(docs[doc], vocabulary)));
+                    // asking for the same document again returns the same matches
+                    assertThat(postings.advance(doc), equalTo(numMatches));
+                    assertFalse(postings.canAdvance(leafReader, doc - 1));
+                }
+            }
+        }
+    }
+
+    private static Map<Integer, Integer> expectedFreqs(String doc, String[] vocabulary) {
+        Map<Integer, Integer> freqs = new HashMap<>();
+        for (String token : doc.split(" ")) {
+            for (int i = 0; i < vocabulary.length; i++) {
+                if (vocabulary[i].equals(token)) {
+                    freqs.merge(i, 1, Integer::sum);
+                }
+            }
+        }
+        return freqs;
+    }
+}
@@ -67,12 +67,22 @@ public class MockDataSource implements DataSource {
     }
 
     @Override
-    public Tuple<int[], double[]> getTfIdfSparse(Map<String, Integer> wordMap, String field) {
+    public double[] getBM25Dense(String[] terms, String field, float k1, float b) {
         throw new UnsupportedOperationException("not implemented yet");
     }
 
     @Override
-    public Tuple<int[], double[]> getTfSparse(Map<String, Integer> wordMap, String field) {
+    public Tuple<int[], double[]> getTfIdfSparse(TermDictionary dictionary, String field) {
+        throw new UnsupportedOperationException("not implemented yet");
+    }
+
+    @Override
+    public Tuple<int[], double[]> getTfSparse(TermDictionary dictionary, String field) {
+        throw new UnsupportedOperationException("not implemented yet");
+    }
+
+    @Override
+    public Tuple<int[], double[]> getBM25Sparse(TermDictionary dictionary, String field, float k1, float b) {
         throw new UnsupportedOperationException("not implemented yet");
     }
 }
@@ -0,0 +1,85 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.ml.modelinput;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.SortedNumericDocValuesField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.NumericUtils;
+import org.dmg.pmml.DataType;
+import org.dmg.pmml.OpType;
+import org.elasticsearch.index.fielddata.FieldData;
+import org.elasticsearch.index.fielddata.ScriptDocValues;
+import org.elasticsearch.script.PMMLGenerator;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+
+import static org.hamcrest.Matchers.equalTo;
+
+public class NumericFieldValuesTests extends ESTestCase {
+
+    public void testValuesMatchFieldValues() throws IOException {
+        PreProcessingStep[] steps = new PreProcessingStep[]{
+                new MissingValuePreProcess(PMMLGenerator.createDataField("age", DataType.DOUBLE, OpType.CONTINUOUS), "-1.5")};
+        NumericPreProcessing preProcessing = NumericPreProcessing.compile("age", steps);
+        int numDocs = randomIntBetween(1, 100);
+        Double[] doubles = new Double[numDocs];
+        Long[] longs = new Long[numDocs];
+        try (Directory dir = newDirectory(); IndexWriter w = new IndexWriter(dir, newIndexWriterConfig(new WhitespaceAnalyzer()))) {
+            for (int i = 0; i < numDocs; i++) {
+                Document d = new Document();
+                if (randomBoolean()) {
+                    doubles[i] = randomDouble();
+                    d.add(new SortedNumericDocValuesField("double", NumericUtils.doubleToSortableLong(doubles[i])));
+                }
+                if (randomBoolean()) {
+                    longs[i] = randomLong();
+                    d.add(new SortedNumericDocValuesField("long", longs[i]));
+                }
+                w.addDocument(d);
+            }
+            w.forceMerge(1);
+            try (DirectoryReader reader = DirectoryReader.open(w)) {
+                LeafReader leaf = reader.leaves().get(0).reader();
+                NumericFieldValues doubleValues = new NumericFieldValues(leaf,
+                        new ScriptDocValues.Doubles(FieldData.sortableLongBitsToDoubles(DocValues.getSortedNumeric(leaf, "double"))));
+                NumericFieldValues longValues = new NumericFieldValues(leaf,
+                        new ScriptDocValues.Longs(DocValues.getSortedNumeric(leaf, "long")));
+                assertTrue(doubleValues.isFor(leaf));
+                for (int doc = 0; doc < numDocs; doc++) {
+                    SparseVectorModelInput vector = new SparseVectorModelInput();
+                    assertTrue(doubleValues.append(doc, 3, preProcessing, vector));
+                    assertTrue(longValues.append(doc, 5, preProcessing, vector));
+                    assertThat(vector.getSize(), equalTo(2));
+                    assertThat(vector.getIndex(0), equalTo(3));
+                    assertThat(vector.getValue(0), equalTo(doubles[doc] == null ? -1.5 : doubles[doc]));
+                    assertThat(vector.getIndex(1), equalTo(5));
+                    assertThat(vector.getValue(1), equalTo(longs[doc] == null ? -1.5 : longs[doc].doubleValue()));
+                }
+            }
+        }
+    }
+}
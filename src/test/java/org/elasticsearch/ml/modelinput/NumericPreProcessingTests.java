@@ -0,0 +1,87 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.ml.modelinput;
+
+import org.dmg.pmml.DataType;
+import org.dmg.pmml.LinearNorm;
+import org.dmg.pmml.NormContinuous;
+import org.dmg.pmml.OpType;
+import org.elasticsearch.script.PMMLGenerator;
+import org.elasticsearch.test.ESTestCase;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+public class NumericPreProcessingTests extends ESTestCase {
+
+    public void testCompiledStepsMatchGenericSteps() {
+        PreProcessingStep[] steps = new PreProcessingStep[randomIntBetween(0, 5)];
+        for (int i = 0; i < steps.length; i++) {
+            if (randomBoolean()) {
+                DataType dataType = randomFrom(DataType.DOUBLE, DataType.FLOAT, DataType.INTEGER);
+                String missingValue = dataType == DataType.INTEGER ? Integer.toString(randomIntBetween(-100, 100))
+                        : Double.toString(randomDoubleBetween(-100, 100, true));
+                steps[i] = new MissingValuePreProcess(PMMLGenerator.createDataField("age", dataType, OpType.CONTINUOUS), missingValue);
+            } else {
+                steps[i] = new NormContinousPreProcess(randomNormContinuous(), "norm_" + i);
+            }
+        }
+        NumericPreProcessing compiled = NumericPreProcessing.compile("age", steps);
+        for (int i = 0; i < 10; i++) {
+            double value = randomDoubleBetween(-1000, 1000, true);
+            assertThat(compiled.applyAsDouble(value), equalTo(((Number) preProcess(steps, value)).doubleValue()));
+        }
+        Object expectedMissing;
+        try {
+            expectedMissing = preProcess(steps, null);
+        } catch (NullPointerException | AssertionError e) {
+            expectedMissing = null;
+        }
+        if (expectedMissing == null) {
+            IllegalArgumentException e = expectThrows(IllegalArgumentException.class, compiled::missingValue);
+            assertThat(e.getMessage(), containsString("[age]"));
+        } else {
+            assertThat(compiled.missingValue(), equalTo(((Number) expectedMissing).doubleValue()));
+        }
+    }
+
+    public void testNonNumericMissingValueIsNotCompiled() {
+        PreProcessingStep[] steps = new PreProcessingStep[]{
+                new MissingValuePreProcess(PMMLGenerator.createDataField("age", DataType.STRING, OpType.CONTINUOUS), "unknown")};
+        assertThat(NumericPreProcessing.compile("age", steps), nullValue());
+    }
+
+    private static Object preProcess(PreProcessingStep[] steps, Object value) {
+        for (PreProcessingStep step : steps) {
+            value = step.apply(value);
+        }
+        return value;
+    }
+
+    private static NormContinuous randomNormContinuous() {
+        NormContinuous normContinuous = new NormContinuous();
+        double orig = randomDoubleBetween(-10, 10, true);
+        normContinuous.addLinearNorms(new LinearNorm().setOrig(orig).setNorm(randomDoubleBetween(-1, 1, true)));
+        normContinuous.addLinearNorms(new LinearNorm().setOrig(orig + randomDoubleBetween(1, 10, true))
+                .setNorm(randomDoubleBetween(-1, 1, true)));
+        return normContinuous;
+    }
+}
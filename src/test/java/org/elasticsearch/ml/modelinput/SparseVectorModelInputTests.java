@@ -0,0 +1,66 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.ml.modelinput;
+
+import org.elasticsearch.test.ESTestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class SparseVectorModelInputTests extends ESTestCase {
+
+    public void testAddAndReset() {
+        SparseVectorModelInput vector = new SparseVectorModelInput();
+        for (int round = 0; round < 3; round++) {
+            vector.reset();
+            assertThat(vector.getSize(), equalTo(0));
+            int numEntries = randomIntBetween(0, 100);
+            for (int i = 0; i < numEntries; i++) {
+                vector.add(i * 2, i / 2.0);
+            }
+            assertThat(vector.getSize(), equalTo(numEntries));
+            assertThat(vector.getIndices().length, equalTo(numEntries));
+            assertThat(vector.getValues().length, equalTo(numEntries));
+            for (int i = 0; i < numEntries; i++) {
+                assertThat(vector.getIndex(i), equalTo(i * 2));
+                assertThat(vector.getValue(i), equalTo(i / 2.0));
+            }
+        }
+    }
+
+    public void testEvaluatorReusesInput() {
+        List<VectorRange> ranges = new ArrayList<>();
+        PMMLVectorRange.Intercept intercept = new PMMLVectorRange.Intercept("intercept", "double");
+        intercept.addVectorEntry(3, "intercept");
+        ranges.add(intercept);
+        VectorModelInputEvaluator evaluator = new VectorModelInputEvaluator(ranges);
+        MockDataSource dataSource = new MockDataSource(Collections.emptyMap());
+        SparseVectorModelInput first = evaluator.convert(dataSource, null);
+        SparseVectorModelInput second = evaluator.convert(dataSource, first);
+        assertThat(second, sameInstance(first));
+        assertThat(second.getSize(), equalTo(1));
+        assertThat(second.getIndex(0), equalTo(3));
+        assertThat(second.getValue(0), equalTo(1.0));
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.ml.modelinput;
+
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.test.ESTestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.equalTo;
+
+public class TermDictionaryTests extends ESTestCase {
+
+    public void testFeatureIndex() {
+        int offset = randomIntBetween(0, 100);
+        Map<String, Integer> expected = new HashMap<>();
+        String[] terms = new String[randomIntBetween(0, 500)];
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = randomUnicodeOfLengthBetween(0, 10);
+            expected.putIfAbsent(terms[i], i + offset);
+        }
+        TermDictionary dictionary = new TermDictionary(terms, offset);
+        assertThat(dictionary.size(), equalTo(expected.size()));
+        for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+            assertThat(dictionary.featureIndex(entry.getKey()), equalTo(entry.getValue()));
+            // lookups also work on a slice of a larger array
+            BytesRef term = new BytesRef(entry.getKey());
+            byte[] padded = new byte[term.length + 4];
+            System.arraycopy(term.bytes, term.offset, padded, 2, term.length);
+            assertThat(dictionary.featureIndex(new BytesRef(padded, 2, term.length)), equalTo(entry.getValue()));
+        }
+        for (int ord = 1; ord < dictionary.size(); ord++) {
+            assertTrue(dictionary.featureIndexOfOrd(ord) > dictionary.featureIndexOfOrd(ord - 1));
+            assertThat(dictionary.featureIndex(dictionary.term(ord)), equalTo(dictionary.featureIndexOfOrd(ord)));
+        }
+        String missing = randomUnicodeOfLengthBetween(0, 10);
+        if (expected.containsKey(missing) == false) {
+            assertThat(dictionary.featureIndex(missing), equalTo(-1));
+        }
+    }
+}
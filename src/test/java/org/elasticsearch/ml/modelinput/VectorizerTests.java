@@ -62,6 +62,22 @@ public class VectorizerTests extends ESTestCase {
         return parser.mapOrdered();
     }
 
+    public void testVectorizerParsingBM25Parameters() throws IOException {
+        List<FieldSpec> specs = new ArrayList<>();
+        specs.add(new StringFieldSpec(new String[]{"a", "b", "c"}, "bm25", "text1", 2.0f, 0.5f));
+        specs.add(new StringFieldSpec(new String[]{"d", "e", "f"}, "bm25", "text2"));
+        String script = TransportPrepareSpecAction.FieldSpecActionListener.createSpecSource(specs, true, 6).string();
+        XContentParser parser = XContentFactory.xContent(XContentType.JSON).createParser(script);
+        VectorRangesToVector entries = new VectorRangesToVectorJSON(parser.mapOrdered());
+        AnalyzedTextVectorRange entry1 = (AnalyzedTextVectorRange) entries.vectorRangeList.get(0);
+        AnalyzedTextVectorRange entry2 = (AnalyzedTextVectorRange) entries.vectorRangeList.get(1);
+        assertThat(entry1.k1, equalTo(2.0f));
+        assertThat(entry1.b, equalTo(0.5f));
+        assertThat(entry2.k1, equalTo(AnalyzedTextVectorRange.DEFAULT_K1));
+        assertThat(entry2.b, equalTo(AnalyzedTextVectorRange.DEFAULT_B));
+        expectThrows(IllegalArgumentException.class, () -> entry1.bm25(1.2f, 1.5f));
+    }
+
     public void assertParameters(VectorRangesToVector entries) {
         assertThat(entries.sparse, equalTo(false));
         assertThat(entries.vectorRangeList.get(0), instanceOf(AnalyzedTextVectorRange.DenseTermVectorRange.class));
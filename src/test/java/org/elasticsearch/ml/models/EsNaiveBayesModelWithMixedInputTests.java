@@ -0,0 +1,79 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.ml.models;
+
+import org.elasticsearch.ml.modelinput.SparseVectorModelInput;
+import org.elasticsearch.test.ESTestCase;
+
+import java.util.Map;
+import java.util.function.DoubleUnaryOperator;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+
+public class EsNaiveBayesModelWithMixedInputTests extends ESTestCase {
+
+    public void testCompiledFunctionsMatchFunctions() {
+        String[] classLabels = new String[]{"a", "b", "c"};
+        double[] classPriors = new double[]{Math.log(0.2), Math.log(0.3), Math.log(0.5)};
+        // few features and values close to the means, so that the probabilities do not underflow
+        int numFeatures = randomIntBetween(1, 5);
+        DoubleUnaryOperator[][] functions = new DoubleUnaryOperator[classLabels.length][numFeatures];
+        boolean[] gaussian = new boolean[numFeatures];
+        for (int feature = 0; feature < numFeatures; feature++) {
+            gaussian[feature] = randomBoolean();
+            for (int j = 0; j < classLabels.length; j++) {
+                functions[j][feature] = gaussian[feature]
+                        ? new EsNaiveBayesModelWithMixedInput.GaussFunction(1 + randomDouble() * 10, randomDouble() * 4 - 2)
+                        : new EsNaiveBayesModelWithMixedInput.ProbFunction(randomFrom(0.0, randomDouble()), 0.001);
+            }
+        }
+        EsNaiveBayesModelWithMixedInput model = new EsNaiveBayesModelWithMixedInput(classLabels, functions, classPriors);
+
+        for (int doc = 0; doc < 20; doc++) {
+            SparseVectorModelInput input = new SparseVectorModelInput();
+            for (int feature = 0; feature < numFeatures; feature++) {
+                if (randomBoolean()) {
+                    input.add(feature, gaussian[feature] ? randomDouble() * 4 - 2 : 1.0);
+                }
+            }
+            double[] expected = new double[classLabels.length];
+            int bestClass = 0;
+            double sumProb = 0;
+            for (int j = 0; j < classLabels.length; j++) {
+                expected[j] = classPriors[j];
+                for (int i = 0; i < input.getSize(); i++) {
+                    expected[j] += functions[j][input.getIndex(i)].applyAsDouble(input.getValue(i));
+                }
+                if (expected[j] > expected[bestClass]) {
+                    bestClass = j;
+                }
+                sumProb += Math.exp(expected[j]);
+            }
+            assertThat(model.evaluate(input), equalTo(classLabels[bestClass]));
+            Map<String, Object> result = model.evaluateDebug(input);
+            assertThat(result.get("class"), equalTo(classLabels[bestClass]));
+            @SuppressWarnings("unchecked")
+            Map<String, Double> probs = (Map<String, Double>) result.get("probs");
+            for (int j = 0; j < classLabels.length; j++) {
+                assertThat(probs.get(classLabels[j]), closeTo(Math.exp(expected[j]) / sumProb, 1.e-7));
+            }
+        }
+    }
+}
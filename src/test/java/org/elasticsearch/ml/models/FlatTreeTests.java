@@ -0,0 +1,296 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.ml.models;
+
+import org.elasticsearch.ml.modelinput.MapModelInput;
+import org.elasticsearch.test.ESTestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.equalTo;
+
+public class FlatTreeTests extends ESTestCase {
+
+    /**
+     * root
+     * |- surrogate(color in {red, blue}, age &lt; 30): young
+     * |  |- age &gt;= 50: old
+     * |- true: other
+     */
+    private static FlatTree tree() {
+        FlatTree.Builder builder = new FlatTree.Builder().maxCompiledSize(randomFrom(0, FlatTree.DEFAULT_MAX_COMPILED_SIZE));
+        int color = builder.slot("color", true);
+        int age = builder.slot("age", false);
+        int root = builder.addNodes(1);
+        int children = builder.addNodes(2);
+        builder.setNode(root, builder.constantPredicate(true), "other", children, 2);
+        int colorIsIn = builder.setPredicate(true, color, new double[]{builder.category(color, "red"), builder.category(color, "blue")});
+        int ageLessThan = builder.simplePredicate(FlatTree.LESS_THAN, age, 30);
+        int grandChild = builder.addNodes(1);
+        builder.setNode(children, builder.compoundPredicate(FlatTree.SURROGATE, new int[]{colorIsIn, ageLessThan}), "young",
+                grandChild, 1);
+        builder.setNode(children + 1, builder.constantPredicate(true), "other", -1, 0);
+        builder.setNode(grandChild, builder.simplePredicate(FlatTree.GREATER_OR_EQUAL, age, 50), "old", -1, 0);
+        return builder.build();
+    }
+
+    private static String evaluate(FlatTree tree, Object color, Object age) {
+        Map<String, Object> vector = new HashMap<>();
+        vector.put("color", color);
+        vector.put("age", age);
+        return tree.className(tree.evaluate(tree.row(vector)));
+    }
+
+    public void testEvaluate() {
+        FlatTree tree = tree();
+        assertThat(tree.numSlots(), equalTo(2));
+        assertThat(evaluate(tree, "red", 60.0), equalTo("old"));
+        assertThat(evaluate(tree, Collections.singleton("blue"), 20), equalTo("young"));
+        // categories the tree does not know never match
+        assertThat(evaluate(tree, "green", 10.0), equalTo("other"));
+        // the surrogate falls back to the age if there is no color
+        assertThat(evaluate(tree, null, 10.0), equalTo("young"));
+        assertThat(evaluate(tree, new HashSet<>(), 10.0), equalTo("young"));
+        assertThat(evaluate(tree, Collections.singleton(null), 40.0), equalTo("other"));
+        assertThat(evaluate(tree, null, null), equalTo("other"));
+        // one of several values in the set is enough
+        assertThat(evaluate(tree, new HashSet<>(Arrays.asList("green", "blue")), 40.0), equalTo("young"));
+        UnsupportedOperationException e = expectThrows(UnsupportedOperationException.class,
+                () -> evaluate(tree, "red", new HashSet<>(Arrays.asList(20.0, 60.0))));
+        assertThat(e.getMessage(), equalTo("cannot compare the multiple values of field [age]"));
+        IllegalArgumentException e2 = expectThrows(IllegalArgumentException.class, () -> evaluate(tree, "red", "sixty"));
+        assertThat(e2.getMessage(), equalTo("field [age] must be numeric but was [sixty]"));
+    }
+
+    public void testPredicates() {
+        FlatTree.Builder builder = new FlatTree.Builder().maxCompiledSize(randomFrom(0, FlatTree.DEFAULT_MAX_COMPILED_SIZE));
+        int x = builder.slot("x", false);
+        int color = builder.slot("color", true);
+        double threshold = randomIntBetween(-5, 5);
+        int equal = builder.simplePredicate(FlatTree.EQUAL, x, threshold);
+        int notEqual = builder.simplePredicate(FlatTree.NOT_EQUAL, x, threshold);
+        int lessThan = builder.simplePredicate(FlatTree.LESS_THAN, x, threshold);
+        int lessOrEqual = builder.simplePredicate(FlatTree.LESS_OR_EQUAL, x, threshold);
+        int greaterThan = builder.simplePredicate(FlatTree.GREATER_THAN, x, threshold);
+        int greaterOrEqual = builder.simplePredicate(FlatTree.GREATER_OR_EQUAL, x, threshold);
+        int isMissing = builder.simplePredicate(FlatTree.IS_MISSING, x, Double.NaN);
+        int isNotMissing = builder.simplePredicate(FlatTree.IS_NOT_MISSING, x, Double.NaN);
+        int isRed = builder.simplePredicate(FlatTree.EQUAL, color, builder.category(color, "red"));
+        int isNotIn = builder.setPredicate(false, color, new double[]{builder.category(color, "blue")});
+        int and = builder.compoundPredicate(FlatTree.AND, new int[]{lessThan, isRed});
+        int or = builder.compoundPredicate(FlatTree.OR, new int[]{lessThan, isRed});
+        int xor = builder.compoundPredicate(FlatTree.XOR, new int[]{lessThan, isRed});
+        builder.setNode(builder.addNodes(1), builder.constantPredicate(true), null, -1, 0);
+        FlatTree tree = builder.build();
+
+        for (int i = 0; i < 20; i++) {
+            double value = randomIntBetween(-6, 6);
+            String category = randomFrom("red", "blue", "green");
+            Map<String, Object> vector = new HashMap<>();
+            vector.put("x", value);
+            vector.put("color", category);
+            FlatTree.Row row = tree.row(vector);
+            assertThat(tree.matches(equal, row), equalTo(value == threshold));
+            assertThat(tree.matches(notEqual, row), equalTo(value != threshold));
+            assertThat(tree.matches(lessThan, row), equalTo(value < threshold));
+            assertThat(tree.matches(lessOrEqual, row), equalTo(value <= threshold));
+            assertThat(tree.matches(greaterThan, row), equalTo(value > threshold));
+            assertThat(tree.matches(greaterOrEqual, row), equalTo(value >= threshold));
+            assertFalse(tree.matches(isMissing, row));
+            assertTrue(tree.matches(isNotMissing, row));
+            assertThat(tree.matches(isNotIn, row), equalTo(category.equals("blue") == false));
+            boolean red = category.equals("red");
+            assertThat(tree.matches(and, row), equalTo(value < threshold && red));
+            assertThat(tree.matches(or, row), equalTo(value < threshold || red));
+            assertThat(tree.matches(xor, row), equalTo(value < threshold ^ red));
+        }
+
+        FlatTree.Row missing = tree.row(Collections.emptyMap());
+        for (int predicate : new int[]{equal, notEqual, lessThan, lessOrEqual, greaterThan, greaterOrEqual, isNotMissing, isNotIn}) {
+            assertFalse(tree.matches(predicate, missing));
+        }
+        assertTrue(tree.matches(isMissing, missing));
+        assertTrue(tree.hasEnoughValues(isMissing, missing));
+        assertFalse(tree.hasEnoughValues(lessThan, missing));
+        assertFalse(tree.hasEnoughValues(or, missing));
+        assertThat(tree.className(tree.evaluate(missing)), equalTo(null));
+    }
+
+    /**
+     * Three stumps that each split x at their own threshold, the scores are numbers if numeric is true.
+     */
+    private static FlatTree forest(boolean numeric, double... thresholds) {
+        FlatTree.Builder builder = new FlatTree.Builder().maxCompiledSize(randomFrom(0, FlatTree.DEFAULT_MAX_COMPILED_SIZE));
+        int x = builder.slot("x", false);
+        for (double threshold : thresholds) {
+            int root = builder.addTree();
+            int children = builder.addNodes(2);
+            builder.setNode(root, builder.constantPredicate(true), null, children, 2);
+            builder.setNode(children, builder.simplePredicate(FlatTree.LESS_THAN, x, threshold), numeric ? "1" : "low", -1, 0);
+            builder.setNode(children + 1, builder.simplePredicate(FlatTree.GREATER_OR_EQUAL, x, threshold), numeric ? "3" : "high",
+                    -1, 0);
+        }
+        return builder.build();
+    }
+
+    private static MapModelInput x(Object value) {
+        return new MapModelInput(Collections.<String, Object>singletonMap("x", value));
+    }
+
+    public void testForest() {
+        FlatTree forest = forest(false, 0, 10, 20);
+        assertThat(forest.numTrees(), equalTo(3));
+        FlatTree.Row row = forest.row(Collections.<String, Object>singletonMap("x", 15.0));
+        assertThat(forest.className(forest.evaluate(0, row)), equalTo("high"));
+        assertThat(forest.className(forest.evaluate(1, row)), equalTo("high"));
+        assertThat(forest.className(forest.evaluate(2, row)), equalTo("low"));
+        assertThat(forest.className(forest.evaluate(row)), equalTo("high"));
+
+        EsForestModel majorityVote = new EsForestModel(forest, EsForestModel.Aggregation.MAJORITY_VOTE, new double[]{1, 1, 1});
+        assertThat(majorityVote.evaluate(x(15.0)), equalTo("high"));
+        assertThat(majorityVote.evaluate(x(5.0)), equalTo("low"));
+        Map<String, Double> probs = new HashMap<>();
+        probs.put("low", 2.0 / 3);
+        probs.put("high", 1.0 / 3);
+        assertThat(majorityVote.evaluateDebug(x(5.0)).get("probs"), equalTo(probs));
+        // trees without a prediction do not vote
+        assertThat(majorityVote.evaluate(x(null)), equalTo(null));
+        EsForestModel weightedVote = new EsForestModel(forest, EsForestModel.Aggregation.MAJORITY_VOTE, new double[]{1, 1, 3});
+        assertThat(weightedVote.evaluate(x(15.0)), equalTo("low"));
+
+        FlatTree numericForest = forest(true, 0, 10, 20);
+        EsForestModel sum = new EsForestModel(numericForest, EsForestModel.Aggregation.SUM, new double[]{1, 1, 1});
+        assertThat(sum.evaluate(x(15.0)), equalTo(7.0));
+        assertThat(sum.evaluateDebug(x(-1.0)).get("value"), equalTo(3.0));
+        assertThat(sum.evaluate(x(null)), equalTo(null));
+        EsForestModel average = new EsForestModel(numericForest, EsForestModel.Aggregation.AVERAGE, new double[]{1, 1, 2});
+        assertThat(average.evaluate(x(15.0)), equalTo(2.0));
+        // the target rescales the aggregated score
+        EsForestModel rescaled = new EsForestModel(numericForest, EsForestModel.Aggregation.SUM, new double[]{1, 1, 1},
+                score -> score * 0.5 + 10);
+        assertThat(rescaled.evaluate(x(15.0)), equalTo(13.5));
+        assertThat(rescaled.evaluate(x(null)), equalTo(null));
+
+        IllegalArgumentException e = expectThrows(IllegalArgumentException.class,
+                () -> new EsForestModel(forest, EsForestModel.Aggregation.SUM, new double[]{1, 1, 1}));
+        assertThat(e.getMessage(), equalTo("cannot aggregate score [high] with SUM"));
+        e = expectThrows(IllegalArgumentException.class,
+                () -> new EsForestModel(forest, EsForestModel.Aggregation.MAJORITY_VOTE, new double[]{1}));
+        assertThat(e.getMessage(), equalTo("expected [3] weights but got [1]"));
+    }
+
+    public void testSmallTreesOfForestAreCompiled() {
+        FlatTree.Builder builder = new FlatTree.Builder().maxCompiledSize(5);
+        int x = builder.slot("x", false);
+        // a stump of three nodes and three predicates
+        int stump = builder.addTree();
+        int stumpChildren = builder.addNodes(2);
+        builder.setNode(stump, builder.constantPredicate(true), null, stumpChildren, 2);
+        builder.setNode(stumpChildren, builder.simplePredicate(FlatTree.LESS_THAN, x, 0), "low", -1, 0);
+        builder.setNode(stumpChildren + 1, builder.simplePredicate(FlatTree.GREATER_OR_EQUAL, x, 0), "high", -1, 0);
+        // a single leaf
+        int leaf = builder.addTree();
+        builder.setNode(leaf, builder.constantPredicate(true), "low", -1, 0);
+        FlatTree forest = builder.build();
+        assertFalse(forest.isCompiled(0));
+        assertTrue(forest.isCompiled(1));
+        assertFalse(forest.isCompiled());
+        FlatTree.Row row = forest.row(Collections.<String, Object>singletonMap("x", 1.0));
+        assertThat(forest.className(forest.evaluate(0, row)), equalTo("high"));
+        assertThat(forest.className(forest.evaluate(1, row)), equalTo("low"));
+    }
+
+    public void testCompiledTreeMatchesInterpretedTree() {
+        long seed = randomLong();
+        FlatTree compiled = randomTree(new Random(seed), new FlatTree.Builder());
+        FlatTree interpreted = randomTree(new Random(seed), new FlatTree.Builder().maxCompiledSize(0));
+        assertTrue(compiled.isCompiled());
+        assertFalse(interpreted.isCompiled());
+        for (int i = 0; i < 100; i++) {
+            Map<String, Object> vector = new HashMap<>();
+            for (int field = 0; field < 3; field++) {
+                if (randomInt(9) > 0) {
+                    vector.put("numeric_" + field, (double) randomIntBetween(0, 10));
+                }
+                if (randomInt(9) > 0) {
+                    vector.put("categorical_" + field, "category_" + randomIntBetween(0, 5));
+                }
+            }
+            FlatTree.Row row = compiled.row(vector);
+            assertThat(compiled.evaluate(row), equalTo(interpreted.interpret(row)));
+            assertThat(compiled.evaluate(row), equalTo(interpreted.evaluate(interpreted.row(vector))));
+        }
+    }
+
+    private static FlatTree randomTree(Random random, FlatTree.Builder builder) {
+        for (int field = 0; field < 3; field++) {
+            builder.slot("numeric_" + field, false);
+            builder.slot("categorical_" + field, true);
+        }
+        addNode(random, builder, builder.addNodes(1), builder.constantPredicate(true), 0);
+        return builder.build();
+    }
+
+    private static void addNode(Random random, FlatTree.Builder builder, int node, int predicate, int depth) {
+        int numChildren = depth == 4 ? 0 : random.nextInt(3);
+        int firstChild = builder.addNodes(numChildren);
+        builder.setNode(node, predicate, "class_" + random.nextInt(3), firstChild, numChildren);
+        for (int child = firstChild; child < firstChild + numChildren; child++) {
+            addNode(random, builder, child, randomPredicate(random, builder, 0), depth + 1);
+        }
+    }
+
+    private static int randomPredicate(Random random, FlatTree.Builder builder, int depth) {
+        int slot = random.nextInt(6);
+        boolean categorical = builder.isCategorical(slot);
+        switch (random.nextInt(depth == 2 ? 5 : 9)) {
+            case 0:
+                return builder.constantPredicate(random.nextBoolean());
+            case 1:
+                return builder.simplePredicate(random.nextBoolean() ? FlatTree.IS_MISSING : FlatTree.IS_NOT_MISSING, slot, Double.NaN);
+            case 2:
+            case 3:
+                if (categorical) {
+                    return builder.simplePredicate(random.nextBoolean() ? FlatTree.EQUAL : FlatTree.NOT_EQUAL, slot,
+                            builder.category(slot, "category_" + random.nextInt(6)));
+                }
+                return builder.simplePredicate((byte) (FlatTree.EQUAL + random.nextInt(6)), slot, random.nextInt(11));
+            case 4: {
+                double[] values = new double[1 + random.nextInt(3)];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = categorical ? builder.category(slot, "category_" + random.nextInt(6)) : random.nextInt(11);
+                }
+                return builder.setPredicate(random.nextBoolean(), slot, values);
+            }
+            default: {
+                int[] arguments = new int[1 + random.nextInt(3)];
+                for (int i = 0; i < arguments.length; i++) {
+                    arguments[i] = randomPredicate(random, builder, depth + 1);
+                }
+                return builder.compoundPredicate((byte) (FlatTree.AND + random.nextInt(4)), arguments);
+            }
+        }
+    }
+}
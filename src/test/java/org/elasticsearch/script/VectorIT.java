@@ -19,6 +19,9 @@
 
 package org.elasticsearch.script;
 
+import org.elasticsearch.action.cachestats.CacheStatsRequestBuilder;
+import org.elasticsearch.action.cachestats.CacheStatsResponse;
+import org.elasticsearch.action.cachestats.NodeCacheStats;
 import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.action.preparespec.PrepareSpecAction;
 import org.elasticsearch.action.preparespec.PrepareSpecRequest;
@@ -48,6 +51,7 @@ import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertAcked;
 import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertSearchResponse;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.lessThan;
 
 /**
@@ -98,6 +102,47 @@ public class VectorIT extends ESIntegTestCase {
 
     }
 
+    public void testSpecCacheStats() throws IOException, ExecutionException, InterruptedException {
+        client().prepareIndex().setId("1").setIndex("index").setType("type").setSource("text", "the quick brown fox is quick").get();
+        ensureGreen("index");
+        refresh();
+        XContentBuilder source = jsonBuilder();
+        source.startObject()
+                .startArray("features")
+                .startObject()
+                .field("field", "text")
+                .field("tokens", "given")
+                .field("terms", new String[]{"brown", "fox"})
+                .field("number", "tf")
+                .field("type", "string")
+                .endObject()
+                .endArray()
+                .field("sparse", false)
+                .endObject();
+        PrepareSpecResponse specResponse = client().execute(PrepareSpecAction.INSTANCE, new PrepareSpecRequest(source.string())).get();
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("spec", specResponse.getSpecAsMap());
+        long hitsBefore = totalSpecCacheHits();
+        // the scripts of the second search find the vectorizers parsed for the first one
+        for (int i = 0; i < 2; i++) {
+            SearchResponse searchResponse = client().prepareSearch("index").addScriptField("vector", new Script("doc_to_vector",
+                    ScriptService.ScriptType.INLINE, "native", params)).get();
+            assertSearchResponse(searchResponse);
+        }
+        assertThat(totalSpecCacheHits(), greaterThan(hitsBefore));
+    }
+
+    private long totalSpecCacheHits() {
+        CacheStatsResponse response = new CacheStatsRequestBuilder(client()).get();
+        assertThat(response.failures().size(), equalTo(0));
+        long hits = 0;
+        for (NodeCacheStats nodeStats : response.getNodes()) {
+            hits += nodeStats.getDocToVectorCache().getHits();
+        }
+        return hits;
+    }
+
     public void testVectorScriptSparseOccurence() throws IOException, ExecutionException, InterruptedException {
         client().admin().indices().prepareCreate("index").setSettings().addMapping("type", getMapping()).get();
         client().prepareIndex().setId("1").setIndex("index").setType("type").setSource("text", "the quick brown fox is quick").get();
@@ -215,7 +260,6 @@ public class VectorIT extends ESIntegTestCase {
     }
 
 
-    @AwaitsFix(bugUrl = "Must fix Index lookup first")
     public void testSparseVectorScriptWithTFWithoutTermVectorsStored() throws IOException, ExecutionException, InterruptedException {
         client().prepareIndex().setId("1").setIndex("index").setType("type").setSource("text", "the quick brown fox is quick").get();
         ensureGreen("index");
@@ -0,0 +1,105 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.script.pmml;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.ml.modelinput.VectorRangesToVectorJSON;
+import org.elasticsearch.test.ESTestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+
+public class VectorizerCacheTests extends ESTestCase {
+
+    private static Map<String, Object> spec(String... terms) {
+        Map<String, Object> feature = new HashMap<>();
+        feature.put("field", "text");
+        feature.put("type", "terms");
+        feature.put("terms", new ArrayList<>(Arrays.asList(terms)));
+        feature.put("number", "tf");
+        Map<String, Object> spec = new HashMap<>();
+        spec.put("sparse", true);
+        spec.put("features", new ArrayList<>(Arrays.asList(feature)));
+        return spec;
+    }
+
+    private static VectorRangesToVectorJSON parse(VectorizerCache cache, Map<String, Object> spec, AtomicInteger parses) {
+        return cache.getOrParse(spec, s -> {
+            parses.incrementAndGet();
+            return new VectorRangesToVectorJSON(s);
+        });
+    }
+
+    public void testEqualSpecsShareVectorizer() {
+        VectorizerCache cache = new VectorizerCache(Settings.EMPTY);
+        AtomicInteger parses = new AtomicInteger();
+        VectorRangesToVectorJSON first = parse(cache, spec("a", "b"), parses);
+        // an equal spec parsed from another request
+        assertSame(first, parse(cache, spec("a", "b"), parses));
+        assertThat(parses.get(), equalTo(1));
+        assertThat(cache.stats().getHits(), equalTo(1L));
+        assertThat(cache.stats().getMisses(), equalTo(1L));
+
+        parse(cache, spec("a", "c"), parses);
+        assertThat(parses.get(), equalTo(2));
+        assertThat(cache.count(), equalTo(2));
+
+        cache.clear();
+        assertThat(cache.count(), equalTo(0));
+    }
+
+    public void testLeastRecentlyUsedSpecIsEvicted() {
+        VectorRangesToVectorJSON vectorizer = new VectorRangesToVectorJSON(spec("a", "b"));
+        assertThat(vectorizer.ramBytesUsed(), greaterThan(0L));
+        // room for two of these specs but not for three
+        long size = 5 * vectorizer.ramBytesUsed();
+        VectorizerCache cache = new VectorizerCache(Settings.builder().put("doc_to_vector.cache.size", size + "b").build());
+        AtomicInteger parses = new AtomicInteger();
+        VectorRangesToVectorJSON first = parse(cache, spec("a", "b"), parses);
+        parse(cache, spec("a", "c"), parses);
+        // the first spec is now used more recently than the second one
+        assertSame(first, parse(cache, spec("a", "b"), parses));
+        parse(cache, spec("a", "d"), parses);
+        assertThat(cache.count(), equalTo(2));
+        assertThat(cache.stats().getEvictions(), equalTo(1L));
+        assertThat(parses.get(), equalTo(3));
+
+        assertSame(first, parse(cache, spec("a", "b"), parses));
+        parse(cache, spec("a", "d"), parses);
+        assertThat(parses.get(), equalTo(3));
+        parse(cache, spec("a", "c"), parses);
+        assertThat(parses.get(), equalTo(4));
+    }
+
+    public void testDisabledCache() {
+        VectorizerCache cache = new VectorizerCache(Settings.builder().put("doc_to_vector.cache.size", "0b").build());
+        AtomicInteger parses = new AtomicInteger();
+        parse(cache, spec("a", "b"), parses);
+        parse(cache, spec("a", "b"), parses);
+        assertThat(parses.get(), equalTo(2));
+        assertThat(cache.count(), equalTo(0));
+    }
+}